@@ -0,0 +1,70 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the AutoPatch benchmarks. Without arguments every benchmark runs with
+ * the allocation profiler and the results are written as JSON to
+ * <code>autopatch-benchmarks.json</code>; with arguments, the usual JMH
+ * command line is accepted instead.
+ */
+public final class BenchmarkRunner
+{
+    /**
+     * The file the results are written to when run without arguments
+     */
+    public static final String RESULT_FILE = "autopatch-benchmarks.json";
+
+    /**
+     * Utility class
+     */
+    private BenchmarkRunner()
+    {
+        // no instances
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param arguments JMH command line arguments, if any
+     * @throws Exception if the benchmarks can't be run
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        if (arguments.length > 0)
+        {
+            Main.main(arguments);
+            return;
+        }
+        Options options = new OptionsBuilder()
+                .include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .resultFormat(ResultFormatType.JSON)
+                .result(RESULT_FILE)
+                .build();
+        new Runner(options).run();
+    }
+}
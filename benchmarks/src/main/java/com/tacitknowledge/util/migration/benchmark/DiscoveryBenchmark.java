@@ -0,0 +1,119 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.MigrationTask;
+import com.tacitknowledge.util.migration.jdbc.SqlScriptMigrationTaskSource;
+
+/**
+ * Measures discovery of SQL patches: scanning the class path for patch and
+ * rollback scripts and reading each of them into a task. Each invocation is a
+ * cold start, as it is when an application boots.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DiscoveryBenchmark
+{
+    /**
+     * The number of patches in the catalog
+     */
+    @Param({"1000", "10000", "100000"})
+    public int patches;
+
+    /**
+     * The class path root of the catalog
+     */
+    private File catalog;
+
+    /**
+     * The class loader that sees the catalog
+     */
+    private ClassLoader loader;
+
+    /**
+     * The task source under test
+     */
+    private final SqlScriptMigrationTaskSource source = new SqlScriptMigrationTaskSource();
+
+    /**
+     * Writes the catalog to disk.
+     *
+     * @throws Exception if the catalog can't be written
+     */
+    @Setup(Level.Trial)
+    public void writeCatalog() throws Exception
+    {
+        catalog = SyntheticCatalog.writePatchFiles(patches);
+        loader = new URLClassLoader(new URL[] {catalog.toURI().toURL()},
+                DiscoveryBenchmark.class.getClassLoader());
+    }
+
+    /**
+     * Removes the catalog from disk.
+     */
+    @TearDown(Level.Trial)
+    public void deleteCatalog()
+    {
+        SyntheticCatalog.delete(catalog);
+    }
+
+    /**
+     * Discovers every patch of the catalog.
+     *
+     * @return the discovered tasks
+     * @throws MigrationException if discovery fails
+     */
+    @Benchmark
+    public List<MigrationTask> discoverPatches() throws MigrationException
+    {
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try
+        {
+            List<MigrationTask> tasks = source.getMigrationTasks(SyntheticCatalog.PATCH_PACKAGE);
+            if (tasks.size() != patches)
+            {
+                throw new IllegalStateException("Discovered " + tasks.size()
+                        + " patches instead of " + patches);
+            }
+            return tasks;
+        }
+        finally
+        {
+            thread.setContextClassLoader(previous);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.PatchExecution;
+import com.tacitknowledge.util.migration.PatchInfoStore;
+
+/**
+ * A <code>PatchInfoStore</code> kept in memory, so that planning can be
+ * measured without the cost of a database.
+ */
+public class InMemoryPatchInfoStore implements PatchInfoStore
+{
+    /**
+     * The applied patch levels
+     */
+    private final Set<Integer> patchesApplied = new HashSet<Integer>();
+
+    /**
+     * The recorded patch executions
+     */
+    private final List<PatchExecution> executions = new ArrayList<PatchExecution>();
+
+    /**
+     * Whether the store is locked
+     */
+    private boolean locked = false;
+
+    /**
+     * The catalog fingerprint
+     */
+    private String fingerprint = null;
+
+    /**
+     * The fingerprints of the post-patch tasks last run, by task name
+     */
+    private final Map<String, String> postPatchFingerprints = new HashMap<String, String>();
+
+    /**
+     * Creates a store with every level from 1 to <code>level</code> applied,
+     * except for each level divisible by <code>gap</code>, if positive.
+     *
+     * @param level the highest applied level
+     * @param gap   leave every level divisible by this out, or 0 for no gaps
+     */
+    public InMemoryPatchInfoStore(int level, int gap)
+    {
+        for (int i = 1; i <= level; i++)
+        {
+            if (gap <= 0 || i % gap != 0)
+            {
+                patchesApplied.add(Integer.valueOf(i));
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void createPatchStoreIfNeeded()
+    {
+        // nothing to create
+    }
+
+    /** {@inheritDoc} */
+    public synchronized int getPatchLevel()
+    {
+        int level = 0;
+        for (Integer applied : patchesApplied)
+        {
+            level = Math.max(level, applied.intValue());
+        }
+        return level;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void updatePatchLevel(int level)
+    {
+        patchesApplied.add(Integer.valueOf(level));
+    }
+
+    /** {@inheritDoc} */
+    public synchronized boolean isPatchStoreLocked()
+    {
+        return locked;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void lockPatchStore() throws MigrationException
+    {
+        if (locked)
+        {
+            throw new IllegalStateException("Patch store is already locked");
+        }
+        locked = true;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void unlockPatchStore()
+    {
+        locked = false;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized boolean isPatchApplied(int patchLevel)
+    {
+        return patchesApplied.contains(Integer.valueOf(patchLevel));
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void updatePatchLevelAfterRollBack(int rollbackLevel)
+    {
+        patchesApplied.remove(Integer.valueOf(rollbackLevel));
+    }
+
+    /** {@inheritDoc} */
+    public synchronized Set<Integer> getPatchesApplied()
+    {
+        return new HashSet<Integer>(patchesApplied);
+    }
+
+    /** {@inheritDoc} */
+    public synchronized String getCatalogFingerprint()
+    {
+        return fingerprint;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void updateCatalogFingerprint(String fingerprint)
+    {
+        this.fingerprint = fingerprint;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void recordPatchExecution(PatchExecution execution)
+    {
+        executions.add(execution);
+    }
+
+    /** {@inheritDoc} */
+    public synchronized List<PatchExecution> getPatchExecutions()
+    {
+        return new ArrayList<PatchExecution>(executions);
+    }
+
+    /** {@inheritDoc} */
+    public synchronized List<PatchExecution> getPatchExecutions(int patchLevel)
+    {
+        List<PatchExecution> matching = new ArrayList<PatchExecution>();
+        for (PatchExecution execution : executions)
+        {
+            if (execution.getPatchLevel() == patchLevel)
+            {
+                matching.add(execution);
+            }
+        }
+        return matching;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized Map<String, String> getPostPatchFingerprints()
+    {
+        return new HashMap<String, String>(postPatchFingerprints);
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void updatePostPatchFingerprint(String taskName, String fingerprint)
+    {
+        postPatchFingerprints.put(taskName, fingerprint);
+    }
+}
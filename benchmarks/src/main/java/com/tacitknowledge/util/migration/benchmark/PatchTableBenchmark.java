@@ -0,0 +1,225 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.jdbc.DataSourceMigrationContext;
+import com.tacitknowledge.util.migration.jdbc.DialectRegistry;
+import com.tacitknowledge.util.migration.jdbc.PatchTable;
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+
+/**
+ * Measures the patch store queries made while planning and applying patches,
+ * against an in-memory HSQLDB patch table holding a given number of patches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PatchTableBenchmark
+{
+    /**
+     * The number of patches already recorded
+     */
+    @Param({"1000", "10000", "100000"})
+    public int patches;
+
+    /**
+     * Distinguishes the in-memory databases of successive trials
+     */
+    private static int databases = 0;
+
+    /**
+     * The context of the patch table
+     */
+    private DataSourceMigrationContext context;
+
+    /**
+     * The patch table under test
+     */
+    private PatchTable table;
+
+    /**
+     * The next level recorded by {@link #updatePatchLevel()}
+     */
+    private int nextLevel;
+
+    /**
+     * Creates the patch table and records the patches.
+     *
+     * @throws MigrationException if the patch table can't be written
+     */
+    @Setup(Level.Trial)
+    public void createPatchTable() throws MigrationException
+    {
+        NonPooledDataSource dataSource = new NonPooledDataSource();
+        dataSource.setDriverClass("org.hsqldb.jdbcDriver");
+        dataSource.setDatabaseUrl("jdbc:hsqldb:mem:patchtable" + nextDatabase());
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+
+        context = new DataSourceMigrationContext();
+        context.setDataSource(dataSource);
+        context.setSystemName("benchmark");
+        context.setDatabaseType(DialectRegistry.getDatabaseType("hsqldb"));
+
+        table = new PatchTable(context);
+        table.createPatchStoreIfNeeded();
+        for (int level = 1; level <= patches; level++)
+        {
+            table.updatePatchLevel(level);
+        }
+        nextLevel = patches + 1;
+    }
+
+    /**
+     * Removes the levels recorded by earlier iterations of
+     * {@link #updatePatchLevel()}, so that every iteration starts from a table
+     * of <code>patches</code> patches.
+     *
+     * @throws SQLException if the patch table can't be reset
+     */
+    @Setup(Level.Iteration)
+    public void resetPatchTable() throws SQLException
+    {
+        if (nextLevel == patches + 1)
+        {
+            return;
+        }
+        Connection conn = context.getConnection();
+        PreparedStatement stmt = null;
+        try
+        {
+            stmt = conn.prepareStatement(
+                    "DELETE FROM patches WHERE system_name = ? AND patch_level > ?");
+            stmt.setString(1, context.getSystemName());
+            stmt.setInt(2, patches);
+            stmt.execute();
+            SqlUtil.close(null, stmt, null);
+
+            stmt = conn.prepareStatement(
+                    "UPDATE patch_summary SET patch_level = ? WHERE system_name = ?");
+            stmt.setInt(1, patches);
+            stmt.setString(2, context.getSystemName());
+            stmt.execute();
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, null);
+        }
+        nextLevel = patches + 1;
+    }
+
+    /**
+     * Shuts the in-memory database down.
+     *
+     * @throws Exception if the database can't be shut down
+     */
+    @TearDown(Level.Trial)
+    public void dropDatabase() throws Exception
+    {
+        context.getConnection().createStatement().execute("SHUTDOWN");
+    }
+
+    /**
+     * Reads the current patch level.
+     *
+     * @return the patch level
+     * @throws MigrationException if the patch table can't be read
+     */
+    @Benchmark
+    public int getPatchLevel() throws MigrationException
+    {
+        return table.getPatchLevel();
+    }
+
+    /**
+     * Checks whether a patch in the middle of the history is applied.
+     *
+     * @return whether the patch is applied
+     * @throws MigrationException if the patch table can't be read
+     */
+    @Benchmark
+    public boolean isPatchApplied() throws MigrationException
+    {
+        return table.isPatchApplied(patches / 2);
+    }
+
+    /**
+     * Reads every applied patch level.
+     *
+     * @return the applied levels
+     * @throws MigrationException if the patch table can't be read
+     */
+    @Benchmark
+    public Set<Integer> getPatchesApplied() throws MigrationException
+    {
+        return table.getPatchesApplied();
+    }
+
+    /**
+     * Takes and releases the patch lock.
+     *
+     * @return whether the store was locked in between
+     * @throws MigrationException if the lock can't be changed
+     */
+    @Benchmark
+    public boolean lockAndUnlock() throws MigrationException
+    {
+        table.lockPatchStore();
+        boolean locked = table.isPatchStoreLocked();
+        table.unlockPatchStore();
+        return locked;
+    }
+
+    /**
+     * Records the next patch level.
+     *
+     * @throws MigrationException if the patch table can't be written
+     */
+    @Benchmark
+    public void updatePatchLevel() throws MigrationException
+    {
+        table.updatePatchLevel(nextLevel++);
+    }
+
+    /**
+     * Returns a number not used for a database before.
+     *
+     * @return the number
+     */
+    private static synchronized int nextDatabase()
+    {
+        return ++databases;
+    }
+}
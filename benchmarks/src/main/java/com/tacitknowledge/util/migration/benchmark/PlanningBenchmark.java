@@ -0,0 +1,125 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.MigrationPlan;
+import com.tacitknowledge.util.migration.MigrationProcess;
+import com.tacitknowledge.util.migration.MigrationTask;
+import com.tacitknowledge.util.migration.MissingPatchMigrationRunnerStrategy;
+import com.tacitknowledge.util.migration.OrderedMigrationRunnerStrategy;
+import com.tacitknowledge.util.migration.jdbc.DataSourceMigrationContext;
+
+/**
+ * Measures planning: validating, sorting and filtering the catalog against
+ * a patch store in which all but the last few patches are applied, with each
+ * of the runner strategies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlanningBenchmark
+{
+    /**
+     * The number of patches in the catalog
+     */
+    @Param({"1000", "10000", "100000"})
+    public int patches;
+
+    /**
+     * The name of the runner strategy, "ordered" or "missing"
+     */
+    @Param({"ordered", "missing"})
+    public String strategy;
+
+    /**
+     * The number of patches at the end of the catalog that are not applied yet
+     */
+    private static final int PENDING = 10;
+
+    /**
+     * One applied patch in this many is missing, for the missing patch strategy
+     */
+    private static final int GAP = 500;
+
+    /**
+     * The process under test
+     */
+    private MigrationProcess process;
+
+    /**
+     * The patch store the catalog is planned against
+     */
+    private InMemoryPatchInfoStore store;
+
+    /**
+     * The context the catalog is planned for
+     */
+    private DataSourceMigrationContext context;
+
+    /**
+     * Builds the catalog and the patch store.
+     */
+    @Setup
+    public void createCatalog()
+    {
+        final List<MigrationTask> tasks = SyntheticCatalog.createTasks(patches);
+        process = new MigrationProcess()
+        {
+            public List<MigrationTask> getMigrationTasks()
+            {
+                return new ArrayList<MigrationTask>(tasks);
+            }
+        };
+        if ("missing".equals(strategy))
+        {
+            process.setMigrationRunnerStrategy(new MissingPatchMigrationRunnerStrategy());
+            store = new InMemoryPatchInfoStore(patches - PENDING, GAP);
+        }
+        else
+        {
+            process.setMigrationRunnerStrategy(new OrderedMigrationRunnerStrategy());
+            store = new InMemoryPatchInfoStore(patches - PENDING, 0);
+        }
+        context = new DataSourceMigrationContext();
+        context.setSystemName("benchmark");
+    }
+
+    /**
+     * Plans the migration.
+     *
+     * @return the plan
+     * @throws MigrationException if planning fails
+     */
+    @Benchmark
+    public MigrationPlan createMigrationPlan() throws MigrationException
+    {
+        return process.createMigrationPlan(store, context);
+    }
+}
@@ -0,0 +1,88 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.tacitknowledge.util.migration.jdbc.DataSourceMigrationContext;
+import com.tacitknowledge.util.migration.jdbc.DialectRegistry;
+import com.tacitknowledge.util.migration.jdbc.SqlScriptMigrationTask;
+
+/**
+ * Measures how long it takes to split a script into statements for each
+ * supported dialect. Dialects that run whole scripts in one call show the
+ * floor of the parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SqlParsingBenchmark
+{
+    /**
+     * The dialect to parse for
+     */
+    @Param({"hsqldb", "mysql", "oracle", "postgres", "sqlserver", "sybase"})
+    public String dialect;
+
+    /**
+     * The number of statements in the script
+     */
+    @Param({"10", "1000"})
+    public int statements;
+
+    /**
+     * The context that carries the dialect
+     */
+    private DataSourceMigrationContext context;
+
+    /**
+     * The script under test
+     */
+    private SqlScriptMigrationTask task;
+
+    /**
+     * Builds the script and resolves the dialect.
+     */
+    @Setup
+    public void createScript()
+    {
+        context = new DataSourceMigrationContext();
+        context.setDatabaseType(DialectRegistry.getDatabaseType(dialect));
+        task = new SqlScriptMigrationTask("patch1_benchmark", 1,
+                SyntheticCatalog.createScript(statements));
+    }
+
+    /**
+     * Splits the script.
+     *
+     * @return the statements
+     */
+    @Benchmark
+    public List parseScript()
+    {
+        return task.getSqlStatements(context);
+    }
+}
@@ -0,0 +1,70 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.tacitknowledge.util.migration.jdbc.util.SybaseUtil;
+
+/**
+ * Measures the classification of Sybase statements that may not run inside
+ * a multi-statement transaction, for a statement that matches early and one
+ * that has to be checked against every rule.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SybaseClassificationBenchmark
+{
+    /**
+     * A statement that is not allowed in a multi-statement transaction
+     */
+    public String illegal = "ALTER DATABASE synthetic SET single_user";
+
+    /**
+     * A statement that is allowed, so every rule is tried
+     */
+    public String legal = "UPDATE synthetic_1\n   SET value = 'legal'\n WHERE id = 1";
+
+    /**
+     * Classifies the illegal statement.
+     *
+     * @return the classification
+     */
+    @Benchmark
+    public boolean classifyIllegalStatement()
+    {
+        return SybaseUtil.containsIllegalMultiStatementTransactionCommand(illegal);
+    }
+
+    /**
+     * Classifies the legal statement.
+     *
+     * @return the classification
+     */
+    @Benchmark
+    public boolean classifyLegalStatement()
+    {
+        return SybaseUtil.containsIllegalMultiStatementTransactionCommand(legal);
+    }
+}
@@ -0,0 +1,217 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.tacitknowledge.util.migration.MigrationTask;
+import com.tacitknowledge.util.migration.jdbc.SqlScriptMigrationTask;
+
+/**
+ * Generates synthetic patch catalogs of a given size, both as SQL files on
+ * disk (for discovery) and as in-memory tasks (for planning). The content is
+ * deterministic so that runs are comparable.
+ */
+public final class SyntheticCatalog
+{
+    /**
+     * The package, relative to the catalog root, that holds the patch files
+     */
+    public static final String PATCH_PACKAGE = "synthetic.patches";
+
+    /**
+     * One patch in this many also gets a rollback script
+     */
+    public static final int ROLLBACK_EVERY = 100;
+
+    /**
+     * Seed of the random generator used to shuffle the in-memory tasks
+     */
+    private static final long SEED = 20041019L;
+
+    /**
+     * Utility class
+     */
+    private SyntheticCatalog()
+    {
+        // no instances
+    }
+
+    /**
+     * Writes <code>size</code> patch scripts into a new temporary directory.
+     * The directory is the class path root; the scripts live in
+     * {@link #PATCH_PACKAGE} beneath it.
+     *
+     * @param size the number of patches to write
+     * @return the class path root of the catalog
+     * @throws IOException if the files can't be written
+     */
+    public static File writePatchFiles(int size) throws IOException
+    {
+        File root = File.createTempFile("autopatch-catalog-" + size + "-", "");
+        if (!root.delete() || !root.mkdir())
+        {
+            throw new IOException("Unable to create catalog directory " + root);
+        }
+        File dir = new File(root, PATCH_PACKAGE.replace('.', File.separatorChar));
+        if (!dir.mkdirs())
+        {
+            throw new IOException("Unable to create patch directory " + dir);
+        }
+        for (int level = 1; level <= size; level++)
+        {
+            write(new File(dir, "patch" + pad(level) + "_create_table_" + level + ".sql"),
+                    patchSql(level));
+            if (level % ROLLBACK_EVERY == 0)
+            {
+                write(new File(dir, "patch" + pad(level) + "-rollback_drop_table_" + level + ".sql"),
+                        "DROP TABLE synthetic_" + level + ";\n");
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Deletes a catalog written by {@link #writePatchFiles(int)}.
+     *
+     * @param file the catalog root, or any file beneath it
+     */
+    public static void delete(File file)
+    {
+        if (file == null)
+        {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Builds <code>size</code> in-memory SQL tasks, in random order as they
+     * would come out of several task sources.
+     *
+     * @param size the number of tasks to build
+     * @return the tasks, shuffled
+     */
+    public static List<MigrationTask> createTasks(int size)
+    {
+        List<MigrationTask> tasks = new ArrayList<MigrationTask>(size);
+        for (int level = 1; level <= size; level++)
+        {
+            tasks.add(new SqlScriptMigrationTask("patch" + pad(level) + "_create_table_" + level,
+                    level, patchSql(level)));
+        }
+        Collections.shuffle(tasks, new Random(SEED));
+        return tasks;
+    }
+
+    /**
+     * Builds a script of <code>statements</code> statements mixing DDL, DML,
+     * comments and string literals holding semicolons, which is the input the
+     * statement splitter has to work hardest on.
+     *
+     * @param statements the number of statements in the script
+     * @return the script
+     */
+    public static String createScript(int statements)
+    {
+        StringBuilder sql = new StringBuilder(statements * 96);
+        for (int i = 0; i < statements; i++)
+        {
+            switch (i % 4)
+            {
+                case 0:
+                    sql.append("-- table ").append(i).append('\n');
+                    sql.append("CREATE TABLE t_").append(i)
+                            .append(" (id INTEGER NOT NULL PRIMARY KEY, name VARCHAR(64));\n");
+                    break;
+                case 1:
+                    sql.append("INSERT INTO t_").append(i - 1)
+                            .append(" (id, name) VALUES (1, 'semi;colon ''quoted'' -- not a comment');\n");
+                    break;
+                case 2:
+                    sql.append("UPDATE t_").append(i - 2)
+                            .append("\n   SET name = 'x'\n WHERE id = 1;\n");
+                    break;
+                default:
+                    sql.append("CREATE INDEX t_").append(i - 3).append("_name ON t_")
+                            .append(i - 3).append(" (name);\n");
+                    break;
+            }
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Returns the SQL of a synthetic patch.
+     *
+     * @param level the patch level
+     * @return the SQL of the patch
+     */
+    private static String patchSql(int level)
+    {
+        return "-- synthetic patch " + level + "\n"
+                + "CREATE TABLE synthetic_" + level + " (id INTEGER NOT NULL PRIMARY KEY, value VARCHAR(32));\n"
+                + "INSERT INTO synthetic_" + level + " (id, value) VALUES (1, 'level;" + level + "');\n";
+    }
+
+    /**
+     * Zero-pads a patch level so the files sort in level order.
+     *
+     * @param level the patch level
+     * @return the padded level
+     */
+    private static String pad(int level)
+    {
+        String digits = String.valueOf(level);
+        return "000000".substring(Math.min(6, digits.length())) + digits;
+    }
+
+    /**
+     * Writes a UTF-8 file.
+     *
+     * @param file    the file to write
+     * @param content the content of the file
+     * @throws IOException if the file can't be written
+     */
+    private static void write(File file, String content) throws IOException
+    {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try
+        {
+            out.write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
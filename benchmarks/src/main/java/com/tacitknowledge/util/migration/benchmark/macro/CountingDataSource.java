@@ -0,0 +1,211 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark.macro;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Wraps a <code>DataSource</code> so that every round trip made through its
+ * connections is counted.
+ */
+public class CountingDataSource implements DataSource
+{
+    /**
+     * The data source doing the real work
+     */
+    private final DataSource delegate;
+
+    /**
+     * Where round trips are counted
+     */
+    private final RoundTripCounter counter;
+
+    /**
+     * Creates a counting wrapper around the given data source.
+     *
+     * @param delegate the data source doing the real work
+     * @param counter  where round trips are counted
+     */
+    public CountingDataSource(DataSource delegate, RoundTripCounter counter)
+    {
+        this.delegate = delegate;
+        this.counter = counter;
+    }
+
+    /**
+     * Returns the wrapped data source.
+     *
+     * @return the data source doing the real work
+     */
+    public DataSource getDelegate()
+    {
+        return delegate;
+    }
+
+    /** {@inheritDoc} */
+    public Connection getConnection() throws SQLException
+    {
+        return wrap(delegate.getConnection());
+    }
+
+    /** {@inheritDoc} */
+    public Connection getConnection(String username, String password) throws SQLException
+    {
+        return wrap(delegate.getConnection(username, password));
+    }
+
+    /** {@inheritDoc} */
+    public PrintWriter getLogWriter() throws SQLException
+    {
+        return delegate.getLogWriter();
+    }
+
+    /** {@inheritDoc} */
+    public void setLogWriter(PrintWriter out) throws SQLException
+    {
+        delegate.setLogWriter(out);
+    }
+
+    /** {@inheritDoc} */
+    public void setLoginTimeout(int seconds) throws SQLException
+    {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    /** {@inheritDoc} */
+    public int getLoginTimeout() throws SQLException
+    {
+        return delegate.getLoginTimeout();
+    }
+
+    /** {@inheritDoc} */
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /** {@inheritDoc} */
+    public <T> T unwrap(Class<T> iface) throws SQLException
+    {
+        return delegate.unwrap(iface);
+    }
+
+    /** {@inheritDoc} */
+    public boolean isWrapperFor(Class<?> iface) throws SQLException
+    {
+        return delegate.isWrapperFor(iface);
+    }
+
+    /**
+     * Wraps a connection so that its commits, rollbacks and statements are counted.
+     *
+     * @param connection the connection to wrap
+     * @return the counting connection
+     */
+    private Connection wrap(final Connection connection)
+    {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {Connection.class}, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable
+                    {
+                        String name = method.getName();
+                        if ("commit".equals(name) || "rollback".equals(name))
+                        {
+                            counter.transactionEnded();
+                        }
+                        Object result = forward(connection, method, args);
+                        if (result instanceof Statement)
+                        {
+                            return wrap((Statement) result);
+                        }
+                        return result;
+                    }
+                });
+    }
+
+    /**
+     * Wraps a statement so that its executions are counted.
+     *
+     * @param statement the statement to wrap
+     * @return the counting statement
+     */
+    private Statement wrap(final Statement statement)
+    {
+        Class type = Statement.class;
+        if (statement instanceof CallableStatement)
+        {
+            type = CallableStatement.class;
+        }
+        else if (statement instanceof PreparedStatement)
+        {
+            type = PreparedStatement.class;
+        }
+        return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {type}, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable
+                    {
+                        String name = method.getName();
+                        if ("executeBatch".equals(name))
+                        {
+                            counter.batchExecuted();
+                        }
+                        else if (name.startsWith("execute"))
+                        {
+                            counter.statementExecuted();
+                        }
+                        return forward(statement, method, args);
+                    }
+                });
+    }
+
+    /**
+     * Calls a method on the wrapped object, passing its exceptions through.
+     *
+     * @param target the wrapped object
+     * @param method the method to call
+     * @param args   the arguments of the call
+     * @return the result of the call
+     * @throws Throwable whatever the call throws
+     */
+    private static Object forward(Object target, Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getTargetException();
+        }
+    }
+}
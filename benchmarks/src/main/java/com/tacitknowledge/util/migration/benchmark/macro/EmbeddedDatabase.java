@@ -0,0 +1,93 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark.macro;
+
+/**
+ * The embedded databases the macro benchmark runs against. Each run gets
+ * its own in-memory database, kept open until it is shut down explicitly.
+ */
+public enum EmbeddedDatabase
+{
+    /**
+     * HSQLDB 2
+     */
+    HSQLDB("hsqldb", "org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:{0}"),
+
+    /**
+     * H2
+     */
+    H2("h2", "org.h2.Driver", "jdbc:h2:mem:{0};DB_CLOSE_DELAY=-1");
+
+    /**
+     * The AutoPatch database type
+     */
+    private final String databaseType;
+
+    /**
+     * The JDBC driver class
+     */
+    private final String driver;
+
+    /**
+     * The JDBC URL, with {0} standing for the database name
+     */
+    private final String url;
+
+    /**
+     * Describes an embedded database.
+     *
+     * @param databaseType the AutoPatch database type
+     * @param driver       the JDBC driver class
+     * @param url          the JDBC URL, with {0} standing for the database name
+     */
+    private EmbeddedDatabase(String databaseType, String driver, String url)
+    {
+        this.databaseType = databaseType;
+        this.driver = driver;
+        this.url = url;
+    }
+
+    /**
+     * Returns the AutoPatch database type.
+     *
+     * @return the database type
+     */
+    public String getDatabaseType()
+    {
+        return databaseType;
+    }
+
+    /**
+     * Returns the JDBC driver class.
+     *
+     * @return the driver class name
+     */
+    public String getDriver()
+    {
+        return driver;
+    }
+
+    /**
+     * Returns the JDBC URL of an in-memory database.
+     *
+     * @param name the name of the database
+     * @return the JDBC URL
+     */
+    public String getUrl(String name)
+    {
+        return url.replace("{0}", name);
+    }
+}
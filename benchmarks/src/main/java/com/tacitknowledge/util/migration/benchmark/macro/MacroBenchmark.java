@@ -0,0 +1,455 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark.macro;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import com.tacitknowledge.util.migration.DistributedMigrationProcess;
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.benchmark.SyntheticCatalog;
+import com.tacitknowledge.util.migration.jdbc.DataSourceMigrationContext;
+import com.tacitknowledge.util.migration.jdbc.DistributedJdbcMigrationLauncherFactory;
+import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncher;
+import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncherFactory;
+import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+
+/**
+ * Runs every {@link MacroScenario} end to end, through the standalone
+ * <code>JdbcMigrationLauncher</code> and the
+ * <code>DistributedJdbcMigrationLauncher</code>, against each
+ * {@link EmbeddedDatabase}, and writes wall time, round trips, peak heap and
+ * rows per second of each run to a JSON report.
+ * <p>
+ * Usage: <code>MacroBenchmark [report-file [scale]]</code>
+ */
+public final class MacroBenchmark
+{
+    /**
+     * The report written when no report file is given
+     */
+    public static final String REPORT_FILE = "autopatch-macro-benchmark.json";
+
+    /**
+     * The flow driven by a <code>JdbcMigrationLauncher</code>
+     */
+    public static final String STANDALONE = "standalone";
+
+    /**
+     * The flow driven by a <code>DistributedJdbcMigrationLauncher</code>
+     */
+    public static final String DISTRIBUTED = "distributed";
+
+    /**
+     * The name of the generated migration properties file
+     */
+    private static final String PROPERTIES_FILE = "macro-migration.properties";
+
+    /**
+     * The system name of the standalone flow and of the orchestration system
+     */
+    private static final String SYSTEM = "macro";
+
+    /**
+     * The controlled systems of the distributed flow
+     */
+    private static final String[] CONTROLLED_SYSTEMS = {"core", "reporting"};
+
+    /**
+     * Distinguishes the in-memory databases of successive runs
+     */
+    private static int runs = 0;
+
+    /**
+     * Utility class
+     */
+    private MacroBenchmark()
+    {
+        // no instances
+    }
+
+    /**
+     * Runs the macro benchmark.
+     *
+     * @param arguments the report file and the scale, both optional
+     * @throws Exception if a run fails
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        String report = arguments.length > 0 ? arguments[0] : REPORT_FILE;
+        int scale = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 1;
+
+        List<MacroResult> results = new ArrayList<MacroResult>();
+        for (EmbeddedDatabase database : EmbeddedDatabase.values())
+        {
+            for (MacroScenario scenario : MacroScenario.values())
+            {
+                results.add(run(scenario, STANDALONE, database, scale));
+                System.out.println(results.get(results.size() - 1));
+                if (scenario.isDistributable())
+                {
+                    results.add(run(scenario, DISTRIBUTED, database, scale));
+                    System.out.println(results.get(results.size() - 1));
+                }
+            }
+        }
+        writeReport(new File(report), scale, results);
+        System.out.println("Wrote " + results.size() + " results to " + report);
+    }
+
+    /**
+     * Generates the patches of a scenario, applies them through the given
+     * flow and checks that every table holds the rows it should.
+     *
+     * @param scenario the scenario to run
+     * @param flow     {@link #STANDALONE} or {@link #DISTRIBUTED}
+     * @param database the database to run against
+     * @param scale    multiplies the number of patches and rows
+     * @return the measurements of the run
+     * @throws Exception if the run fails
+     */
+    public static MacroResult run(MacroScenario scenario, String flow, EmbeddedDatabase database,
+            int scale) throws Exception
+    {
+        File root = File.createTempFile("autopatch-macro-", "");
+        if (!root.delete() || !root.mkdir())
+        {
+            throw new IOException("Unable to create catalog directory " + root);
+        }
+        int run = nextRun();
+        Properties properties = new Properties();
+        String[] systems = {SYSTEM};
+        if (DISTRIBUTED.equals(flow))
+        {
+            systems = CONTROLLED_SYSTEMS;
+            configure(properties, SYSTEM, null, database, run);
+            properties.setProperty(SYSTEM + ".context", SYSTEM);
+            properties.setProperty(SYSTEM + ".controlled.systems", join(CONTROLLED_SYSTEMS));
+        }
+        Map<String, PatchSetWriter> writers = new LinkedHashMap<String, PatchSetWriter>();
+        int firstLevel = 1;
+        int rows = 0;
+        for (String system : systems)
+        {
+            PatchSetWriter writer = new PatchSetWriter(root, "macro." + system, firstLevel);
+            scenario.write(writer, scale);
+            configure(properties, system, scenario.getPatchPath(writer.getPackageName()),
+                    database, run);
+            writers.put(system, writer);
+            firstLevel = writer.getNextLevel();
+            rows += writer.getExpectedRowCount();
+        }
+        OutputStream out = new FileOutputStream(new File(root, PROPERTIES_FILE));
+        try
+        {
+            properties.store(out, "Generated by " + MacroBenchmark.class.getName());
+        }
+        finally
+        {
+            out.close();
+        }
+
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(new URLClassLoader(new URL[] {root.toURI().toURL()},
+                MacroBenchmark.class.getClassLoader()));
+        Map<DataSource, CountingDataSource> dataSources =
+                new IdentityHashMap<DataSource, CountingDataSource>();
+        try
+        {
+            JdbcMigrationLauncherFactory factory = STANDALONE.equals(flow)
+                    ? new JdbcMigrationLauncherFactory()
+                    : new DistributedJdbcMigrationLauncherFactory();
+            JdbcMigrationLauncher launcher = factory.createMigrationLauncher(SYSTEM, PROPERTIES_FILE);
+            RoundTripCounter counter = new RoundTripCounter();
+            for (JdbcMigrationLauncher target : getLaunchers(launcher))
+            {
+                countRoundTrips(target, counter, dataSources);
+            }
+
+            System.gc();
+            resetPeakHeap();
+            long start = System.nanoTime();
+            int patches = launcher.doMigrations();
+            long wallMillis = (System.nanoTime() - start) / 1000000;
+            long peakHeap = getPeakHeap();
+
+            for (String system : writers.keySet())
+            {
+                verifyRows(launcher, system, writers.get(system).getExpectedRows());
+            }
+            return new MacroResult(scenario, flow, database, patches, wallMillis, counter,
+                    peakHeap, rows);
+        }
+        finally
+        {
+            thread.setContextClassLoader(previous);
+            for (CountingDataSource dataSource : dataSources.values())
+            {
+                shutdown(dataSource.getDelegate());
+            }
+            SyntheticCatalog.delete(root);
+        }
+    }
+
+    /**
+     * Adds the configuration of one system to the migration properties.
+     *
+     * @param properties the migration properties
+     * @param system     the name of the system
+     * @param patchPath  the patch path of the system, or <code>null</code> for none
+     * @param database   the database to run against
+     * @param run        the number of the run
+     */
+    private static void configure(Properties properties, String system, String patchPath,
+            EmbeddedDatabase database, int run)
+    {
+        if (patchPath != null)
+        {
+            properties.setProperty(system + ".patch.path", patchPath);
+        }
+        properties.setProperty(system + ".jdbc.database.type", database.getDatabaseType());
+        properties.setProperty(system + ".jdbc.driver", database.getDriver());
+        properties.setProperty(system + ".jdbc.url", database.getUrl(system + run));
+        properties.setProperty(system + ".jdbc.username", "sa");
+        properties.setProperty(system + ".jdbc.password", "");
+    }
+
+    /**
+     * Returns the launcher and, for a distributed launcher, the launchers of
+     * its controlled systems.
+     *
+     * @param launcher the launcher of the run
+     * @return every launcher taking part in the run
+     */
+    private static List<JdbcMigrationLauncher> getLaunchers(JdbcMigrationLauncher launcher)
+    {
+        List<JdbcMigrationLauncher> launchers = new ArrayList<JdbcMigrationLauncher>();
+        launchers.add(launcher);
+        if (launcher.getMigrationProcess() instanceof DistributedMigrationProcess)
+        {
+            DistributedMigrationProcess process =
+                    (DistributedMigrationProcess) launcher.getMigrationProcess();
+            for (Iterator i = process.getControlledSystems().values().iterator(); i.hasNext();)
+            {
+                launchers.add((JdbcMigrationLauncher) i.next());
+            }
+        }
+        return launchers;
+    }
+
+    /**
+     * Routes the contexts of a launcher through counting data sources. Data
+     * sources shared between contexts stay shared.
+     *
+     * @param launcher    the launcher whose contexts to count
+     * @param counter     where round trips are counted
+     * @param dataSources the counting data sources created so far, by original
+     */
+    private static void countRoundTrips(JdbcMigrationLauncher launcher, RoundTripCounter counter,
+            Map<DataSource, CountingDataSource> dataSources)
+    {
+        for (Iterator i = launcher.getContexts().keySet().iterator(); i.hasNext();)
+        {
+            DataSourceMigrationContext context = (DataSourceMigrationContext) i.next();
+            DataSource original = context.getDataSource();
+            CountingDataSource counting = dataSources.get(original);
+            if (counting == null)
+            {
+                counting = new CountingDataSource(original, counter);
+                dataSources.put(original, counting);
+            }
+            context.setDataSource(counting);
+        }
+    }
+
+    /**
+     * Checks that every table of a system holds the rows it should.
+     *
+     * @param launcher the launcher of the run
+     * @param system   the system whose tables to check
+     * @param expected the rows each table should hold, by table name
+     * @throws MigrationException if a table holds a different number of rows
+     * @throws SQLException       if a table can't be read
+     */
+    private static void verifyRows(JdbcMigrationLauncher launcher, String system,
+            Map<String, Integer> expected) throws MigrationException, SQLException
+    {
+        DataSource dataSource = null;
+        for (JdbcMigrationLauncher target : getLaunchers(launcher))
+        {
+            for (Iterator i = target.getContexts().keySet().iterator(); i.hasNext();)
+            {
+                DataSourceMigrationContext context = (DataSourceMigrationContext) i.next();
+                if (system.equals(context.getSystemName()))
+                {
+                    dataSource = ((CountingDataSource) context.getDataSource()).getDelegate();
+                }
+            }
+        }
+        Connection conn = dataSource.getConnection();
+        Statement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            stmt = conn.createStatement();
+            for (Map.Entry<String, Integer> table : expected.entrySet())
+            {
+                rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table.getKey());
+                rs.next();
+                int rows = rs.getInt(1);
+                rs.close();
+                if (rows != table.getValue().intValue())
+                {
+                    throw new MigrationException("Table " + table.getKey() + " of " + system
+                            + " holds " + rows + " rows instead of " + table.getValue());
+                }
+            }
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * Shuts an in-memory database down, so its memory is freed for the next run.
+     *
+     * @param dataSource the data source of the database
+     * @throws SQLException if the database can't be shut down
+     */
+    private static void shutdown(DataSource dataSource) throws SQLException
+    {
+        Connection conn = dataSource.getConnection();
+        Statement stmt = null;
+        try
+        {
+            stmt = conn.createStatement();
+            stmt.execute("SHUTDOWN");
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, null);
+        }
+    }
+
+    /**
+     * Resets the peak usage of every heap memory pool.
+     */
+    private static void resetPeakHeap()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the peak usage of every heap memory pool since the
+     * last reset.
+     *
+     * @return the peak heap usage, in bytes
+     */
+    private static long getPeakHeap()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Writes the results as a JSON document.
+     *
+     * @param file    the file to write
+     * @param scale   the scale the scenarios ran at
+     * @param results the results of every run
+     * @throws IOException if the file can't be written
+     */
+    private static void writeReport(File file, int scale, List<MacroResult> results)
+            throws IOException
+    {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"scale\": ").append(scale).append(",\n");
+        json.append("  \"results\": [\n");
+        for (int i = 0; i < results.size(); i++)
+        {
+            json.append("    ").append(results.get(i).toJson());
+            json.append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        json.append("  ]\n}\n");
+        PatchSetWriter.write(file, json.toString());
+    }
+
+    /**
+     * Joins names with commas.
+     *
+     * @param names the names to join
+     * @return the comma-separated names
+     */
+    private static String join(String[] names)
+    {
+        StringBuilder joined = new StringBuilder();
+        for (String name : names)
+        {
+            if (joined.length() > 0)
+            {
+                joined.append(',');
+            }
+            joined.append(name);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Returns a number not used for a run before.
+     *
+     * @return the number
+     */
+    private static synchronized int nextRun()
+    {
+        return ++runs;
+    }
+}
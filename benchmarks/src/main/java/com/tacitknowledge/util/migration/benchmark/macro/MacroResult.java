@@ -0,0 +1,135 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark.macro;
+
+/**
+ * The measurements of one macro benchmark run.
+ */
+public class MacroResult
+{
+    /**
+     * The scenario that was run
+     */
+    private final MacroScenario scenario;
+
+    /**
+     * "standalone" or "distributed"
+     */
+    private final String flow;
+
+    /**
+     * The database the scenario ran against
+     */
+    private final EmbeddedDatabase database;
+
+    /**
+     * The number of patches applied
+     */
+    private final int patches;
+
+    /**
+     * The time taken by the migration, in milliseconds
+     */
+    private final long wallMillis;
+
+    /**
+     * The round trips made during the migration
+     */
+    private final RoundTripCounter roundTrips;
+
+    /**
+     * The highest heap usage during the migration, in bytes
+     */
+    private final long peakHeapBytes;
+
+    /**
+     * The number of rows loaded
+     */
+    private final int rows;
+
+    /**
+     * Records the measurements of a run.
+     *
+     * @param scenario      the scenario that was run
+     * @param flow          "standalone" or "distributed"
+     * @param database      the database the scenario ran against
+     * @param patches       the number of patches applied
+     * @param wallMillis    the time taken by the migration, in milliseconds
+     * @param roundTrips    the round trips made during the migration
+     * @param peakHeapBytes the highest heap usage during the migration, in bytes
+     * @param rows          the number of rows loaded
+     */
+    public MacroResult(MacroScenario scenario, String flow, EmbeddedDatabase database,
+            int patches, long wallMillis, RoundTripCounter roundTrips, long peakHeapBytes,
+            int rows)
+    {
+        this.scenario = scenario;
+        this.flow = flow;
+        this.database = database;
+        this.patches = patches;
+        this.wallMillis = wallMillis;
+        this.roundTrips = roundTrips;
+        this.peakHeapBytes = peakHeapBytes;
+        this.rows = rows;
+    }
+
+    /**
+     * Returns the number of rows loaded per second of migration.
+     *
+     * @return the load rate, or 0 if no rows were loaded
+     */
+    public double getRowsPerSecond()
+    {
+        if (rows == 0)
+        {
+            return 0;
+        }
+        return rows * 1000.0 / Math.max(1, wallMillis);
+    }
+
+    /**
+     * Returns the measurements as a JSON object.
+     *
+     * @return the JSON object
+     */
+    public String toJson()
+    {
+        return "{\"scenario\": \"" + scenario.getLabel() + "\""
+                + ", \"flow\": \"" + flow + "\""
+                + ", \"database\": \"" + database.getDatabaseType() + "\""
+                + ", \"patches\": " + patches
+                + ", \"wallMillis\": " + wallMillis
+                + ", \"roundTrips\": " + roundTrips.getRoundTrips()
+                + ", \"statements\": " + roundTrips.getStatements()
+                + ", \"batches\": " + roundTrips.getBatches()
+                + ", \"transactions\": " + roundTrips.getTransactions()
+                + ", \"peakHeapBytes\": " + peakHeapBytes
+                + ", \"rows\": " + rows
+                + ", \"rowsPerSecond\": " + Math.round(getRowsPerSecond()) + "}";
+    }
+
+    /**
+     * Returns the measurements as one line of text.
+     *
+     * @return the measurements
+     */
+    public String toString()
+    {
+        return String.format("%-10s %-12s %-7s %6d patches %8d ms %8d round trips %6d MB heap %10.0f rows/s",
+                scenario.getLabel(), flow, database.getDatabaseType(), patches, wallMillis,
+                roundTrips.getRoundTrips(), peakHeapBytes / (1024 * 1024), getRowsPerSecond());
+    }
+}
@@ -0,0 +1,267 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark.macro;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+
+import com.tacitknowledge.util.migration.benchmark.macro.loads.CsvLoadPatch;
+import com.tacitknowledge.util.migration.benchmark.macro.loads.ExcelLoadPatch;
+
+/**
+ * The patch sets of the macro benchmark. Each scenario writes a realistic
+ * set of patches of a given scale and records the rows they should load.
+ */
+public enum MacroScenario
+{
+    /**
+     * Many patches that each create, alter and index a table
+     */
+    DDL_HEAVY("ddl-heavy", true)
+    {
+        public void write(PatchSetWriter writer, int scale) throws IOException
+        {
+            for (int i = 1; i <= 100 * scale; i++)
+            {
+                String table = "ddl_" + writer.getNextLevel();
+                writer.sqlPatch("create_" + table, createTable(table)
+                        + "ALTER TABLE " + table + " ADD COLUMN created TIMESTAMP;\n"
+                        + "CREATE INDEX " + table + "_name ON " + table + " (name);\n");
+            }
+        }
+    },
+
+    /**
+     * One table filled and updated by many patches of single-row inserts
+     */
+    DML_HEAVY("dml-heavy", true)
+    {
+        public void write(PatchSetWriter writer, int scale) throws IOException
+        {
+            String table = "dml_" + writer.getNextLevel();
+            writer.sqlPatch("create_" + table, createTable(table));
+            int patches = 50 * scale;
+            for (int i = 1; i <= patches; i++)
+            {
+                StringBuilder sql = new StringBuilder();
+                insertRows(sql, table, (i - 1) * 100, 100);
+                sql.append("UPDATE ").append(table).append(" SET amount = amount + 1 WHERE id >= ")
+                        .append((i - 1) * 100).append(";\n");
+                writer.sqlPatch("fill_" + table + "_" + i, sql.toString());
+            }
+            writer.expectRows(table, patches * 100);
+        }
+    },
+
+    /**
+     * Patches that each create a table, fill it, update it and index it
+     */
+    MIXED("mixed", true)
+    {
+        public void write(PatchSetWriter writer, int scale) throws IOException
+        {
+            for (int i = 1; i <= 100 * scale; i++)
+            {
+                String table = "mixed_" + writer.getNextLevel();
+                StringBuilder sql = new StringBuilder(createTable(table));
+                insertRows(sql, table, 0, 20);
+                sql.append("UPDATE ").append(table).append(" SET amount = 0 WHERE id < 10;\n");
+                sql.append("CREATE INDEX ").append(table).append("_name ON ")
+                        .append(table).append(" (name);\n");
+                writer.sqlPatch("create_" + table, sql.toString());
+                writer.expectRows(table, 20);
+            }
+        }
+    },
+
+    /**
+     * Large CSV, Excel and DbUnit XML loads into three tables
+     */
+    BULK_LOAD("bulk-load", false)
+    {
+        public void write(PatchSetWriter writer, int scale) throws IOException
+        {
+            int rows = 10000 * scale;
+            writer.sqlPatch("create_load_tables", createTable("load_csv")
+                    + createTable("load_excel") + createTable("load_xml"));
+            writer.skipLevels(ExcelLoadPatch.LEVEL - writer.getNextLevel() + 1);
+
+            StringBuilder csv = new StringBuilder("id,name,amount\n");
+            for (int i = 0; i < rows; i++)
+            {
+                csv.append(i).append(",name ").append(i).append(',').append(i % 1000).append('\n');
+            }
+            PatchSetWriter.write(writer.resource(CsvLoadPatch.FILE_NAME), csv.toString());
+            writer.expectRows("load_csv", rows);
+
+            int excelRows = Math.min(rows, MAX_EXCEL_ROWS);
+            writeWorkbook(writer, excelRows);
+            writer.expectRows("load_excel", excelRows);
+
+            StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<dataset>\n");
+            for (int i = 0; i < rows; i++)
+            {
+                xml.append("  <LOAD_XML ID=\"").append(i).append("\" NAME=\"name ").append(i)
+                        .append("\" AMOUNT=\"").append(i % 1000).append("\"/>\n");
+            }
+            xml.append("</dataset>\n");
+            writer.xmlPatch("load_xml", xml.toString());
+            writer.expectRows("load_xml", rows);
+        }
+
+        public String getPatchPath(String packageName)
+        {
+            return packageName + ":" + CsvLoadPatch.class.getPackage().getName();
+        }
+    };
+
+    /**
+     * The most rows an Excel 97 sheet can hold below its header row
+     */
+    private static final int MAX_EXCEL_ROWS = 65535;
+
+    /**
+     * The name of the scenario in reports
+     */
+    private final String label;
+
+    /**
+     * Whether the scenario can be split across the systems of a distributed run
+     */
+    private final boolean distributable;
+
+    /**
+     * Creates a scenario.
+     *
+     * @param label         the name of the scenario in reports
+     * @param distributable whether the scenario can run in a distributed flow
+     */
+    private MacroScenario(String label, boolean distributable)
+    {
+        this.label = label;
+        this.distributable = distributable;
+    }
+
+    /**
+     * Writes the patches of this scenario.
+     *
+     * @param writer where to write the patches
+     * @param scale  multiplies the number of patches and rows
+     * @throws IOException if the patches can't be written
+     */
+    public abstract void write(PatchSetWriter writer, int scale) throws IOException;
+
+    /**
+     * Returns the patch path of a system running this scenario.
+     *
+     * @param packageName the package the patches were written to
+     * @return the colon-separated patch path
+     */
+    public String getPatchPath(String packageName)
+    {
+        return packageName;
+    }
+
+    /**
+     * Returns the name of the scenario in reports.
+     *
+     * @return the name of the scenario
+     */
+    public String getLabel()
+    {
+        return label;
+    }
+
+    /**
+     * Returns whether the scenario can be split across the controlled systems
+     * of a distributed run. Java patches have fixed levels, so scenarios using
+     * them can only run standalone.
+     *
+     * @return whether the scenario can run in a distributed flow
+     */
+    public boolean isDistributable()
+    {
+        return distributable;
+    }
+
+    /**
+     * Returns the DDL of a scenario table.
+     *
+     * @param table the name of the table
+     * @return the CREATE TABLE statement
+     */
+    static String createTable(String table)
+    {
+        return "CREATE TABLE " + table
+                + " (id INT NOT NULL PRIMARY KEY, name VARCHAR(64), amount INT);\n";
+    }
+
+    /**
+     * Appends single-row inserts into a scenario table.
+     *
+     * @param sql   where to append the statements
+     * @param table the name of the table
+     * @param first the id of the first row
+     * @param count the number of rows
+     */
+    static void insertRows(StringBuilder sql, String table, int first, int count)
+    {
+        for (int id = first; id < first + count; id++)
+        {
+            sql.append("INSERT INTO ").append(table).append(" (id, name, amount) VALUES (")
+                    .append(id).append(", 'name ").append(id).append("', ")
+                    .append(id % 1000).append(");\n");
+        }
+    }
+
+    /**
+     * Writes the workbook loaded by {@link ExcelLoadPatch}.
+     *
+     * @param writer where to write the workbook
+     * @param rows   the number of rows below the header
+     * @throws IOException if the workbook can't be written
+     */
+    static void writeWorkbook(PatchSetWriter writer, int rows) throws IOException
+    {
+        HSSFWorkbook workbook = new HSSFWorkbook();
+        HSSFSheet sheet = workbook.createSheet("load_excel");
+        HSSFRow header = sheet.createRow(0);
+        header.createCell((short) 0).setCellValue("id");
+        header.createCell((short) 1).setCellValue("name");
+        header.createCell((short) 2).setCellValue("amount");
+        for (int i = 0; i < rows; i++)
+        {
+            HSSFRow row = sheet.createRow(i + 1);
+            row.createCell((short) 0).setCellValue(i);
+            row.createCell((short) 1).setCellValue("name " + i);
+            row.createCell((short) 2).setCellValue(i % 1000);
+        }
+        OutputStream out = new FileOutputStream(writer.resource(ExcelLoadPatch.FILE_NAME));
+        try
+        {
+            workbook.write(out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark.macro;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the patches of one system into a package beneath a class path root,
+ * numbering them as it goes, and keeps track of the rows each table should
+ * hold once they are applied.
+ */
+public class PatchSetWriter
+{
+    /**
+     * The class path root
+     */
+    private final File root;
+
+    /**
+     * The package the patches are written to
+     */
+    private final String packageName;
+
+    /**
+     * The directory of the package
+     */
+    private final File directory;
+
+    /**
+     * The level of the next patch
+     */
+    private int nextLevel;
+
+    /**
+     * The rows each table should hold, by table name
+     */
+    private final Map<String, Integer> expectedRows = new LinkedHashMap<String, Integer>();
+
+    /**
+     * Creates a writer for the given package.
+     *
+     * @param root        the class path root
+     * @param packageName the package to write the patches to
+     * @param firstLevel  the level of the first patch
+     * @throws IOException if the package directory can't be created
+     */
+    public PatchSetWriter(File root, String packageName, int firstLevel) throws IOException
+    {
+        this.root = root;
+        this.packageName = packageName;
+        this.nextLevel = firstLevel;
+        directory = new File(root, packageName.replace('.', File.separatorChar));
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Unable to create patch directory " + directory);
+        }
+    }
+
+    /**
+     * Writes a SQL patch at the next level.
+     *
+     * @param description the description in the patch file name
+     * @param sql         the SQL of the patch
+     * @return the level of the patch
+     * @throws IOException if the patch can't be written
+     */
+    public int sqlPatch(String description, String sql) throws IOException
+    {
+        int level = nextLevel++;
+        write(new File(directory, "patch" + pad(level) + "_" + description + ".sql"), sql);
+        return level;
+    }
+
+    /**
+     * Writes a DbUnit flat XML data set patch at the next level.
+     *
+     * @param description the description in the patch file name
+     * @param xml         the data set
+     * @return the level of the patch
+     * @throws IOException if the patch can't be written
+     */
+    public int xmlPatch(String description, String xml) throws IOException
+    {
+        int level = nextLevel++;
+        write(new File(directory, "patch" + pad(level) + "_" + description + ".xml"), xml);
+        return level;
+    }
+
+    /**
+     * Leaves levels free for patches that are not written by this writer,
+     * such as Java patches.
+     *
+     * @param count the number of levels to leave free
+     */
+    public void skipLevels(int count)
+    {
+        nextLevel += count;
+    }
+
+    /**
+     * Returns a file at the class path root, for data files loaded by patches.
+     *
+     * @param name the name of the file
+     * @return the file
+     */
+    public File resource(String name)
+    {
+        return new File(root, name);
+    }
+
+    /**
+     * Records that a table should hold the given number of rows once the
+     * patches are applied.
+     *
+     * @param table the name of the table
+     * @param rows  the number of rows the table should hold
+     */
+    public void expectRows(String table, int rows)
+    {
+        expectedRows.put(table, Integer.valueOf(rows));
+    }
+
+    /**
+     * Returns the rows each table should hold, by table name.
+     *
+     * @return the expected row counts
+     */
+    public Map<String, Integer> getExpectedRows()
+    {
+        return Collections.unmodifiableMap(expectedRows);
+    }
+
+    /**
+     * Returns the total number of rows the patches should load.
+     *
+     * @return the total number of rows
+     */
+    public int getExpectedRowCount()
+    {
+        int total = 0;
+        for (Integer rows : expectedRows.values())
+        {
+            total += rows.intValue();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the package the patches are written to.
+     *
+     * @return the package name
+     */
+    public String getPackageName()
+    {
+        return packageName;
+    }
+
+    /**
+     * Returns the level the next patch would get.
+     *
+     * @return the next patch level
+     */
+    public int getNextLevel()
+    {
+        return nextLevel;
+    }
+
+    /**
+     * Writes a UTF-8 text file.
+     *
+     * @param file    the file to write
+     * @param content the content of the file
+     * @throws IOException if the file can't be written
+     */
+    public static void write(File file, String content) throws IOException
+    {
+        OutputStream stream = new FileOutputStream(file);
+        try
+        {
+            Writer out = new OutputStreamWriter(stream, "UTF-8");
+            out.write(content);
+            out.flush();
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Zero-pads a patch level so the files sort in level order.
+     *
+     * @param level the patch level
+     * @return the padded level
+     */
+    private static String pad(int level)
+    {
+        String digits = String.valueOf(level);
+        return "000000".substring(Math.min(6, digits.length())) + digits;
+    }
+}
@@ -0,0 +1,104 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark.macro;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the JDBC calls that reach the database during a run: statement
+ * executions, batch executions, commits and rollbacks.
+ */
+public class RoundTripCounter
+{
+    /**
+     * Statements executed one at a time
+     */
+    private final AtomicLong statements = new AtomicLong();
+
+    /**
+     * Batches executed
+     */
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * Commits and rollbacks
+     */
+    private final AtomicLong transactions = new AtomicLong();
+
+    /**
+     * Records the execution of a single statement.
+     */
+    public void statementExecuted()
+    {
+        statements.incrementAndGet();
+    }
+
+    /**
+     * Records the execution of a batch.
+     */
+    public void batchExecuted()
+    {
+        batches.incrementAndGet();
+    }
+
+    /**
+     * Records a commit or a rollback.
+     */
+    public void transactionEnded()
+    {
+        transactions.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of statements executed one at a time.
+     *
+     * @return the number of statements executed
+     */
+    public long getStatements()
+    {
+        return statements.get();
+    }
+
+    /**
+     * Returns the number of batches executed.
+     *
+     * @return the number of batches executed
+     */
+    public long getBatches()
+    {
+        return batches.get();
+    }
+
+    /**
+     * Returns the number of commits and rollbacks.
+     *
+     * @return the number of commits and rollbacks
+     */
+    public long getTransactions()
+    {
+        return transactions.get();
+    }
+
+    /**
+     * Returns the total number of round trips counted.
+     *
+     * @return the number of round trips
+     */
+    public long getRoundTrips()
+    {
+        return getStatements() + getBatches() + getTransactions();
+    }
+}
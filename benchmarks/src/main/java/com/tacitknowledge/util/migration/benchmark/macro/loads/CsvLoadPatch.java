@@ -0,0 +1,55 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark.macro.loads;
+
+import com.tacitknowledge.util.migration.jdbc.loader.DelimitedFileLoader;
+
+/**
+ * Loads the generated comma-separated file into the <code>load_csv</code>
+ * table of the bulk load scenario.
+ */
+public class CsvLoadPatch extends DelimitedFileLoader
+{
+    /**
+     * The patch level of this patch
+     */
+    public static final int LEVEL = 2;
+
+    /**
+     * The class path name of the loaded file
+     */
+    public static final String FILE_NAME = "load_csv_db.csv";
+
+    /**
+     * Creates the patch.
+     */
+    public CsvLoadPatch()
+    {
+        setLevel(Integer.valueOf(LEVEL));
+    }
+
+    /** {@inheritDoc} */
+    public String getDelimiter()
+    {
+        return ",";
+    }
+
+    /** {@inheritDoc} */
+    public String getName()
+    {
+        return FILE_NAME;
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.benchmark.macro.loads;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.jdbc.loader.ExcelFileLoader;
+import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+
+/**
+ * Loads the generated workbook into the <code>load_excel</code> table of the
+ * bulk load scenario. The first row of the sheet is a header; each following
+ * row holds an id, a name and an amount.
+ */
+public class ExcelLoadPatch extends ExcelFileLoader
+{
+    /**
+     * The patch level of this patch
+     */
+    public static final int LEVEL = 3;
+
+    /**
+     * The class path name of the loaded file
+     */
+    public static final String FILE_NAME = "load_excel.xls";
+
+    /**
+     * The number of rows sent to the database at once
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Creates the patch.
+     */
+    public ExcelLoadPatch()
+    {
+        setLevel(Integer.valueOf(LEVEL));
+        setName(FILE_NAME);
+    }
+
+    /** {@inheritDoc} */
+    public void processWorkbook(HSSFWorkbook wb, Connection conn) throws MigrationException
+    {
+        HSSFSheet sheet = wb.getSheetAt(0);
+        PreparedStatement stmt = null;
+        try
+        {
+            stmt = conn.prepareStatement(
+                    "INSERT INTO load_excel (id, name, amount) VALUES (?, ?, ?)");
+            int batched = 0;
+            for (int i = 1; i <= sheet.getLastRowNum(); i++)
+            {
+                HSSFRow row = sheet.getRow(i);
+                stmt.setInt(1, (int) row.getCell((short) 0).getNumericCellValue());
+                stmt.setString(2, row.getCell((short) 1).getStringCellValue());
+                stmt.setInt(3, (int) row.getCell((short) 2).getNumericCellValue());
+                stmt.addBatch();
+                if (++batched == BATCH_SIZE)
+                {
+                    stmt.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0)
+            {
+                stmt.executeBatch();
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to load " + FILE_NAME, e);
+        }
+        finally
+        {
+            SqlUtil.close(null, stmt, null);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.metrics.jfr;
+
+import com.tacitknowledge.util.migration.metrics.MigrationTracer;
+import com.tacitknowledge.util.migration.metrics.TraceSpan;
+
+/**
+ * A <code>MigrationTracer</code> that records every span as a
+ * {@link MigrationSpanEvent}, so a slow deploy can be read on the same flight
+ * recording timeline as the JDBC driver, GC and I/O events around it.  Spans
+ * cost next to nothing while no recording has the event enabled.
+ * <p/>
+ * Install it with
+ * <code>-Dautopatch.tracer=com.tacitknowledge.util.migration.metrics.jfr.JfrMigrationTracer</code>.
+ */
+public class JfrMigrationTracer implements MigrationTracer
+{
+    /**
+     * {@inheritDoc}
+     */
+    public TraceSpan begin(String category, String name)
+    {
+        MigrationSpanEvent event = new MigrationSpanEvent();
+        if (!event.isEnabled())
+        {
+            return new RecordedSpan(null);
+        }
+        event.category = category;
+        event.name = name;
+        event.begin();
+        return new RecordedSpan(event);
+    }
+
+    /**
+     * A span that commits its event when it ends.
+     */
+    private static final class RecordedSpan implements TraceSpan
+    {
+        /** The event, or <code>null</code> if it isn't being recorded */
+        private final MigrationSpanEvent event;
+
+        RecordedSpan(MigrationSpanEvent event)
+        {
+            this.event = event;
+        }
+
+        public void fail(Throwable cause)
+        {
+            if (event != null)
+            {
+                event.failure = String.valueOf(cause);
+            }
+        }
+
+        public void end()
+        {
+            if (event != null)
+            {
+                event.end();
+                if (event.shouldCommit())
+                {
+                    event.commit();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for one AutoPatch trace span.  Its duration and
+ * thread are recorded by JFR; stack traces are left out, since the category and
+ * name already say where the time went.
+ */
+@Name(MigrationSpanEvent.NAME)
+@Label("AutoPatch Span")
+@Category("AutoPatch")
+@Description("Discovery, planning, locking, patching or loading done by AutoPatch")
+@StackTrace(false)
+public class MigrationSpanEvent extends Event
+{
+    /**
+     * The name the event is recorded under
+     */
+    public static final String NAME = "com.tacitknowledge.autopatch.Span";
+
+    /**
+     * The category of the span, one of those of <code>MigrationTracing</code>
+     */
+    @Label("Category")
+    String category;
+
+    /**
+     * What was being done
+     */
+    @Label("Name")
+    String name;
+
+    /**
+     * Why the work failed, or <code>null</code> if it didn't
+     */
+    @Label("Failure")
+    String failure;
+}
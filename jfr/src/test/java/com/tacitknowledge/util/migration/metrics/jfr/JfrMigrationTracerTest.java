@@ -0,0 +1,104 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.metrics.jfr;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.metrics.MigrationTracing;
+import com.tacitknowledge.util.migration.metrics.TraceSpan;
+
+/**
+ * Exercise recording trace spans as flight recorder events
+ */
+public class JfrMigrationTracerTest extends TestCase
+{
+    /**
+     * Install the JFR tracer
+     */
+    protected void setUp()
+    {
+        MigrationTracing.setTracer(new JfrMigrationTracer());
+    }
+
+    /**
+     * Turn tracing back off
+     */
+    protected void tearDown()
+    {
+        MigrationTracing.setTracer(null);
+    }
+
+    /**
+     * Make sure ended spans are recorded, with their failure if they failed
+     *
+     * @throws Exception if the recording can't be written or read
+     */
+    public void testSpansAreRecorded() throws Exception
+    {
+        File dump = File.createTempFile("autopatch", ".jfr");
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        Recording recording = new Recording();
+        try
+        {
+            recording.enable(MigrationSpanEvent.NAME);
+            recording.start();
+            MigrationTracing.begin(MigrationTracing.LOCK, "context").end();
+            TraceSpan failed = MigrationTracing.begin(MigrationTracing.STATEMENT, "drop table missing");
+            failed.fail(new Exception("no such table"));
+            failed.end();
+            recording.stop();
+            recording.dump(dump.toPath());
+
+            for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath()))
+            {
+                if (MigrationSpanEvent.NAME.equals(event.getEventType().getName()))
+                {
+                    events.add(event);
+                }
+            }
+        }
+        finally
+        {
+            recording.close();
+            dump.delete();
+        }
+
+        assertEquals(2, events.size());
+        assertEquals(MigrationTracing.LOCK, events.get(0).getString("category"));
+        assertEquals("context", events.get(0).getString("name"));
+        assertNull(events.get(0).getString("failure"));
+        assertEquals(MigrationTracing.STATEMENT, events.get(1).getString("category"));
+        assertTrue(events.get(1).getString("failure").indexOf("no such table") > -1);
+    }
+
+    /**
+     * Make sure spans cost nothing but an event check when no recording wants them
+     */
+    public void testNothingIsRecordedWithoutARecording()
+    {
+        TraceSpan span = MigrationTracing.begin(MigrationTracing.DISCOVERY, "patches");
+        span.fail(new Exception());
+        span.end();
+    }
+}
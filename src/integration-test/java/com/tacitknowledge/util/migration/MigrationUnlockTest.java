@@ -82,7 +82,7 @@ public class MigrationUnlockTest extends AutoPatchIntegrationTestBase
     {
         Connection conn = DriverManager.getConnection("jdbc:hsqldb:mem:" + database, "sa", "");
 
-        PreparedStatement stmt = conn.prepareStatement("UPDATE patches SET patch_in_progress = 'T' WHERE patch_level in ( SELECT MAX(patch_level) FROM patches WHERE system_name = ?)");
+        PreparedStatement stmt = conn.prepareStatement("UPDATE patch_summary SET patch_in_progress = 'T' WHERE system_name = ?");
         stmt.setString(1, database);
         int rowCount = stmt.executeUpdate();
         assertEquals(1, rowCount);
@@ -98,9 +98,8 @@ public class MigrationUnlockTest extends AutoPatchIntegrationTestBase
     private void verifyPatchTableNotLocked(String database) throws Exception
     {
         Connection conn = DriverManager.getConnection("jdbc:hsqldb:mem:" + database, "sa", "");
-        PreparedStatement stmt = conn.prepareStatement("SELECT patch_in_progress FROM patches WHERE system_name = ? AND ( patch_in_progress <> 'F' OR patch_level in ( SELECT MAX(patch_level) FROM patches WHERE system_name = ? ))");
+        PreparedStatement stmt = conn.prepareStatement("SELECT patch_in_progress FROM patch_summary WHERE system_name = ?");
         stmt.setString(1, database);
-        stmt.setString(2, database);
         ResultSet rs = stmt.executeQuery();
         rs.next();
         assertEquals("F", rs.getString("patch_in_progress"));
@@ -0,0 +1,75 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.jdbc.JdbcMigrationContext;
+import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncher;
+import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncherFactory;
+import com.tacitknowledge.util.migration.jdbc.PatchTable;
+import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+
+/**
+ * Test capturing the execution plans of slow statements with the patch history
+ */
+public class SlowStatementPlanTest extends TestCase
+{
+    /**
+     * Drops the database
+     *
+     * @exception Exception if anything goes wrong
+     */
+    public void tearDown() throws Exception
+    {
+        super.tearDown();
+        Connection conn = DriverManager.getConnection("jdbc:hsqldb:mem:plans", "sa", "");
+        Statement stmt = conn.createStatement();
+        stmt.execute("SHUTDOWN");
+        SqlUtil.close(conn, stmt, null);
+    }
+
+    /**
+     * The plans of the data manipulation statements are kept with the patch's
+     * execution record; the DDL has no plan
+     *
+     * @exception Exception if anything goes wrong
+     */
+    public void testPlansAreRecordedWithTheExecution() throws Exception
+    {
+        JdbcMigrationLauncher launcher = new JdbcMigrationLauncherFactory()
+                .createMigrationLauncher("plans", "plans-inttest-migration.properties");
+        assertEquals(1, launcher.doMigrations());
+
+        JdbcMigrationContext context =
+                (JdbcMigrationContext) launcher.getContexts().keySet().iterator().next();
+        List<PatchExecution> executions = new PatchTable(context).getPatchExecutions(1);
+        assertEquals(1, executions.size());
+
+        List<StatementPlan> plans = executions.get(0).getStatementPlans();
+        assertEquals(2, plans.size());
+        assertEquals(1, plans.get(0).getStatementIndex());
+        assertTrue(plans.get(0).getSql().startsWith("INSERT"));
+        assertEquals(2, plans.get(1).getStatementIndex());
+        assertTrue(plans.get(1).getSql().startsWith("UPDATE"));
+        assertTrue(plans.get(1).getPlan(), plans.get(1).getPlan().length() > 0);
+    }
+}
@@ -0,0 +1,147 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncher;
+import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncherFactory;
+import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+
+/**
+ * Test patching every tenant schema of one database on its own
+ */
+public class TenantSchemaAutoPatchTest extends TestCase
+{
+    /** the system being patched */
+    private static final String TENANTS = "tenants";
+
+    /** a connection to the database holding the tenant schemas */
+    private Connection conn = null;
+
+    /**
+     * Creates three tenant schemas and one that doesn't belong to a tenant
+     *
+     * @exception Exception if anything goes wrong
+     */
+    public void setUp() throws Exception
+    {
+        super.setUp();
+        conn = DriverManager.getConnection("jdbc:hsqldb:mem:tenants", "sa", "");
+        Statement stmt = conn.createStatement();
+        stmt.execute("CREATE SCHEMA TENANT_A AUTHORIZATION DBA");
+        stmt.execute("CREATE SCHEMA TENANT_B AUTHORIZATION DBA");
+        stmt.execute("CREATE SCHEMA TENANT_C AUTHORIZATION DBA");
+        stmt.execute("CREATE SCHEMA REPORTING AUTHORIZATION DBA");
+        SqlUtil.close(null, stmt, null);
+    }
+
+    /**
+     * Drops the database
+     *
+     * @exception Exception if anything goes wrong
+     */
+    public void tearDown() throws Exception
+    {
+        super.tearDown();
+        Statement stmt = conn.createStatement();
+        stmt.execute("SHUTDOWN");
+        SqlUtil.close(conn, stmt, null);
+    }
+
+    /**
+     * Every tenant schema gets its own patch tables and patches, several at a time
+     *
+     * @exception Exception if anything goes wrong
+     */
+    public void testTenantSchemasArePatchedConcurrently() throws Exception
+    {
+        JdbcMigrationLauncher launcher = createLauncher();
+        assertEquals(3, launcher.getContexts().size());
+
+        assertEquals(6, launcher.doMigrations());
+
+        verifyTenantsPatched();
+        assertEquals(3, launcher.getLastShardRollout().getShards().size());
+    }
+
+    /**
+     * Tenant schemas patched one after another each get their own patches too
+     *
+     * @exception Exception if anything goes wrong
+     */
+    public void testTenantSchemasArePatchedSequentially() throws Exception
+    {
+        JdbcMigrationLauncher launcher = createLauncher();
+        launcher.setShardConcurrency(1);
+
+        launcher.doMigrations();
+
+        verifyTenantsPatched();
+    }
+
+    /**
+     * Creates the launcher for the tenant schemas
+     *
+     * @return the launcher
+     * @exception Exception if anything goes wrong
+     */
+    private JdbcMigrationLauncher createLauncher() throws Exception
+    {
+        return new JdbcMigrationLauncherFactory().createMigrationLauncher(TENANTS,
+                "tenant-inttest-migration.properties");
+    }
+
+    /**
+     * Checks that the tenant schemas, and only they, have been patched
+     *
+     * @exception Exception if anything goes wrong
+     */
+    private void verifyTenantsPatched() throws Exception
+    {
+        String[] tenants = new String[] {"TENANT_A", "TENANT_B", "TENANT_C"};
+        for (int i = 0; i < tenants.length; i++)
+        {
+            assertEquals(tenants[i], 2, count("SELECT COUNT(*) FROM " + tenants[i] + ".tenant_table_1"));
+            assertEquals(tenants[i], 2, count("SELECT patch_level FROM " + tenants[i]
+                    + ".patch_summary WHERE system_name = '" + TENANTS + "'"));
+        }
+        assertEquals(0, count("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES"
+                + " WHERE TABLE_SCHEMA IN ('REPORTING', 'PUBLIC')"));
+    }
+
+    /**
+     * Runs a query returning a single number
+     *
+     * @param sql the query
+     * @return the number
+     * @exception Exception if anything goes wrong
+     */
+    private int count(String sql) throws Exception
+    {
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery(sql);
+        rs.next();
+        int count = rs.getInt(1);
+        SqlUtil.close(null, stmt, rs);
+        return count;
+    }
+}
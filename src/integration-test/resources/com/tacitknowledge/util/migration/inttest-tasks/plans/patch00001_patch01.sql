@@ -0,0 +1,7 @@
+CREATE TABLE plan_table_1 (
+	id INT NOT NULL PRIMARY KEY,
+	value VARCHAR(256)
+);
+
+INSERT INTO plan_table_1 (id, value) VALUES (1, 'plan_table_1');
+UPDATE plan_table_1 SET value = 'updated' WHERE id = 1;
@@ -0,0 +1,6 @@
+CREATE TABLE tenant_table_1 (
+	id INT NOT NULL PRIMARY KEY,
+	value VARCHAR(256)
+);
+
+INSERT INTO tenant_table_1 (id, value) VALUES (1, 'tenant_table_1');
@@ -0,0 +1 @@
+INSERT INTO tenant_table_1 (id, value) VALUES (2, 'tenant_table_1');
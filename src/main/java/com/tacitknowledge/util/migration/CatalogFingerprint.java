@@ -0,0 +1,172 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Computes fingerprints of a patch catalog.  A fingerprint covers the level,
+ * name and content checksum of every task, so two catalogs share a fingerprint
+ * only if they would apply exactly the same patches.  The fingerprint of the
+ * last catalog applied is kept in the patch store, which lets read-only nodes
+ * verify they are current without discovering any patches.
+ */
+public final class CatalogFingerprint
+{
+    /**
+     * The digest algorithm used for checksums and fingerprints
+     */
+    private static final String ALGORITHM = "MD5";
+
+    /**
+     * Hidden constructor for utility class
+     */
+    private CatalogFingerprint()
+    {
+        // Hidden
+    }
+
+    /**
+     * Computes the fingerprint of the given migration tasks.  The order of the
+     * list does not matter.
+     *
+     * @param tasks the <code>MigrationTask</code>s making up the catalog
+     * @return the fingerprint of the catalog, as a hexadecimal string
+     */
+    public static String compute(List<MigrationTask> tasks)
+    {
+        List<MigrationTask> sortedTasks = new ArrayList<MigrationTask>(tasks);
+        Collections.sort(sortedTasks);
+
+        StringBuffer catalog = new StringBuffer();
+        for (Iterator<MigrationTask> i = sortedTasks.iterator(); i.hasNext();)
+        {
+            MigrationTask task = i.next();
+            catalog.append(task.getLevel()).append(':').append(task.getName()).append(':');
+            if (task instanceof ChecksummedMigrationTask)
+            {
+                catalog.append(((ChecksummedMigrationTask) task).getChecksum());
+            }
+            else
+            {
+                catalog.append(checksum(task.getClass()));
+            }
+            catalog.append('\n');
+        }
+        return checksum(catalog.toString());
+    }
+
+    /**
+     * Computes the checksum of the given content
+     *
+     * @param content the content to checksum; <code>null</code> is treated
+     *        as the empty string
+     * @return the checksum of the content, as a hexadecimal string
+     */
+    public static String checksum(String content)
+    {
+        try
+        {
+            return checksum((content == null ? "" : content).getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException("UTF-8 is not available: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Computes the checksum of the byte code of the given class, which changes
+     * whenever the class is rebuilt from changed source.  Classes whose byte
+     * code can't be read are identified by their name only.
+     *
+     * @param type the class to checksum
+     * @return the checksum of the class, as a hexadecimal string
+     */
+    public static String checksum(Class type)
+    {
+        InputStream is = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class");
+        if (is == null)
+        {
+            return checksum(type.getName());
+        }
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+            {
+                bytes.write(buffer, 0, read);
+            }
+            return checksum(bytes.toByteArray());
+        }
+        catch (IOException e)
+        {
+            return checksum(type.getName());
+        }
+        finally
+        {
+            try
+            {
+                is.close();
+            }
+            catch (IOException e)
+            {
+                // not important
+            }
+        }
+    }
+
+    /**
+     * Computes the checksum of the given bytes
+     *
+     * @param content the bytes to checksum
+     * @return the checksum of the bytes, as a hexadecimal string
+     */
+    private static String checksum(byte[] content)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance(ALGORITHM);
+            byte[] hash = digest.digest(content);
+            StringBuffer hex = new StringBuffer(hash.length * 2);
+            for (int i = 0; i < hash.length; i++)
+            {
+                String b = Integer.toHexString(hash[i] & 0xff);
+                if (b.length() == 1)
+                {
+                    hex.append('0');
+                }
+                hex.append(b);
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(ALGORITHM + " is not available: " + e.getMessage());
+        }
+    }
+}
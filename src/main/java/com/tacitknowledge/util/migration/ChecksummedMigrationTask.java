@@ -0,0 +1,31 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+/**
+ * A migration task that can describe its own content, so that changes to the
+ * task after it has been applied can be detected.  Tasks that do not implement
+ * this interface are identified by a checksum of their class's byte code.
+ */
+public interface ChecksummedMigrationTask extends MigrationTask
+{
+    /**
+     * Returns a checksum of the content of this task, e.g. the SQL of a script
+     *
+     * @return a checksum of the content of this task
+     */
+    public String getChecksum();
+}
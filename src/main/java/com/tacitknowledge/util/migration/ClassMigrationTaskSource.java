@@ -15,7 +15,6 @@
 
 package com.tacitknowledge.util.migration;
 
-import com.tacitknowledge.util.discovery.ClassDiscoveryUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -45,7 +44,7 @@ public class ClassMigrationTaskSource implements MigrationTaskSource
             throw new MigrationException("You must specify a package to get tasks for");
         }
 
-        Class[] taskClasses = ClassDiscoveryUtil.getClasses(packageName, MigrationTask.class);
+        Class[] taskClasses = ResourceDiscoveryCache.getClasses(packageName, MigrationTask.class);
         log.debug("Found " + taskClasses.length + " patches in " + packageName);
         return instantiateTasks(taskClasses);
     }
@@ -0,0 +1,103 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The patch state of a set of contexts, all read at about the same time by a
+ * <code>ClusterStatusService</code>, together with the next patch level of
+ * the patch catalog they were compared with. Instances are immutable.
+ */
+public final class ClusterStatus
+{
+    /**
+     * The status of every context, in the order they were given
+     */
+    private final List<ContextStatus> contextStatuses;
+
+    /**
+     * The first patch level not used by the patch catalog
+     */
+    private final int nextPatchLevel;
+
+    /**
+     * Creates a new <code>ClusterStatus</code>.
+     *
+     * @param contextStatuses the status of every context
+     * @param nextPatchLevel  the first patch level not used by the patch catalog
+     */
+    public ClusterStatus(List<ContextStatus> contextStatuses, int nextPatchLevel)
+    {
+        this.contextStatuses = Collections.unmodifiableList(new ArrayList<ContextStatus>(contextStatuses));
+        this.nextPatchLevel = nextPatchLevel;
+    }
+
+    /**
+     * @return the status of every context, in the order they were given
+     */
+    public List<ContextStatus> getContextStatuses()
+    {
+        return contextStatuses;
+    }
+
+    /**
+     * Get the status of the given context.
+     *
+     * @param context the context to get the status of
+     * @return the status of the context, or <code>null</code> if it isn't part
+     *         of the cluster
+     */
+    public ContextStatus getStatus(MigrationContext context)
+    {
+        for (ContextStatus status : contextStatuses)
+        {
+            if (status.getContext().equals(context))
+            {
+                return status;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the first patch level not used by the patch catalog, for use when
+     *         creating a new patch
+     */
+    public int getNextPatchLevel()
+    {
+        return nextPatchLevel;
+    }
+
+    /**
+     * Useful for logging
+     *
+     * @return a multi-line summary with one line per context
+     */
+    public String toString()
+    {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("Status of ").append(contextStatuses.size())
+                .append(" contexts, next patch level ").append(nextPatchLevel);
+        for (ContextStatus status : contextStatuses)
+        {
+            buffer.append("\n  ").append(status);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,202 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Takes a <code>ClusterStatus</code> of many contexts at once. The patch store
+ * of every context is read on a worker thread of its own, each context by
+ * exactly one worker, and the reads are compared with a patch catalog that is
+ * discovered once by the caller.
+ */
+public class ClusterStatusService
+{
+    /**
+     * The most patch stores read at the same time by default
+     */
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(ClusterStatusService.class);
+
+    /**
+     * Decides which tasks each context still needs
+     */
+    private final MigrationRunnerStrategy strategy;
+
+    /**
+     * The most patch stores read at the same time
+     */
+    private final int concurrency;
+
+    /**
+     * Creates a new <code>ClusterStatusService</code> that reads up to
+     * <code>DEFAULT_CONCURRENCY</code> patch stores at the same time.
+     *
+     * @param strategy decides which tasks each context still needs
+     */
+    public ClusterStatusService(MigrationRunnerStrategy strategy)
+    {
+        this(strategy, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Creates a new <code>ClusterStatusService</code>.
+     *
+     * @param strategy    decides which tasks each context still needs
+     * @param concurrency the most patch stores read at the same time
+     */
+    public ClusterStatusService(MigrationRunnerStrategy strategy, int concurrency)
+    {
+        this.strategy = strategy;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Reads the patch state of every context.
+     *
+     * @param patchStores the patch store of every context, in the order the
+     *                    statuses should be reported
+     * @param tasks       the patch catalog to compare the contexts with
+     * @return the status of every context
+     * @throws MigrationException if any patch store can't be read
+     */
+    public ClusterStatus getClusterStatus(Map<? extends MigrationContext, ? extends PatchInfoStore> patchStores,
+            List<MigrationTask> tasks) throws MigrationException
+    {
+        List<MigrationTask> catalog = new ArrayList<MigrationTask>(tasks);
+        Collections.sort(catalog);
+        int highestLevel = 0;
+        for (MigrationTask task : catalog)
+        {
+            highestLevel = Math.max(highestLevel, task.getLevel().intValue());
+        }
+        int nextPatchLevel = highestLevel + 1;
+        List<ContextStatus> statuses = new ArrayList<ContextStatus>();
+        if (patchStores.isEmpty())
+        {
+            return new ClusterStatus(statuses, nextPatchLevel);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, patchStores.size()));
+        try
+        {
+            List<Future<ContextStatus>> results = new ArrayList<Future<ContextStatus>>();
+            for (Map.Entry<? extends MigrationContext, ? extends PatchInfoStore> entry : patchStores.entrySet())
+            {
+                results.add(executor.submit(new StatusReader(entry.getKey(), entry.getValue(), catalog)));
+            }
+            for (Future<ContextStatus> result : results)
+            {
+                statuses.add(result.get());
+            }
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof MigrationException)
+            {
+                throw (MigrationException) e.getCause();
+            }
+            throw new MigrationException("Unable to read the patch store", e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new MigrationException("Interrupted while reading the patch stores", e);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        ClusterStatus status = new ClusterStatus(statuses, nextPatchLevel);
+        if (log.isDebugEnabled())
+        {
+            log.debug(status);
+        }
+        return status;
+    }
+
+    /**
+     * Reads the patch state of one context.
+     */
+    private class StatusReader implements Callable<ContextStatus>
+    {
+        /**
+         * The context to read
+         */
+        private final MigrationContext context;
+
+        /**
+         * The patch store of the context
+         */
+        private final PatchInfoStore patchStore;
+
+        /**
+         * The patch catalog, in level order
+         */
+        private final List<MigrationTask> catalog;
+
+        /**
+         * Creates a new <code>StatusReader</code>.
+         *
+         * @param context    the context to read
+         * @param patchStore the patch store of the context
+         * @param catalog    the patch catalog, in level order
+         */
+        StatusReader(MigrationContext context, PatchInfoStore patchStore, List<MigrationTask> catalog)
+        {
+            this.context = context;
+            this.patchStore = patchStore;
+            this.catalog = catalog;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ContextStatus call() throws MigrationException
+        {
+            PatchInfoStoreSnapshot snapshot = new PatchInfoStoreSnapshot(patchStore);
+            snapshot.getPatchLevel();
+            snapshot.getAppliedLevels();
+            boolean locked = patchStore.isPatchStoreLocked();
+
+            List<MigrationTask> pending = new ArrayList<MigrationTask>();
+            for (MigrationTask task : catalog)
+            {
+                if (strategy.shouldMigrationRun(task.getLevel().intValue(), snapshot))
+                {
+                    pending.add(task);
+                }
+            }
+            return new ContextStatus(context, snapshot, locked, pending);
+        }
+    }
+}
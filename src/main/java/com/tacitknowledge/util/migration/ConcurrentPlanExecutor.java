@@ -0,0 +1,536 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncher;
+
+/**
+ * Executes a <code>MigrationPlan</code> of a <code>DistributedMigrationProcess</code>
+ * with one worker thread per controlled system, so systems that share nothing
+ * are patched at the same time.
+ * <p/>
+ * Each worker applies its system's tasks in level order. Barrier levels split
+ * the plan into phases: no task at or above a barrier starts before every
+ * system has finished all tasks below it. Once a task fails, the other workers
+ * finish the task they are running and stop; the first failure is rethrown
+ * after all workers have stopped.
+ * <p/>
+ * A system's contexts are only ever used by its own worker. Its launcher hears
+ * about its own tasks as they run; successes of other systems are queued and
+ * delivered by its worker between tasks, or once all workers have stopped.
+ * All other listeners are notified one event at a time.
+ */
+final class ConcurrentPlanExecutor
+{
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(ConcurrentPlanExecutor.class);
+
+    /**
+     * The process whose tasks are applied
+     */
+    private final MigrationProcess process;
+
+    /**
+     * The launcher of every system, keyed by system name
+     */
+    private final Map<String, JdbcMigrationLauncher> launchers;
+
+    /**
+     * The listeners that aren't launchers of a controlled system
+     */
+    private final List<MigrationListener> sharedListeners;
+
+    /**
+     * The levels at which all systems wait for each other
+     */
+    private final PatchLevelSet barrierLevels;
+
+    /**
+     * Successes of other systems still to be delivered, per launcher
+     */
+    private final Map<JdbcMigrationLauncher, Queue<DeferredSuccess>> pendingSuccesses =
+            new LinkedHashMap<JdbcMigrationLauncher, Queue<DeferredSuccess>>();
+
+    /**
+     * Set once any worker has failed, telling the others to stop
+     */
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    /**
+     * Creates a new <code>ConcurrentPlanExecutor</code>.
+     *
+     * @param process       the process whose tasks are applied
+     * @param launchers     the launcher of every system, keyed by system name
+     * @param listeners     all listeners of the process
+     * @param barrierLevels the levels at which all systems wait for each other
+     */
+    ConcurrentPlanExecutor(MigrationProcess process, Map<String, JdbcMigrationLauncher> launchers,
+            List<MigrationListener> listeners, PatchLevelSet barrierLevels)
+    {
+        this.process = process;
+        this.launchers = launchers;
+        this.barrierLevels = barrierLevels;
+        this.sharedListeners = new ArrayList<MigrationListener>(listeners);
+        for (JdbcMigrationLauncher launcher : launchers.values())
+        {
+            sharedListeners.remove(launcher);
+            pendingSuccesses.put(launcher, new ConcurrentLinkedQueue<DeferredSuccess>());
+        }
+    }
+
+    /**
+     * Executes the given plan.
+     *
+     * @param plan               the plan to execute
+     * @param tasksWithLaunchers a map of migration task to the launcher it was
+     *                           loaded from
+     * @return the number of tasks executed
+     * @throws MigrationException if a task fails
+     */
+    int execute(MigrationPlan plan, Map tasksWithLaunchers) throws MigrationException
+    {
+        int taskCount = 0;
+        try
+        {
+            for (Map<JdbcMigrationLauncher, List<MigrationPlan.Step>> phase
+                    : getPhases(plan, tasksWithLaunchers))
+            {
+                taskCount += executePhase(phase);
+            }
+        }
+        finally
+        {
+            // record every success in every system, whether or not the run completed
+            for (JdbcMigrationLauncher launcher : pendingSuccesses.keySet())
+            {
+                deliverPendingSuccesses(launcher);
+            }
+        }
+        return taskCount;
+    }
+
+    /**
+     * Splits the plan into phases at the barrier levels, grouping each phase's
+     * steps by the launcher of their system.
+     *
+     * @param plan               the plan to split
+     * @param tasksWithLaunchers a map of migration task to launcher
+     * @return the phases, in order
+     */
+    private List<Map<JdbcMigrationLauncher, List<MigrationPlan.Step>>> getPhases(MigrationPlan plan,
+            Map tasksWithLaunchers)
+    {
+        List<Map<JdbcMigrationLauncher, List<MigrationPlan.Step>>> phases =
+                new ArrayList<Map<JdbcMigrationLauncher, List<MigrationPlan.Step>>>();
+        Map<JdbcMigrationLauncher, List<MigrationPlan.Step>> phase = null;
+        int[] barriers = barrierLevels.toArray();
+        int nextBarrier = 0;
+        for (MigrationPlan.Step step : plan.getSteps())
+        {
+            int level = step.getTask().getLevel().intValue();
+            boolean crossedBarrier = false;
+            while (nextBarrier < barriers.length && level >= barriers[nextBarrier])
+            {
+                nextBarrier++;
+                crossedBarrier = true;
+            }
+            if (phase == null || crossedBarrier)
+            {
+                phase = new LinkedHashMap<JdbcMigrationLauncher, List<MigrationPlan.Step>>();
+                phases.add(phase);
+            }
+
+            JdbcMigrationLauncher launcher = (JdbcMigrationLauncher) tasksWithLaunchers.get(step.getTask());
+            List<MigrationPlan.Step> steps = phase.get(launcher);
+            if (steps == null)
+            {
+                steps = new ArrayList<MigrationPlan.Step>();
+                phase.put(launcher, steps);
+            }
+            steps.add(step);
+        }
+        return phases;
+    }
+
+    /**
+     * Runs one worker per system in the phase and waits for all of them.
+     *
+     * @param phase the steps of the phase, by launcher
+     * @return the number of tasks executed
+     * @throws MigrationException if a task fails
+     */
+    private int executePhase(Map<JdbcMigrationLauncher, List<MigrationPlan.Step>> phase)
+            throws MigrationException
+    {
+        log.info("Patching " + phase.size() + " systems concurrently");
+        ExecutorService executor = Executors.newFixedThreadPool(phase.size());
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        try
+        {
+            for (Map.Entry<JdbcMigrationLauncher, List<MigrationPlan.Step>> entry : phase.entrySet())
+            {
+                results.add(executor.submit(new SystemWorker(entry.getKey(), entry.getValue())));
+            }
+
+            int taskCount = 0;
+            MigrationException failure = null;
+            for (Future<Integer> result : results)
+            {
+                try
+                {
+                    taskCount += result.get().intValue();
+                }
+                catch (ExecutionException e)
+                {
+                    MigrationException cause = asMigrationException(e.getCause());
+                    if (failure == null)
+                    {
+                        failure = cause;
+                    }
+                    else
+                    {
+                        log.error("Another system failed as well", cause);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    stopped.set(true);
+                    Thread.currentThread().interrupt();
+                    throw new MigrationException("Interrupted while waiting for patch workers", e);
+                }
+            }
+            if (failure != null)
+            {
+                throw failure;
+            }
+            return taskCount;
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Delivers the queued successes of other systems to the given launcher.
+     *
+     * @param launcher the launcher to notify
+     */
+    private void deliverPendingSuccesses(JdbcMigrationLauncher launcher)
+    {
+        Queue<DeferredSuccess> pending = pendingSuccesses.get(launcher);
+        for (DeferredSuccess success = pending.poll(); success != null; success = pending.poll())
+        {
+            try
+            {
+                launcher.migrationSuccessful(success.task, success.context);
+            }
+            catch (MigrationException e)
+            {
+                log.error("Could not record patch " + success.task.getName() + " for launcher "
+                        + launcher, e);
+            }
+        }
+    }
+
+    /**
+     * Unwraps the failure of a worker.
+     *
+     * @param cause the exception thrown by the worker
+     * @return the exception as a <code>MigrationException</code>
+     */
+    private MigrationException asMigrationException(Throwable cause)
+    {
+        if (cause instanceof MigrationException)
+        {
+            return (MigrationException) cause;
+        }
+        return new MigrationException("Unexpected error while patching", cause);
+    }
+
+    /**
+     * Applies the tasks of one system, in order.
+     */
+    private class SystemWorker implements Callable<Integer>
+    {
+        /**
+         * The launcher of the system
+         */
+        private final JdbcMigrationLauncher launcher;
+
+        /**
+         * The steps to execute, in order
+         */
+        private final List<MigrationPlan.Step> steps;
+
+        /**
+         * Tells the listeners about this system's tasks
+         */
+        private final MigrationBroadcaster broadcaster = new MigrationBroadcaster();
+
+        /**
+         * Creates a new <code>SystemWorker</code>.
+         *
+         * @param launcher the launcher of the system
+         * @param steps    the steps to execute, in order
+         */
+        SystemWorker(JdbcMigrationLauncher launcher, List<MigrationPlan.Step> steps)
+        {
+            this.launcher = launcher;
+            this.steps = steps;
+            for (MigrationListener listener : sharedListeners)
+            {
+                broadcaster.addListener(new SerializingListener(listener));
+            }
+            for (JdbcMigrationLauncher other : pendingSuccesses.keySet())
+            {
+                if (other == launcher)
+                {
+                    broadcaster.addListener(launcher);
+                }
+                else
+                {
+                    broadcaster.addListener(new DeferringListener(pendingSuccesses.get(other)));
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Integer call() throws MigrationException
+        {
+            int taskCount = 0;
+            try
+            {
+                for (Iterator<MigrationPlan.Step> i = steps.iterator(); i.hasNext() && !stopped.get();)
+                {
+                    deliverPendingSuccesses(launcher);
+                    MigrationPlan.Step step = i.next();
+                    for (MigrationContext context : step.getContexts())
+                    {
+                        process.applyPatch(context, step.getTask(), broadcaster);
+                    }
+                    taskCount++;
+                }
+                if (stopped.get() && taskCount < steps.size())
+                {
+                    log.info("Stopped patching " + getSystemName() + " after " + taskCount
+                            + " tasks because another system failed");
+                }
+                deliverPendingSuccesses(launcher);
+                return new Integer(taskCount);
+            }
+            catch (MigrationException e)
+            {
+                stopped.set(true);
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                stopped.set(true);
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the name of the system this worker patches.
+         *
+         * @return the name of the system
+         */
+        private String getSystemName()
+        {
+            for (Map.Entry<String, JdbcMigrationLauncher> entry : launchers.entrySet())
+            {
+                if (entry.getValue() == launcher)
+                {
+                    return entry.getKey();
+                }
+            }
+            return String.valueOf(launcher);
+        }
+    }
+
+    /**
+     * A success of another system, waiting to be delivered to a launcher.
+     */
+    private static class DeferredSuccess
+    {
+        /**
+         * The task that succeeded
+         */
+        private final MigrationTask task;
+
+        /**
+         * The context the task ran in
+         */
+        private final MigrationContext context;
+
+        /**
+         * Creates a new <code>DeferredSuccess</code>.
+         *
+         * @param task    the task that succeeded
+         * @param context the context the task ran in
+         */
+        DeferredSuccess(MigrationTask task, MigrationContext context)
+        {
+            this.task = task;
+            this.context = context;
+        }
+    }
+
+    /**
+     * Queues successes for a launcher whose contexts belong to another worker.
+     * Start and failure events only concern the system the task ran in.
+     */
+    private static class DeferringListener implements MigrationListener
+    {
+        /**
+         * The queue of the launcher to notify
+         */
+        private final Queue<DeferredSuccess> pending;
+
+        /**
+         * Creates a new <code>DeferringListener</code>.
+         *
+         * @param pending the queue of the launcher to notify
+         */
+        DeferringListener(Queue<DeferredSuccess> pending)
+        {
+            this.pending = pending;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void initialize(String systemName, Properties properties)
+        {
+            // nothing to initialize
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void migrationStarted(MigrationTask task, MigrationContext context)
+        {
+            // only the task's own system cares
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void migrationSuccessful(MigrationTask task, MigrationContext context)
+        {
+            pending.add(new DeferredSuccess(task, context));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void migrationFailed(MigrationTask task, MigrationContext context, MigrationException e)
+        {
+            // only the task's own system cares
+        }
+    }
+
+    /**
+     * Passes events to a listener shared by all workers, one at a time.
+     */
+    private class SerializingListener implements MigrationListener
+    {
+        /**
+         * The shared listener
+         */
+        private final MigrationListener listener;
+
+        /**
+         * Creates a new <code>SerializingListener</code>.
+         *
+         * @param listener the shared listener
+         */
+        SerializingListener(MigrationListener listener)
+        {
+            this.listener = listener;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void initialize(String systemName, Properties properties) throws MigrationException
+        {
+            synchronized (sharedListeners)
+            {
+                listener.initialize(systemName, properties);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void migrationStarted(MigrationTask task, MigrationContext context)
+                throws MigrationException
+        {
+            synchronized (sharedListeners)
+            {
+                listener.migrationStarted(task, context);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void migrationSuccessful(MigrationTask task, MigrationContext context)
+                throws MigrationException
+        {
+            synchronized (sharedListeners)
+            {
+                listener.migrationSuccessful(task, context);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void migrationFailed(MigrationTask task, MigrationContext context, MigrationException e)
+                throws MigrationException
+        {
+            synchronized (sharedListeners)
+            {
+                listener.migrationFailed(task, context, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The patch state of one context at the time a <code>ClusterStatus</code> was
+ * taken: its patch level, applied patches, lock state and the patches it still
+ * needs. Instances are immutable.
+ */
+public final class ContextStatus
+{
+    /**
+     * The context the status is for
+     */
+    private final MigrationContext context;
+
+    /**
+     * The read-only snapshot of the context's patch store
+     */
+    private final PatchInfoStoreSnapshot patchStore;
+
+    /**
+     * Whether the patch store was locked
+     */
+    private final boolean locked;
+
+    /**
+     * The tasks the context still needs, in level order
+     */
+    private final List<MigrationTask> pendingTasks;
+
+    /**
+     * Creates a new <code>ContextStatus</code>.
+     *
+     * @param context      the context the status is for
+     * @param patchStore   the snapshot of the context's patch store, with its
+     *                     level and applied patches already read
+     * @param locked       whether the patch store was locked
+     * @param pendingTasks the tasks the context still needs, in level order
+     */
+    public ContextStatus(MigrationContext context, PatchInfoStoreSnapshot patchStore, boolean locked,
+            List<MigrationTask> pendingTasks)
+    {
+        this.context = context;
+        this.patchStore = patchStore;
+        this.locked = locked;
+        this.pendingTasks = Collections.unmodifiableList(new ArrayList<MigrationTask>(pendingTasks));
+    }
+
+    /**
+     * @return the context the status is for
+     */
+    public MigrationContext getContext()
+    {
+        return context;
+    }
+
+    /**
+     * Get the read-only snapshot of the context's patch store, for comparing
+     * contexts with a <code>MigrationRunnerStrategy</code> without querying them
+     * again
+     *
+     * @return the patch store snapshot
+     */
+    public PatchInfoStoreSnapshot getPatchStore()
+    {
+        return patchStore;
+    }
+
+    /**
+     * @return the patch level of the context
+     * @throws MigrationException never, as the level was read when the status was taken
+     */
+    public int getPatchLevel() throws MigrationException
+    {
+        return patchStore.getPatchLevel();
+    }
+
+    /**
+     * @return the patch levels applied to the context
+     * @throws MigrationException never, as the levels were read when the status was taken
+     */
+    public PatchLevelSet getAppliedLevels() throws MigrationException
+    {
+        return patchStore.getAppliedLevels();
+    }
+
+    /**
+     * @return true if the patch store was locked
+     */
+    public boolean isLocked()
+    {
+        return locked;
+    }
+
+    /**
+     * @return the tasks the context still needs, in level order
+     */
+    public List<MigrationTask> getPendingTasks()
+    {
+        return pendingTasks;
+    }
+
+    /**
+     * @return the number of tasks the context still needs
+     */
+    public int getPendingCount()
+    {
+        return pendingTasks.size();
+    }
+
+    /**
+     * Useful for debugging
+     *
+     * @return String with state information
+     */
+    public String toString()
+    {
+        try
+        {
+            return context + ": level " + getPatchLevel() + ", applied " + getAppliedLevels()
+                    + (locked ? ", locked" : "") + ", " + getPendingCount() + " pending";
+        }
+        catch (MigrationException e)
+        {
+            return context + ": " + e.getMessage();
+        }
+    }
+}
@@ -21,7 +21,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.*;
-import java.util.Map.Entry;
 
 /**
  * Discovers and executes a sequence of system patches from multiple controlled
@@ -43,7 +42,7 @@ public class DistributedMigrationProcess extends MigrationProcess
     /**
      * The JdbcMigrationLaunchers we are controlling, keyed by system name
      */
-    private HashMap controlledSystems = new HashMap();
+    private volatile HashMap controlledSystems = new HashMap();
 
     /**
      * If true, any nodes of the controlled systems that are not at the system's
@@ -72,94 +71,30 @@ public class DistributedMigrationProcess extends MigrationProcess
      * the current patch level using database tools, then the new node can
      * participate in the regular patching process.
      */
-    private boolean forceSync = false;
+    private volatile boolean forceSync = false;
 
     /**
-     * Creates a new <code>Migration</code> instance.
+     * If true, the controlled systems are patched at the same time, one worker
+     * thread per system. Each system still applies its own patches in order.
+     * Only patch levels listed in <code>barrierLevels</code> are ordered across
+     * systems. Requires a strategy that records each patch separately, since a
+     * single patch level can't describe systems that progress independently.
      */
-    public DistributedMigrationProcess()
-    {
-        super();
-    }
+    private volatile boolean concurrent = false;
 
     /**
-     * Execute a dry run of the rollback process and return a count of the
-     * number of tasks which will rollback.
-     *
-     * @param rollbacks              a <code>List</code> of RollbackableMigrationTasks
-     * @param rollbacksWithLaunchers a <code>LinkedHashMap</code> of task to launcher
-     * @return count of the number of rollbacks
+     * The patch levels that all controlled systems must reach together when
+     * patching concurrently: no task at or above a barrier level starts until
+     * every system has applied all of its tasks below it.
      */
-    protected final int rollbackDryRun(final List rollbacks,
-            final LinkedHashMap rollbacksWithLaunchers)
-    {
-        // take the list of rollbacks
-        // iterate through the rollbacks
-        // log the context in which each rollback will execute
-
-        int taskCount = 0;
-
-        if (isPatchSetRollbackable(rollbacks))
-        {
-            for (Iterator i = rollbacks.iterator(); i.hasNext();)
-            {
-                RollbackableMigrationTask task = (RollbackableMigrationTask) i.next();
-                log.info("Will execute rollback for task '" + task.getName() + "'");
-                taskCount++;
-                JdbcMigrationLauncher launcher = (JdbcMigrationLauncher) rollbacksWithLaunchers
-                        .get(task);
-                for (Iterator contextIterator = launcher.getContexts().keySet().iterator(); contextIterator
-                        .hasNext();)
-                {
-
-                    MigrationContext context = (MigrationContext) contextIterator.next();
-                    log.debug("Task will execute in context '" + context + "'");
-
-                }
-            }
-        }
-
-        return taskCount;
-    }
+    private PatchLevelSet barrierLevels = PatchLevelSet.EMPTY;
 
     /**
-     * Execute a dry run of the patch process and return a count of the number
-     * of patches we would have executed.
-     *
-     * @param currentPatchInfoStore   The current patch info store
-     * @param migrationsWithLaunchers a map of migration task to launcher
-     * @return count of the number of patches
+     * Creates a new <code>Migration</code> instance.
      */
-    protected final int patchDryRun(final PatchInfoStore currentPatchInfoStore,
-            final LinkedHashMap migrationsWithLaunchers) throws MigrationException
+    public DistributedMigrationProcess()
     {
-        int taskCount = 0;
-
-        for (Iterator i = migrationsWithLaunchers.entrySet().iterator(); i.hasNext();)
-        {
-            Entry entry = (Entry) i.next();
-            MigrationTask task = (MigrationTask) entry.getKey();
-            JdbcMigrationLauncher launcher = (JdbcMigrationLauncher) entry.getValue();
-
-
-            if (getMigrationRunnerStrategy().shouldMigrationRun(task.getLevel(), currentPatchInfoStore))
-            {
-                log.info("Will execute patch task '" + getTaskLabel(task) + "'");
-                if (log.isDebugEnabled())
-                {
-                    // Get all the contexts the task will execute in
-                    for (Iterator j = launcher.getContexts().keySet().iterator(); j.hasNext();)
-                    {
-                        MigrationContext launcherContext = (MigrationContext) j.next();
-                        log.debug("Task will execute in context '" + launcherContext + "'");
-                    }
-                }
-                taskCount++;
-            }
-
-        }
-
-        return taskCount;
+        super();
     }
 
     /**
@@ -176,50 +111,25 @@ public class DistributedMigrationProcess extends MigrationProcess
             boolean forceRollback) throws MigrationException
     {
         log.debug("Starting doRollbacks");
-        // get all of the allTasks, with launchers, then get the list of just
-        // allTasks
-        LinkedHashMap rollbacksWithLaunchers = getMigrationTasksWithLaunchers();
-        List allTasks = new ArrayList();
-        allTasks.addAll(rollbacksWithLaunchers.keySet());
-
-        List<MigrationTask> rollbackCandidates = getMigrationRunnerStrategy().getRollbackCandidates(allTasks, rollbackLevels, currentPatchInfoStore);
-
+        MigrationPlan plan = createRollbackPlan(currentPatchInfoStore, rollbackLevels, context);
 
         validateControlledSystems(currentPatchInfoStore);
-        rollbackDryRun(rollbackCandidates, rollbacksWithLaunchers);
-
-        if (rollbackCandidates.size() > 0)
+        boolean isPatchSetRollbackable = isPatchSetRollbackable(plan.getTasks());
+        if (isPatchSetRollbackable)
         {
-            log.info("A total of " + rollbackCandidates.size() + " rollback patch tasks will execute.");
-        }
-        else
-        {
-            log.info("System up-to-date.  No patch tasks will rollback.");
+            logPlan(plan);
         }
 
-        if (isPatchSetRollbackable(rollbackCandidates) || forceRollback)
+        int rollbackCount = 0;
+        if (isPatchSetRollbackable || forceRollback)
         {
             if (isReadOnly())
             {
                 throw new MigrationException("Unapplied rollbacks exist, but read-only flag is set");
             }
 
-            for (Iterator rollbackIterator = rollbackCandidates.iterator(); rollbackIterator.hasNext();)
-            {
-                RollbackableMigrationTask task = (RollbackableMigrationTask) rollbackIterator
-                        .next();
-                // Execute the task in the context it was loaded from
-                JdbcMigrationLauncher launcher = (JdbcMigrationLauncher) rollbacksWithLaunchers
-                        .get(task);
-
-                // iterate through all the contexts
-                for (Iterator j = launcher.getContexts().keySet().iterator(); j.hasNext();)
-                {
-                    MigrationContext launcherContext = (MigrationContext) j.next();
-                    applyRollback(launcherContext, task, true);
-                }
-            }
-
+            // Each task rolls back in every context of the system it was loaded from
+            rollbackCount = executePlan(plan);
         }
         else
         {
@@ -227,18 +137,44 @@ public class DistributedMigrationProcess extends MigrationProcess
                     .info("Could not complete rollback because one or more of the tasks is not rollbackable.");
         }
 
-        List<MigrationTask> rollbacksNotApplied = getMigrationRunnerStrategy().getRollbackCandidates(rollbackCandidates,
-                rollbackLevels, currentPatchInfoStore);
-
-        if (rollbacksNotApplied.isEmpty())
+        if (rollbackCount == plan.size())
         {
-            log.info("Rollback complete (" + rollbackCandidates.size() + " patch tasks rolledback)");
+            log.info("Rollback complete (" + rollbackCount + " patch tasks rolledback)");
         }
         else
         {
             log.info("The system could not rollback the tasks");
         }
-        return rollbackCandidates.size() - rollbacksNotApplied.size();
+        return rollbackCount;
+    }
+
+    /**
+     * Computes the rollbacks needed to move every controlled system to the
+     * rollback levels. Each task is planned to roll back in all contexts of the
+     * system it was loaded from.
+     *
+     * @param currentPatchInfoStore the patch store of the distributed system
+     * @param rollbackLevels        the levels to roll back to
+     * @param context               the context of the distributed system
+     * @return the plan of rollbacks, in order
+     * @throws MigrationException if the rollback levels are invalid or the patch
+     *                            store can't be read
+     */
+    public final MigrationPlan createRollbackPlan(final PatchInfoStore currentPatchInfoStore,
+            final int[] rollbackLevels, final MigrationContext context) throws MigrationException
+    {
+        LinkedHashMap rollbacksWithLaunchers = getMigrationTasksWithLaunchers();
+        List<MigrationTask> allTasks = new ArrayList<MigrationTask>();
+        allTasks.addAll(rollbacksWithLaunchers.keySet());
+
+        List<MigrationTask> rollbackCandidates = getMigrationRunnerStrategy().getRollbackCandidates(
+                allTasks, rollbackLevels, new PatchInfoStoreSnapshot(currentPatchInfoStore));
+        List<MigrationPlan.Step> steps = new ArrayList<MigrationPlan.Step>();
+        for (MigrationTask task : rollbackCandidates)
+        {
+            steps.add(createStep(task, rollbacksWithLaunchers));
+        }
+        return new MigrationPlan(PatchExecution.ROLLBACK, steps);
     }
 
     /**
@@ -257,7 +193,7 @@ public class DistributedMigrationProcess extends MigrationProcess
         // Get all the migrations, with their launchers, then get the list of
         // just the migrations
         LinkedHashMap migrationsWithLaunchers = getMigrationTasksWithLaunchers();
-        List migrations = new ArrayList();
+        List<MigrationTask> migrations = new ArrayList<MigrationTask>();
         migrations.addAll(migrationsWithLaunchers.keySet());
 
         // make sure the migrations are okay, then sort them
@@ -267,16 +203,9 @@ public class DistributedMigrationProcess extends MigrationProcess
         validateControlledSystems(patchInfoStore);
 
         // determine how many tasks we're going to execute
-        int taskCount = patchDryRun(patchInfoStore, migrationsWithLaunchers);
-
-        if (taskCount > 0)
-        {
-            log.info("A total of " + taskCount + " patch tasks will execute.");
-        }
-        else
-        {
-            log.info("System up-to-date.  No patch tasks will execute.");
-        }
+        MigrationPlan plan = createMigrationPlan(new PatchInfoStoreSnapshot(patchInfoStore),
+                migrations, migrationsWithLaunchers);
+        int taskCount = logPlan(plan);
 
         // See if we should execute
         if (isReadOnly())
@@ -290,70 +219,17 @@ public class DistributedMigrationProcess extends MigrationProcess
             return 0;
         }
 
-        // Roll through each migration, applying it if necessary
-        taskCount = 0;
-        for (Iterator i = migrations.iterator(); i.hasNext();)
+        if (forceSync)
         {
-            MigrationTask task = (MigrationTask) i.next();
-            int migrationLevel = task.getLevel().intValue();
-            boolean shouldApplyPatch = getMigrationRunnerStrategy().shouldMigrationRun(migrationLevel, patchInfoStore);
-
-            if (shouldApplyPatch && !forceSync)
-            {
-                // Execute the task in the context it was loaded from
-                JdbcMigrationLauncher launcher = (JdbcMigrationLauncher) migrationsWithLaunchers
-                        .get(task);
-                // Get all the contexts the task will execute in
-                for (Iterator j = launcher.getContexts().keySet().iterator(); j.hasNext();)
-                {
-                    MigrationContext launcherContext = (MigrationContext) j.next();
-                    applyPatch(launcherContext, task, true);
-                }
-                taskCount++;
-            }
-            else if (forceSync)// if a sync is forced, need to check all
-            // the contexts to identify the ones out of
-            // sync
-            {
-                boolean patchesApplied = false;
-                ArrayList outOfSyncContexts = new ArrayList();
-
-                // first need to iterate over all the contexts and determined
-                // which one's are out of sync.
-                // can't sync yet because if there are multiple contexts that
-                // are out of sync, after the
-                // first one is synced, the remaining one's have their patch
-                // level updated via the
-                // MigrationListener.migrationSuccessful event.
-                JdbcMigrationLauncher launcher = (JdbcMigrationLauncher) migrationsWithLaunchers
-                        .get(task);
-                for (Iterator j = launcher.getContexts().keySet().iterator(); j.hasNext();)
-                {
-                    MigrationContext launcherContext = (MigrationContext) j.next();
-                    PatchInfoStore patchInfoStoreOfContext =
-                            (PatchInfoStore) launcher.getContexts().get(
-                                    launcherContext);
-
-                    if (!getMigrationRunnerStrategy().isSynchronized(patchInfoStore, patchInfoStoreOfContext))
-                    {
-                        outOfSyncContexts.add(launcherContext);
-                    }
-                }
-
-                // next patch the contexts that have been determined to be out
-                // of sync
-                for (Iterator iter = outOfSyncContexts.iterator(); iter.hasNext();)
-                {
-                    MigrationContext launcherContext = (MigrationContext) iter.next();
-                    applyPatch(launcherContext, task, true);
-                    patchesApplied = true;
-                }
-
-                if (patchesApplied)
-                {
-                    taskCount++;
-                }
-            } // else if forceSync
+            taskCount = doSyncMigrations(patchInfoStore, migrations, migrationsWithLaunchers);
+        }
+        else if (concurrent)
+        {
+            taskCount = executePlanConcurrently(plan, migrationsWithLaunchers);
+        }
+        else
+        {
+            taskCount = executePlan(plan);
         }
 
         if (taskCount > 0)
@@ -368,6 +244,154 @@ public class DistributedMigrationProcess extends MigrationProcess
         return taskCount;
     }
 
+    /**
+     * Computes the patches that need to be applied to bring every controlled
+     * system up to date. Each task is planned to run in all contexts of the
+     * system it was loaded from.
+     *
+     * @param patchInfoStore the patch store of the distributed system
+     * @param context        the context of the distributed system
+     * @return the plan of patches to apply, in order
+     * @throws MigrationException if the patch tasks are invalid or the patch
+     *                            store can't be read
+     */
+    public final MigrationPlan createMigrationPlan(final PatchInfoStore patchInfoStore,
+            final MigrationContext context) throws MigrationException
+    {
+        LinkedHashMap migrationsWithLaunchers = getMigrationTasksWithLaunchers();
+        List<MigrationTask> migrations = new ArrayList<MigrationTask>();
+        migrations.addAll(migrationsWithLaunchers.keySet());
+        validateTasks(migrations);
+        Collections.sort(migrations);
+        return createMigrationPlan(new PatchInfoStoreSnapshot(patchInfoStore), migrations,
+                migrationsWithLaunchers);
+    }
+
+    /**
+     * Computes which of the given tasks need to be applied.
+     *
+     * @param snapshot                the patch store snapshot to check the tasks against
+     * @param migrations              the candidate tasks, in order
+     * @param migrationsWithLaunchers a map of migration task to launcher
+     * @return the plan of patches to apply, in order
+     * @throws MigrationException if the patch store can't be read
+     */
+    private MigrationPlan createMigrationPlan(final PatchInfoReader snapshot,
+            final List<MigrationTask> migrations, final LinkedHashMap migrationsWithLaunchers)
+            throws MigrationException
+    {
+        List<MigrationPlan.Step> steps = new ArrayList<MigrationPlan.Step>();
+        for (MigrationTask task : migrations)
+        {
+            if (getMigrationRunnerStrategy().shouldMigrationRun(task.getLevel().intValue(), snapshot))
+            {
+                steps.add(createStep(task, migrationsWithLaunchers));
+            }
+        }
+        return new MigrationPlan(PatchExecution.APPLY, steps);
+    }
+
+    /**
+     * Creates a plan step running the given task in every context of the
+     * launcher it was loaded from.
+     *
+     * @param task               the task to run
+     * @param tasksWithLaunchers a map of migration task to launcher
+     * @return the plan step
+     */
+    private MigrationPlan.Step createStep(final MigrationTask task, final LinkedHashMap tasksWithLaunchers)
+    {
+        JdbcMigrationLauncher launcher = (JdbcMigrationLauncher) tasksWithLaunchers.get(task);
+        List<MigrationContext> contexts = new ArrayList<MigrationContext>();
+        contexts.addAll(launcher.getContexts().keySet());
+        return new MigrationPlan.Step(task, contexts);
+    }
+
+    /**
+     * Executes the plan with one worker thread per controlled system.
+     *
+     * @param plan                    the plan to execute
+     * @param migrationsWithLaunchers a map of migration task to launcher
+     * @return the number of tasks executed
+     * @throws MigrationException if the strategy can't track concurrent
+     *                            progress, or a task fails
+     * @see ConcurrentPlanExecutor
+     */
+    private int executePlanConcurrently(final MigrationPlan plan,
+            final LinkedHashMap migrationsWithLaunchers) throws MigrationException
+    {
+        if (getMigrationRunnerStrategy() instanceof OrderedMigrationRunnerStrategy)
+        {
+            throw new MigrationException("Controlled systems can't be patched concurrently with the "
+                    + "ordered migration strategy, since a single patch level can't record systems "
+                    + "that progress independently; use the missing patch strategy instead");
+        }
+        ConcurrentPlanExecutor executor = new ConcurrentPlanExecutor(this, getControlledSystems(),
+                getListeners(), barrierLevels);
+        return executor.execute(plan, migrationsWithLaunchers);
+    }
+
+    /**
+     * Applies every task to the contexts that are out of sync with the
+     * distributed system. Unlike a regular run this can't be planned up front:
+     * applying a task to one node updates the patch level of the others through
+     * their <code>MigrationListener</code>s, so each node is checked as the run
+     * progresses.
+     *
+     * @param patchInfoStore          the patch store of the distributed system
+     * @param migrations              all tasks, in order
+     * @param migrationsWithLaunchers a map of migration task to launcher
+     * @return the number of tasks applied to at least one context
+     * @throws MigrationException if a migration fails
+     */
+    private int doSyncMigrations(final PatchInfoStore patchInfoStore, final List<MigrationTask> migrations,
+            final LinkedHashMap migrationsWithLaunchers) throws MigrationException
+    {
+        int taskCount = 0;
+        for (MigrationTask task : migrations)
+        {
+            boolean patchesApplied = false;
+            ArrayList outOfSyncContexts = new ArrayList();
+
+            // first need to iterate over all the contexts and determined
+            // which one's are out of sync.
+            // can't sync yet because if there are multiple contexts that
+            // are out of sync, after the
+            // first one is synced, the remaining one's have their patch
+            // level updated via the
+            // MigrationListener.migrationSuccessful event.
+            JdbcMigrationLauncher launcher = (JdbcMigrationLauncher) migrationsWithLaunchers
+                    .get(task);
+            for (Iterator j = launcher.getContexts().keySet().iterator(); j.hasNext();)
+            {
+                MigrationContext launcherContext = (MigrationContext) j.next();
+                PatchInfoStore patchInfoStoreOfContext =
+                        (PatchInfoStore) launcher.getContexts().get(
+                                launcherContext);
+
+                if (!getMigrationRunnerStrategy().isSynchronized(patchInfoStore, patchInfoStoreOfContext))
+                {
+                    outOfSyncContexts.add(launcherContext);
+                }
+            }
+
+            // next patch the contexts that have been determined to be out
+            // of sync
+            for (Iterator iter = outOfSyncContexts.iterator(); iter.hasNext();)
+            {
+                MigrationContext launcherContext = (MigrationContext) iter.next();
+                applyPatch(launcherContext, task, true);
+                patchesApplied = true;
+            }
+
+            if (patchesApplied)
+            {
+                taskCount++;
+            }
+        }
+        return taskCount;
+    }
+
     /**
      * Validates that the controlled systems are all at the current patch level.
      *
@@ -376,31 +400,44 @@ public class DistributedMigrationProcess extends MigrationProcess
      */
     protected final void validateControlledSystems(final PatchInfoStore currentPatchInfoStore) throws MigrationException
     {
+        // every node is compared to the same system state, so read it only once,
+        // and read all the nodes at the same time; only their levels are needed
+        PatchInfoReader currentSnapshot = new PatchInfoStoreSnapshot(currentPatchInfoStore);
+        LinkedHashMap<MigrationContext, PatchInfoStore> nodes =
+                new LinkedHashMap<MigrationContext, PatchInfoStore>();
+        Map<MigrationContext, String> nodeSystems = new HashMap<MigrationContext, String>();
         for (Iterator it = getControlledSystems().keySet().iterator(); it.hasNext();)
         {
             String systemName = (String) it.next();
             JdbcMigrationLauncher launcher = (JdbcMigrationLauncher) getControlledSystems().get(
                     systemName);
-            for (Iterator contextIt = launcher.getContexts().keySet().iterator(); contextIt
-                    .hasNext();)
+            nodes.putAll(launcher.getContexts());
+            for (Object ctx : launcher.getContexts().keySet())
             {
-                JdbcMigrationContext ctx = (JdbcMigrationContext) contextIt.next();
-                PatchInfoStore patchInfoStore = (PatchInfoStore) launcher.getContexts().get(ctx);
-                if (!getMigrationRunnerStrategy().isSynchronized(currentPatchInfoStore, patchInfoStore))
+                nodeSystems.put((MigrationContext) ctx, systemName);
+            }
+        }
+        ClusterStatus cluster = new ClusterStatusService(getMigrationRunnerStrategy())
+                .getClusterStatus(nodes, new ArrayList<MigrationTask>());
+
+        for (ContextStatus node : cluster.getContextStatuses())
+        {
+            JdbcMigrationContext ctx = (JdbcMigrationContext) node.getContext();
+            if (!getMigrationRunnerStrategy().isSynchronized(currentSnapshot, node.getPatchStore()))
+            {
+                String systemName = nodeSystems.get(ctx);
+                String message = "Database " + ctx.getDatabaseName()
+                        + " is out of sync with system: " + systemName + ".  "
+                        + ctx.getDatabaseName() + " is at patch level "
+                        + Integer.toString(node.getPatchLevel()) + " and the System is at patch level "
+                        + Integer.toString(currentSnapshot.getPatchLevel()) + ".";
+                if (getForceSync())
+                {
+                    log.info(message + "  Continuing since 'forcesync' was specified.");
+                }
+                else
                 {
-                    String message = "Database " + ctx.getDatabaseName()
-                            + " is out of sync with system: " + systemName + ".  "
-                            + ctx.getDatabaseName() + " is at patch level "
-                            + Integer.toString(patchInfoStore.getPatchLevel()) + " and the System is at patch level "
-                            + Integer.toString(currentPatchInfoStore.getPatchLevel()) + ".";
-                    if (getForceSync())
-                    {
-                        log.info(message + "  Continuing since 'forcesync' was specified.");
-                    }
-                    else
-                    {
-                        throw new MigrationException(message);
-                    }
+                    throw new MigrationException(message);
                 }
             }
         }
@@ -489,6 +526,23 @@ public class DistributedMigrationProcess extends MigrationProcess
         return tasks;
     }
 
+    /**
+     * Waits for the asynchronous listeners of this process and of every
+     * controlled system to catch up.
+     *
+     * @return <code>true</code> if every event was delivered or discarded in time
+     */
+    public final boolean flushListeners()
+    {
+        boolean flushed = super.flushListeners();
+        for (Iterator it = getControlledSystems().values().iterator(); it.hasNext();)
+        {
+            JdbcMigrationLauncher launcher = (JdbcMigrationLauncher) it.next();
+            flushed &= launcher.getMigrationProcess().flushListeners();
+        }
+        return flushed;
+    }
+
     /**
      * Get the list of systems we are controlling
      *
@@ -510,6 +564,48 @@ public class DistributedMigrationProcess extends MigrationProcess
         this.controlledSystems = controlledSystems;
     }
 
+    /**
+     * Returns whether the controlled systems are patched at the same time.
+     *
+     * @return <code>true</code> if the controlled systems are patched concurrently
+     */
+    public final boolean isConcurrent()
+    {
+        return concurrent;
+    }
+
+    /**
+     * Sets whether the controlled systems are patched at the same time.
+     *
+     * @param concurrent <code>true</code> to patch the controlled systems concurrently
+     */
+    public final void setConcurrent(final boolean concurrent)
+    {
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * Returns the patch levels all controlled systems reach together when
+     * patching concurrently.
+     *
+     * @return the barrier levels
+     */
+    public final PatchLevelSet getBarrierLevels()
+    {
+        return barrierLevels;
+    }
+
+    /**
+     * Sets the patch levels all controlled systems reach together when
+     * patching concurrently.
+     *
+     * @param barrierLevels the barrier levels
+     */
+    public final void setBarrierLevels(final PatchLevelSet barrierLevels)
+    {
+        this.barrierLevels = barrierLevels == null ? PatchLevelSet.EMPTY : barrierLevels;
+    }
+
     public final boolean getForceSync()
     {
         return forceSync;
@@ -0,0 +1,35 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+/**
+ * A post-patch task that declares the input its work depends on.  When the
+ * post-patch tasks are fingerprinted, such a task is only run again once its
+ * content or its input changes.  Tasks that don't implement this interface
+ * depend on the patch level of the system.
+ */
+public interface FingerprintedMigrationTask extends MigrationTask
+{
+    /**
+     * Returns the input the work of this task depends on, e.g. the names of
+     * the tables it grants access to
+     *
+     * @param context the context the task is about to run in
+     * @return the input of this task
+     * @throws MigrationException if the input can't be determined
+     */
+    public String getFingerprintInput(MigrationContext context) throws MigrationException;
+}
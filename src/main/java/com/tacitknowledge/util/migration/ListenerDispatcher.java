@@ -0,0 +1,419 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers migration events to observational listeners on a dedicated thread,
+ * so a slow listener doesn't hold up patching.  Events wait in a bounded ring
+ * buffer; what happens when it is full is decided by the overflow policy.
+ * <p/>
+ * Events are delivered in the order they were queued.  The caller-runs policy
+ * bends this: the patching thread delivers the queued events itself before the
+ * one that didn't fit, but the event the dispatch thread is busy with may
+ * reach its listener after those, and at the same time, so listeners used
+ * with that policy must be thread-safe.  A listener called by the dispatcher
+ * can't veto a patch: anything it throws is logged and dropped.
+ * <p/>
+ * The dispatch thread is a daemon and is started with the first event.
+ * {@link #close()} stops it once every queued event has been handled, so it
+ * doesn't outlive a migration run and pin the class loader of a web
+ * application; an event queued after that starts a new thread.
+ */
+final class ListenerDispatcher
+{
+    /**
+     * Overflow policy that makes the patching thread wait for room in the buffer
+     */
+    public static final String BLOCK = "block";
+
+    /**
+     * Overflow policy that discards the event that didn't fit
+     */
+    public static final String DROP_NEWEST = "drop-newest";
+
+    /**
+     * Overflow policy that discards the oldest queued event to make room
+     */
+    public static final String DROP_OLDEST = "drop-oldest";
+
+    /**
+     * Overflow policy that delivers the event on the patching thread instead
+     */
+    public static final String CALLER_RUNS = "caller-runs";
+
+    /**
+     * The default number of events the buffer holds
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(ListenerDispatcher.class);
+
+    /**
+     * The events waiting to be delivered
+     */
+    private final BlockingQueue<Event> buffer;
+
+    /**
+     * What to do when the buffer is full
+     */
+    private final String overflowPolicy;
+
+    /**
+     * The number of events discarded because the buffer was full
+     */
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    /**
+     * Guards <code>pending</code> and the dispatch thread
+     */
+    private final Object lock = new Object();
+
+    /**
+     * <code>true</code> if the dispatch thread should stop once no events are
+     * pending; guarded by <code>lock</code>
+     */
+    private boolean closing = false;
+
+    /**
+     * The number of events queued but not yet delivered or discarded
+     */
+    private int pending = 0;
+
+    /**
+     * The thread delivering the events; started with the first event
+     */
+    private Thread dispatchThread = null;
+
+    /**
+     * Creates a new <code>ListenerDispatcher</code>.
+     *
+     * @param capacity       the number of events the buffer holds
+     * @param overflowPolicy one of <code>BLOCK</code>, <code>DROP_NEWEST</code>,
+     *                       <code>DROP_OLDEST</code> or <code>CALLER_RUNS</code>
+     */
+    ListenerDispatcher(int capacity, String overflowPolicy)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        if (!BLOCK.equals(overflowPolicy) && !DROP_NEWEST.equals(overflowPolicy)
+                && !DROP_OLDEST.equals(overflowPolicy) && !CALLER_RUNS.equals(overflowPolicy))
+        {
+            throw new IllegalArgumentException("Unknown overflow policy " + overflowPolicy);
+        }
+        this.buffer = new ArrayBlockingQueue<Event>(capacity);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Queues an event for the given listener.
+     *
+     * @param listener  the listener to notify
+     * @param task      the task the event is about
+     * @param context   the context the task ran in
+     * @param e         the exception thrown by the task, if it failed
+     * @param eventType one of the <code>MigrationBroadcaster</code> event types
+     */
+    void dispatch(MigrationListener listener, MigrationTask task, MigrationContext context,
+            MigrationException e, int eventType)
+    {
+        Event event = new Event(listener, task, context, e, eventType);
+        synchronized (lock)
+        {
+            pending++;
+            closing = false;
+            startDispatchThread();
+        }
+
+        if (buffer.offer(event))
+        {
+            return;
+        }
+        if (DROP_NEWEST.equals(overflowPolicy))
+        {
+            discard(event);
+        }
+        else if (DROP_OLDEST.equals(overflowPolicy))
+        {
+            while (!buffer.offer(event))
+            {
+                Event oldest = buffer.poll();
+                if (oldest != null)
+                {
+                    discard(oldest);
+                }
+            }
+        }
+        else if (CALLER_RUNS.equals(overflowPolicy))
+        {
+            deliverInline(event);
+        }
+        else
+        {
+            try
+            {
+                buffer.put(event);
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                discard(event);
+            }
+        }
+    }
+
+    /**
+     * Waits until every queued event has been delivered or discarded.
+     *
+     * @param timeoutMillis the longest time to wait
+     * @return <code>true</code> if the buffer drained in time
+     */
+    boolean flush(long timeoutMillis)
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock)
+        {
+            try
+            {
+                while (pending > 0)
+                {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                    {
+                        log.warn(pending + " migration events were not delivered within "
+                                + timeoutMillis + "ms");
+                        return false;
+                    }
+                    lock.wait(remaining);
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the dispatch thread once every queued event has been delivered or
+     * discarded.  Events queued later start a new dispatch thread.
+     */
+    void close()
+    {
+        synchronized (lock)
+        {
+            closing = true;
+            stopIfIdle();
+        }
+    }
+
+    /**
+     * @return the number of events discarded because the buffer was full
+     */
+    long getDroppedEvents()
+    {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return the overflow policy
+     */
+    String getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the number of events the buffer holds
+     */
+    int getCapacity()
+    {
+        return buffer.size() + buffer.remainingCapacity();
+    }
+
+    /**
+     * Starts the dispatch thread if it isn't running yet; the caller must hold
+     * <code>lock</code>.
+     */
+    private void startDispatchThread()
+    {
+        if (dispatchThread == null)
+        {
+            dispatchThread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    dispatchLoop();
+                }
+            }, "autopatch-listener-dispatcher");
+            dispatchThread.setDaemon(true);
+            dispatchThread.start();
+        }
+    }
+
+    /**
+     * Stops the dispatch thread if it was asked to stop and no events are
+     * pending; the caller must hold <code>lock</code>.
+     */
+    private void stopIfIdle()
+    {
+        if (closing && (pending == 0) && (dispatchThread != null))
+        {
+            dispatchThread.interrupt();
+            dispatchThread = null;
+        }
+    }
+
+    /**
+     * Delivers queued events until the thread is interrupted.
+     */
+    private void dispatchLoop()
+    {
+        try
+        {
+            while (true)
+            {
+                Event event = buffer.poll(1, TimeUnit.SECONDS);
+                if (event != null)
+                {
+                    deliver(event);
+                }
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            log.debug("Listener dispatch thread interrupted, stopping");
+        }
+    }
+
+    /**
+     * Delivers an event on the calling thread, after the events queued before
+     * it.  The events queued by other threads meanwhile are left to the
+     * dispatch thread.
+     *
+     * @param event the event to deliver
+     */
+    private void deliverInline(Event event)
+    {
+        for (int queued = buffer.size(); queued > 0; queued--)
+        {
+            Event older = buffer.poll();
+            if (older == null)
+            {
+                break;
+            }
+            deliver(older);
+        }
+        deliver(event);
+    }
+
+    /**
+     * Calls the event's listener, logging anything it throws.
+     *
+     * @param event the event to deliver
+     */
+    private void deliver(Event event)
+    {
+        try
+        {
+            MigrationBroadcaster.notifyListener(event.listener, event.task, event.context,
+                    event.exception, event.eventType);
+        }
+        catch (Throwable t)
+        {
+            log.warn("Listener " + event.listener + " failed to handle a migration event", t);
+        }
+        finally
+        {
+            done();
+        }
+    }
+
+    /**
+     * Records an event that was thrown away because the buffer was full.
+     *
+     * @param event the discarded event
+     */
+    private void discard(Event event)
+    {
+        long dropped = droppedEvents.incrementAndGet();
+        if (dropped == 1 || dropped % 1000 == 0)
+        {
+            log.warn("Listener event buffer is full; " + dropped + " events dropped so far");
+        }
+        done();
+    }
+
+    /**
+     * Counts an event as finished and wakes up anyone flushing.
+     */
+    private void done()
+    {
+        synchronized (lock)
+        {
+            pending--;
+            if (pending == 0)
+            {
+                lock.notifyAll();
+            }
+            stopIfIdle();
+        }
+    }
+
+    /**
+     * One migration event bound for one listener.
+     */
+    private static final class Event
+    {
+        /** The listener to notify */
+        private final MigrationListener listener;
+
+        /** The task the event is about */
+        private final MigrationTask task;
+
+        /** The context the task ran in */
+        private final MigrationContext context;
+
+        /** The exception thrown by the task, if it failed */
+        private final MigrationException exception;
+
+        /** The type of event */
+        private final int eventType;
+
+        Event(MigrationListener listener, MigrationTask task, MigrationContext context,
+                MigrationException exception, int eventType)
+        {
+            this.listener = listener;
+            this.task = task;
+            this.context = context;
+            this.exception = exception;
+            this.eventType = eventType;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+/**
+ * A migration task that can report what its most recent execution did, so
+ * that the numbers can be kept in the patch execution history.
+ *
+ * @see PatchExecution
+ */
+public interface MeasuredMigrationTask extends MigrationTask
+{
+    /**
+     * Returns the number of statements executed by the most recent migration
+     * or rollback of this task in the given context
+     *
+     * @param context the context the task ran in
+     * @return the number of statements executed, or -1 if unknown
+     */
+    public int getStatementCount(MigrationContext context);
+
+    /**
+     * Returns the number of rows affected by the most recent migration or
+     * rollback of this task in the given context
+     *
+     * @param context the context the task ran in
+     * @return the number of rows affected, or -1 if unknown
+     */
+    public int getRowsAffected(MigrationContext context);
+}
@@ -15,13 +15,19 @@
 
 package com.tacitknowledge.util.migration;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Manages the <code>MessageListener</code> that are associated with a
  * <code>Migration</code> instance.
+ * <p/>
+ * Listeners are called on the patching thread, in the order they were added,
+ * unless they were added with {@link #addAsynchronousListener}; those are
+ * handed their events through a <code>ListenerDispatcher</code> instead.  The
+ * listener list may be read and changed while tasks run in parallel.
  *
  * @author Scott Askew (scott@tacitknowledge.com)
  */
@@ -48,7 +54,22 @@ class MigrationBroadcaster
     /**
      * The listeners interested in being notified of migration task events.
      */
-    private List listeners = new ArrayList();
+    private List listeners = new CopyOnWriteArrayList();
+
+    /**
+     * The number of events the asynchronous dispatcher buffers
+     */
+    private int asynchronousCapacity = ListenerDispatcher.DEFAULT_CAPACITY;
+
+    /**
+     * What the asynchronous dispatcher does when its buffer is full
+     */
+    private String asynchronousOverflowPolicy = ListenerDispatcher.BLOCK;
+
+    /**
+     * Delivers events to the asynchronous listeners; created with the first one
+     */
+    private ListenerDispatcher dispatcher = null;
 
     /**
      * Notifies all registered listeners of a migration task event.
@@ -65,23 +86,40 @@ class MigrationBroadcaster
         for (Iterator i = listeners.iterator(); i.hasNext();)
         {
             MigrationListener listener = (MigrationListener) i.next();
-            switch (eventType)
-            {
-                case TASK_START:
-                    listener.migrationStarted(task, context);
-                    break;
+            notifyListener(listener, task, context, e, eventType);
+        }
+    }
 
-                case TASK_SUCCESS:
-                    listener.migrationSuccessful(task, context);
-                    break;
+    /**
+     * Notifies one listener of a migration task event.
+     *
+     * @param listener  the listener to notify
+     * @param task      the task that is being or that has been executed
+     * @param context   the context in which the task was executed
+     * @param e         the exception thrown by the task if the task failed
+     * @param eventType TASK_START, TASK_SUCCESS, or TASK_FAIL
+     * @throws MigrationException if the listener threw an exception
+     */
+    static void notifyListener(MigrationListener listener, MigrationTask task,
+            MigrationContext context, MigrationException e, int eventType)
+            throws MigrationException
+    {
+        switch (eventType)
+        {
+            case TASK_START:
+                listener.migrationStarted(task, context);
+                break;
 
-                case TASK_FAILED:
-                    listener.migrationFailed(task, context, e);
-                    break;
+            case TASK_SUCCESS:
+                listener.migrationSuccessful(task, context);
+                break;
 
-                default:
-                    throw new IllegalArgumentException("Unknown event type");
-            }
+            case TASK_FAILED:
+                listener.migrationFailed(task, context, e);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown event type");
         }
     }
 
@@ -114,6 +152,23 @@ class MigrationBroadcaster
         listeners.add(listener);
     }
 
+    /**
+     * Registers the given <code>MigrationListener</code> as an observer of
+     * migration task events.  It is notified on a separate thread, after the
+     * event, and can't stop a patch from being applied; use it for auditing or
+     * notifications, not for bookkeeping the patch level depends on.
+     *
+     * @param listener the listener to add; may not be <code>null</code>
+     */
+    public void addAsynchronousListener(MigrationListener listener)
+    {
+        if (listener == null)
+        {
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+        listeners.add(new QueuedListener(listener, getDispatcher()));
+    }
+
     /**
      * Removes the given <code>MigrationListener</code> from the list of listeners
      * associated with the <code>Migration</code> instance.
@@ -128,9 +183,104 @@ class MigrationBroadcaster
         {
             throw new IllegalArgumentException("listener cannot be null");
         }
+        for (Iterator i = listeners.iterator(); i.hasNext();)
+        {
+            Object registered = i.next();
+            if ((registered instanceof QueuedListener)
+                    && ((QueuedListener) registered).delegate.equals(listener))
+            {
+                return listeners.remove(registered);
+            }
+        }
         return listeners.remove(listener);
     }
 
+    /**
+     * Sets how many events wait for the asynchronous listeners before the
+     * overflow policy applies.  Must be set before the first asynchronous
+     * listener is added.
+     *
+     * @param capacity the number of events to buffer
+     */
+    public synchronized void setAsynchronousCapacity(int capacity)
+    {
+        checkDispatcherNotCreated();
+        this.asynchronousCapacity = capacity;
+    }
+
+    /**
+     * Sets what happens to an event for the asynchronous listeners when the
+     * buffer is full: "block" waits for room, "drop-newest" discards the new
+     * event, "drop-oldest" discards the oldest queued one, and "caller-runs"
+     * notifies the listener on the patching thread, after the queued events.
+     * With "caller-runs" a listener may be called from two threads at once.
+     * Must be set before the first asynchronous listener is added.
+     *
+     * @param overflowPolicy the overflow policy
+     */
+    public synchronized void setAsynchronousOverflowPolicy(String overflowPolicy)
+    {
+        checkDispatcherNotCreated();
+        this.asynchronousOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Waits for the asynchronous listeners to receive every event queued so far.
+     * The dispatch thread stops once they have; a later event starts a new one.
+     *
+     * @param timeoutMillis the longest time to wait
+     * @return <code>true</code> if every event was delivered or discarded in time
+     */
+    public boolean flush(long timeoutMillis)
+    {
+        ListenerDispatcher current;
+        synchronized (this)
+        {
+            current = dispatcher;
+        }
+        if (current == null)
+        {
+            return true;
+        }
+        boolean flushed = current.flush(timeoutMillis);
+        current.close();
+        return flushed;
+    }
+
+    /**
+     * @return the number of events the asynchronous listeners missed because
+     *         the buffer was full
+     */
+    public synchronized long getDroppedEvents()
+    {
+        return (dispatcher == null) ? 0 : dispatcher.getDroppedEvents();
+    }
+
+    /**
+     * Returns the dispatcher for the asynchronous listeners, creating it if needed.
+     *
+     * @return the dispatcher
+     */
+    private synchronized ListenerDispatcher getDispatcher()
+    {
+        if (dispatcher == null)
+        {
+            dispatcher = new ListenerDispatcher(asynchronousCapacity, asynchronousOverflowPolicy);
+        }
+        return dispatcher;
+    }
+
+    /**
+     * @throws IllegalStateException if an asynchronous listener was already added
+     */
+    private synchronized void checkDispatcherNotCreated()
+    {
+        if (dispatcher != null)
+        {
+            throw new IllegalStateException("Asynchronous listeners are already registered");
+        }
+    }
+
     /**
      * Get the list of listeners
      *
@@ -140,4 +290,73 @@ class MigrationBroadcaster
     {
         return listeners;
     }
+
+    /**
+     * Stands in for an asynchronous listener, queueing its events.
+     */
+    private static final class QueuedListener implements MigrationListener
+    {
+        /**
+         * The listener the events are for
+         */
+        private final MigrationListener delegate;
+
+        /**
+         * Delivers the events
+         */
+        private final ListenerDispatcher dispatcher;
+
+        /**
+         * Creates a new <code>QueuedListener</code>.
+         *
+         * @param delegate   the listener the events are for
+         * @param dispatcher delivers the events
+         */
+        QueuedListener(MigrationListener delegate, ListenerDispatcher dispatcher)
+        {
+            this.delegate = delegate;
+            this.dispatcher = dispatcher;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void initialize(String systemName, Properties properties) throws MigrationException
+        {
+            delegate.initialize(systemName, properties);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void migrationStarted(MigrationTask task, MigrationContext context)
+        {
+            dispatcher.dispatch(delegate, task, context, null, TASK_START);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void migrationSuccessful(MigrationTask task, MigrationContext context)
+        {
+            dispatcher.dispatch(delegate, task, context, null, TASK_SUCCESS);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void migrationFailed(MigrationTask task, MigrationContext context,
+                MigrationException e)
+        {
+            dispatcher.dispatch(delegate, task, context, e, TASK_FAILED);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String toString()
+        {
+            return "QueuedListener[" + delegate + "]";
+        }
+    }
 }
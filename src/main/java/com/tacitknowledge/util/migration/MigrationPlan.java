@@ -0,0 +1,226 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An immutable, ordered list of the patch tasks a <code>MigrationProcess</code>
+ * will apply or roll back, together with the contexts each task runs in.
+ * <p/>
+ * A plan is computed once from the patch catalog and a single snapshot of the
+ * patch store, then logged for the dry run, executed and reported on without
+ * asking the patch store again which tasks still need to run.
+ *
+ * @see MigrationProcess#createMigrationPlan(PatchInfoStore, MigrationContext)
+ * @see MigrationProcess#createRollbackPlan(PatchInfoStore, int[], MigrationContext)
+ */
+public final class MigrationPlan
+{
+    /**
+     * Either {@link PatchExecution#APPLY} or {@link PatchExecution#ROLLBACK}
+     */
+    private final String operation;
+
+    /**
+     * The planned steps, in execution order
+     */
+    private final List<Step> steps;
+
+    /**
+     * Creates a new <code>MigrationPlan</code>.
+     *
+     * @param operation either {@link PatchExecution#APPLY} or
+     *                  {@link PatchExecution#ROLLBACK}
+     * @param steps     the steps to execute, in order
+     */
+    public MigrationPlan(String operation, List<Step> steps)
+    {
+        if (!PatchExecution.APPLY.equals(operation) && !PatchExecution.ROLLBACK.equals(operation))
+        {
+            throw new IllegalArgumentException("Unknown plan operation: " + operation);
+        }
+        this.operation = operation;
+        this.steps = Collections.unmodifiableList(new ArrayList<Step>(steps));
+    }
+
+    /**
+     * Returns whether the plan applies or rolls back its tasks.
+     *
+     * @return either {@link PatchExecution#APPLY} or {@link PatchExecution#ROLLBACK}
+     */
+    public String getOperation()
+    {
+        return operation;
+    }
+
+    /**
+     * Returns <code>true</code> if this plan rolls its tasks back.
+     *
+     * @return <code>true</code> if this is a rollback plan
+     */
+    public boolean isRollback()
+    {
+        return PatchExecution.ROLLBACK.equals(operation);
+    }
+
+    /**
+     * Returns the planned steps in execution order.
+     *
+     * @return an unmodifiable list of steps
+     */
+    public List<Step> getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * Returns the planned tasks in execution order.
+     *
+     * @return the planned tasks
+     */
+    public List<MigrationTask> getTasks()
+    {
+        List<MigrationTask> tasks = new ArrayList<MigrationTask>(steps.size());
+        for (Step step : steps)
+        {
+            tasks.add(step.getTask());
+        }
+        return tasks;
+    }
+
+    /**
+     * Returns the number of planned tasks.
+     *
+     * @return the number of planned tasks
+     */
+    public int size()
+    {
+        return steps.size();
+    }
+
+    /**
+     * Returns <code>true</code> if there is nothing to do.
+     *
+     * @return <code>true</code> if the plan has no steps
+     */
+    public boolean isEmpty()
+    {
+        return steps.isEmpty();
+    }
+
+    /**
+     * Returns the estimated cost of executing the plan, counted as the number
+     * of task executions: each task costs one per context it runs in.
+     *
+     * @return the estimated cost of the plan
+     */
+    public int getEstimatedCost()
+    {
+        int cost = 0;
+        for (Step step : steps)
+        {
+            cost += step.getContexts().size();
+        }
+        return cost;
+    }
+
+    /**
+     * Returns a readable listing of the plan, one line per step.
+     *
+     * @return a readable listing of the plan
+     */
+    public String toString()
+    {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(operation).append(" plan: ").append(size()).append(" tasks, estimated cost ")
+                .append(getEstimatedCost());
+        for (Step step : steps)
+        {
+            buffer.append(System.getProperty("line.separator")).append("  ").append(step);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * One task of a <code>MigrationPlan</code> and the contexts it runs in.
+     */
+    public static final class Step
+    {
+        /**
+         * The task to apply or roll back
+         */
+        private final MigrationTask task;
+
+        /**
+         * The contexts the task runs in, in order
+         */
+        private final List<MigrationContext> contexts;
+
+        /**
+         * Creates a new <code>Step</code>.
+         *
+         * @param task     the task to apply or roll back
+         * @param contexts the contexts the task runs in, in order
+         */
+        public Step(MigrationTask task, List<MigrationContext> contexts)
+        {
+            this.task = task;
+            this.contexts = Collections.unmodifiableList(new ArrayList<MigrationContext>(contexts));
+        }
+
+        /**
+         * Returns the task to apply or roll back.
+         *
+         * @return the task to apply or roll back
+         */
+        public MigrationTask getTask()
+        {
+            return task;
+        }
+
+        /**
+         * Returns the contexts the task runs in.
+         *
+         * @return an unmodifiable list of contexts
+         */
+        public List<MigrationContext> getContexts()
+        {
+            return contexts;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String toString()
+        {
+            StringBuffer buffer = new StringBuffer();
+            buffer.append(task.getLevel()).append(' ').append(task.getName()).append(" in ");
+            for (Iterator<MigrationContext> i = contexts.iterator(); i.hasNext();)
+            {
+                buffer.append(i.next());
+                if (i.hasNext())
+                {
+                    buffer.append(", ");
+                }
+            }
+            return buffer.toString();
+        }
+    }
+}
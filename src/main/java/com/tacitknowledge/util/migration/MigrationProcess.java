@@ -15,10 +15,14 @@
 
 package com.tacitknowledge.util.migration;
 
+import com.tacitknowledge.util.migration.metrics.MigrationMetrics;
+import com.tacitknowledge.util.migration.metrics.MigrationTracing;
+import com.tacitknowledge.util.migration.metrics.TraceSpan;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Discovers and executes a sequence of system patches. Patches take the form of
@@ -75,18 +79,36 @@ public class MigrationProcess
      * The list of package names containing the <code>MigrationTask</code>s
      * and SQL scripts to execute as patches
      */
-    private List patchResourcePackages = new ArrayList();
+    private List patchResourcePackages = new CopyOnWriteArrayList();
 
     /**
      * The list of package names containing <code>MigrationTask</code>s and
      * SQL scripts to execute after patch execution
      */
-    private List postPatchResourcePackages = new ArrayList();
+    private List postPatchResourcePackages = new CopyOnWriteArrayList();
+
+    /**
+     * How long a run waits for asynchronous listeners to catch up before returning
+     */
+    public static final long LISTENER_FLUSH_MILLIS = 30000;
+
+    /**
+     * Nanoseconds per millisecond
+     */
+    private static final long NANOS_PER_MILLI = 1000000L;
 
     /**
      * Migration task providers
      */
-    private List<MigrationTaskSource> migrationTaskSources = new ArrayList<MigrationTaskSource>();
+    private List<MigrationTaskSource> migrationTaskSources =
+            new CopyOnWriteArrayList<MigrationTaskSource>();
+
+    /**
+     * Providers of schema baselines, which stand in for the patches up to their
+     * level on an empty system
+     */
+    private List<MigrationTaskSource> baselineTaskSources =
+            new CopyOnWriteArrayList<MigrationTaskSource>();
 
     /**
      * Used to broadcast migration task notifications
@@ -101,13 +123,18 @@ public class MigrationProcess
     /**
      * Holds the strategy used to work with the different patches
      */
-    private MigrationRunnerStrategy migrationRunnerStrategy = null;
+    private volatile MigrationRunnerStrategy migrationRunnerStrategy = null;
 
 
     /**
      * Whether we actually want to apply patches, or just look
      */
-    private boolean readOnly = false;
+    private volatile boolean readOnly = false;
+
+    /**
+     * The registry patch durations and counts are recorded in
+     */
+    private volatile MigrationMetrics metrics = MigrationMetrics.getDefault();
 
     /**
      * Creates a new <code>Migration</code> instance.
@@ -204,6 +231,44 @@ public class MigrationProcess
         }
     }
 
+    /**
+     * Adds a <code>MigrationTaskSource</code> to the list of sources that
+     * provide this instance with baselines.  Baselines are searched for in the
+     * patch search path, but are never applied as patches.
+     *
+     * @param source the <code>MigrationTaskSource</code> to add; may not be
+     *               <code>null</code>
+     */
+    public void addBaselineTaskSource(MigrationTaskSource source)
+    {
+        if (source == null)
+        {
+            throw new IllegalArgumentException("source cannot be null.");
+        }
+        baselineTaskSources.add(source);
+    }
+
+    /**
+     * Returns the baselines found in the patch search path, ordered by level.
+     *
+     * @return a list of baseline tasks
+     * @throws MigrationException if one or more baselines could not be created
+     */
+    public List<MigrationTask> getBaselineTasks() throws MigrationException
+    {
+        List<MigrationTask> baselines = new ArrayList<MigrationTask>();
+        for (Iterator i = patchResourcePackages.iterator(); i.hasNext();)
+        {
+            String packageName = (String) i.next();
+            for (MigrationTaskSource source : baselineTaskSources)
+            {
+                baselines.addAll(source.getMigrationTasks(packageName));
+            }
+        }
+        Collections.sort(baselines);
+        return baselines;
+    }
+
     /**
      * Applies rollbacks to move the patch level from the current level to the
      * rollback level.
@@ -218,15 +283,11 @@ public class MigrationProcess
             boolean forceRollback) throws MigrationException
     {
         log.trace("Starting doRollbacks");
-        List<MigrationTask> allTasks = getMigrationTasks();
-        validateTasks(allTasks);
-
-        List<MigrationTask> rollbackCandidates = getMigrationRunnerStrategy()
-                .getRollbackCandidates(allTasks, rollbackLevels, currentPatchInfoStore);
-
+        MigrationPlan plan = createRollbackPlan(currentPatchInfoStore, rollbackLevels, context);
 
-        boolean isPatchSetRollbackable = isPatchSetRollbackable(rollbackCandidates);
-        rollbackDryRun(rollbackCandidates, context);
+        boolean isPatchSetRollbackable = isPatchSetRollbackable(plan.getTasks());
+        logPlan(plan);
+        int rollbackCount = 0;
         if (isPatchSetRollbackable || forceRollback)
         {
             // See if we should execute
@@ -237,16 +298,8 @@ public class MigrationProcess
 
             // the list of patches is rollbackable now actually perform the
             // rollback
-            log.info("A total of " + rollbackCandidates.size() + " rollbacks will execute.");
-            for (MigrationTask rollbackTask : rollbackCandidates)
-            {
-                RollbackableMigrationTask task = (RollbackableMigrationTask) rollbackTask;
-
-                log.info("Will rollback patch task '" + getTaskLabel(task) + "'");
-                log.debug("Task will rollback in context '" + context + "'");
-
-                applyRollback(context, task, true);
-            }
+            log.info("A total of " + plan.size() + " rollbacks will execute.");
+            rollbackCount = executePlan(plan);
         }
         else
         {
@@ -255,9 +308,7 @@ public class MigrationProcess
                     "is not rollbackable.The system is still at patch level " + currentPatchInfoStore + ".");
         }
 
-        List<MigrationTask> rollbacksNotApplied = getMigrationRunnerStrategy()
-                .getRollbackCandidates(rollbackCandidates, rollbackLevels, currentPatchInfoStore);
-        if (rollbacksNotApplied.isEmpty())
+        if (rollbackCount == plan.size())
         {
             log.info("Rollback complete.  The system is now at the desired patch level.");
         }
@@ -266,7 +317,7 @@ public class MigrationProcess
             log.info("The system was not able to rollback the patches.");
         }
         log.trace("Ending doRollbacks");
-        return rollbackCandidates.size() - rollbacksNotApplied.size();
+        return rollbackCount;
     }
 
     /**
@@ -316,10 +367,8 @@ public class MigrationProcess
     {
 
         log.trace("Starting doMigrations");
-        List<MigrationTask> migrations = getMigrationTasks();
-        validateTasks(migrations);
-        Collections.sort(migrations);
-        int taskCount = dryRun(patchInfoStore, context, migrations);
+        MigrationPlan plan = createMigrationPlan(patchInfoStore, context);
+        int taskCount = logPlan(plan);
 
         // See if we should execute
         if (isReadOnly())
@@ -334,15 +383,7 @@ public class MigrationProcess
         }
 
         // Now apply them
-        taskCount = 0;
-        for (MigrationTask task : migrations)
-        {
-            if (migrationRunnerStrategy.shouldMigrationRun(task.getLevel(), patchInfoStore))
-            {
-                applyPatch(context, task, true);
-                taskCount++;
-            }
-        }
+        taskCount = executePlan(plan);
 
         if (taskCount > 0)
         {
@@ -357,35 +398,150 @@ public class MigrationProcess
     }
 
     /**
-     * Performs a dry run of rollbacks.  This method determines which tasks will rollback
-     * and logs this information.
+     * Computes the patches that need to be applied to bring the given context up
+     * to date. The patch store is read once; the resulting plan can then be
+     * logged and executed without further queries.
      *
-     * @param migrations a <code>List</code> of migrations
-     * @param context    the <codde>MigrationContext</code> where rollbacks would occer
-     * @return the count of tasks which would rollback
+     * @param patchInfoStore the patch store of the context
+     * @param context        the context the patches would be applied in
+     * @return the plan of patches to apply, in order
+     * @throws MigrationException if the patch tasks are invalid or the patch
+     *                            store can't be read
      */
-    private int rollbackDryRun(List<MigrationTask> migrations, MigrationContext context)
+    public MigrationPlan createMigrationPlan(PatchInfoStore patchInfoStore,
+            MigrationContext context) throws MigrationException
     {
-        int taskCount = 0;
-        // Roll through once, just printing out what we'll do
-        for (MigrationTask migrationTask : migrations)
+        List<MigrationTask> migrations = getMigrationTasks();
+        validateTasks(migrations);
+        Collections.sort(migrations);
+        TraceSpan span = MigrationTracing.begin(MigrationTracing.PLANNING, String.valueOf(context));
+        try
+        {
+            return createMigrationPlan(new PatchInfoStoreSnapshot(patchInfoStore), context,
+                    migrations);
+        }
+        finally
+        {
+            span.end();
+        }
+    }
+
+    /**
+     * Computes which of the given tasks need to be applied to the given context.
+     *
+     * @param snapshot   the patch store snapshot to check the tasks against
+     * @param context    the context the tasks would be applied in
+     * @param migrations the candidate tasks, in order
+     * @return the plan of patches to apply, in order
+     * @throws MigrationException if the patch store can't be read
+     */
+    private MigrationPlan createMigrationPlan(PatchInfoReader snapshot, MigrationContext context,
+            List<MigrationTask> migrations) throws MigrationException
+    {
+        List<MigrationContext> contexts = Collections.singletonList(context);
+        List<MigrationPlan.Step> steps = new ArrayList<MigrationPlan.Step>();
+        for (MigrationTask task : migrations)
+        {
+            if (migrationRunnerStrategy.shouldMigrationRun(task.getLevel().intValue(), snapshot))
+            {
+                steps.add(new MigrationPlan.Step(task, contexts));
+            }
+        }
+        return new MigrationPlan(PatchExecution.APPLY, steps);
+    }
+
+    /**
+     * Computes the rollbacks needed to move the given context to the rollback
+     * levels. The patch store is read once; the resulting plan can then be
+     * logged and executed without further queries.
+     *
+     * @param currentPatchInfoStore the patch store of the context
+     * @param rollbackLevels        the levels to roll back to
+     * @param context               the context the rollbacks would run in
+     * @return the plan of rollbacks, in order
+     * @throws MigrationException if the patch tasks are invalid, the rollback
+     *                            levels are invalid or the patch store can't be read
+     */
+    public MigrationPlan createRollbackPlan(PatchInfoStore currentPatchInfoStore, int[] rollbackLevels,
+            MigrationContext context) throws MigrationException
+    {
+        List<MigrationTask> allTasks = getMigrationTasks();
+        validateTasks(allTasks);
+
+        List<MigrationTask> rollbackCandidates = getMigrationRunnerStrategy().getRollbackCandidates(
+                allTasks, rollbackLevels, new PatchInfoStoreSnapshot(currentPatchInfoStore));
+        List<MigrationContext> contexts = Collections.singletonList(context);
+        List<MigrationPlan.Step> steps = new ArrayList<MigrationPlan.Step>();
+        for (MigrationTask task : rollbackCandidates)
         {
-            RollbackableMigrationTask task = (RollbackableMigrationTask) migrationTask;
+            steps.add(new MigrationPlan.Step(task, contexts));
+        }
+        return new MigrationPlan(PatchExecution.ROLLBACK, steps);
+    }
 
-            log.info("Will execute rollback for task '" + getTaskLabel(task) + "'");
-            log.debug("Task will execute in context '" + context + "'");
+    /**
+     * Executes every step of the given plan, in order, in each of the step's
+     * contexts.
+     *
+     * @param plan the plan to execute
+     * @return the number of tasks executed
+     * @throws MigrationException if a task fails; the remaining steps are not
+     *                            executed
+     */
+    public int executePlan(MigrationPlan plan) throws MigrationException
+    {
+        int taskCount = 0;
+        for (MigrationPlan.Step step : plan.getSteps())
+        {
+            MigrationTask task = step.getTask();
+            for (MigrationContext context : step.getContexts())
+            {
+                if (plan.isRollback())
+                {
+                    log.info("Will rollback patch task '" + getTaskLabel(task) + "'");
+                    log.debug("Task will rollback in context '" + context + "'");
+                    applyRollback(context, (RollbackableMigrationTask) task, true);
+                }
+                else
+                {
+                    applyPatch(context, task, true);
+                }
+            }
             taskCount++;
+        }
+        return taskCount;
+    }
 
+    /**
+     * Logs what the given plan would do, as a dry run.
+     *
+     * @param plan the plan to log
+     * @return the number of tasks in the plan
+     */
+    protected int logPlan(MigrationPlan plan)
+    {
+        String action = plan.isRollback() ? "rollback for task" : "patch task";
+        for (MigrationPlan.Step step : plan.getSteps())
+        {
+            log.info("Will execute " + action + " '" + getTaskLabel(step.getTask()) + "'");
+            if (log.isDebugEnabled())
+            {
+                for (MigrationContext context : step.getContexts())
+                {
+                    log.debug("Task will execute in context '" + context + "'");
+                }
+            }
         }
-        if (taskCount > 0)
+        if (plan.size() > 0)
         {
-            log.info("A total of " + taskCount + " patch tasks will rollback.");
+            log.info("A total of " + plan.size() + " patch tasks will "
+                    + (plan.isRollback() ? "rollback." : "execute."));
         }
         else
         {
             log.info("System up-to-date.  No patch tasks will execute.");
         }
-        return taskCount;
+        return plan.size();
     }
 
     /**
@@ -396,6 +552,24 @@ public class MigrationProcess
      * @throws MigrationException if a post-patch task fails
      */
     public int doPostPatchMigrations(MigrationContext context) throws MigrationException
+    {
+        return doPostPatchMigrations(context, null);
+    }
+
+    /**
+     * Run post-migration tasks, skipping those that ran before with the same
+     * fingerprint.  The fingerprint of a task covers its content, or its class
+     * when it has no content checksum, and its input: the one it declares as a
+     * <code>FingerprintedMigrationTask</code>, or else the patch level.
+     *
+     * @param context        the context to use for the post-patch migrations
+     * @param patchInfoStore the store keeping the fingerprints of the tasks last
+     *                       run, or <code>null</code> to run every task
+     * @return the number of <code>MigrationTask</code>s that executed
+     * @throws MigrationException if a post-patch task fails
+     */
+    public int doPostPatchMigrations(MigrationContext context, PatchInfoStore patchInfoStore)
+        throws MigrationException
     {
         log.info("Running post-patch tasks...");
         List postMigrationTasks = getPostPatchMigrationTasks();
@@ -408,14 +582,33 @@ public class MigrationProcess
             return 0;
         }
 
-        // Roll through once, just printing out what we'll do
-        int taskCount = 0;
-        for (Iterator i = postMigrationTasks.iterator(); i.hasNext(); taskCount++)
+        // Work out which tasks are due, printing out what we'll do
+        Map<String, String> recorded = null;
+        int patchLevel = 0;
+        if (patchInfoStore != null)
+        {
+            recorded = patchInfoStore.getPostPatchFingerprints();
+            patchLevel = patchInfoStore.getPatchLevel();
+        }
+        List<MigrationTask> dueTasks = new ArrayList<MigrationTask>();
+        Map<MigrationTask, String> fingerprints = new HashMap<MigrationTask, String>();
+        for (Iterator i = postMigrationTasks.iterator(); i.hasNext();)
         {
             MigrationTask task = (MigrationTask) i.next();
+            if (recorded != null)
+            {
+                String fingerprint = getPostPatchFingerprint(task, context, patchLevel);
+                if (fingerprint.equals(recorded.get(task.getName())))
+                {
+                    log.info("Skipping unchanged post-patch task '" + getTaskLabel(task) + "'");
+                    continue;
+                }
+                fingerprints.put(task, fingerprint);
+            }
+            dueTasks.add(task);
             log.info("Will execute post-patch task '" + getTaskLabel(task) + "'");
         }
-        log.info("A total of " + taskCount + " post-patch tasks will execute.");
+        log.info("A total of " + dueTasks.size() + " post-patch tasks will execute.");
 
         // See if we should execute
         // FIXME test read-only mode with no patches skipping post-patch tasks
@@ -426,17 +619,54 @@ public class MigrationProcess
         }
 
         // Now execute them
-        taskCount = 0;
-        for (Iterator i = postMigrationTasks.iterator(); i.hasNext(); taskCount++)
+        int taskCount = 0;
+        for (Iterator<MigrationTask> i = dueTasks.iterator(); i.hasNext(); taskCount++)
         {
-            MigrationTask task = (MigrationTask) i.next();
+            MigrationTask task = i.next();
             applyPatch(context, task, false);
+            if (patchInfoStore != null)
+            {
+                patchInfoStore.updatePostPatchFingerprint(task.getName(), fingerprints.get(task));
+            }
         }
         log.info("Post-patch tasks complete (" + taskCount + " tasks executed)");
 
         return taskCount;
     }
 
+    /**
+     * Computes the fingerprint of a post-patch task and the input it depends on.
+     *
+     * @param task       the post-patch task
+     * @param context    the context the task is about to run in
+     * @param patchLevel the patch level of the system
+     * @return the fingerprint of the task
+     * @throws MigrationException if the input of the task can't be determined
+     */
+    protected String getPostPatchFingerprint(MigrationTask task, MigrationContext context,
+            int patchLevel) throws MigrationException
+    {
+        String content;
+        if (task instanceof ChecksummedMigrationTask)
+        {
+            content = ((ChecksummedMigrationTask) task).getChecksum();
+        }
+        else
+        {
+            content = CatalogFingerprint.checksum(task.getClass());
+        }
+        String input;
+        if (task instanceof FingerprintedMigrationTask)
+        {
+            input = ((FingerprintedMigrationTask) task).getFingerprintInput(context);
+        }
+        else
+        {
+            input = String.valueOf(patchLevel);
+        }
+        return CatalogFingerprint.checksum(task.getName() + '\n' + content + '\n' + input);
+    }
+
     /**
      * This method applies a single Rollback to the system.
      *
@@ -463,9 +693,24 @@ public class MigrationProcess
 
         try
         {
-            long startTime = System.currentTimeMillis();
-            task.down(context);
-            long duration = System.currentTimeMillis() - startTime;
+            long startTime = System.nanoTime();
+            TraceSpan span = MigrationTracing.begin(MigrationTracing.ROLLBACK, label);
+            try
+            {
+                task.down(context);
+            }
+            catch (MigrationException e)
+            {
+                span.fail(e);
+                throw e;
+            }
+            finally
+            {
+                span.end();
+            }
+            long duration = metrics.histogram(MigrationMetrics.ROLLBACK_DURATION)
+                    .recordSince(startTime) / NANOS_PER_MILLI;
+            metrics.increment(MigrationMetrics.PATCHES_ROLLED_BACK);
             log.info("Finished patch task \"" + label + "\" (" + duration + " millis.)");
             if (broadcast)
             {
@@ -476,11 +721,7 @@ public class MigrationProcess
         }
         catch (MigrationException e)
         {
-            if (broadcast)
-            {
-                rollbackBroadcaster.notifyListeners(task, context, e,
-                        MigrationBroadcaster.TASK_FAILED, rollbackLevel);
-            }
+            metrics.increment(MigrationMetrics.PATCHES_FAILED);
             try
             {
                 context.rollback();
@@ -490,6 +731,13 @@ public class MigrationProcess
             {
                 log.info("Patch task failed; COULD NOT ROLL BACK TRANSACTION", me);
             }
+            // Listeners are told after the rollback, so any bookkeeping they commit
+            // can't take the failed task's partial work with it
+            if (broadcast)
+            {
+                rollbackBroadcaster.notifyListeners(task, context, e,
+                        MigrationBroadcaster.TASK_FAILED, rollbackLevel);
+            }
             throw e;
         }
     }
@@ -504,8 +752,24 @@ public class MigrationProcess
      */
     public void applyPatch(MigrationContext context, MigrationTask task, boolean broadcast)
             throws MigrationException
+    {
+        applyPatch(context, task, broadcast ? broadcaster : null);
+    }
+
+    /**
+     * Apply a single patch, telling the listeners of the given broadcaster about it
+     *
+     * @param context     the context the patch will need during application
+     * @param task        the application task to carry out
+     * @param broadcaster the broadcaster to notify, or <code>null</code> to
+     *                    apply the patch silently
+     * @throws MigrationException if the patch application fails
+     */
+    void applyPatch(MigrationContext context, MigrationTask task, MigrationBroadcaster broadcaster)
+            throws MigrationException
     {
         String label = getTaskLabel(task);
+        boolean broadcast = broadcaster != null;
         if (broadcast)
         {
             broadcaster.notifyListeners(task, context, MigrationBroadcaster.TASK_START);
@@ -515,9 +779,24 @@ public class MigrationProcess
 
         try
         {
-            long startTime = System.currentTimeMillis();
-            task.migrate(context);
-            long duration = System.currentTimeMillis() - startTime;
+            long startTime = System.nanoTime();
+            TraceSpan span = MigrationTracing.begin(MigrationTracing.MIGRATE, label);
+            try
+            {
+                task.migrate(context);
+            }
+            catch (MigrationException e)
+            {
+                span.fail(e);
+                throw e;
+            }
+            finally
+            {
+                span.end();
+            }
+            long duration = metrics.histogram(MigrationMetrics.PATCH_DURATION)
+                    .recordSince(startTime) / NANOS_PER_MILLI;
+            metrics.increment(MigrationMetrics.PATCHES_APPLIED);
             log.info("Finished patch task \"" + label + "\" (" + duration + " millis.)");
             if (broadcast)
             {
@@ -527,10 +806,7 @@ public class MigrationProcess
         }
         catch (MigrationException e)
         {
-            if (broadcast)
-            {
-                broadcaster.notifyListeners(task, context, e, MigrationBroadcaster.TASK_FAILED);
-            }
+            metrics.increment(MigrationMetrics.PATCHES_FAILED);
             try
             {
                 context.rollback();
@@ -540,6 +816,12 @@ public class MigrationProcess
             {
                 log.info("Patch task failed; COULD NOT ROLL BACK TRANSACTION", me);
             }
+            // Listeners are told after the rollback, so any bookkeeping they commit
+            // can't take the failed task's partial work with it
+            if (broadcast)
+            {
+                broadcaster.notifyListeners(task, context, e, MigrationBroadcaster.TASK_FAILED);
+            }
             throw e;
         }
     }
@@ -566,6 +848,19 @@ public class MigrationProcess
         return getTasksFromPackages(postPatchResourcePackages);
     }
 
+    /**
+     * Returns the fingerprint of the complete patch catalog, covering the level
+     * and content of every migration task.
+     *
+     * @return the fingerprint of all migration tasks
+     * @throws MigrationException if one or more migration tasks could not be created
+     * @see CatalogFingerprint
+     */
+    public String getCatalogFingerprint() throws MigrationException
+    {
+        return CatalogFingerprint.compute(getMigrationTasks());
+    }
+
     /**
      * Instantiate all the MigrationTask objects in the given resource packages
      *
@@ -576,37 +871,59 @@ public class MigrationProcess
      */
     private List<MigrationTask> getTasksFromPackages(List<String> resourcePackages) throws MigrationException
     {
+        long startTime = System.nanoTime();
+        TraceSpan span = MigrationTracing.begin(MigrationTracing.DISCOVERY,
+                resourcePackages.toString());
         List tasks = new ArrayList();
-        for (String packageName : resourcePackages)
+        try
         {
-            log.debug("Searching for patch tasks in package " + packageName);
-
-            for (MigrationTaskSource source : migrationTaskSources)
+            for (String packageName : resourcePackages)
             {
-                List<MigrationTask> sourceTasks = source.getMigrationTasks(packageName);
-                if (sourceTasks.size() > 0)
-                {
-                    log.debug("Source [" + source + "] found " + sourceTasks.size()
-                            + " patch tasks: " + sourceTasks);
-                }
-                else
+                log.debug("Searching for patch tasks in package " + packageName);
+
+                for (MigrationTaskSource source : migrationTaskSources)
                 {
-                    log.debug("Source [" + source + "] returned 0 patch tasks.");
+                    List<MigrationTask> sourceTasks = source.getMigrationTasks(packageName);
+                    if (sourceTasks.size() > 0)
+                    {
+                        log.debug("Source [" + source + "] found " + sourceTasks.size()
+                                + " patch tasks: " + sourceTasks);
+                    }
+                    else
+                    {
+                        log.debug("Source [" + source + "] returned 0 patch tasks.");
+                    }
+
+                    tasks.addAll(sourceTasks);
                 }
+            }
 
-                tasks.addAll(sourceTasks);
+            // Its difficult to tell what's going on when you don't see any patches.
+            // This will help people realize they don't have patches, and perhaps
+            // help them discover why.
+            if (tasks.size() == 0)
+            {
+                log.info("No patch tasks were discovered in your classpath. "
+                        + "Run with DEBUG logging enabled for patch task search details.");
             }
-        }
 
-        // Its difficult to tell what's going on when you don't see any patches.
-        // This will help people realize they don't have patches, and perhaps
-        // help them discover why.
-        if (tasks.size() == 0)
+            metrics.histogram(MigrationMetrics.DISCOVERY_DURATION)
+                    .recordSince(startTime);
+        }
+        catch (MigrationException e)
         {
-            log.info("No patch tasks were discovered in your classpath. "
-                    + "Run with DEBUG logging enabled for patch task search details.");
+            span.fail(e);
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            span.fail(e);
+            throw e;
+        }
+        finally
+        {
+            span.end();
         }
-
         return tasks;
     }
 
@@ -670,6 +987,24 @@ public class MigrationProcess
         return lastTask.getLevel().intValue() + 1;
     }
 
+    /**
+     * Reads the patch state of all the given contexts at once, comparing each
+     * of them with the patch catalog, which is discovered only once.
+     *
+     * @param patchStores the patch store of every context, in the order the
+     *                    statuses should be reported
+     * @return the status of every context and the next patch level
+     * @throws MigrationException if the existing tasks are invalid, or a patch
+     *                            store can't be read
+     */
+    public ClusterStatus getClusterStatus(Map<? extends MigrationContext, ? extends PatchInfoStore> patchStores)
+            throws MigrationException
+    {
+        List<MigrationTask> tasks = getMigrationTasks();
+        validateTasks(tasks);
+        return new ClusterStatusService(getMigrationRunnerStrategy()).getClusterStatus(patchStores, tasks);
+    }
+
     /**
      * Registers the given <code>MigrationListener</code> as being interested
      * in migration task events.
@@ -769,6 +1104,24 @@ public class MigrationProcess
         this.readOnly = readOnly;
     }
 
+    /**
+     * @return the registry patch durations and counts are recorded in
+     */
+    public MigrationMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Sets the registry patch durations and counts are recorded in.
+     *
+     * @param metrics the registry; the default registry if <code>null</code>
+     */
+    public void setMetrics(MigrationMetrics metrics)
+    {
+        this.metrics = (metrics == null) ? MigrationMetrics.getDefault() : metrics;
+    }
+
     /**
      * Registers the given <code>MigrationListeners</code> as being interested
      * in migration task events.
@@ -786,30 +1139,83 @@ public class MigrationProcess
         }
     }
 
-    public int dryRun(PatchInfoStore patchInfoStore, MigrationContext migrationContext, List migrations) throws MigrationException
+    /**
+     * Registers the given <code>MigrationListener</code> as an observer that is
+     * notified on a separate thread through a bounded buffer.  Rollback events
+     * are still delivered on the patching thread.
+     *
+     * @param listener the listener to add; may not be <code>null</code>
+     * @see MigrationBroadcaster#addAsynchronousListener(MigrationListener)
+     */
+    public void addAsynchronousListener(MigrationListener listener)
     {
-        int taskCount = 0;
-        // Roll through once, just printing out what we'll do
-        for (Iterator i = migrations.iterator(); i.hasNext();)
-        {
-            MigrationTask task = (MigrationTask) i.next();
-            if (migrationRunnerStrategy
-                    .shouldMigrationRun(task.getLevel().intValue(), patchInfoStore))
-            {
-                log.info("Will execute patch task '" + getTaskLabel(task) + "'");
-                log.debug("Task will execute in context '" + migrationContext + "'");
-                taskCount++;
-            }
-        }
-        if (taskCount > 0)
-        {
-            log.info("A total of " + taskCount + " patch tasks will execute.");
-        }
-        else
+        broadcaster.addAsynchronousListener(listener);
+        if (listener instanceof RollbackListener)
+            rollbackBroadcaster.addListener((RollbackListener) listener);
+    }
+
+    /**
+     * Registers the given <code>MigrationListeners</code> as observers that are
+     * notified on a separate thread.
+     *
+     * @param listeners the listeners to add
+     */
+    public void addAsynchronousListeners(List listeners)
+    {
+        for (Iterator it = listeners.iterator(); it.hasNext();)
         {
-            log.info("System up-to-date.  No patch tasks will execute.");
+            addAsynchronousListener((MigrationListener) it.next());
         }
-        return taskCount;
+    }
+
+    /**
+     * Sets how many events wait for the asynchronous listeners before the
+     * overflow policy applies.
+     *
+     * @param capacity the number of events to buffer
+     * @see MigrationBroadcaster#setAsynchronousCapacity(int)
+     */
+    public void setAsynchronousListenerCapacity(int capacity)
+    {
+        broadcaster.setAsynchronousCapacity(capacity);
+    }
+
+    /**
+     * Sets what happens to an event for the asynchronous listeners when the
+     * buffer is full.
+     *
+     * @param overflowPolicy "block", "drop-newest", "drop-oldest" or "caller-runs"
+     * @see MigrationBroadcaster#setAsynchronousOverflowPolicy(String)
+     */
+    public void setAsynchronousListenerOverflowPolicy(String overflowPolicy)
+    {
+        broadcaster.setAsynchronousOverflowPolicy(overflowPolicy);
+    }
+
+    /**
+     * Waits, up to <code>LISTENER_FLUSH_MILLIS</code>, for the asynchronous
+     * listeners to receive every event queued so far.
+     *
+     * @return <code>true</code> if every event was delivered or discarded in time
+     */
+    public boolean flushListeners()
+    {
+        return broadcaster.flush(LISTENER_FLUSH_MILLIS);
+    }
+
+    /**
+     * Logs which of the given migrations would be applied, without applying them.
+     *
+     * @param patchInfoStore   the patch store of the context
+     * @param migrationContext the context the migrations would be applied in
+     * @param migrations       the candidate migrations, in order
+     * @return the number of migrations that would be applied
+     * @throws MigrationException if the patch store can't be read
+     */
+    public int dryRun(PatchInfoStore patchInfoStore, MigrationContext migrationContext, List migrations) throws MigrationException
+    {
+        return logPlan(createMigrationPlan(new PatchInfoStoreSnapshot(patchInfoStore),
+                migrationContext, migrations));
     }
 
     public MigrationRunnerStrategy getMigrationRunnerStrategy()
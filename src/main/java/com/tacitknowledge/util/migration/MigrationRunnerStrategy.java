@@ -35,7 +35,7 @@ public interface MigrationRunnerStrategy
      * @param patchInfoStore object representing patch level information
      * @return boolean value telling us if we should run the migration or not.
      */
-    public boolean shouldMigrationRun(int migrationLevel, PatchInfoStore patchInfoStore) throws MigrationException;
+    public boolean shouldMigrationRun(int migrationLevel, PatchInfoReader patchInfoStore) throws MigrationException;
 
     /**
      * Determines if two stores are synchronized to each other.
@@ -45,7 +45,7 @@ public interface MigrationRunnerStrategy
      * @return
      * @throws MigrationException
      */
-    public boolean isSynchronized(PatchInfoStore currentPatchInfoStore, PatchInfoStore patchInfoStore) throws MigrationException;
+    public boolean isSynchronized(PatchInfoReader currentPatchInfoStore, PatchInfoReader patchInfoStore) throws MigrationException;
 
     /**
      * Retrieves all tasks that are candidates for rollback.
@@ -56,5 +56,5 @@ public interface MigrationRunnerStrategy
      * @return
      * @throws MigrationException
      */
-    public List<MigrationTask> getRollbackCandidates(List<MigrationTask> allMigrationTasks, int[] rollbackLevels, PatchInfoStore currentPatchInfoStore) throws MigrationException;
+    public List<MigrationTask> getRollbackCandidates(List<MigrationTask> allMigrationTasks, int[] rollbackLevels, PatchInfoReader currentPatchInfoStore) throws MigrationException;
 }
@@ -15,12 +15,8 @@
 package com.tacitknowledge.util.migration;
 
 
-import org.apache.commons.lang.ArrayUtils;
-
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 /*
  * @author Hemri Herrera (hemri@tacitknowledge.com)
@@ -30,7 +26,7 @@ import java.util.Set;
 public class MissingPatchMigrationRunnerStrategy implements MigrationRunnerStrategy
 {
 
-    public boolean shouldMigrationRun(int migrationLevel, PatchInfoStore patchInfoStore) throws MigrationException
+    public boolean shouldMigrationRun(int migrationLevel, PatchInfoReader patchInfoStore) throws MigrationException
     {
 
         if (patchInfoStore == null)
@@ -41,32 +37,32 @@ public class MissingPatchMigrationRunnerStrategy implements MigrationRunnerStrat
         return !patchInfoStore.isPatchApplied(migrationLevel);
     }
 
-    public boolean isSynchronized(PatchInfoStore currentPatchInfoStore, PatchInfoStore patchInfoStore) throws MigrationException
+    public boolean isSynchronized(PatchInfoReader currentPatchInfoStore, PatchInfoReader patchInfoStore) throws MigrationException
     {
 
         if (currentPatchInfoStore == null || patchInfoStore == null)
         {
             throw new IllegalArgumentException("currentPatchInfoStore and patchInfoStore should not be null");
         }
-        Set<Integer> currentPatchInfoStorePatchesApplied = currentPatchInfoStore.getPatchesApplied();
-        Set<Integer> patchInfoStorePatchesApplied = patchInfoStore.getPatchesApplied();
+        PatchLevelSet currentPatchesApplied = getAppliedLevels(currentPatchInfoStore);
+        PatchLevelSet patchesApplied = getAppliedLevels(patchInfoStore);
 
-        return currentPatchInfoStorePatchesApplied.equals(patchInfoStorePatchesApplied);
+        return currentPatchesApplied.equals(patchesApplied);
     }
 
-    public List<MigrationTask> getRollbackCandidates(List<MigrationTask> allMigrationTasks, int[] rollbackLevels, PatchInfoStore currentPatchInfoStore) throws MigrationException
+    public List<MigrationTask> getRollbackCandidates(List<MigrationTask> allMigrationTasks, int[] rollbackLevels, PatchInfoReader currentPatchInfoStore) throws MigrationException
     {
 
         validateRollbackLevels(rollbackLevels);
 
-        List<Integer> rollbacksLevelList = Arrays.asList(ArrayUtils.toObject(rollbackLevels));
+        // only levels that were both requested and applied can be rolled back
+        PatchLevelSet rollbackableLevels = PatchLevelSet.of(rollbackLevels).intersect(
+                getAppliedLevels(currentPatchInfoStore));
         List<MigrationTask> rollbackCandidates = new ArrayList<MigrationTask>();
 
-
         for (MigrationTask migrationTask : allMigrationTasks)
         {
-            if (rollbacksLevelList.contains(migrationTask.getLevel())
-                    && currentPatchInfoStore.isPatchApplied(migrationTask.getLevel()))
+            if (rollbackableLevels.contains(migrationTask.getLevel().intValue()))
             {
                 rollbackCandidates.add(migrationTask);
             }
@@ -75,6 +71,23 @@ public class MissingPatchMigrationRunnerStrategy implements MigrationRunnerStrat
         return rollbackCandidates;
     }
 
+    /**
+     * Returns the applied patch levels of the given store, reusing the levels a
+     * snapshot has already read.
+     *
+     * @param patchInfoStore the store to read
+     * @return the applied patch levels
+     * @throws MigrationException if the store can't be read
+     */
+    private PatchLevelSet getAppliedLevels(PatchInfoReader patchInfoStore) throws MigrationException
+    {
+        if (patchInfoStore instanceof PatchInfoStoreSnapshot)
+        {
+            return ((PatchInfoStoreSnapshot) patchInfoStore).getAppliedLevels();
+        }
+        return PatchLevelSet.of(patchInfoStore.getPatchesApplied());
+    }
+
     private void validateRollbackLevels(int[] rollbackLevels) throws MigrationException
     {
         if (rollbackLevels == null)
@@ -32,12 +32,12 @@ import java.util.List;
  */
 public class OrderedMigrationRunnerStrategy implements MigrationRunnerStrategy
 {
-    public boolean shouldMigrationRun(int migrationLevel, PatchInfoStore patchInfoStore) throws MigrationException
+    public boolean shouldMigrationRun(int migrationLevel, PatchInfoReader patchInfoStore) throws MigrationException
     {
         return migrationLevel > patchInfoStore.getPatchLevel();
     }
 
-    public boolean isSynchronized(PatchInfoStore currentPatchInfoStore, PatchInfoStore patchInfoStore) throws MigrationException
+    public boolean isSynchronized(PatchInfoReader currentPatchInfoStore, PatchInfoReader patchInfoStore) throws MigrationException
     {
 
         if (currentPatchInfoStore == null || patchInfoStore == null)
@@ -48,7 +48,7 @@ public class OrderedMigrationRunnerStrategy implements MigrationRunnerStrategy
         return currentPatchInfoStore.getPatchLevel() == patchInfoStore.getPatchLevel();
     }
 
-    public List<MigrationTask> getRollbackCandidates(List<MigrationTask> allMigrationTasks, int[] rollbackLevels, PatchInfoStore currentPatchInfoStore) throws MigrationException
+    public List<MigrationTask> getRollbackCandidates(List<MigrationTask> allMigrationTasks, int[] rollbackLevels, PatchInfoReader currentPatchInfoStore) throws MigrationException
     {
         validateRollbackLevel(rollbackLevels);
 
@@ -0,0 +1,312 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A record of a single application or rollback of a patch against a system, as
+ * kept in the patch store's execution history.
+ *
+ * @see PatchInfoStore#recordPatchExecution(PatchExecution)
+ */
+public class PatchExecution
+{
+    /**
+     * Operation recorded when a patch is applied
+     */
+    public static final String APPLY = "APPLY";
+
+    /**
+     * Operation recorded when a patch is rolled back
+     */
+    public static final String ROLLBACK = "ROLLBACK";
+
+    /**
+     * Outcome recorded when the patch task completed
+     */
+    public static final String SUCCESS = "SUCCESS";
+
+    /**
+     * Outcome recorded when the patch task threw an exception
+     */
+    public static final String FAILURE = "FAILURE";
+
+    /**
+     * The level of the patch
+     */
+    private int patchLevel;
+
+    /**
+     * The name of the patch task
+     */
+    private String patchName = null;
+
+    /**
+     * Either {@link #APPLY} or {@link #ROLLBACK}
+     */
+    private String operation = APPLY;
+
+    /**
+     * Either {@link #SUCCESS} or {@link #FAILURE}
+     */
+    private String outcome = SUCCESS;
+
+    /**
+     * When the patch task started
+     */
+    private Date started = null;
+
+    /**
+     * How long the patch task ran, in milliseconds
+     */
+    private long durationMillis = 0;
+
+    /**
+     * The number of statements executed, or -1 if unknown
+     */
+    private int statementCount = -1;
+
+    /**
+     * The number of rows affected, or -1 if unknown
+     */
+    private int rowsAffected = -1;
+
+    /**
+     * The checksum of the patch content, if the task provides one
+     */
+    private String checksum = null;
+
+    /**
+     * The host that ran the patch task
+     */
+    private String hostName = null;
+
+    /**
+     * The user that ran the patch task
+     */
+    private String ownerName = null;
+
+    /**
+     * The execution plans captured for the patch's slow statements
+     */
+    private List<StatementPlan> statementPlans = new ArrayList<StatementPlan>();
+
+    /**
+     * @return the level of the patch
+     */
+    public int getPatchLevel()
+    {
+        return patchLevel;
+    }
+
+    /**
+     * @param patchLevel the level of the patch
+     */
+    public void setPatchLevel(int patchLevel)
+    {
+        this.patchLevel = patchLevel;
+    }
+
+    /**
+     * @return the name of the patch task
+     */
+    public String getPatchName()
+    {
+        return patchName;
+    }
+
+    /**
+     * @param patchName the name of the patch task
+     */
+    public void setPatchName(String patchName)
+    {
+        this.patchName = patchName;
+    }
+
+    /**
+     * @return either {@link #APPLY} or {@link #ROLLBACK}
+     */
+    public String getOperation()
+    {
+        return operation;
+    }
+
+    /**
+     * @param operation either {@link #APPLY} or {@link #ROLLBACK}
+     */
+    public void setOperation(String operation)
+    {
+        this.operation = operation;
+    }
+
+    /**
+     * @return either {@link #SUCCESS} or {@link #FAILURE}
+     */
+    public String getOutcome()
+    {
+        return outcome;
+    }
+
+    /**
+     * @param outcome either {@link #SUCCESS} or {@link #FAILURE}
+     */
+    public void setOutcome(String outcome)
+    {
+        this.outcome = outcome;
+    }
+
+    /**
+     * @return when the patch task started
+     */
+    public Date getStarted()
+    {
+        return started;
+    }
+
+    /**
+     * @param started when the patch task started
+     */
+    public void setStarted(Date started)
+    {
+        this.started = started;
+    }
+
+    /**
+     * @return how long the patch task ran, in milliseconds
+     */
+    public long getDurationMillis()
+    {
+        return durationMillis;
+    }
+
+    /**
+     * @param durationMillis how long the patch task ran, in milliseconds
+     */
+    public void setDurationMillis(long durationMillis)
+    {
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return the number of statements executed, or -1 if unknown
+     */
+    public int getStatementCount()
+    {
+        return statementCount;
+    }
+
+    /**
+     * @param statementCount the number of statements executed, or -1 if unknown
+     */
+    public void setStatementCount(int statementCount)
+    {
+        this.statementCount = statementCount;
+    }
+
+    /**
+     * @return the number of rows affected, or -1 if unknown
+     */
+    public int getRowsAffected()
+    {
+        return rowsAffected;
+    }
+
+    /**
+     * @param rowsAffected the number of rows affected, or -1 if unknown
+     */
+    public void setRowsAffected(int rowsAffected)
+    {
+        this.rowsAffected = rowsAffected;
+    }
+
+    /**
+     * @return the checksum of the patch content, or <code>null</code>
+     */
+    public String getChecksum()
+    {
+        return checksum;
+    }
+
+    /**
+     * @param checksum the checksum of the patch content
+     */
+    public void setChecksum(String checksum)
+    {
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return the host that ran the patch task
+     */
+    public String getHostName()
+    {
+        return hostName;
+    }
+
+    /**
+     * @param hostName the host that ran the patch task
+     */
+    public void setHostName(String hostName)
+    {
+        this.hostName = hostName;
+    }
+
+    /**
+     * @return the user that ran the patch task
+     */
+    public String getOwnerName()
+    {
+        return ownerName;
+    }
+
+    /**
+     * @param ownerName the user that ran the patch task
+     */
+    public void setOwnerName(String ownerName)
+    {
+        this.ownerName = ownerName;
+    }
+
+    /**
+     * @return the execution plans captured for the patch's slow statements,
+     *         never <code>null</code>
+     */
+    public List<StatementPlan> getStatementPlans()
+    {
+        return statementPlans;
+    }
+
+    /**
+     * @param statementPlans the execution plans captured for the patch's slow statements
+     */
+    public void setStatementPlans(List<StatementPlan> statementPlans)
+    {
+        this.statementPlans = (statementPlans == null)
+                ? new ArrayList<StatementPlan>() : statementPlans;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return operation + " of patch " + patchLevel + " (" + patchName + ") " + outcome
+                + " in " + durationMillis + " millis";
+    }
+}
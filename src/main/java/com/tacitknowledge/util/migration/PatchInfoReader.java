@@ -0,0 +1,99 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The read-only half of a <code>PatchInfoStore</code>: what a
+ * <code>MigrationRunnerStrategy</code> needs to decide which patches to run,
+ * without any way of changing the store.
+ *
+ * @see PatchInfoStoreSnapshot
+ */
+public interface PatchInfoReader
+{
+    /**
+     * Returns the current patch level of the system
+     *
+     * @return the current patch level of the system
+     * @throws MigrationException if it is not possible to get the patch level
+     */
+    public int getPatchLevel() throws MigrationException;
+
+    /**
+     * Determines if the patch store is already locked
+     *
+     * @return <code>true</code> if the patch store is already locked
+     * @throws MigrationException if checking for the lock fails
+     */
+    public boolean isPatchStoreLocked() throws MigrationException;
+
+    /**
+     * Determines if a given patch has been applied in the system
+     *
+     * @throws MigrationException if unlocking the store fails
+     */
+    public boolean isPatchApplied(int patchLevel) throws MigrationException;
+
+    /**
+     * Obtains all patches applied in the system.
+     *
+     * @return a set containing all patches number applied in the system.
+     * @throws MigrationException if retrieving patches fails.
+     */
+    public Set<Integer> getPatchesApplied() throws MigrationException;
+
+    /**
+     * Returns the fingerprint of the patch catalog last applied successfully
+     * to the system.  This is a single lookup that does not create the patch
+     * store, so it is cheap enough for read-only nodes to call on startup.
+     *
+     * @return the recorded catalog fingerprint, or <code>null</code> if none
+     *         has been recorded yet
+     * @throws MigrationException if reading the fingerprint fails
+     * @see CatalogFingerprint
+     */
+    public String getCatalogFingerprint() throws MigrationException;
+
+    /**
+     * Returns the execution history of the system, oldest first
+     *
+     * @return a list of <code>PatchExecution</code>s
+     * @throws MigrationException if reading the history fails
+     */
+    public List<PatchExecution> getPatchExecutions() throws MigrationException;
+
+    /**
+     * Returns the execution history of a single patch, oldest first
+     *
+     * @param patchLevel the level of the patch
+     * @return a list of <code>PatchExecution</code>s
+     * @throws MigrationException if reading the history fails
+     */
+    public List<PatchExecution> getPatchExecutions(int patchLevel) throws MigrationException;
+
+    /**
+     * Returns the fingerprints of the post-patch tasks last run on the system
+     *
+     * @return the recorded fingerprints, keyed by task name; empty if none
+     *         have been recorded or the store can't record them
+     * @throws MigrationException if reading the fingerprints fails
+     */
+    public Map<String, String> getPostPatchFingerprints() throws MigrationException;
+}
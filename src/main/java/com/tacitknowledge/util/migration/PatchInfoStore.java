@@ -15,17 +15,17 @@
 
 package com.tacitknowledge.util.migration;
 
-import java.util.Set;
-
 /**
  * Interface for the persistence of information related to the patch level
- * of the system, as well as whether patches are currently being applied
+ * of the system, as well as whether patches are currently being applied.
+ * The methods that only read the store are declared by
+ * <code>PatchInfoReader</code>.
  *
  * @author Mike Hardy (mike@tacitknowledge.com)
  * @author Hemri Herrera (hemri@tacitknowledge.com)
  * @author Ulises Pulido (upulido@tacitknowledge.com)
  */
-public interface PatchInfoStore
+public interface PatchInfoStore extends PatchInfoReader
 {
     /**
      * Creates the patch storage area if it has not been done before
@@ -34,14 +34,6 @@ public interface PatchInfoStore
      */
     public void createPatchStoreIfNeeded() throws MigrationException;
 
-    /**
-     * Returns the current patch level of the system
-     *
-     * @return the current patch level of the system
-     * @throws MigrationException if it is not possible to get the patch level
-     */
-    public int getPatchLevel() throws MigrationException;
-
     /**
      * Updates the system patch level to the specified value
      *
@@ -50,14 +42,6 @@ public interface PatchInfoStore
      */
     public void updatePatchLevel(int level) throws MigrationException;
 
-    /**
-     * Determines if the patch store is already locked
-     *
-     * @return <code>true</code> if the patch store is already locked
-     * @throws MigrationException if checking for the lock fails
-     */
-    public boolean isPatchStoreLocked() throws MigrationException;
-
     /**
      * Places a lock for this system on the patch store
      *
@@ -73,13 +57,6 @@ public interface PatchInfoStore
      */
     public void unlockPatchStore() throws MigrationException;
 
-    /**
-     * Determines if a given patch has been applied in the system
-     *
-     * @throws MigrationException if unlocking the store fails
-     */
-    public boolean isPatchApplied(int patchLevel) throws MigrationException;
-
     /**
      * Updates the system patch level to the specified value after rollback
      *
@@ -89,10 +66,28 @@ public interface PatchInfoStore
     public void updatePatchLevelAfterRollBack(int rollbackLevel) throws MigrationException;
 
     /**
-     * Obtains all patches applied in the system.
+     * Records the fingerprint of the patch catalog that was just applied
+     *
+     * @param fingerprint the fingerprint of the catalog
+     * @throws MigrationException if recording the fingerprint fails
+     */
+    public void updateCatalogFingerprint(String fingerprint) throws MigrationException;
+
+    /**
+     * Adds a record of a patch application or rollback to the execution history
+     *
+     * @param execution the execution to record
+     * @throws MigrationException if recording the execution fails
+     */
+    public void recordPatchExecution(PatchExecution execution) throws MigrationException;
+
+    /**
+     * Records the fingerprint of a post-patch task that was just run
      *
-     * @return a set containing all patches number applied in the system.
-     * @throws MigrationException if retrieving patches fails.
+     * @param taskName    the name of the task
+     * @param fingerprint the fingerprint of the task and its input
+     * @throws MigrationException if recording the fingerprint fails
      */
-    public Set<Integer> getPatchesApplied() throws MigrationException;
+    public void updatePostPatchFingerprint(String taskName, String fingerprint)
+        throws MigrationException;
 }
@@ -0,0 +1,161 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only view of a <code>PatchInfoStore</code> that reads the patch level
+ * and the set of applied patches at most once, so a <code>MigrationRunnerStrategy</code>
+ * can evaluate every task of a <code>MigrationPlan</code> without a database
+ * query per task. It is only a <code>PatchInfoReader</code>, so the planner
+ * has no way of changing the store it was taken from.
+ */
+public class PatchInfoStoreSnapshot implements PatchInfoReader
+{
+    /**
+     * The store the snapshot was taken from
+     */
+    private final PatchInfoReader patchInfoStore;
+
+    /**
+     * The patch level, or <code>null</code> until it is first read
+     */
+    private Integer patchLevel = null;
+
+    /**
+     * The applied patch levels, or <code>null</code> until they are first read
+     */
+    private Set<Integer> patchesApplied = null;
+
+    /**
+     * The applied patch levels as bits, or <code>null</code> until they are first read
+     */
+    private PatchLevelSet appliedLevels = null;
+
+    /**
+     * Creates a new snapshot of the given store.
+     *
+     * @param patchInfoStore the store to take the snapshot from
+     */
+    public PatchInfoStoreSnapshot(PatchInfoReader patchInfoStore)
+    {
+        if (patchInfoStore == null)
+        {
+            throw new IllegalArgumentException("patchInfoStore cannot be null");
+        }
+        this.patchInfoStore = patchInfoStore;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int getPatchLevel() throws MigrationException
+    {
+        if (patchLevel == null)
+        {
+            patchLevel = new Integer(patchInfoStore.getPatchLevel());
+        }
+        return patchLevel.intValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Set<Integer> getPatchesApplied() throws MigrationException
+    {
+        if (patchesApplied == null)
+        {
+            Set<Integer> applied = patchInfoStore.getPatchesApplied();
+            patchesApplied = (applied == null)
+                    ? Collections.<Integer>emptySet()
+                    : Collections.unmodifiableSet(applied);
+            appliedLevels = PatchLevelSet.of(patchesApplied);
+        }
+        return patchesApplied;
+    }
+
+    /**
+     * Returns the applied patch levels as a <code>PatchLevelSet</code>.
+     *
+     * @return the applied patch levels
+     * @throws MigrationException if the patch store can't be read
+     */
+    public synchronized PatchLevelSet getAppliedLevels() throws MigrationException
+    {
+        getPatchesApplied();
+        return appliedLevels;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isPatchApplied(int patchLevel) throws MigrationException
+    {
+        return getAppliedLevels().contains(patchLevel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isPatchStoreLocked() throws MigrationException
+    {
+        return patchInfoStore.isPatchStoreLocked();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getCatalogFingerprint() throws MigrationException
+    {
+        return patchInfoStore.getCatalogFingerprint();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<PatchExecution> getPatchExecutions() throws MigrationException
+    {
+        return patchInfoStore.getPatchExecutions();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<PatchExecution> getPatchExecutions(int patchLevel) throws MigrationException
+    {
+        return patchInfoStore.getPatchExecutions(patchLevel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, String> getPostPatchFingerprints() throws MigrationException
+    {
+        return patchInfoStore.getPostPatchFingerprints();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return "snapshot of " + patchInfoStore;
+    }
+}
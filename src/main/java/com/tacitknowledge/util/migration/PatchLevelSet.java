@@ -0,0 +1,510 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An immutable set of patch levels. Levels close together are kept in a
+ * <code>BitSet</code>, one bit per level counted from the lowest one, so
+ * comparing the applied patches of two stores, or the applied patches with
+ * the available ones, takes a few word-wide operations instead of a boxed
+ * <code>Integer</code> lookup per level. Levels spread too far apart for that,
+ * such as date-style levels mixed with small ones, are kept as a sorted
+ * <code>int[]</code> instead.
+ * <p/>
+ * Any <code>int</code> is a valid patch level, including negative ones.
+ */
+public final class PatchLevelSet
+{
+    /**
+     * The widest span of levels always kept in a <code>BitSet</code>
+     */
+    private static final long MIN_DENSE_SPAN = 4096;
+
+    /**
+     * The number of bits a <code>BitSet</code> may spend per level held before
+     * the levels are kept as an array instead; about twice the size of the
+     * array
+     */
+    private static final long BITS_PER_LEVEL = 64;
+
+    /**
+     * Combines two sets into their intersection
+     */
+    private static final int AND = 0;
+
+    /**
+     * Combines two sets into the levels of the first missing from the second
+     */
+    private static final int AND_NOT = 1;
+
+    /**
+     * Combines two sets into the levels held by only one of them
+     */
+    private static final int XOR = 2;
+
+    /**
+     * Combines two sets into their union
+     */
+    private static final int OR = 3;
+
+    /**
+     * An empty set of patch levels
+     */
+    public static final PatchLevelSet EMPTY = new PatchLevelSet(0, new BitSet(), null);
+
+    /**
+     * The level of bit 0 of <code>bits</code>
+     */
+    private final int base;
+
+    /**
+     * One bit per patch level in the set, counted from <code>base</code>, or
+     * <code>null</code> if the levels are kept in <code>sparse</code>; never
+     * modified after construction
+     */
+    private final BitSet bits;
+
+    /**
+     * The patch levels in ascending order, or <code>null</code> if they are
+     * kept in <code>bits</code>; never modified after construction
+     */
+    private final int[] sparse;
+
+    /**
+     * Creates a new <code>PatchLevelSet</code> that takes ownership of the given
+     * levels.
+     *
+     * @param base   the level of bit 0 of <code>bits</code>
+     * @param bits   the levels as bits, or <code>null</code>
+     * @param sparse the levels in ascending order, or <code>null</code>
+     */
+    private PatchLevelSet(int base, BitSet bits, int[] sparse)
+    {
+        this.base = base;
+        this.bits = bits;
+        this.sparse = sparse;
+    }
+
+    /**
+     * Creates a set holding the given levels.
+     *
+     * @param levels the patch levels
+     * @return the set of patch levels
+     */
+    public static PatchLevelSet of(int[] levels)
+    {
+        return create((int[]) levels.clone());
+    }
+
+    /**
+     * Creates a set holding the given levels.
+     *
+     * @param levels the patch levels; may be <code>null</code> for an empty set
+     * @return the set of patch levels
+     */
+    public static PatchLevelSet of(Collection<Integer> levels)
+    {
+        if (levels == null)
+        {
+            return EMPTY;
+        }
+        int[] result = new int[levels.size()];
+        int i = 0;
+        for (Integer level : levels)
+        {
+            result[i++] = level.intValue();
+        }
+        return create(result);
+    }
+
+    /**
+     * Creates a set holding the levels of the given tasks.
+     *
+     * @param tasks the migration tasks
+     * @return the set of the tasks' patch levels
+     */
+    public static PatchLevelSet ofTasks(Collection<? extends MigrationTask> tasks)
+    {
+        int[] result = new int[tasks.size()];
+        int i = 0;
+        for (MigrationTask task : tasks)
+        {
+            result[i++] = task.getLevel().intValue();
+        }
+        return create(result);
+    }
+
+    /**
+     * Returns <code>true</code> if the set holds the given level.
+     *
+     * @param level the patch level to look for
+     * @return <code>true</code> if the set holds the level
+     */
+    public boolean contains(int level)
+    {
+        if (bits == null)
+        {
+            return Arrays.binarySearch(sparse, level) >= 0;
+        }
+        long offset = (long) level - base;
+        return offset >= 0 && offset <= Integer.MAX_VALUE && bits.get((int) offset);
+    }
+
+    /**
+     * Returns the number of levels in the set.
+     *
+     * @return the number of levels in the set
+     */
+    public int size()
+    {
+        return (bits == null) ? sparse.length : bits.cardinality();
+    }
+
+    /**
+     * Returns <code>true</code> if the set holds no levels.
+     *
+     * @return <code>true</code> if the set is empty
+     */
+    public boolean isEmpty()
+    {
+        return (bits == null) ? sparse.length == 0 : bits.isEmpty();
+    }
+
+    /**
+     * Returns the highest level in the set.
+     *
+     * @return the highest level, or 0 if the set is empty
+     */
+    public int getHighestLevel()
+    {
+        if (isEmpty())
+        {
+            return 0;
+        }
+        return (bits == null) ? sparse[sparse.length - 1] : base + bits.length() - 1;
+    }
+
+    /**
+     * Returns the levels held by both this set and the given one. Intersecting
+     * the requested rollback levels with the applied ones gives the levels that
+     * can be rolled back.
+     *
+     * @param other the set to intersect with
+     * @return the levels held by both sets
+     */
+    public PatchLevelSet intersect(PatchLevelSet other)
+    {
+        return combine(other, AND);
+    }
+
+    /**
+     * Returns the levels held by this set but not by the given one. Available
+     * levels minus applied levels are the missing patches; applied levels minus
+     * available levels are patches the catalog no longer knows about.
+     *
+     * @param other the set to subtract
+     * @return the levels only held by this set
+     */
+    public PatchLevelSet minus(PatchLevelSet other)
+    {
+        return combine(other, AND_NOT);
+    }
+
+    /**
+     * Returns the levels held by exactly one of this set and the given one,
+     * which are the levels two out-of-sync stores disagree on.
+     *
+     * @param other the set to compare with
+     * @return the levels held by only one of the sets
+     */
+    public PatchLevelSet difference(PatchLevelSet other)
+    {
+        return combine(other, XOR);
+    }
+
+    /**
+     * Returns the levels held by either this set or the given one.
+     *
+     * @param other the set to combine with
+     * @return the levels held by either set
+     */
+    public PatchLevelSet union(PatchLevelSet other)
+    {
+        return combine(other, OR);
+    }
+
+    /**
+     * Returns the levels in ascending order.
+     *
+     * @return the levels in ascending order
+     */
+    public int[] toArray()
+    {
+        if (bits == null)
+        {
+            return (int[]) sparse.clone();
+        }
+        int[] result = new int[bits.cardinality()];
+        int i = 0;
+        for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1))
+        {
+            result[i++] = base + bit;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the levels as a sorted set of <code>Integer</code>s.
+     *
+     * @return an unmodifiable sorted set of the levels
+     */
+    public Set<Integer> toSet()
+    {
+        Set<Integer> result = new TreeSet<Integer>();
+        int[] levels = toArray();
+        for (int i = 0; i < levels.length; i++)
+        {
+            result.add(new Integer(levels[i]));
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof PatchLevelSet))
+        {
+            return false;
+        }
+        PatchLevelSet other = (PatchLevelSet) o;
+        if (bits != null && other.bits != null && base == other.base)
+        {
+            return bits.equals(other.bits);
+        }
+        return Arrays.equals(toArray(), other.toArray());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode()
+    {
+        return Arrays.hashCode(toArray());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        StringBuffer result = new StringBuffer("{");
+        int[] levels = toArray();
+        for (int i = 0; i < levels.length; i++)
+        {
+            if (i > 0)
+            {
+                result.append(", ");
+            }
+            result.append(levels[i]);
+        }
+        return result.append('}').toString();
+    }
+
+    /**
+     * Creates a set holding the given levels, keeping them as bits if they are
+     * close enough together.
+     *
+     * @param levels the patch levels, in any order and possibly repeated; the
+     *               array is sorted in place and may be kept
+     * @return the set of patch levels
+     */
+    private static PatchLevelSet create(int[] levels)
+    {
+        if (levels.length == 0)
+        {
+            return EMPTY;
+        }
+        Arrays.sort(levels);
+        int count = 1;
+        for (int i = 1; i < levels.length; i++)
+        {
+            if (levels[i] != levels[count - 1])
+            {
+                levels[count++] = levels[i];
+            }
+        }
+        int low = levels[0];
+        if (!isDense(low, levels[count - 1], count))
+        {
+            return new PatchLevelSet(0, null,
+                    (count == levels.length) ? levels : copyOf(levels, count));
+        }
+        BitSet result = new BitSet();
+        for (int i = 0; i < count; i++)
+        {
+            result.set(levels[i] - low);
+        }
+        return new PatchLevelSet(low, result, null);
+    }
+
+    /**
+     * Returns <code>true</code> if levels between the given bounds are close
+     * enough together to be kept as bits.
+     *
+     * @param low   the lowest level
+     * @param high  the highest level
+     * @param count the number of levels
+     * @return <code>true</code> if the levels should be kept as bits
+     */
+    private static boolean isDense(long low, long high, int count)
+    {
+        long span = high - low + 1;
+        return span <= Integer.MAX_VALUE && span <= Math.max(MIN_DENSE_SPAN, BITS_PER_LEVEL * count);
+    }
+
+    /**
+     * Combines this set with another one.
+     *
+     * @param other the set to combine with
+     * @param op    how to combine the sets
+     * @return the combined set
+     */
+    private PatchLevelSet combine(PatchLevelSet other, int op)
+    {
+        if (bits != null && other.bits != null && !isEmpty() && !other.isEmpty())
+        {
+            int low = Math.min(base, other.base);
+            long high = Math.max((long) base + bits.length(), (long) other.base + other.bits.length()) - 1;
+            if (isDense(low, high, size() + other.size()))
+            {
+                BitSet result = align(low);
+                BitSet operand = other.align(low);
+                switch (op)
+                {
+                    case AND:
+                        result.and(operand);
+                        break;
+                    case AND_NOT:
+                        result.andNot(operand);
+                        break;
+                    case XOR:
+                        result.xor(operand);
+                        break;
+                    default:
+                        result.or(operand);
+                        break;
+                }
+                return new PatchLevelSet(low, result, null);
+            }
+        }
+        return create(merge(toArray(), other.toArray(), op));
+    }
+
+    /**
+     * Returns a copy of the bits of this set counted from the given level.
+     *
+     * @param low the level of bit 0 of the copy; no higher than <code>base</code>
+     * @return the bits of this set
+     */
+    private BitSet align(int low)
+    {
+        if (low == base)
+        {
+            return (BitSet) bits.clone();
+        }
+        BitSet result = new BitSet();
+        int shift = base - low;
+        for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1))
+        {
+            result.set(bit + shift);
+        }
+        return result;
+    }
+
+    /**
+     * Combines two ascending arrays of levels.
+     *
+     * @param left  the levels of the first set
+     * @param right the levels of the second set
+     * @param op    how to combine the sets
+     * @return the combined levels in ascending order
+     */
+    private static int[] merge(int[] left, int[] right, int op)
+    {
+        int[] result = new int[left.length + right.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < left.length || j < right.length)
+        {
+            boolean inLeft = j == right.length || (i < left.length && left[i] <= right[j]);
+            boolean inRight = i == left.length || (j < right.length && right[j] <= left[i]);
+            int level = inLeft ? left[i] : right[j];
+            boolean keep;
+            switch (op)
+            {
+                case AND:
+                    keep = inLeft && inRight;
+                    break;
+                case AND_NOT:
+                    keep = inLeft && !inRight;
+                    break;
+                case XOR:
+                    keep = inLeft != inRight;
+                    break;
+                default:
+                    keep = true;
+                    break;
+            }
+            if (keep)
+            {
+                result[count++] = level;
+            }
+            if (inLeft)
+            {
+                i++;
+            }
+            if (inRight)
+            {
+                j++;
+            }
+        }
+        return copyOf(result, count);
+    }
+
+    /**
+     * Returns the first levels of an array.
+     *
+     * @param levels the levels
+     * @param count  the number of levels to keep
+     * @return a new array holding the first <code>count</code> levels
+     */
+    private static int[] copyOf(int[] levels, int count)
+    {
+        int[] result = new int[count];
+        System.arraycopy(levels, 0, result, 0, count);
+        return result;
+    }
+}
@@ -0,0 +1,225 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.tacitknowledge.util.discovery.ClassDiscoveryUtil;
+
+/**
+ * Lets the migration task sources share class path scans while several
+ * systems are migrated in one process.  Outside of a scope opened with
+ * {@link #open()} every lookup scans the class path, as patches may be added
+ * to a long-running application; inside one, each package is scanned once
+ * per context class loader and the result is reused until the last scope
+ * is closed.
+ * <p>
+ * Scans never run under a lock.  Inside a scope, callers looking up the same
+ * package wait for the one scan in progress; lookups of other packages go
+ * ahead in parallel.
+ */
+public final class ResourceDiscoveryCache
+{
+    /**
+     * The scans, by context class loader and lookup
+     */
+    private static final Map<ClassLoader, ConcurrentMap<String, FutureTask<Object[]>>> SCANS =
+            new WeakHashMap<ClassLoader, ConcurrentMap<String, FutureTask<Object[]>>>();
+
+    /**
+     * The number of open scopes; guarded by <code>SCANS</code>
+     */
+    private static int scopes = 0;
+
+    /**
+     * Hidden constructor for a utility class
+     */
+    private ResourceDiscoveryCache()
+    {
+        // do nothing
+    }
+
+    /**
+     * Starts sharing scan results.  Every call must be matched by a call to
+     * {@link #close()}, typically in a <code>finally</code> block.
+     */
+    public static void open()
+    {
+        synchronized (SCANS)
+        {
+            scopes++;
+        }
+    }
+
+    /**
+     * Ends a scope opened with {@link #open()}; the scan results are
+     * forgotten once the last scope is closed.
+     */
+    public static void close()
+    {
+        synchronized (SCANS)
+        {
+            if (scopes > 0)
+            {
+                scopes--;
+            }
+            if (scopes == 0)
+            {
+                SCANS.clear();
+            }
+        }
+    }
+
+    /**
+     * @return true if scan results are currently shared
+     */
+    public static boolean isOpen()
+    {
+        synchronized (SCANS)
+        {
+            return scopes > 0;
+        }
+    }
+
+    /**
+     * Returns the resources directly under the given path whose names match
+     * the given regular expression.
+     *
+     * @param path  the path to search, with '/' as separator
+     * @param regex the regular expression resource names must match
+     * @return the matching resource names
+     * @see ClassDiscoveryUtil#getResources(String, String)
+     */
+    public static String[] getResources(final String path, final String regex)
+    {
+        ConcurrentMap<String, FutureTask<Object[]>> scans = getScans();
+        if (scans == null)
+        {
+            return ClassDiscoveryUtil.getResources(path, regex);
+        }
+        Object[] resources = scan(scans, "resources:" + path + ":" + regex,
+                new Callable<Object[]>()
+                {
+                    public Object[] call()
+                    {
+                        return ClassDiscoveryUtil.getResources(path, regex);
+                    }
+                });
+        return (String[]) resources.clone();
+    }
+
+    /**
+     * Returns the concrete classes in the given package that implement the
+     * given type.
+     *
+     * @param packageName the package to search
+     * @param type        the type the classes must implement
+     * @return the matching classes
+     * @see ClassDiscoveryUtil#getClasses(String, Class)
+     */
+    public static Class[] getClasses(final String packageName, final Class type)
+    {
+        ConcurrentMap<String, FutureTask<Object[]>> scans = getScans();
+        if (scans == null)
+        {
+            return ClassDiscoveryUtil.getClasses(packageName, type);
+        }
+        Object[] classes = scan(scans, "classes:" + packageName + ":" + type.getName(),
+                new Callable<Object[]>()
+                {
+                    public Object[] call()
+                    {
+                        return ClassDiscoveryUtil.getClasses(packageName, type);
+                    }
+                });
+        return (Class[]) classes.clone();
+    }
+
+    /**
+     * Returns the result of a lookup, running the scan unless another caller
+     * already started it.  A failed scan is forgotten, so the next caller
+     * tries again.
+     *
+     * @param scans  the scans of the current context class loader
+     * @param key    the lookup
+     * @param lookup runs the scan
+     * @return the scan result, shared with the other callers
+     */
+    private static Object[] scan(ConcurrentMap<String, FutureTask<Object[]>> scans, String key,
+            Callable<Object[]> lookup)
+    {
+        FutureTask<Object[]> task = new FutureTask<Object[]>(lookup);
+        FutureTask<Object[]> running = scans.putIfAbsent(key, task);
+        if (running == null)
+        {
+            running = task;
+            task.run();
+        }
+        try
+        {
+            return running.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a scan of " + key);
+        }
+        catch (ExecutionException e)
+        {
+            scans.remove(key, running);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Could not scan " + key, cause);
+        }
+    }
+
+    /**
+     * Returns the scans of the current context class loader.
+     *
+     * @return the scans, by lookup, or <code>null</code> if no scope is open
+     */
+    private static ConcurrentMap<String, FutureTask<Object[]>> getScans()
+    {
+        synchronized (SCANS)
+        {
+            if (scopes == 0)
+            {
+                return null;
+            }
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            ConcurrentMap<String, FutureTask<Object[]>> scans = SCANS.get(loader);
+            if (scans == null)
+            {
+                scans = new ConcurrentHashMap<String, FutureTask<Object[]>>();
+                SCANS.put(loader, scans);
+            }
+            return scans;
+        }
+    }
+}
@@ -15,9 +15,9 @@
 
 package com.tacitknowledge.util.migration;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Manages the <code>MessageListener</code> that are associated with a
@@ -48,7 +48,7 @@ class RollbackBroadcaster
     /**
      * The listeners interested in being notified of migration task events.
      */
-    private List listeners = new ArrayList();
+    private List listeners = new CopyOnWriteArrayList();
 
     /**
      * Notifies all registered listeners of a migration task event.
@@ -0,0 +1,117 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+/**
+ * The execution plan the database chose for a slow statement of a patch, kept
+ * with the patch's execution record.
+ *
+ * @see PatchExecution#getStatementPlans()
+ */
+public class StatementPlan
+{
+    /**
+     * The position of the statement in its patch, starting at 0
+     */
+    private int statementIndex;
+
+    /**
+     * How long the statement ran, in milliseconds
+     */
+    private long durationMillis;
+
+    /**
+     * The SQL of the statement
+     */
+    private String sql = null;
+
+    /**
+     * The execution plan, as the database describes it
+     */
+    private String plan = null;
+
+    /**
+     * @return the position of the statement in its patch, starting at 0
+     */
+    public int getStatementIndex()
+    {
+        return statementIndex;
+    }
+
+    /**
+     * @param statementIndex the position of the statement in its patch, starting at 0
+     */
+    public void setStatementIndex(int statementIndex)
+    {
+        this.statementIndex = statementIndex;
+    }
+
+    /**
+     * @return how long the statement ran, in milliseconds
+     */
+    public long getDurationMillis()
+    {
+        return durationMillis;
+    }
+
+    /**
+     * @param durationMillis how long the statement ran, in milliseconds
+     */
+    public void setDurationMillis(long durationMillis)
+    {
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return the SQL of the statement
+     */
+    public String getSql()
+    {
+        return sql;
+    }
+
+    /**
+     * @param sql the SQL of the statement
+     */
+    public void setSql(String sql)
+    {
+        this.sql = sql;
+    }
+
+    /**
+     * @return the execution plan, as the database describes it
+     */
+    public String getPlan()
+    {
+        return plan;
+    }
+
+    /**
+     * @param plan the execution plan, as the database describes it
+     */
+    public void setPlan(String plan)
+    {
+        this.plan = plan;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return "StatementPlan[" + statementIndex + "/" + durationMillis + "ms]";
+    }
+}
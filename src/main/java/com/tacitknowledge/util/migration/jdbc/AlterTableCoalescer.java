@@ -0,0 +1,428 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Merges consecutive <code>ALTER TABLE</code> statements on the same table
+ * into one statement with several clauses, so that databases which rebuild a
+ * table for every <code>ALTER TABLE</code> rebuild it once.
+ * <p>
+ * Only statements this class can read completely are merged.  Each clause
+ * must add, drop or change a single column, using a kind of clause the type
+ * of database lists in its <code>alter.coalesce.clauses</code> property, and
+ * no column may be named by more than one clause of a merged statement.
+ * Anything else, such as index changes, renames or table options, stays as it
+ * was written.  Types of database without the property get no merging at all.
+ */
+class AlterTableCoalescer
+{
+    /**
+     * Reads the table and clauses of an <code>ALTER TABLE</code> statement
+     */
+    private static final Pattern ALTER_TABLE =
+        Pattern.compile("(?is)ALTER\\s+TABLE\\s+([\\w$`\".]+)\\s+(.+)");
+
+    /**
+     * Reads a simple identifier, possibly quoted
+     */
+    private static final Pattern IDENTIFIER = Pattern.compile("[\\w$]+|`[^`]+`|\"[^\"]+\"");
+
+    /**
+     * Words following a clause keyword that make it about something other
+     * than a column
+     */
+    private static final Set<String> NON_COLUMN_WORDS = new HashSet<String>(Arrays.asList(
+            new String[] {"INDEX", "KEY", "UNIQUE", "PRIMARY", "FOREIGN", "FULLTEXT", "SPATIAL",
+                "CONSTRAINT", "CHECK", "PARTITION", "DEFAULT"}));
+
+    /**
+     * The kinds of clause the type of database can combine in one statement
+     */
+    private final Set<String> clauseKinds = new HashSet<String>();
+
+    /**
+     * Creates a new <code>AlterTableCoalescer</code>.
+     *
+     * @param databaseType the type of database the statements are for
+     */
+    AlterTableCoalescer(DatabaseType databaseType)
+    {
+        String kinds = databaseType.getProperty("alter.coalesce.clauses");
+        if (kinds != null)
+        {
+            String[] split = kinds.split(",");
+            for (int i = 0; i < split.length; i++)
+            {
+                if (split[i].trim().length() > 0)
+                {
+                    clauseKinds.add(split[i].trim().toUpperCase(Locale.ENGLISH));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the type of database can merge any clauses
+     */
+    boolean isSupported()
+    {
+        return !clauseKinds.isEmpty();
+    }
+
+    /**
+     * Reads an <code>ALTER TABLE</code> statement whose clauses can all be
+     * merged.
+     *
+     * @param statement the statement to read
+     * @return the statement's table and clauses, or <code>null</code> if it
+     *         can't be merged
+     */
+    Alter parse(String statement)
+    {
+        if (!isSupported() || (statement.indexOf("--") >= 0) || (statement.indexOf("/*") >= 0))
+        {
+            return null;
+        }
+        Matcher matcher = ALTER_TABLE.matcher(statement.trim());
+        if (!matcher.matches())
+        {
+            return null;
+        }
+        List<String> clauses = splitClauses(matcher.group(2));
+        if (clauses == null)
+        {
+            return null;
+        }
+        Alter alter = new Alter(statement, matcher.group(1));
+        for (String clause : clauses)
+        {
+            Set<String> columns = getColumns(clause);
+            if ((columns == null) || !alter.add(clause, columns))
+            {
+                return null;
+            }
+        }
+        return alter;
+    }
+
+    /**
+     * Reads the columns a clause adds, drops, changes or positions itself by.
+     *
+     * @param clause the clause
+     * @return the names of the columns, or <code>null</code> if the clause
+     *         can't be merged
+     */
+    private Set<String> getColumns(String clause)
+    {
+        List<String> tokens = new ArrayList<String>();
+        List<Integer> starts = new ArrayList<Integer>();
+        Matcher matcher = IDENTIFIER.matcher(clause);
+        while (matcher.find())
+        {
+            tokens.add(matcher.group());
+            starts.add(Integer.valueOf(matcher.start()));
+        }
+        if (tokens.size() < 2)
+        {
+            return null;
+        }
+        String kind = tokens.get(0).toUpperCase(Locale.ENGLISH);
+        if (!clauseKinds.contains(kind))
+        {
+            return null;
+        }
+        int name = 1;
+        if ("COLUMN".equalsIgnoreCase(tokens.get(1)))
+        {
+            name = 2;
+        }
+        if ((tokens.size() <= name)
+                || NON_COLUMN_WORDS.contains(tokens.get(name).toUpperCase(Locale.ENGLISH))
+                || (clause.lastIndexOf('(', starts.get(name).intValue()) >= 0))
+        {
+            return null;
+        }
+
+        Set<String> columns = new HashSet<String>();
+        columns.add(normalize(tokens.get(name)));
+        if ("CHANGE".equals(kind))
+        {
+            if (tokens.size() <= name + 1)
+            {
+                return null;
+            }
+            columns.add(normalize(tokens.get(name + 1)));
+        }
+        for (int i = name + 1; i < tokens.size(); i++)
+        {
+            String token = tokens.get(i).toUpperCase(Locale.ENGLISH);
+            if ("RENAME".equals(token) || "TO".equals(token))
+            {
+                return null;
+            }
+            if ("AFTER".equals(token) && (i + 1 < tokens.size()))
+            {
+                columns.add(normalize(tokens.get(i + 1)));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Splits the clauses of an <code>ALTER TABLE</code> statement at the
+     * commas outside of parentheses and quotes.
+     *
+     * @param clauses the clauses of the statement
+     * @return the clauses, or <code>null</code> if they can't be read
+     */
+    private List<String> splitClauses(String clauses)
+    {
+        List<String> split = new ArrayList<String>();
+        StringBuffer current = new StringBuffer();
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < clauses.length(); i++)
+        {
+            char c = clauses.charAt(i);
+            if (quote != 0)
+            {
+                if (c == quote)
+                {
+                    quote = 0;
+                }
+            }
+            else if ((c == '\'') || (c == '"') || (c == '`'))
+            {
+                quote = c;
+            }
+            else if (c == '(')
+            {
+                depth++;
+            }
+            else if (c == ')')
+            {
+                depth--;
+            }
+            else if ((c == ';') || (c == '#') || (depth < 0))
+            {
+                return null;
+            }
+            else if ((c == ',') && (depth == 0))
+            {
+                split.add(current.toString().trim());
+                current = new StringBuffer();
+                continue;
+            }
+            current.append(c);
+        }
+        if ((quote != 0) || (depth != 0))
+        {
+            return null;
+        }
+        split.add(current.toString().trim());
+        for (String clause : split)
+        {
+            if (clause.length() == 0)
+            {
+                return null;
+            }
+        }
+        return split;
+    }
+
+    /**
+     * @param identifier a column name, possibly quoted
+     * @return the column name as compared between clauses
+     */
+    private static String normalize(String identifier)
+    {
+        String name = identifier;
+        if ((name.charAt(0) == '`') || (name.charAt(0) == '"'))
+        {
+            name = name.substring(1, name.length() - 1);
+        }
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * The table and clauses of a mergeable <code>ALTER TABLE</code> statement
+     */
+    static class Alter
+    {
+        /**
+         * The statement, as written
+         */
+        private final String statement;
+
+        /**
+         * The table altered, as written
+         */
+        private final String table;
+
+        /**
+         * The clauses of the statement
+         */
+        private final List<String> clauses = new ArrayList<String>();
+
+        /**
+         * The columns named by the clauses
+         */
+        private final Set<String> columns = new HashSet<String>();
+
+        /**
+         * Creates a new <code>Alter</code>.
+         *
+         * @param statement the statement, as written
+         * @param table     the table altered
+         */
+        Alter(String statement, String table)
+        {
+            this.statement = statement;
+            this.table = table;
+        }
+
+        /**
+         * Adds a clause, unless it names a column another clause names.
+         *
+         * @param clause        the clause
+         * @param clauseColumns the columns the clause names
+         * @return <code>false</code> if the clause can't join the others
+         */
+        boolean add(String clause, Set<String> clauseColumns)
+        {
+            for (String column : clauseColumns)
+            {
+                if (columns.contains(column))
+                {
+                    return false;
+                }
+            }
+            clauses.add(clause);
+            columns.addAll(clauseColumns);
+            return true;
+        }
+    }
+
+    /**
+     * A run of <code>ALTER TABLE</code> statements merged into one
+     */
+    static class Group
+    {
+        /**
+         * The merged statement
+         */
+        private final Alter merged;
+
+        /**
+         * The statements merged, as written
+         */
+        private final List<String> statements = new ArrayList<String>();
+
+        /**
+         * Starts a group with its first statement.
+         *
+         * @param first the first statement
+         */
+        Group(Alter first)
+        {
+            merged = new Alter(null, first.table);
+            add(first);
+        }
+
+        /**
+         * Adds a statement to the group if it alters the same table and names
+         * none of the columns named so far.
+         *
+         * @param alter the statement
+         * @return <code>true</code> if the statement joined the group
+         */
+        boolean add(Alter alter)
+        {
+            if (!merged.table.equals(alter.table))
+            {
+                return false;
+            }
+            for (String column : alter.columns)
+            {
+                if (merged.columns.contains(column))
+                {
+                    return false;
+                }
+            }
+            merged.clauses.addAll(alter.clauses);
+            merged.columns.addAll(alter.columns);
+            statements.add(alter.statement);
+            return true;
+        }
+
+        /**
+         * @return the number of statements merged
+         */
+        int size()
+        {
+            return statements.size();
+        }
+
+        /**
+         * @return the statements merged, each on its own
+         */
+        List<String> getStatements()
+        {
+            return statements;
+        }
+
+        /**
+         * @return the merged statement, or the only statement of the group
+         */
+        String toSql()
+        {
+            if (statements.size() == 1)
+            {
+                return statements.get(0);
+            }
+            return "ALTER TABLE " + merged.table + " " + join(merged.clauses);
+        }
+
+        /**
+         * Joins clauses into the clause list of a statement.
+         *
+         * @param clauses the clauses
+         * @return the clauses separated by commas
+         */
+        private static String join(List<String> clauses)
+        {
+            StringBuffer sql = new StringBuffer();
+            for (String clause : clauses)
+            {
+                if (sql.length() > 0)
+                {
+                    sql.append(", ");
+                }
+                sql.append(clause);
+            }
+            return sql.toString();
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.MigrationProcess;
+import com.tacitknowledge.util.migration.MigrationTask;
+import com.tacitknowledge.util.migration.PatchInfoStore;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Coalesces the <code>ALTER TABLE</code> statements of the SQL patches
+ * replayed into an empty database, both within a patch and across the
+ * boundary between one patch and the next.
+ * <p>
+ * When a patch ends with <code>ALTER TABLE</code> statements on a table and
+ * the next patch to run starts with more on the same table, those are pulled
+ * forward into the merged statement ending the earlier patch, and skipped
+ * when the later patch runs.  If a merged statement fails, its own statements
+ * are run one by one instead and nothing is pulled forward, so an error is
+ * reported by the patch that contains the failing statement.  Scripts the
+ * statement splitter might misread, such as those with block comments or
+ * stored routines, are run as written.
+ * <p>
+ * Pulling statements forward means a patch is recorded as applied while some
+ * of the next patch's changes are already made, because DDL on these databases
+ * commits at once.  If the run stops before that next patch is recorded, for
+ * instance because one of its remaining statements fails or the process dies,
+ * a rerun finds the database at the earlier level and replays the pulled
+ * statements again, which fails, e.g. on a duplicate column.  The database was
+ * empty when the replay began, so the way back is to drop and re-create it and
+ * run the patches again; a rerun into it as it is will not coalesce and cannot
+ * succeed.
+ */
+class AlterTableReplay
+{
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(AlterTableReplay.class);
+
+    /**
+     * Matches scripts that may not split into statements reliably
+     */
+    private static final Pattern UNSAFE = Pattern.compile(
+            "(?i)\\b(DELIMITER|BEGIN|PROCEDURE|FUNCTION|TRIGGER|EVENT)\\b|/\\*|#");
+
+    /**
+     * The context the patches are replayed in
+     */
+    private final JdbcMigrationContext context;
+
+    /**
+     * The process holding the patches
+     */
+    private final MigrationProcess migrationProcess;
+
+    /**
+     * The patch store of the context
+     */
+    private final PatchInfoStore patchTable;
+
+    /**
+     * Reads and merges the statements
+     */
+    private final AlterTableCoalescer coalescer;
+
+    /**
+     * The patches still to run, by level
+     */
+    private final TreeMap<Integer, MigrationTask> pending;
+
+    /**
+     * The number of leading statements of a patch already run by the patch
+     * before it, by level
+     */
+    private final Map<Integer, Integer> pulled = new HashMap<Integer, Integer>();
+
+    /**
+     * How to undo each merged statement handed out, should it fail
+     */
+    private final Map<String, Fallback> fallbacks = new IdentityHashMap<String, Fallback>();
+
+    /**
+     * The number of merged statements run
+     */
+    private int mergedCount = 0;
+
+    /**
+     * The number of statements the merged statements stand for
+     */
+    private int statementCount = 0;
+
+    /**
+     * Creates a new <code>AlterTableReplay</code>.  The patches still to run
+     * are read here, before any patch holds the connection of the context.
+     *
+     * @param context          the context the patches are replayed in
+     * @param migrationProcess the process holding the patches
+     * @param patchTable       the patch store of the context
+     * @param coalescer        reads and merges the statements
+     */
+    AlterTableReplay(JdbcMigrationContext context, MigrationProcess migrationProcess,
+            PatchInfoStore patchTable, AlterTableCoalescer coalescer)
+    {
+        this.context = context;
+        this.migrationProcess = migrationProcess;
+        this.patchTable = patchTable;
+        this.coalescer = coalescer;
+        this.pending = readPending();
+    }
+
+    /**
+     * Returns the statements to run for a patch, with its <code>ALTER
+     * TABLE</code> statements merged and those already run by the patch before
+     * it left out.
+     *
+     * @param task the patch about to run
+     * @return the statements to run, or <code>null</code> to run the patch as
+     *         written
+     */
+    synchronized List<String> getStatements(SqlScriptMigrationTask task)
+    {
+        if (task.getClass() != SqlScriptMigrationTask.class)
+        {
+            return null;
+        }
+        Integer level = task.getLevel();
+        Integer skip = pulled.remove(level);
+        List<String> statements = getSafeStatements(task);
+        if (statements == null)
+        {
+            return null;
+        }
+        boolean changed = false;
+        if (skip != null)
+        {
+            log.info("The first " + skip + " statements of patch " + task.getName()
+                    + " already ran with the patch before it; should the patch fail,"
+                    + " drop and re-create the database before running the patches again");
+            statements = statements.subList(skip.intValue(), statements.size());
+            changed = true;
+        }
+
+        List<String> coalesced = new ArrayList<String>();
+        AlterTableCoalescer.Group group = null;
+        for (String statement : statements)
+        {
+            AlterTableCoalescer.Alter alter = coalescer.parse(statement);
+            if ((group != null) && (alter != null) && group.add(alter))
+            {
+                continue;
+            }
+            if (group != null)
+            {
+                changed |= add(coalesced, group, group.size(), new ArrayList<Integer>());
+            }
+            group = (alter == null) ? null : new AlterTableCoalescer.Group(alter);
+            if (alter == null)
+            {
+                coalesced.add(statement);
+            }
+        }
+        if (group != null)
+        {
+            int own = group.size();
+            List<Integer> pulledLevels = pullForward(level, group);
+            changed |= add(coalesced, group, own, pulledLevels);
+        }
+        return changed ? coalesced : null;
+    }
+
+    /**
+     * Returns the statements to run one by one in place of a merged statement
+     * that failed, and stops skipping the statements it pulled forward from
+     * later patches.
+     *
+     * @param task      the patch running the statement
+     * @param statement the statement that failed
+     * @return the statements of the patch the merged statement stands for, or
+     *         <code>null</code> if the statement wasn't merged
+     */
+    synchronized List<String> fallBack(SqlScriptMigrationTask task, String statement)
+    {
+        Fallback fallback = fallbacks.remove(statement);
+        if (fallback == null)
+        {
+            return null;
+        }
+        for (Integer level : fallback.pulledLevels)
+        {
+            pulled.remove(level);
+        }
+        mergedCount--;
+        statementCount -= fallback.statementCount;
+        return fallback.statements;
+    }
+
+    /**
+     * Pulls the leading <code>ALTER TABLE</code> statements of the patches
+     * after the given one into a group, for as long as they can join it.
+     *
+     * @param level the level of the patch the group ends
+     * @param group the group ending the patch
+     * @return the levels of the patches statements were pulled from
+     */
+    private List<Integer> pullForward(Integer level, AlterTableCoalescer.Group group)
+    {
+        List<Integer> levels = new ArrayList<Integer>();
+        Map.Entry<Integer, MigrationTask> next = pending.higherEntry(level);
+        while ((next != null) && (next.getValue().getClass() == SqlScriptMigrationTask.class))
+        {
+            List<String> statements = getSafeStatements((SqlScriptMigrationTask) next.getValue());
+            if (statements == null)
+            {
+                break;
+            }
+            int count = 0;
+            while (count < statements.size())
+            {
+                AlterTableCoalescer.Alter alter = coalescer.parse(statements.get(count));
+                if ((alter == null) || !group.add(alter))
+                {
+                    break;
+                }
+                count++;
+            }
+            if (count == 0)
+            {
+                break;
+            }
+            pulled.put(next.getKey(), Integer.valueOf(count));
+            levels.add(next.getKey());
+            log.debug("Pulled " + count + " statements of patch " + next.getValue().getName()
+                    + " forward to patch level " + level);
+            if (count < statements.size())
+            {
+                break;
+            }
+            next = pending.higherEntry(next.getKey());
+        }
+        return levels;
+    }
+
+    /**
+     * Adds the statement of a group to the statements to run.
+     *
+     * @param statements   the statements to run
+     * @param group        the group
+     * @param own          how many statements of the group come from the patch
+     *                     running it
+     * @param pulledLevels the levels of the patches statements were pulled from
+     * @return <code>true</code> if the group merged more than one statement
+     */
+    private boolean add(List<String> statements, AlterTableCoalescer.Group group, int own,
+            List<Integer> pulledLevels)
+    {
+        String sql = group.toSql();
+        statements.add(sql);
+        if (group.size() < 2)
+        {
+            return false;
+        }
+        fallbacks.put(sql, new Fallback(group.getStatements().subList(0, own), pulledLevels,
+                group.size()));
+        mergedCount++;
+        statementCount += group.size();
+        return true;
+    }
+
+    /**
+     * Splits a patch into statements, unless it might not split reliably.
+     *
+     * @param task the patch
+     * @return the statements of the patch, or <code>null</code> if it should
+     *         run as written
+     */
+    private List<String> getSafeStatements(SqlScriptMigrationTask task)
+    {
+        List<String> statements = new ArrayList<String>();
+        for (Object statement : task.splitSqlStatements(context))
+        {
+            if (UNSAFE.matcher((String) statement).find())
+            {
+                return null;
+            }
+            statements.add((String) statement);
+        }
+        return statements;
+    }
+
+    /**
+     * Reads the patches still to run.  If they can't be read, nothing is
+     * pulled forward.
+     *
+     * @return the patches still to run, by level
+     */
+    private TreeMap<Integer, MigrationTask> readPending()
+    {
+        TreeMap<Integer, MigrationTask> tasks = new TreeMap<Integer, MigrationTask>();
+        try
+        {
+            Set<Integer> applied = patchTable.getPatchesApplied();
+            for (MigrationTask task : migrationProcess.getMigrationTasks())
+            {
+                if (!applied.contains(task.getLevel()))
+                {
+                    tasks.put(task.getLevel(), task);
+                }
+            }
+        }
+        catch (MigrationException e)
+        {
+            log.warn("Could not read the patches still to run; ALTER TABLE statements"
+                    + " are only coalesced within each patch", e);
+            tasks.clear();
+        }
+        return tasks;
+    }
+
+    /**
+     * Useful for debugging
+     *
+     * @return a summary of the statements merged
+     */
+    public synchronized String toString()
+    {
+        return "coalesced " + statementCount + " ALTER TABLE statements into " + mergedCount;
+    }
+
+    /**
+     * What to run in place of a merged statement that failed
+     */
+    private static class Fallback
+    {
+        /**
+         * The statements of the patch running the merged statement
+         */
+        private final List<String> statements;
+
+        /**
+         * The levels of the patches statements were pulled from
+         */
+        private final List<Integer> pulledLevels;
+
+        /**
+         * The number of statements merged
+         */
+        private final int statementCount;
+
+        /**
+         * Creates a new <code>Fallback</code>.
+         *
+         * @param statements     the statements of the patch running the merged statement
+         * @param pulledLevels   the levels of the patches statements were pulled from
+         * @param statementCount the number of statements merged
+         */
+        Fallback(List<String> statements, List<Integer> pulledLevels, int statementCount)
+        {
+            this.statements = new ArrayList<String>(statements);
+            this.pulledLevels = pulledLevels;
+            this.statementCount = statementCount;
+        }
+    }
+}
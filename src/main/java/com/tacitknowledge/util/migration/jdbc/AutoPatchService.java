@@ -139,7 +139,7 @@ public class AutoPatchService extends JdbcMigrationLauncherFactory
     {
         DataSourceMigrationContext context = getDataSourceMigrationContext();
         context.setSystemName(getSystemName());
-        context.setDatabaseType(new DatabaseType(getDatabaseType()));
+        context.setDatabaseType(DialectRegistry.getDatabaseType(getDatabaseType()));
         context.setDataSource(getDataSource());
         return context;
     }
@@ -0,0 +1,92 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import com.tacitknowledge.util.migration.jdbc.util.ConfigurationUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Computes the fingerprint of the patch catalog for a system, so that a build can
+ * record it as <code><i>systemName</i>.catalog.fingerprint</code> in the
+ * migration settings.  Read-only launchers configured with a fingerprint skip
+ * patch discovery on startup when the database reports the same fingerprint.
+ * <p/>
+ * This class expects the following Java environment parameters:
+ * <ul>
+ * <li>migration.systemname - the name of the logical system being migrated</li>
+ * <li>migration.settings (optional) - the name of the settings file to use for migration</li>
+ * </ul>
+ * <p/>
+ * Alternatively, you can pass the migration system name on the command line as the
+ * first argument.  The fingerprint is written to standard output.  No database
+ * connection is made.
+ *
+ * @see com.tacitknowledge.util.migration.CatalogFingerprint
+ */
+public class CatalogFingerprintGenerator
+{
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(CatalogFingerprintGenerator.class);
+
+    /**
+     * Print the catalog fingerprint for the given system name
+     *
+     * @param arguments the command line arguments, if any
+     * @throws Exception if anything goes wrong
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        CatalogFingerprintGenerator generator = new CatalogFingerprintGenerator();
+        String migrationSystemName = ConfigurationUtil.getRequiredParam("migration.systemname",
+                System.getProperties(), arguments, 0);
+        String migrationSettings = ConfigurationUtil.getOptionalParam("migration.settings",
+                System.getProperties(), arguments, 1);
+
+        System.out.println(generator.getCatalogFingerprint(migrationSystemName, migrationSettings));
+    }
+
+    /**
+     * Compute the catalog fingerprint for the given system name
+     *
+     * @param migrationSystemName the name of the system
+     * @param migrationSettings   the name of the settings file to use for migration; if
+     *                            <code>null</code> is passed then the default name for migration settings will be used
+     * @return the fingerprint of the system's patch catalog
+     * @throws Exception if anything goes wrong
+     */
+    public String getCatalogFingerprint(String migrationSystemName, String migrationSettings)
+            throws Exception
+    {
+        JdbcMigrationLauncherFactory launcherFactory =
+                new JdbcMigrationLauncherFactoryLoader().createFactory();
+        JdbcMigrationLauncher launcher = null;
+        if (migrationSettings == null)
+        {
+            launcher = launcherFactory.createMigrationLauncher(migrationSystemName);
+        }
+        else
+        {
+            launcher = launcherFactory.createMigrationLauncher(migrationSystemName, migrationSettings);
+        }
+
+        String fingerprint = launcher.getMigrationProcess().getCatalogFingerprint();
+        log.info("Catalog fingerprint for " + migrationSystemName + " is " + fingerprint);
+        return fingerprint;
+    }
+}
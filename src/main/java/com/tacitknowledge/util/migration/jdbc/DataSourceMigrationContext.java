@@ -16,12 +16,22 @@
 package com.tacitknowledge.util.migration.jdbc;
 
 import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.metrics.MigrationMetrics;
+import com.tacitknowledge.util.migration.metrics.MigrationTracing;
+import com.tacitknowledge.util.migration.metrics.TraceSpan;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Provides JDBC resources to migration tasks.
@@ -60,6 +70,44 @@ public class DataSourceMigrationContext implements JdbcMigrationContext
      */
     private String databaseName = "";
 
+    /**
+     * Notified of every statement a SQL script runs in this context
+     */
+    private List<StatementListener> statementListeners =
+            new CopyOnWriteArrayList<StatementListener>();
+
+    /**
+     * The registry connection and statement timings are recorded in
+     */
+    private volatile MigrationMetrics metrics = MigrationMetrics.getDefault();
+
+    /**
+     * The connection held open while a transaction group is open
+     */
+    private Connection groupConnection = null;
+
+    /**
+     * Hands <code>groupConnection</code> out to the patches of a transaction
+     * group, keeping them from committing or closing it
+     */
+    private Connection groupProxy = null;
+
+    /**
+     * The auto-commit state to restore when the transaction group ends
+     */
+    private boolean groupAutoCommit = true;
+
+    /**
+     * The savepoint taken before the patch being applied in the transaction group
+     */
+    private Savepoint patchSavepoint = null;
+
+    /**
+     * Coalesces the ALTER TABLE statements of the patches replayed in this
+     * context, or <code>null</code> if they run as written
+     */
+    private AlterTableReplay alterTableReplay = null;
+
     /**
      * Returns the database connection to use
      *
@@ -68,12 +116,33 @@ public class DataSourceMigrationContext implements JdbcMigrationContext
      */
     public Connection getConnection() throws SQLException
     {
+        if (groupProxy != null)
+        {
+            return groupProxy;
+        }
         if ((connection == null) || connection.isClosed())
         {
             DataSource ds = getDataSource();
             if (ds != null)
             {
-                connection = ds.getConnection();
+                long startTime = System.nanoTime();
+                TraceSpan span = MigrationTracing.begin(MigrationTracing.CONNECTION,
+                        String.valueOf(ds));
+                try
+                {
+                    connection = ds.getConnection();
+                }
+                catch (SQLException e)
+                {
+                    span.fail(e);
+                    throw e;
+                }
+                finally
+                {
+                    span.end();
+                }
+                metrics.histogram(MigrationMetrics.CONNECTION_ACQUISITION)
+                        .recordSince(startTime);
             }
             else
             {
@@ -127,6 +196,154 @@ public class DataSourceMigrationContext implements JdbcMigrationContext
         }
     }
 
+    /**
+     * Starts applying patches in one transaction.  Until the group ends, every
+     * caller gets the same connection; commits and closes made on it by the
+     * patches and the patch table are ignored, and a rollback only undoes the
+     * patch started last with {@link #beginGroupedPatch()}.
+     *
+     * @throws MigrationException if the connection can't be prepared
+     */
+    public void beginTransactionGroup() throws MigrationException
+    {
+        if (groupProxy != null)
+        {
+            throw new IllegalStateException("A transaction group is already open for " + this);
+        }
+        try
+        {
+            groupConnection = getConnection();
+            groupAutoCommit = groupConnection.getAutoCommit();
+            groupConnection.setAutoCommit(false);
+            groupProxy = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {Connection.class}, new GroupConnectionHandler(groupConnection));
+        }
+        catch (SQLException e)
+        {
+            groupConnection = null;
+            throw new MigrationException("Could not start a transaction group", e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if a transaction group is open
+     */
+    public boolean isInTransactionGroup()
+    {
+        return groupProxy != null;
+    }
+
+    /**
+     * Marks the start of a patch in the transaction group, so that a failure
+     * of the patch rolls back only its own work.
+     *
+     * @throws MigrationException if the savepoint can't be set
+     */
+    public void beginGroupedPatch() throws MigrationException
+    {
+        endGroupedPatch();
+        try
+        {
+            patchSavepoint = groupConnection.setSavepoint();
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Could not set a savepoint in the transaction group", e);
+        }
+    }
+
+    /**
+     * Marks the end of a patch in the transaction group, releasing its
+     * savepoint so that the savepoints of a long group don't pile up in the
+     * database.  Drivers that can't release savepoints keep them until the
+     * group commits.
+     */
+    public void endGroupedPatch()
+    {
+        Savepoint savepoint = patchSavepoint;
+        patchSavepoint = null;
+        if ((savepoint == null) || (groupConnection == null))
+        {
+            return;
+        }
+        try
+        {
+            groupConnection.releaseSavepoint(savepoint);
+        }
+        catch (SQLException e)
+        {
+            log.debug("Could not release the savepoint of a grouped patch", e);
+        }
+    }
+
+    /**
+     * Commits the work of the transaction group so far.  The group stays open.
+     *
+     * @throws MigrationException if the commit fails
+     */
+    public void commitTransactionGroup() throws MigrationException
+    {
+        try
+        {
+            patchSavepoint = null;
+            groupConnection.commit();
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Error committing transaction group", e);
+        }
+    }
+
+    /**
+     * Ends the transaction group, rolling back anything not committed with
+     * {@link #commitTransactionGroup()} and releasing its connection.
+     * <p>
+     * The group's connection is this context's own connection, the one
+     * {@link #getConnection()} handed out when the group began, so it is
+     * closed here too: callers still holding it must not use it again, and the
+     * next call to <code>getConnection()</code> opens a new one.
+     */
+    public void endTransactionGroup()
+    {
+        Connection conn = groupConnection;
+        groupProxy = null;
+        groupConnection = null;
+        patchSavepoint = null;
+        if (conn == null)
+        {
+            return;
+        }
+        try
+        {
+            conn.rollback();
+            conn.setAutoCommit(groupAutoCommit);
+            conn.close();
+        }
+        catch (SQLException e)
+        {
+            log.warn("Could not release the connection of the transaction group", e);
+        }
+    }
+
+    /**
+     * @return the replay coalescing the ALTER TABLE statements of the patches
+     *         run in this context, or <code>null</code> if there is none
+     */
+    AlterTableReplay getAlterTableReplay()
+    {
+        return alterTableReplay;
+    }
+
+    /**
+     * @param alterTableReplay the replay coalescing the ALTER TABLE statements
+     *                         of the patches run in this context; may be
+     *                         <code>null</code>
+     */
+    void setAlterTableReplay(AlterTableReplay alterTableReplay)
+    {
+        this.alterTableReplay = alterTableReplay;
+    }
+
     /**
      * Returns the type of database being patched.
      *
@@ -221,4 +438,119 @@ public class DataSourceMigrationContext implements JdbcMigrationContext
     {
         this.databaseName = databaseName;
     }
+
+    /**
+     * Adds a listener to be notified of every statement a SQL script runs in
+     * this context.
+     *
+     * @param listener the listener to add
+     */
+    public void addStatementListener(StatementListener listener)
+    {
+        statementListeners.add(listener);
+    }
+
+    /**
+     * Removes a statement listener.
+     *
+     * @param listener the listener to remove
+     * @return <code>true</code> if the listener was registered
+     */
+    public boolean removeStatementListener(StatementListener listener)
+    {
+        return statementListeners.remove(listener);
+    }
+
+    /**
+     * Returns the listeners notified of every statement a SQL script runs in
+     * this context.
+     *
+     * @return the statement listeners
+     */
+    public List<StatementListener> getStatementListeners()
+    {
+        return statementListeners;
+    }
+
+    /**
+     * @return the registry connection and statement timings are recorded in
+     */
+    public MigrationMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Sets the registry connection and statement timings are recorded in.
+     * The launcher a context is added to sets its own.
+     *
+     * @param metrics the registry; the default registry if <code>null</code>
+     */
+    public void setMetrics(MigrationMetrics metrics)
+    {
+        this.metrics = (metrics == null) ? MigrationMetrics.getDefault() : metrics;
+    }
+
+    /**
+     * Passes calls through to the connection of a transaction group, except
+     * those that would end its transaction or release it early.
+     */
+    private class GroupConnectionHandler implements InvocationHandler
+    {
+        /**
+         * The connection of the transaction group
+         */
+        private final Connection delegate;
+
+        /**
+         * Creates a new <code>GroupConnectionHandler</code>.
+         *
+         * @param delegate the connection of the transaction group
+         */
+        GroupConnectionHandler(Connection delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String name = method.getName();
+            boolean noArgs = (args == null) || (args.length == 0);
+            if ("close".equals(name) || "commit".equals(name) || "setAutoCommit".equals(name))
+            {
+                return null;
+            }
+            if ("rollback".equals(name) && noArgs)
+            {
+                if (patchSavepoint != null)
+                {
+                    delegate.rollback(patchSavepoint);
+                }
+                else
+                {
+                    delegate.rollback();
+                }
+                return null;
+            }
+            if ("equals".equals(name))
+            {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(name))
+            {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            try
+            {
+                return method.invoke(delegate, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+    }
 }
@@ -17,7 +17,12 @@ package com.tacitknowledge.util.migration.jdbc;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * Defines a type of database (e.g. <code>oracle</code> or <code>postgres</code>.  This
@@ -29,14 +34,30 @@ import java.util.Properties;
  * required keys are:
  * <ul>
  * <li>patches.create - DDL that creates the patches table</li>
+ * <li>summary.create - DDL that creates the patch summary table</li>
  * <li>level.create - SQL that inserts a new patch level record for the system</li>
+ * <li>summary.record.create - SQL that seeds the summary record for the system from
+ * its patch history</li>
  * <li>level.read - SQL that selects the current patch level of the system</li>
- * <li>level.update - SQL that updates the current patch level of the system</li>
+ * <li>level.update - SQL that records a patch applied to the system</li>
+ * <li>summary.level.update - SQL that moves the current patch level of the system forward</li>
  * <li>lock.read - Returns 'T' if the system patch lock is in use, 'F' otherwise</li>
  * <li>lock.obtain - SQL that selects the patch lock for the system</li>
  * <li>lock.release - SQL that releases the patch lock for the system</li>
  * </ul>
  * <p/>
+ * The file also declares what the database can do, as boolean flags read once into
+ * the capability methods:
+ * <ul>
+ * <li>supportsMultipleStatements - a whole script can be run in one
+ * <code>Statement.execute</code> call</li>
+ * <li>supportsBatchDdl - DDL can be sent in a JDBC batch</li>
+ * <li>supportsAdvisoryLocks - the database offers named application locks</li>
+ * <li>supportsTransactionalDdl - DDL can be rolled back with the transaction it ran in</li>
+ * <li>supportsBulkLoad - the database has a server-side bulk load statement</li>
+ * <li>supportsConcurrentIndex - indexes can be built without blocking writes</li>
+ * </ul>
+ * <p/>
  * Use <i>postgres.properties</i> or <i>oracle.properties</i> as a baseline for adding
  * additional database types.
  * <p/>
@@ -46,25 +67,85 @@ import java.util.Properties;
  * <p/>
  * For example, the property, <code>supportsMultipleStatements</code> would be overridden
  * for mysql using the property name <code>mysql.supportsMultipleStatements</code>.
+ * <p/>
+ * The properties and overrides are resolved once, when the type is created, and
+ * the type never changes afterwards.  Use {@link DialectRegistry} to share one
+ * instance of each type rather than reading the files again.
  *
  * @author Scott Askew (scott@tacitknowledge.com)
  */
 public class DatabaseType
 {
     /**
-     * The SQL statements and properties that are unique to this database flavor.
+     * The property declaring support for running a whole script in one call
+     */
+    public static final String SUPPORTS_MULTIPLE_STATEMENTS = "supportsMultipleStatements";
+
+    /**
+     * The property declaring support for DDL in JDBC batches
+     */
+    public static final String SUPPORTS_BATCH_DDL = "supportsBatchDdl";
+
+    /**
+     * The property declaring support for named application locks
+     */
+    public static final String SUPPORTS_ADVISORY_LOCKS = "supportsAdvisoryLocks";
+
+    /**
+     * The property declaring support for rolling back DDL
+     */
+    public static final String SUPPORTS_TRANSACTIONAL_DDL = "supportsTransactionalDdl";
+
+    /**
+     * The property declaring support for a server-side bulk load statement
+     */
+    public static final String SUPPORTS_BULK_LOAD = "supportsBulkLoad";
+
+    /**
+     * The property declaring support for building indexes without blocking writes
      */
-    private Properties databaseProperties;
+    public static final String SUPPORTS_CONCURRENT_INDEX = "supportsConcurrentIndex";
 
     /**
-     * The migration.properties that may override databaseProperties
+     * The SQL statements and properties of this database flavor, with the
+     * overrides from migration.properties already applied
      */
-    private Properties migrationProperties;
+    private final Map<String, String> properties;
 
     /**
      * The database type
      */
-    private String databaseType = "";
+    private final String databaseType;
+
+    /**
+     * Whether a whole script can be run in one <code>Statement.execute</code> call
+     */
+    private final boolean multipleStatementsSupported;
+
+    /**
+     * Whether DDL can be sent in a JDBC batch
+     */
+    private final boolean batchDdlSupported;
+
+    /**
+     * Whether the database offers named application locks
+     */
+    private final boolean advisoryLocksSupported;
+
+    /**
+     * Whether DDL is rolled back with its transaction
+     */
+    private final boolean transactionalDdlSupported;
+
+    /**
+     * Whether the database has a server-side bulk load statement
+     */
+    private final boolean bulkLoadSupported;
+
+    /**
+     * Whether indexes can be built without blocking writes
+     */
+    private final boolean concurrentIndexSupported;
 
     /**
      * Creates a new <code>DatabaseType</code>.
@@ -78,8 +159,8 @@ public class DatabaseType
         String className = this.getClass().getName();
         int index = className.lastIndexOf(".");
         String databasePropertiesFilename = className.substring(0, index).replace(".", "/") + "/" + databaseType + ".properties";
-        databaseProperties = loadProperties(databasePropertiesFilename, this.getClass().getClassLoader());
-        migrationProperties = new Properties();
+        Properties databaseProperties = loadProperties(databasePropertiesFilename, this.getClass().getClassLoader());
+        Properties migrationProperties = new Properties();
         try
         {
             migrationProperties = loadProperties("migration.properties", Thread.currentThread().getContextClassLoader());
@@ -89,6 +170,55 @@ public class DatabaseType
             // this is okay, in this class, migration.properties is only used to override SQL
         }
         this.databaseType = databaseType;
+        this.properties = resolveProperties(databaseType, databaseProperties, migrationProperties);
+
+        multipleStatementsSupported = getFlag(SUPPORTS_MULTIPLE_STATEMENTS);
+        batchDdlSupported = getFlag(SUPPORTS_BATCH_DDL);
+        advisoryLocksSupported = getFlag(SUPPORTS_ADVISORY_LOCKS);
+        transactionalDdlSupported = getFlag(SUPPORTS_TRANSACTIONAL_DDL);
+        bulkLoadSupported = getFlag(SUPPORTS_BULK_LOAD);
+        concurrentIndexSupported = getFlag(SUPPORTS_CONCURRENT_INDEX);
+    }
+
+    /**
+     * Merges the database properties with the overrides for this database type
+     * found in migration.properties.
+     *
+     * @param databaseType        the type of database
+     * @param databaseProperties  the properties of the database type
+     * @param migrationProperties the migration.properties, possibly empty
+     * @return the resolved properties, which can't be changed
+     */
+    private static Map<String, String> resolveProperties(String databaseType,
+            Properties databaseProperties, Properties migrationProperties)
+    {
+        Map<String, String> resolved = new HashMap<String, String>();
+        for (Iterator i = databaseProperties.keySet().iterator(); i.hasNext();)
+        {
+            String key = (String) i.next();
+            resolved.put(key, databaseProperties.getProperty(key));
+        }
+        String prefix = databaseType + ".";
+        for (Iterator i = migrationProperties.keySet().iterator(); i.hasNext();)
+        {
+            String key = (String) i.next();
+            if (key.startsWith(prefix))
+            {
+                resolved.put(key.substring(prefix.length()), migrationProperties.getProperty(key));
+            }
+        }
+        return Collections.unmodifiableMap(resolved);
+    }
+
+    /**
+     * Reads a boolean property, which is <code>false</code> unless set.
+     *
+     * @param propertyName the property to read
+     * @return the value of the property
+     */
+    private boolean getFlag(String propertyName)
+    {
+        return Boolean.valueOf(properties.get(propertyName)).booleanValue();
     }
 
     protected Properties loadProperties(String propertiesFilename, ClassLoader loader)
@@ -147,18 +277,18 @@ public class DatabaseType
      */
     public String getProperty(String propertyName)
     {
-        String value = null;
-
-        if (migrationProperties.containsKey(databaseType + "." + propertyName))
-        {
-            value = migrationProperties.getProperty(databaseType + "." + propertyName);
-        }
-        else
-        {
-            value = databaseProperties.getProperty(propertyName);
-        }
+        return properties.get(propertyName);
+    }
 
-        return value;
+    /**
+     * Returns the names of the properties of this database type, overrides
+     * included.
+     *
+     * @return the property names, which can't be changed
+     */
+    public Set<String> getPropertyNames()
+    {
+        return properties.keySet();
     }
 
     /**
@@ -170,9 +300,57 @@ public class DatabaseType
      */
     public boolean isMultipleStatementsSupported()
     {
-        String value = this.getProperty("supportsMultipleStatements");
-        String multiStatement = (value != null) ? value : "false";
-        return Boolean.valueOf(multiStatement).booleanValue();
+        return multipleStatementsSupported;
+    }
+
+    /**
+     * Determines if DDL statements can be sent to the database in a JDBC batch.
+     *
+     * @return if DDL can be batched
+     */
+    public boolean isBatchDdlSupported()
+    {
+        return batchDdlSupported;
+    }
+
+    /**
+     * Determines if the database offers named application (advisory) locks.
+     *
+     * @return if the database has advisory locks
+     */
+    public boolean isAdvisoryLocksSupported()
+    {
+        return advisoryLocksSupported;
+    }
+
+    /**
+     * Determines if DDL is rolled back along with the transaction it ran in.
+     *
+     * @return if DDL is transactional
+     */
+    public boolean isTransactionalDdlSupported()
+    {
+        return transactionalDdlSupported;
+    }
+
+    /**
+     * Determines if the database has a server-side bulk load statement.
+     *
+     * @return if the database can bulk load
+     */
+    public boolean isBulkLoadSupported()
+    {
+        return bulkLoadSupported;
+    }
+
+    /**
+     * Determines if indexes can be built without blocking writes to the table.
+     *
+     * @return if indexes can be built concurrently
+     */
+    public boolean isConcurrentIndexSupported()
+    {
+        return concurrentIndexSupported;
     }
 
     /**
@@ -0,0 +1,93 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Shares one {@link DatabaseType} of each kind across the process, so each
+ * dialect file is read, and its overrides resolved, only once.  Since the
+ * overrides come from the migration.properties seen by the context class
+ * loader, each class loader (such as each web application) gets its own set.
+ */
+public final class DialectRegistry
+{
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(DialectRegistry.class);
+
+    /**
+     * The database types created so far, by context class loader and name
+     */
+    private static final Map<ClassLoader, Map<String, DatabaseType>> DIALECTS =
+            new WeakHashMap<ClassLoader, Map<String, DatabaseType>>();
+
+    /**
+     * Hidden constructor for a utility class
+     */
+    private DialectRegistry()
+    {
+        // do nothing
+    }
+
+    /**
+     * Returns the shared database type with the given name, creating it the
+     * first time it is asked for.
+     *
+     * @param databaseType the name of the database type, such as "postgres"
+     * @return the shared database type
+     * @throws IllegalArgumentException if there is no such database type
+     */
+    public static DatabaseType getDatabaseType(String databaseType)
+    {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        synchronized (DIALECTS)
+        {
+            Map<String, DatabaseType> types = DIALECTS.get(loader);
+            if (types == null)
+            {
+                types = new HashMap<String, DatabaseType>();
+                DIALECTS.put(loader, types);
+            }
+            DatabaseType type = types.get(databaseType);
+            if (type == null)
+            {
+                type = new DatabaseType(databaseType);
+                types.put(databaseType, type);
+                log.debug("Registered " + type);
+            }
+            return type;
+        }
+    }
+
+    /**
+     * Forgets every database type, so they are read again the next time they
+     * are asked for; for instance after migration.properties changes.
+     */
+    public static void clear()
+    {
+        synchronized (DIALECTS)
+        {
+            DIALECTS.clear();
+        }
+    }
+}
@@ -141,7 +141,7 @@ public class DistributedAutoPatchService extends DistributedJdbcMigrationLaunche
     {
         DataSourceMigrationContext context = getDataSourceMigrationContext();
         context.setSystemName(getSystemName());
-        context.setDatabaseType(new DatabaseType(getDatabaseType()));
+        context.setDatabaseType(DialectRegistry.getDatabaseType(getDatabaseType()));
         context.setDataSource(getDataSource());
         return context;
     }
@@ -18,11 +18,12 @@ package com.tacitknowledge.util.migration.jdbc;
 import com.tacitknowledge.util.migration.DistributedMigrationProcess;
 import com.tacitknowledge.util.migration.MigrationContext;
 import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.PatchLevelSet;
 import com.tacitknowledge.util.migration.jdbc.util.ConfigurationUtil;
-import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import javax.sql.DataSource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -42,6 +43,10 @@ import java.util.Properties;
  * <tr><th>Key</th><th>description</th></tr>
  * <tr><td><i>systemName</i>.context</td><td>The context to use for orchestration</td></tr>
  * <tr><td><i>systemName</i>.controlled.systems</td><td>comma-delimited systems to manage</td></tr>
+ * <tr><td><i>systemName</i>.concurrent</td><td>(optional) "true" to patch the controlled
+ * systems at the same time; requires the missing patch strategy</td></tr>
+ * <tr><td><i>systemName</i>.barrier.levels</td><td>(optional) comma-delimited patch levels
+ * that all controlled systems must reach together when patching concurrently</td></tr>
  * </table>
  * <p>
  * For each system in the controlled systems list, the properties file should contain
@@ -104,6 +109,25 @@ public class DistributedJdbcMigrationLauncherFactory extends JdbcMigrationLaunch
         return launcher;
     }
 
+    /**
+     * Creates and configures a new <code>DistributedJdbcMigrationLauncher</code>
+     * for the given system from an already parsed configuration.  Data sources and
+     * database types are shared with every other launcher configured from it.
+     *
+     * @param systemName    the system to patch
+     * @param configuration the parsed migration properties
+     * @return a fully configured <code>DistributedJdbcMigrationLauncher</code>.
+     * @throws MigrationException if an unexpected error occurs
+     */
+    public JdbcMigrationLauncher createMigrationLauncher(String systemName,
+            MigrationConfiguration configuration) throws MigrationException
+    {
+        log.info("Creating DistributedJdbcMigrationLauncher for system " + systemName);
+        DistributedJdbcMigrationLauncher launcher = getDistributedJdbcMigrationLauncher();
+        configureFromMigrationProperties(launcher, systemName, configuration);
+        return launcher;
+    }
+
     /**
      * Get a new DistributedJdbcMigrationLauncher
      *
@@ -136,7 +160,7 @@ public class DistributedJdbcMigrationLauncherFactory extends JdbcMigrationLaunch
                 Properties props = new Properties();
                 props.load(is);
 
-                configureFromMigrationProperties(launcher, systemName, props, propFile);
+                configureFromMigrationProperties(launcher, systemName, props);
             }
             catch (IOException e)
             {
@@ -167,25 +191,38 @@ public class DistributedJdbcMigrationLauncherFactory extends JdbcMigrationLaunch
      * @param launcher     The launcher to configure
      * @param systemName   The name of the system we're configuring
      * @param props        The Properties object with our configuration information
-     * @param propFileName the property file name for configuration
      * @throws IllegalArgumentException if a required parameter is missing
      * @throws MigrationException       if there is problem setting the context into the launcher
      */
     void configureFromMigrationProperties(DistributedJdbcMigrationLauncher launcher,
-            String systemName, Properties props,
-            String propFileName)
+            String systemName, Properties props)
             throws IllegalArgumentException, MigrationException
     {
+        // Parse once; the controlled systems share data sources and dialects with us
+        configureFromMigrationProperties(launcher, systemName, createMigrationConfiguration(props));
+    }
+
+    /**
+     * Configure the launcher from the provided configuration, system name
+     *
+     * @param launcher      The launcher to configure
+     * @param systemName    The name of the system we're configuring
+     * @param configuration The parsed configuration, shared with the controlled systems
+     * @throws IllegalArgumentException if a required parameter is missing
+     * @throws MigrationException       if there is problem setting the context into the launcher
+     */
+    void configureFromMigrationProperties(DistributedJdbcMigrationLauncher launcher,
+            String systemName, MigrationConfiguration configuration)
+            throws IllegalArgumentException, MigrationException
+    {
+        Properties props = configuration.getProperties();
+
         // Get the name of the context to use for our patch information
         String patchContext =
                 ConfigurationUtil.getRequiredParam(props, systemName + ".context");
 
         // Set up the data source
-        NonPooledDataSource ds = new NonPooledDataSource();
-        ds.setDriverClass(ConfigurationUtil.getRequiredParam(props, patchContext + ".jdbc.driver"));
-        ds.setDatabaseUrl(ConfigurationUtil.getRequiredParam(props, patchContext + ".jdbc.url"));
-        ds.setUsername(ConfigurationUtil.getRequiredParam(props, patchContext + ".jdbc.username"));
-        ds.setPassword(ConfigurationUtil.getRequiredParam(props, patchContext + ".jdbc.password"));
+        DataSource ds = configuration.getDataSource(patchContext + ".jdbc");
 
         launcher.setMigrationStrategy(props.getProperty("migration.strategy"));
         // Get any post-patch task paths
@@ -197,6 +234,7 @@ public class DistributedJdbcMigrationLauncherFactory extends JdbcMigrationLaunch
         {
             launcher.setReadOnly(true);
         }
+        launcher.setCatalogFingerprint(props.getProperty(systemName + ".catalog.fingerprint"));
 
         // See if they want to override the lock after a certain amount of time
         String lockPollRetries = props.getProperty(systemName + ".lockPollRetries");
@@ -205,6 +243,8 @@ public class DistributedJdbcMigrationLauncherFactory extends JdbcMigrationLaunch
             launcher.setLockPollRetries(Integer.parseInt(lockPollRetries));
         }
 
+        configureMetrics(launcher, systemName, props);
+
         // see if forcesync specified.  Value doesn't matter, just presence of system property enables syncing
         String forceSync = ConfigurationUtil.getOptionalParam("forcesync", System.getProperties(), null, 0);
         if (forceSync != null)
@@ -212,11 +252,20 @@ public class DistributedJdbcMigrationLauncherFactory extends JdbcMigrationLaunch
             ((DistributedMigrationProcess) launcher.getMigrationProcess()).setForceSync(true);
         }
 
+        // See if the controlled systems should be patched at the same time
+        DistributedMigrationProcess process = (DistributedMigrationProcess) launcher.getMigrationProcess();
+        process.setConcurrent("true".equals(props.getProperty(systemName + ".concurrent")));
+        String barrierLevels = props.getProperty(systemName + ".barrier.levels");
+        if (barrierLevels != null && barrierLevels.trim().length() > 0)
+        {
+            process.setBarrierLevels(parseLevels(systemName + ".barrier.levels", barrierLevels));
+        }
+
         // Set up the JDBC migration context; accepts one of two property names
         DataSourceMigrationContext context = getDataSourceMigrationContext();
         String databaseType = ConfigurationUtil.getRequiredParam(props,
                 patchContext + ".jdbc.database.type", patchContext + ".jdbc.dialect");
-        context.setDatabaseType(new DatabaseType(databaseType));
+        context.setDatabaseType(configuration.getDatabaseType(databaseType));
 
         // Finish setting up the context
         context.setSystemName(systemName);
@@ -225,6 +274,7 @@ public class DistributedJdbcMigrationLauncherFactory extends JdbcMigrationLaunch
         // setup the user-defined listeners
         List userDefinedListeners = loadMigrationListeners(systemName, props);
         launcher.getMigrationProcess().addListeners(userDefinedListeners);
+        configureAsynchronousListeners(launcher.getMigrationProcess(), systemName, props);
 
         // done reading in config, set launcher's context
         // FIXME only using one context here, would a distributed one ever go into multiple nodes?
@@ -235,14 +285,14 @@ public class DistributedJdbcMigrationLauncherFactory extends JdbcMigrationLaunch
         String[] controlledSystemNames =
                 ConfigurationUtil.getRequiredParam(props,
                         systemName + ".controlled.systems").split(",");
+        //TODO should be injected
+        JdbcMigrationLauncherFactory factory =
+                new JdbcMigrationLauncherFactoryLoader().createFactory();
         for (int i = 0; i < controlledSystemNames.length; i++)
         {
             log.info("Creating controlled patch executor for system " + controlledSystemNames[i]);
-            //TODO should be injected
-            JdbcMigrationLauncherFactory factory =
-                    new JdbcMigrationLauncherFactoryLoader().createFactory();
             JdbcMigrationLauncher subLauncher =
-                    factory.createMigrationLauncher(controlledSystemNames[i], propFileName);
+                    factory.createMigrationLauncher(controlledSystemNames[i], configuration);
 
             controlledSystems.put(controlledSystemNames[i], subLauncher);
 
@@ -250,8 +300,37 @@ public class DistributedJdbcMigrationLauncherFactory extends JdbcMigrationLaunch
             launcher.getMigrationProcess().addListener(subLauncher);
         }
 
+        log.debug("Controlled systems of " + systemName + " use "
+                + configuration.getDataSourceCount() + " distinct data source(s)");
+
         // communicate our new-found controlled systems to the migration process
         ((DistributedMigrationProcess) launcher.getMigrationProcess())
                 .setControlledSystems(controlledSystems);
     }
+
+    /**
+     * Parses a comma-delimited list of patch levels.
+     *
+     * @param key    the name of the property being parsed
+     * @param levels the comma-delimited patch levels
+     * @return the parsed patch levels
+     * @throws MigrationException if a level isn't an integer
+     */
+    private PatchLevelSet parseLevels(String key, String levels) throws MigrationException
+    {
+        String[] values = levels.split(",");
+        int[] result = new int[values.length];
+        try
+        {
+            for (int i = 0; i < values.length; i++)
+            {
+                result[i] = Integer.parseInt(values[i].trim());
+            }
+            return PatchLevelSet.of(result);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new MigrationException("Invalid patch levels in " + key + ": " + levels, e);
+        }
+    }
 }
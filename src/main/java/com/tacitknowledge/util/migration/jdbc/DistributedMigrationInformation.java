@@ -15,12 +15,12 @@
 
 package com.tacitknowledge.util.migration.jdbc;
 
+import com.tacitknowledge.util.migration.ClusterStatus;
+import com.tacitknowledge.util.migration.ContextStatus;
 import com.tacitknowledge.util.migration.jdbc.util.ConfigurationUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.Map;
-
 /**
  * Launches the migration process as a standalone application.
  * <p/>
@@ -129,16 +129,11 @@ public class DistributedMigrationInformation
                 launcher = (DistributedJdbcMigrationLauncher) factory.createMigrationLauncher(systemName, migrationSettings);
             }
             // FIXME test that the migration information is correct
-            Map contextMap = launcher.getContexts();
-
-            JdbcMigrationContext context =
-                    (JdbcMigrationContext) contextMap.keySet().iterator().next();
-
-            int currentLevel = launcher.getDatabasePatchLevel(context);
-            int nextPatchLevel = launcher.getNextPatchLevel();
-            log.info("Current Database patch level is        : " + currentLevel);
-            int unappliedPatches = nextPatchLevel - launcher.getDatabasePatchLevel(context) - 1;
-            log.info("Current number of unapplied patches is : " + unappliedPatches);
+            ClusterStatus status = launcher.getClusterStatus();
+            ContextStatus contextStatus = status.getContextStatuses().get(0);
+            int nextPatchLevel = status.getNextPatchLevel();
+            log.info("Current Database patch level is        : " + contextStatus.getPatchLevel());
+            log.info("Current number of unapplied patches is : " + contextStatus.getPendingCount());
             log.info("The next patch to author should be     : " + nextPatchLevel);
             return (nextPatchLevel - 1);
         }
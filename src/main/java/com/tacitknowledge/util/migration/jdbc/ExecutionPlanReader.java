@@ -0,0 +1,154 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Pattern;
+
+import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+
+/**
+ * Asks the database for the execution plan of a statement, using the EXPLAIN
+ * SQL of the context's <code>DatabaseType</code>.  The <code>explain.plan</code>
+ * property holds the SQL, with <code>{0}</code> standing for the statement; if
+ * the database writes the plan to a table rather than returning it, the
+ * <code>explain.plan.read</code> property holds the query that reads it back.
+ * <p>
+ * Only data manipulation statements are explained, and only for databases that
+ * run a script one statement at a time, so a failed EXPLAIN never leaves the
+ * patch's transaction unusable.
+ */
+public final class ExecutionPlanReader
+{
+    /**
+     * The <code>DatabaseType</code> property holding the EXPLAIN SQL
+     */
+    public static final String EXPLAIN_PLAN = "explain.plan";
+
+    /**
+     * The <code>DatabaseType</code> property holding the query reading back the plan
+     */
+    public static final String EXPLAIN_PLAN_READ = "explain.plan.read";
+
+    /**
+     * The statements that have an execution plan
+     */
+    private static final Pattern EXPLAINABLE =
+            Pattern.compile("^\\s*(SELECT|INSERT|UPDATE|DELETE|MERGE|WITH)\\b",
+                    Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Hidden constructor for a utility class
+     */
+    private ExecutionPlanReader()
+    {
+        // do nothing
+    }
+
+    /**
+     * Determines if the plan of a statement can be read in the given context.
+     *
+     * @param context the context the statement runs in
+     * @param sql     the statement
+     * @return <code>true</code> if the statement can be explained
+     */
+    public static boolean isExplainable(JdbcMigrationContext context, String sql)
+    {
+        DatabaseType databaseType = context.getDatabaseType();
+        return (databaseType.getProperty(EXPLAIN_PLAN) != null)
+                && !databaseType.isMultipleStatementsSupported()
+                && EXPLAINABLE.matcher(sql).find();
+    }
+
+    /**
+     * Reads the execution plan of a statement over the context's connection.
+     *
+     * @param context the context the statement runs in
+     * @param sql     the statement
+     * @return the plan, one line per row the database returned, or
+     *         <code>null</code> if the statement can't be explained
+     * @throws SQLException if the database can't explain the statement
+     */
+    public static String explain(JdbcMigrationContext context, String sql) throws SQLException
+    {
+        if (!isExplainable(context, sql))
+        {
+            return null;
+        }
+
+        DatabaseType databaseType = context.getDatabaseType();
+        Connection conn = context.getConnection();
+        Statement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            stmt = conn.createStatement();
+            boolean hasResults = stmt.execute(databaseType.getProperty(EXPLAIN_PLAN)
+                    .replace("{0}", sql));
+            String readSql = databaseType.getProperty(EXPLAIN_PLAN_READ);
+            if (readSql != null)
+            {
+                SqlUtil.close(null, stmt, null);
+                stmt = conn.createStatement();
+                hasResults = stmt.execute(readSql);
+            }
+            if (!hasResults)
+            {
+                return null;
+            }
+            rs = stmt.getResultSet();
+            return format(rs);
+        }
+        finally
+        {
+            SqlUtil.close(null, stmt, rs);
+        }
+    }
+
+    /**
+     * Writes out a plan, one line per row and a tab between columns.
+     *
+     * @param rs the plan
+     * @return the plan as text
+     * @throws SQLException if the plan can't be read
+     */
+    static String format(ResultSet rs) throws SQLException
+    {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columns = metaData.getColumnCount();
+        StringBuffer plan = new StringBuffer();
+        while (rs.next())
+        {
+            if (plan.length() > 0)
+            {
+                plan.append('\n');
+            }
+            for (int i = 1; i <= columns; i++)
+            {
+                if (i > 1)
+                {
+                    plan.append('\t');
+                }
+                plan.append(rs.getString(i));
+            }
+        }
+        return plan.toString();
+    }
+}
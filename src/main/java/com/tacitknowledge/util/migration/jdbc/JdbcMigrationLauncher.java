@@ -17,12 +17,21 @@ package com.tacitknowledge.util.migration.jdbc;
 
 import com.tacitknowledge.util.migration.*;
 import com.tacitknowledge.util.migration.jdbc.loader.FlatXmlDataSetTaskSource;
+import com.tacitknowledge.util.migration.metrics.MigrationMetrics;
+import com.tacitknowledge.util.migration.metrics.MigrationTracing;
+import com.tacitknowledge.util.migration.metrics.PrometheusTextWriter;
+import com.tacitknowledge.util.migration.metrics.TraceSpan;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Core starting point for a database migration run. This class obtains a
@@ -81,6 +90,91 @@ public class JdbcMigrationLauncher implements RollbackListener
      */
     private String migrationStrategy;
 
+    /**
+     * The expected fingerprint of the patch catalog, usually computed at build time
+     */
+    private String catalogFingerprint = null;
+
+    /**
+     * When the task currently running in each context started, for the execution history
+     */
+    private Map<MigrationContext, Long> taskStartTimes = new ConcurrentHashMap<MigrationContext, Long>();
+
+    /**
+     * The most contexts patched at the same time; 1 patches them one after another
+     */
+    private int shardConcurrency = 1;
+
+    /**
+     * The most contexts on one database host patched at the same time, or 0 for no limit
+     */
+    private int shardConcurrencyPerHost = 0;
+
+    /**
+     * The number of contexts allowed to fail before a sharded rollout stops
+     */
+    private int shardFailureBudget = 0;
+
+    /**
+     * The outcome of the last sharded rollout
+     */
+    private ShardRolloutSummary lastShardRollout = null;
+
+    /**
+     * The registry this launcher's metrics are recorded in; it also records
+     * them in the default registry
+     */
+    private final MigrationMetrics metrics = new MigrationMetrics(MigrationMetrics.getDefault());
+
+    /**
+     * Where to write the migration metrics in Prometheus text format after each run
+     */
+    private String metricsFile = null;
+
+    /**
+     * Logs and ranks slow statements in every context, if set
+     */
+    private SlowStatementMonitor slowStatementMonitor = null;
+
+    /**
+     * Told when the migration waits for, and gets, the patch lock, if set
+     */
+    private MigrationReadiness readiness = null;
+
+    /**
+     * The most SQL patches applied in one transaction while bootstrapping a
+     * fresh database, or 1 to commit every patch on its own
+     */
+    private int bootstrapGroupSize = 1;
+
+    /**
+     * Whether an empty context is brought up to the newest baseline before
+     * its patches are applied
+     */
+    private boolean baselineEnabled = false;
+
+    /**
+     * Whether the migration process has been given a baseline source yet
+     */
+    private boolean baselineSourceAdded = false;
+
+    /**
+     * Whether post-patch tasks are skipped while their fingerprint is unchanged
+     */
+    private boolean postPatchFingerprinting = false;
+
+    /**
+     * Whether the ALTER TABLE statements of patches replayed into an empty
+     * database are coalesced
+     */
+    private boolean alterCoalescing = false;
+
+    /**
+     * The transaction groups of the contexts being bootstrapped
+     */
+    private Map<MigrationContext, PatchTransactionGroup> transactionGroups =
+            new ConcurrentHashMap<MigrationContext, PatchTransactionGroup>();
+
     /**
      * Create a new MigrationProcess and add a SqlScriptMigrationTaskSource
      */
@@ -127,15 +221,21 @@ public class JdbcMigrationLauncher implements RollbackListener
 
         try
         {
+            if ((shardConcurrency > 1) && (contexts.size() > 1))
+            {
+                return doShardedMigrations();
+            }
+
             Iterator contextIter = contexts.keySet().iterator();
             int migrationCount = 0;
             while (contextIter.hasNext())
             {
                 JdbcMigrationContext context =
                         (JdbcMigrationContext) contextIter.next();
-                migrationCount = doMigrations(context);
-                log.info("Executed " + migrationCount + " patches for context "
+                int contextCount = doMigrations(context);
+                log.info("Executed " + contextCount + " patches for context "
                         + context);
+                migrationCount += contextCount;
             }
             return migrationCount;
         }
@@ -143,6 +243,57 @@ public class JdbcMigrationLauncher implements RollbackListener
         {
             throw new MigrationException("SqlException during migration", e);
         }
+        finally
+        {
+            // let asynchronous listeners hear about this run before we return
+            getMigrationProcess().flushListeners();
+            writeMetricsFile();
+        }
+    }
+
+    /**
+     * Writes the migration metrics to the metrics file, if there is one.  A
+     * failure to write them is logged, it doesn't fail the run.
+     */
+    private void writeMetricsFile()
+    {
+        if (metricsFile == null)
+        {
+            return;
+        }
+        try
+        {
+            PrometheusTextWriter.writeFile(metrics, new File(metricsFile));
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not write migration metrics to " + metricsFile, e);
+        }
+    }
+
+    /**
+     * Patches the contexts as shards, several at a time.  Every shard is
+     * attempted unless the failure budget runs out; if any shard failed, the
+     * rollout is reported as a failure once the remaining shards are done.
+     *
+     * @return the number of patches applied across all shards
+     * @throws MigrationException if any shard failed to patch
+     */
+    private int doShardedMigrations() throws MigrationException
+    {
+        ShardRolloutExecutor executor = new ShardRolloutExecutor(this, shardConcurrency,
+                shardConcurrencyPerHost, shardFailureBudget);
+        lastShardRollout = executor.execute(new ArrayList<JdbcMigrationContext>(contexts.keySet()));
+        log.info(lastShardRollout);
+
+        List<ShardProgress> failed = lastShardRollout.getShards(ShardProgress.FAILED);
+        if (!failed.isEmpty())
+        {
+            throw new MigrationException(failed.size() + " of " + contexts.size()
+                    + " shards failed to patch, first was " + failed.get(0).getShardName(),
+                    failed.get(0).getFailure());
+        }
+        return lastShardRollout.getPatchCount();
     }
 
     /**
@@ -213,7 +364,7 @@ public class JdbcMigrationLauncher implements RollbackListener
         // Do any post-patch tasks
         try
         {
-            migrationProcess.doPostPatchMigrations(context);
+            doPostPatchMigrations(context, patchTable);
             return executedPatchCount;
         }
         finally
@@ -384,6 +535,12 @@ public class JdbcMigrationLauncher implements RollbackListener
     public void migrationStarted(MigrationTask task, MigrationContext ctx) throws MigrationException
     {
         log.debug("Started task " + task.getName() + " for context " + ctx);
+        taskStartTimes.put(ctx, new Long(System.currentTimeMillis()));
+        PatchTransactionGroup group = transactionGroups.get(ctx);
+        if (group != null)
+        {
+            group.patchStarting(task);
+        }
     }
 
     /**
@@ -394,16 +551,27 @@ public class JdbcMigrationLauncher implements RollbackListener
         log.debug("Task " + task.getName() + " was successful for context " + ctx + " in launcher " + this);
         int patchLevel = task.getLevel().intValue();
 
-        // update all of our controlled patch tables
-        for (Iterator patchTableIter = contexts.entrySet().iterator(); patchTableIter.hasNext();)
+        // a task run in one of our contexts only patched that context, but a task
+        // of another system brings all of our controlled patch tables up to date
+        Collection<PatchInfoStore> stores = contexts.values();
+        if (contexts.containsKey(ctx))
+        {
+            stores = Collections.singletonList(contexts.get(ctx));
+        }
+        for (PatchInfoStore store : stores)
         {
-            PatchInfoStore store = (PatchInfoStore) ((Map.Entry) patchTableIter.next()).getValue();
             MigrationRunnerStrategy strategy = getMigrationProcess().getMigrationRunnerStrategy();
             if (strategy.shouldMigrationRun(patchLevel, store))
             {
                 store.updatePatchLevel(patchLevel);
             }
         }
+        recordPatchExecution(task, ctx, PatchExecution.APPLY, PatchExecution.SUCCESS);
+        PatchTransactionGroup group = transactionGroups.get(ctx);
+        if (group != null)
+        {
+            group.patchSucceeded();
+        }
     }
 
     /**
@@ -413,6 +581,7 @@ public class JdbcMigrationLauncher implements RollbackListener
             throws MigrationException
     {
         log.debug("Task " + task.getName() + " failed for context " + ctx, e);
+        recordPatchExecution(task, ctx, PatchExecution.APPLY, PatchExecution.FAILURE);
     }
 
     /**
@@ -439,6 +608,18 @@ public class JdbcMigrationLauncher implements RollbackListener
         return migrationProcess.getNextPatchLevel();
     }
 
+    /**
+     * Reads the patch state of all of our contexts at once
+     *
+     * @return the status of every context, in the order they were added
+     * @throws MigrationException if the patches are invalid or a patch store
+     *                            can't be read
+     */
+    public ClusterStatus getClusterStatus() throws MigrationException
+    {
+        return getMigrationProcess().getClusterStatus(contexts);
+    }
+
     /**
      * Sets the <code>JdbcMigrationContext</code> used for the migrations.
      *
@@ -449,6 +630,33 @@ public class JdbcMigrationLauncher implements RollbackListener
         PatchInfoStore patchTable = new PatchTable(context);
         log.debug("Adding context " + context + " with patch table " + patchTable + " in launcher " + this);
         contexts.put(context, patchTable);
+        if (context instanceof DataSourceMigrationContext)
+        {
+            ((DataSourceMigrationContext) context).setMetrics(metrics);
+            if (slowStatementMonitor != null)
+            {
+                ((DataSourceMigrationContext) context).addStatementListener(slowStatementMonitor);
+            }
+        }
+    }
+
+    /**
+     * Adds a context for every tenant schema the locator finds, so each tenant
+     * is patched in its own schema over the locator's shared data source.
+     * Tenants are patched as shards, as many at a time as the shard concurrency.
+     *
+     * @param locator finds the tenant schemas
+     * @return the number of tenant schemas found
+     * @throws MigrationException if the tenant schemas can't be listed
+     */
+    public int addTenantSchemas(TenantSchemaLocator locator) throws MigrationException
+    {
+        List<TenantSchemaMigrationContext> tenants = locator.createTenantContexts();
+        for (TenantSchemaMigrationContext tenant : tenants)
+        {
+            addContext(tenant);
+        }
+        return tenants.size();
     }
 
     /**
@@ -474,6 +682,13 @@ public class JdbcMigrationLauncher implements RollbackListener
     {
         PatchInfoStore patchTable = createPatchStore(context);
 
+        if (isCatalogCurrent(patchTable))
+        {
+            log.info("Catalog fingerprint for context " + context
+                    + " matches the database, skipping patch discovery");
+            return 0;
+        }
+
         lockPatchStore(context);
 
         // Now apply the patches
@@ -489,8 +704,32 @@ public class JdbcMigrationLauncher implements RollbackListener
             // run the migrations
             try
             {
-                executedPatchCount = migrationProcess.doMigrations(patchTable,
-                        context);
+                PatchTransactionGroup group = createTransactionGroup(context, patchTable);
+                AlterTableReplay replay = createAlterTableReplay(context, patchTable);
+                try
+                {
+                    applyBaseline(context, patchTable);
+                    executedPatchCount = migrationProcess.doMigrations(patchTable,
+                            context);
+                }
+                finally
+                {
+                    if (group != null)
+                    {
+                        transactionGroups.remove(context);
+                        group.close();
+                        log.info("Bootstrapped context " + context + ": " + group);
+                    }
+                    if (replay != null)
+                    {
+                        ((DataSourceMigrationContext) context).setAlterTableReplay(null);
+                        log.info("Replayed context " + context + ": " + replay);
+                    }
+                }
+                if (!isReadOnly())
+                {
+                    recordCatalogFingerprint(patchTable, executedPatchCount);
+                }
             }
 
             // restore autocommit state
@@ -513,7 +752,7 @@ public class JdbcMigrationLauncher implements RollbackListener
         // Do any post-patch tasks
         try
         {
-            migrationProcess.doPostPatchMigrations(context);
+            doPostPatchMigrations(context, patchTable);
             return executedPatchCount;
         }
         finally
@@ -529,6 +768,321 @@ public class JdbcMigrationLauncher implements RollbackListener
         }
     }
 
+    /**
+     * Records the fingerprint of the patch catalog in the patch store, unless
+     * no patch was applied and the store already holds it.
+     *
+     * @param patchTable         the patch store of the context
+     * @param executedPatchCount the number of patches applied by this run
+     * @throws MigrationException if the fingerprint can't be read or written
+     */
+    private void recordCatalogFingerprint(PatchInfoStore patchTable, int executedPatchCount)
+            throws MigrationException
+    {
+        String fingerprint = migrationProcess.getCatalogFingerprint();
+        if ((executedPatchCount > 0) || !fingerprint.equals(patchTable.getCatalogFingerprint()))
+        {
+            patchTable.updateCatalogFingerprint(fingerprint);
+        }
+    }
+
+    /**
+     * Runs the post-patch tasks, leaving out those whose fingerprint is
+     * recorded unchanged in the patch store if post-patch fingerprinting is on.
+     *
+     * @param context    the context to run the post-patch tasks in
+     * @param patchTable the patch store of the context
+     * @return the number of post-patch tasks executed
+     * @throws MigrationException if a post-patch task fails
+     */
+    private int doPostPatchMigrations(JdbcMigrationContext context, PatchInfoStore patchTable)
+            throws MigrationException
+    {
+        if (postPatchFingerprinting)
+        {
+            return migrationProcess.doPostPatchMigrations(context, patchTable);
+        }
+        return migrationProcess.doPostPatchMigrations(context);
+    }
+
+    /**
+     * Brings an empty context up to the newest baseline for its type of
+     * database, recording every patch level up to the baseline's as applied.
+     * Contexts whose patch store already holds a patch are left alone.
+     * <p>
+     * Where the database rolls back DDL, the baseline and its patch levels are
+     * committed in one transaction.  Elsewhere the levels are recorded after
+     * the baseline is committed; if that fails, the schema is no longer empty
+     * but the patch store says it is, and the levels must be recorded by hand,
+     * or the database emptied, before the next run.
+     *
+     * @param context    the context about to be patched
+     * @param patchTable the patch store of the context
+     * @return the level of the baseline applied, or 0 if none was
+     * @throws MigrationException if the baseline fails, or its patch levels
+     *                            can't be recorded
+     */
+    private int applyBaseline(JdbcMigrationContext context, PatchInfoStore patchTable)
+            throws MigrationException
+    {
+        if (!baselineEnabled || isReadOnly() || (patchTable.getPatchLevel() > 0))
+        {
+            return 0;
+        }
+        for (Integer applied : patchTable.getPatchesApplied())
+        {
+            if (applied.intValue() > 0)
+            {
+                return 0;
+            }
+        }
+
+        addBaselineSource();
+        SqlBaselineMigrationTask baseline = null;
+        for (MigrationTask task : migrationProcess.getBaselineTasks())
+        {
+            if ((task instanceof SqlBaselineMigrationTask)
+                    && ((SqlBaselineMigrationTask) task).isFor(context.getDatabaseType()))
+            {
+                baseline = (SqlBaselineMigrationTask) task;
+            }
+        }
+        if (baseline == null)
+        {
+            log.info("No " + context.getDatabaseType() + " baseline found for context " + context
+                    + ", replaying every patch");
+            return 0;
+        }
+
+        int baselineLevel = baseline.getLevel().intValue();
+
+        // the baseline stands in for every patch up to its level
+        Set<Integer> levels = new TreeSet<Integer>();
+        levels.add(new Integer(baselineLevel));
+        for (MigrationTask task : migrationProcess.getMigrationTasks())
+        {
+            if (task.getLevel().intValue() <= baselineLevel)
+            {
+                levels.add(task.getLevel());
+            }
+        }
+
+        log.info("Context " + context + " is empty, applying baseline " + baseline.getName());
+        taskStartTimes.put(context, new Long(System.currentTimeMillis()));
+        try
+        {
+            if (context.getDatabaseType().isTransactionalDdlSupported()
+                    && (context instanceof DataSourceMigrationContext)
+                    && (patchTable instanceof PatchTable))
+            {
+                applyBaselineInTransaction((DataSourceMigrationContext) context,
+                        (PatchTable) patchTable, baseline, levels);
+            }
+            else
+            {
+                migrationProcess.applyPatch(context, baseline, false);
+                try
+                {
+                    recordBaselineLevels(context, patchTable, levels);
+                }
+                catch (MigrationException e)
+                {
+                    log.error("Baseline " + baseline.getName() + " was applied to context "
+                            + context + " but its patch levels could not be recorded.  The"
+                            + " next run would apply it again to a schema that is no longer"
+                            + " empty: record patch levels " + levels + " in the patch store,"
+                            + " or empty the database, before running again.");
+                    throw e;
+                }
+            }
+        }
+        catch (MigrationException e)
+        {
+            recordPatchExecution(baseline, context, PatchExecution.APPLY, PatchExecution.FAILURE);
+            throw e;
+        }
+        recordPatchExecution(baseline, context, PatchExecution.APPLY, PatchExecution.SUCCESS);
+        log.info("Applied baseline " + baseline.getName() + ", recording " + levels.size()
+                + " patch levels up to " + baselineLevel + " as applied");
+        return baselineLevel;
+    }
+
+    /**
+     * Applies a baseline and records its patch levels in one transaction, so
+     * that either both are committed or neither is.
+     *
+     * @param context    the context to apply the baseline to
+     * @param patchTable the patch table of the context
+     * @param baseline   the baseline to apply
+     * @param levels     the patch levels to record, in order
+     * @throws MigrationException if the baseline fails, or its patch levels
+     *                            can't be recorded
+     */
+    private void applyBaselineInTransaction(DataSourceMigrationContext context,
+            PatchTable patchTable, SqlBaselineMigrationTask baseline, Set<Integer> levels)
+            throws MigrationException
+    {
+        context.beginTransactionGroup();
+        patchTable.setPatchLevelUpdatesDeferred(true);
+        try
+        {
+            migrationProcess.applyPatch(context, baseline, false);
+            for (Integer level : levels)
+            {
+                patchTable.updatePatchLevel(level.intValue());
+            }
+            patchTable.flushPatchLevelUpdates();
+            context.commitTransactionGroup();
+        }
+        finally
+        {
+            patchTable.setPatchLevelUpdatesDeferred(false);
+            context.endTransactionGroup();
+        }
+    }
+
+    /**
+     * Gives the migration process the baseline source, once; shards may look
+     * for baselines at the same time.
+     */
+    private synchronized void addBaselineSource()
+    {
+        if (!baselineSourceAdded)
+        {
+            migrationProcess.addBaselineTaskSource(new SqlBaselineTaskSource());
+            baselineSourceAdded = true;
+        }
+    }
+
+    /**
+     * Records the given patch levels as applied, in one batch and transaction
+     * where the patch store allows it.
+     *
+     * @param context    the context the baseline was applied to
+     * @param patchTable the patch store of the context
+     * @param levels     the patch levels to record, in order
+     * @throws MigrationException if the patch levels can't be recorded
+     */
+    private void recordBaselineLevels(JdbcMigrationContext context, PatchInfoStore patchTable,
+            Set<Integer> levels) throws MigrationException
+    {
+        if (!(context instanceof DataSourceMigrationContext) || !(patchTable instanceof PatchTable))
+        {
+            for (Integer level : levels)
+            {
+                patchTable.updatePatchLevel(level.intValue());
+            }
+            return;
+        }
+
+        DataSourceMigrationContext dataSourceContext = (DataSourceMigrationContext) context;
+        PatchTable table = (PatchTable) patchTable;
+        dataSourceContext.beginTransactionGroup();
+        table.setPatchLevelUpdatesDeferred(true);
+        try
+        {
+            for (Integer level : levels)
+            {
+                table.updatePatchLevel(level.intValue());
+            }
+            table.flushPatchLevelUpdates();
+            dataSourceContext.commitTransactionGroup();
+        }
+        finally
+        {
+            table.setPatchLevelUpdatesDeferred(false);
+            dataSourceContext.endTransactionGroup();
+        }
+    }
+
+    /**
+     * Creates the transaction group that coalesces the SQL patches of the given
+     * context, if the context is being bootstrapped: it is at patch level 0, a
+     * bootstrap group size is set and its database can roll back DDL.
+     *
+     * @param context    the context about to be patched
+     * @param patchTable the patch store of the context
+     * @return the transaction group, or <code>null</code> if every patch is
+     *         committed on its own
+     * @throws MigrationException if the patch level can't be read
+     */
+    private PatchTransactionGroup createTransactionGroup(JdbcMigrationContext context,
+            PatchInfoStore patchTable) throws MigrationException
+    {
+        if ((bootstrapGroupSize < 2) || isReadOnly()
+                || !(context instanceof DataSourceMigrationContext)
+                || !(patchTable instanceof PatchTable)
+                || (patchTable.getPatchLevel() > 0))
+        {
+            return null;
+        }
+        if (!context.getDatabaseType().isTransactionalDdlSupported())
+        {
+            log.info(context.getDatabaseType() + " can't roll back DDL, so context " + context
+                    + " is bootstrapped one patch per transaction");
+            return null;
+        }
+
+        log.info("Bootstrapping context " + context + " with up to " + bootstrapGroupSize
+                + " SQL patches per transaction");
+        PatchTransactionGroup group = new PatchTransactionGroup(
+                (DataSourceMigrationContext) context, (PatchTable) patchTable, bootstrapGroupSize);
+        transactionGroups.put(context, group);
+        return group;
+    }
+
+    /**
+     * Starts coalescing the ALTER TABLE statements of the SQL patches of the
+     * given context, if it is empty, alter coalescing is on and its type of
+     * database can merge ALTER TABLE clauses.
+     *
+     * @param context    the context about to be patched
+     * @param patchTable the patch store of the context
+     * @return the replay coalescing the statements, or <code>null</code> if
+     *         they run as written
+     * @throws MigrationException if the patch level can't be read
+     */
+    private AlterTableReplay createAlterTableReplay(JdbcMigrationContext context,
+            PatchInfoStore patchTable) throws MigrationException
+    {
+        if (!alterCoalescing || isReadOnly()
+                || !(context instanceof DataSourceMigrationContext)
+                || (patchTable.getPatchLevel() > 0))
+        {
+            return null;
+        }
+        AlterTableCoalescer coalescer = new AlterTableCoalescer(context.getDatabaseType());
+        if (!coalescer.isSupported())
+        {
+            log.info(context.getDatabaseType() + " can't merge ALTER TABLE statements, so"
+                    + " context " + context + " is replayed as written");
+            return null;
+        }
+
+        log.info("Coalescing the ALTER TABLE statements replayed into context " + context);
+        AlterTableReplay replay =
+            new AlterTableReplay(context, migrationProcess, patchTable, coalescer);
+        ((DataSourceMigrationContext) context).setAlterTableReplay(replay);
+        return replay;
+    }
+
+    /**
+     * Determines whether a read-only launcher can skip the migration run because
+     * the catalog fingerprint recorded in the patch store matches the expected one.
+     *
+     * @param patchTable the patch store to check
+     * @return true if the launcher is read-only and the fingerprints match
+     * @throws MigrationException if the recorded fingerprint can't be read
+     */
+    private boolean isCatalogCurrent(PatchInfoStore patchTable) throws MigrationException
+    {
+        if (!isReadOnly() || (catalogFingerprint == null))
+        {
+            return false;
+        }
+        return catalogFingerprint.equals(patchTable.getCatalogFingerprint());
+    }
+
     /**
      * Lock the patch store. This is done safely, such that we safely handle the
      * case where other migration launchers are patching at the same time.
@@ -540,24 +1094,48 @@ public class JdbcMigrationLauncher implements RollbackListener
     {
         // Patch locks ensure that only one system sharing a patch store will patch
         // it at the same time.
-        boolean lockObtained = false;
-        while (!lockObtained)
+        long startTime = System.nanoTime();
+        TraceSpan span = MigrationTracing.begin(MigrationTracing.LOCK, String.valueOf(context));
+        try
         {
-            waitForFreeLock(context);
-
-            PatchInfoStore piStore = (PatchInfoStore) contexts.get(context);
-            piStore.getPatchLevel();
-            try
-            {
-                piStore.lockPatchStore();
-                lockObtained = true;
-            }
-            catch (IllegalStateException ise)
+            boolean lockObtained = false;
+            while (!lockObtained)
             {
-                log.error("IllegalStateException when trying to lock the patch info store", ise);
-                // this happens when someone woke up at the same time,
-                // raced us to the lock and won. We re-sleep and try again.
+                waitForFreeLock(context);
+
+                PatchInfoStore piStore = (PatchInfoStore) contexts.get(context);
+                piStore.getPatchLevel();
+                try
+                {
+                    piStore.lockPatchStore();
+                    lockObtained = true;
+                }
+                catch (IllegalStateException ise)
+                {
+                    log.error("IllegalStateException when trying to lock the patch info store", ise);
+                    // this happens when someone woke up at the same time,
+                    // raced us to the lock and won. We re-sleep and try again.
+                }
             }
+            metrics.histogram(MigrationMetrics.LOCK_WAIT).recordSince(startTime);
+        }
+        catch (MigrationException e)
+        {
+            span.fail(e);
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            span.fail(e);
+            throw e;
+        }
+        finally
+        {
+            span.end();
+        }
+        if (readiness != null)
+        {
+            readiness.running();
         }
     }
 
@@ -594,12 +1172,16 @@ public class JdbcMigrationLauncher implements RollbackListener
             }
             else
             {
+                if (readiness != null)
+                {
+                    readiness.lockWaiting();
+                }
                 log.info("Waiting for migration lock for system \"" + context.getSystemName() + "\"");
                 log.info("  If this isn't from a long-running patch, but a stale lock, either:");
                 log.info("    1) run MigrationTableUnlock (probably 'ant patch.unlock')");
                 log.info("    2) set the lockPollRetries property so the lock times out");
                 log.info("       (this is dangerous in combination with long-running patches)");
-                log.info("    3) set the 'patch_in_progress' in the patches table to 'F'");
+                log.info("    3) set the 'patch_in_progress' in the patch summary table to 'F'");
 
                 if (getLockPollRetries() != -1)
                 {
@@ -663,6 +1245,7 @@ public class JdbcMigrationLauncher implements RollbackListener
     public void setMigrationProcess(MigrationProcess migrationProcess)
     {
         this.migrationProcess = migrationProcess;
+        this.migrationProcess.setMetrics(metrics);
 
         // Make sure this class is notified when a patch is applied so that
         // the patch level can be updated (see #migrationSuccessful).
@@ -672,6 +1255,8 @@ public class JdbcMigrationLauncher implements RollbackListener
 
         this.migrationProcess.addMigrationTaskSource(new FlatXmlDataSetTaskSource());
 
+        baselineSourceAdded = false;
+
     }
 
     /**
@@ -738,6 +1323,7 @@ public class JdbcMigrationLauncher implements RollbackListener
             throws MigrationException
     {
         log.debug("Task " + task.getName() + " failed for context " + context, e);
+        recordPatchExecution(task, context, PatchExecution.ROLLBACK, PatchExecution.FAILURE);
     }
 
     /**
@@ -746,6 +1332,7 @@ public class JdbcMigrationLauncher implements RollbackListener
     public void rollbackStarted(RollbackableMigrationTask task, MigrationContext context) throws MigrationException
     {
         log.debug("Started rollback " + task.getName() + " for context " + context);
+        taskStartTimes.put(context, new Long(System.currentTimeMillis()));
     }
 
     /**
@@ -762,6 +1349,81 @@ public class JdbcMigrationLauncher implements RollbackListener
             PatchInfoStore store = (PatchInfoStore) ((Map.Entry) patchTableIter.next()).getValue();
             store.updatePatchLevelAfterRollBack(rollbackLevel);
         }
+        recordPatchExecution(task, context, PatchExecution.ROLLBACK, PatchExecution.SUCCESS);
+    }
+
+    /**
+     * Adds the execution of a task to the history of the patch store for the
+     * context it ran in.  Contexts that don't belong to this launcher are ignored,
+     * as their own launcher records them.  Failing to record the history is
+     * logged rather than thrown, so it never masks the outcome of the task.
+     *
+     * @param task      the task that ran
+     * @param context   the context the task ran in
+     * @param operation either <code>PatchExecution.APPLY</code> or <code>ROLLBACK</code>
+     * @param outcome   either <code>PatchExecution.SUCCESS</code> or <code>FAILURE</code>
+     */
+    private void recordPatchExecution(MigrationTask task, MigrationContext context,
+            String operation, String outcome)
+    {
+        PatchInfoStore store = (PatchInfoStore) contexts.get(context);
+        Long startTime = taskStartTimes.remove(context);
+        if ((store == null) || (startTime == null))
+        {
+            return;
+        }
+
+        PatchExecution execution = new PatchExecution();
+        execution.setPatchLevel(task.getLevel().intValue());
+        execution.setPatchName(task.getName());
+        execution.setOperation(operation);
+        execution.setOutcome(outcome);
+        execution.setStarted(new Date(startTime.longValue()));
+        execution.setDurationMillis(System.currentTimeMillis() - startTime.longValue());
+        if (task instanceof MeasuredMigrationTask)
+        {
+            MeasuredMigrationTask measuredTask = (MeasuredMigrationTask) task;
+            execution.setStatementCount(measuredTask.getStatementCount(context));
+            execution.setRowsAffected(measuredTask.getRowsAffected(context));
+        }
+        if (task instanceof ChecksummedMigrationTask)
+        {
+            execution.setChecksum(((ChecksummedMigrationTask) task).getChecksum());
+        }
+        execution.setHostName(getHostName());
+        execution.setOwnerName(System.getProperty("user.name"));
+        if (slowStatementMonitor != null)
+        {
+            execution.setStatementPlans(slowStatementMonitor.takeStatementPlans(
+                    (JdbcMigrationContext) context));
+        }
+
+        try
+        {
+            store.recordPatchExecution(execution);
+        }
+        catch (MigrationException e)
+        {
+            log.error("Unable to record patch execution history: " + execution, e);
+        }
+    }
+
+    /**
+     * Get the name of the host this launcher runs on, for the execution history
+     *
+     * @return the local host name, or "unknown" if it can't be determined
+     */
+    private String getHostName()
+    {
+        try
+        {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e)
+        {
+            log.debug("Unable to determine local host name", e);
+            return "unknown";
+        }
     }
 
     public void setMigrationStrategy(String migrationStrategy)
@@ -773,4 +1435,294 @@ public class JdbcMigrationLauncher implements RollbackListener
     {
         return migrationStrategy;
     }
+
+    /**
+     * Get the most contexts patched at the same time
+     *
+     * @return the shard concurrency; 1 patches the contexts one after another
+     */
+    public int getShardConcurrency()
+    {
+        return shardConcurrency;
+    }
+
+    /**
+     * Set the most contexts patched at the same time.  With more than one, each
+     * context is patched as a shard on a worker thread, so migration listeners
+     * must be threadsafe.
+     *
+     * @param shardConcurrency the shard concurrency; 1 patches the contexts one
+     *                         after another
+     */
+    public void setShardConcurrency(int shardConcurrency)
+    {
+        this.shardConcurrency = shardConcurrency;
+    }
+
+    /**
+     * Get the most contexts on one database host patched at the same time
+     *
+     * @return the per-host shard concurrency, or 0 for no limit
+     */
+    public int getShardConcurrencyPerHost()
+    {
+        return shardConcurrencyPerHost;
+    }
+
+    /**
+     * Set the most contexts on one database host patched at the same time
+     *
+     * @param shardConcurrencyPerHost the per-host shard concurrency, or 0 for no limit
+     */
+    public void setShardConcurrencyPerHost(int shardConcurrencyPerHost)
+    {
+        this.shardConcurrencyPerHost = shardConcurrencyPerHost;
+    }
+
+    /**
+     * Get the number of contexts allowed to fail before a sharded rollout stops
+     *
+     * @return the shard failure budget
+     */
+    public int getShardFailureBudget()
+    {
+        return shardFailureBudget;
+    }
+
+    /**
+     * Set the number of contexts allowed to fail before a sharded rollout stops
+     * starting new shards.  The rollout still fails if any shard failed.
+     *
+     * @param shardFailureBudget the shard failure budget
+     */
+    public void setShardFailureBudget(int shardFailureBudget)
+    {
+        this.shardFailureBudget = shardFailureBudget;
+    }
+
+    /**
+     * Get the outcome of the last sharded rollout
+     *
+     * @return the progress of every shard in the last rollout, or <code>null</code>
+     *         if the contexts have never been patched as shards
+     */
+    public ShardRolloutSummary getLastShardRollout()
+    {
+        return lastShardRollout;
+    }
+
+    /**
+     * Get the file the migration metrics are written to after each run
+     *
+     * @return the metrics file, or <code>null</code> if metrics aren't written out
+     */
+    public String getMetricsFile()
+    {
+        return metricsFile;
+    }
+
+    /**
+     * Get the registry this launcher's metrics are recorded in.  It holds only
+     * this launcher's samples; they are also recorded in the default registry.
+     *
+     * @return the launcher's metrics
+     */
+    public MigrationMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Set the file the migration metrics are written to, in Prometheus text
+     * format, after each run
+     *
+     * @param metricsFile the metrics file, or <code>null</code> to not write one
+     */
+    public void setMetricsFile(String metricsFile)
+    {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * Get the readiness told when the migration waits for the patch lock
+     *
+     * @return the readiness, or <code>null</code> if there is none
+     */
+    public MigrationReadiness getReadiness()
+    {
+        return readiness;
+    }
+
+    /**
+     * Set the readiness to tell when the migration waits for, and gets, the
+     * patch lock
+     *
+     * @param readiness the readiness, or <code>null</code> for none
+     */
+    public void setReadiness(MigrationReadiness readiness)
+    {
+        this.readiness = readiness;
+    }
+
+    /**
+     * Get the monitor that logs and ranks slow statements
+     *
+     * @return the slow statement monitor, or <code>null</code> if there is none
+     */
+    public SlowStatementMonitor getSlowStatementMonitor()
+    {
+        return slowStatementMonitor;
+    }
+
+    /**
+     * Set the monitor that logs and ranks slow statements in every context,
+     * replacing any monitor set before
+     *
+     * @param monitor the slow statement monitor, or <code>null</code> for none
+     */
+    public void setSlowStatementMonitor(SlowStatementMonitor monitor)
+    {
+        for (JdbcMigrationContext context : contexts.keySet())
+        {
+            if (context instanceof DataSourceMigrationContext)
+            {
+                DataSourceMigrationContext dataSourceContext = (DataSourceMigrationContext) context;
+                if (slowStatementMonitor != null)
+                {
+                    dataSourceContext.removeStatementListener(slowStatementMonitor);
+                }
+                if (monitor != null)
+                {
+                    dataSourceContext.addStatementListener(monitor);
+                }
+            }
+        }
+        this.slowStatementMonitor = monitor;
+    }
+
+    /**
+     * Get the expected fingerprint of the patch catalog
+     *
+     * @return the expected catalog fingerprint, or <code>null</code> if not configured
+     */
+    public String getCatalogFingerprint()
+    {
+        return catalogFingerprint;
+    }
+
+    /**
+     * Set the expected fingerprint of the patch catalog.  When the launcher is
+     * read-only and this matches the fingerprint recorded in the patch store,
+     * migration runs skip patch discovery entirely.
+     *
+     * @param catalogFingerprint the expected catalog fingerprint
+     */
+    public void setCatalogFingerprint(String catalogFingerprint)
+    {
+        this.catalogFingerprint = catalogFingerprint;
+    }
+
+    /**
+     * Get the most SQL patches applied in one transaction while bootstrapping
+     * a fresh database
+     *
+     * @return the bootstrap group size
+     */
+    public int getBootstrapGroupSize()
+    {
+        return bootstrapGroupSize;
+    }
+
+    /**
+     * Set the most SQL patches applied in one transaction while bootstrapping a
+     * context from patch level 0.  Only databases that can roll back DDL group
+     * their patches; each patch still has its own savepoint, so a failure is
+     * reported against the patch that failed and the patches before it are kept.
+     * The patch levels of a group are written as one batch.
+     *
+     * @param bootstrapGroupSize the bootstrap group size, or 1 to commit every
+     *                           patch on its own
+     */
+    public void setBootstrapGroupSize(int bootstrapGroupSize)
+    {
+        this.bootstrapGroupSize = bootstrapGroupSize;
+    }
+
+    /**
+     * See if empty contexts are brought up to the newest baseline first
+     *
+     * @return <code>true</code> if baselines are applied
+     */
+    public boolean isBaselineEnabled()
+    {
+        return baselineEnabled;
+    }
+
+    /**
+     * Set whether a context with an empty patch store is first brought up to the
+     * newest baseline for its type of database.  The baseline's level and every
+     * patch level below it are recorded as applied, so only the later patches
+     * are replayed.  Baselines are found in the patch path; see
+     * {@link SqlBaselineTaskSource} for how they are named.
+     *
+     * @param baselineEnabled <code>true</code> to apply baselines
+     */
+    public void setBaselineEnabled(boolean baselineEnabled)
+    {
+        this.baselineEnabled = baselineEnabled;
+    }
+
+    /**
+     * Get whether post-patch tasks are skipped while their fingerprint is unchanged
+     *
+     * @return <code>true</code> if post-patch tasks are fingerprinted
+     */
+    public boolean isPostPatchFingerprinting()
+    {
+        return postPatchFingerprinting;
+    }
+
+    /**
+     * Set whether post-patch tasks are skipped while their fingerprint is
+     * unchanged.  A task's fingerprint covers its content and its input, which
+     * is the patch level unless the task declares its own as a
+     * {@link com.tacitknowledge.util.migration.FingerprintedMigrationTask}.
+     * The fingerprints are recorded in the patch store after each task runs.
+     *
+     * @param postPatchFingerprinting <code>true</code> to fingerprint post-patch tasks
+     */
+    public void setPostPatchFingerprinting(boolean postPatchFingerprinting)
+    {
+        this.postPatchFingerprinting = postPatchFingerprinting;
+    }
+
+    /**
+     * Get whether the ALTER TABLE statements of patches replayed into an empty
+     * database are coalesced
+     *
+     * @return <code>true</code> if ALTER TABLE statements are coalesced
+     */
+    public boolean isAlterCoalescing()
+    {
+        return alterCoalescing;
+    }
+
+    /**
+     * Set whether consecutive ALTER TABLE statements on the same table are
+     * merged into one statement while SQL patches are replayed into a context
+     * at patch level 0.  Only types of database listing the clauses they can
+     * merge in their <code>alter.coalesce.clauses</code> property are
+     * affected; statements that can't be merged safely run as written.
+     * <p>
+     * Statements are merged across patches too, so a run that stops part way
+     * can leave a patch recorded while part of the next one is applied.  A
+     * rerun then fails, and the database has to be dropped, re-created and
+     * patched again; see <code>AlterTableReplay</code>.
+     *
+     * @param alterCoalescing <code>true</code> to coalesce ALTER TABLE statements
+     */
+    public void setAlterCoalescing(boolean alterCoalescing)
+    {
+        this.alterCoalescing = alterCoalescing;
+    }
 }
@@ -18,8 +18,9 @@ package com.tacitknowledge.util.migration.jdbc;
 import com.tacitknowledge.util.migration.MigrationContext;
 import com.tacitknowledge.util.migration.MigrationException;
 import com.tacitknowledge.util.migration.MigrationListener;
+import com.tacitknowledge.util.migration.MigrationProcess;
 import com.tacitknowledge.util.migration.jdbc.util.ConfigurationUtil;
-import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+import com.tacitknowledge.util.migration.metrics.MigrationMetrics;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -57,6 +58,10 @@ import java.util.*;
  * <table>
  * <tr><td><i>systemName</i>.postpatch.path</td><td></td></tr>
  * <tr><td><i>systemName</i>.readonly</td><td>boolean true to skip patch application</td></tr>
+ * <tr><td><i>systemName</i>.catalog.fingerprint</td>
+ * <td>The fingerprint of the patch catalog, as computed at build time by
+ * {@link CatalogFingerprintGenerator}. Read-only launchers skip patch discovery
+ * entirely when it matches the fingerprint recorded in the database</td></tr>
  * <tr><td><i>systemName</i>.jdbc.systems</td>
  * <td>Set of names for multiple JDBC connections that
  * should all have patches applied. Names will be
@@ -64,7 +69,51 @@ import java.util.*;
  * <i>systemName.jdbcname</i>.database.type, where
  * all of the jdbc entries above should be present</td>
  * </tr>
+ * <tr><td><i>systemName</i>.shard.concurrency</td><td>The most of the <i>jdbc.systems</i>
+ * databases patched at the same time; defaults to 1, one after another</td></tr>
+ * <tr><td><i>systemName</i>.shard.concurrency.per.host</td><td>The most databases on one
+ * database host patched at the same time; defaults to no limit</td></tr>
+ * <tr><td><i>systemName</i>.shard.failure.budget</td><td>The number of databases allowed
+ * to fail before no more are started; defaults to 0</td></tr>
+ * <tr><td><i>systemName</i>.baseline</td><td>boolean true to bring a database whose patch
+ * store is empty up to the newest baseline for its type, a script named like
+ * <i>baseline300.postgres.sql</i> in the patch path, before replaying the later patches.
+ * Where DDL isn't transactional, a baseline whose patch levels fail to be recorded stays
+ * applied; record the levels logged, or empty the database, before the next run</td></tr>
+ * <tr><td><i>systemName</i>.postpatch.fingerprint</td><td>boolean true to skip post-patch
+ * tasks whose content and input, by default the patch level, are unchanged since they last
+ * ran</td></tr>
+ * <tr><td><i>systemName</i>.bootstrap.coalesce.alters</td><td>boolean true to merge
+ * consecutive ALTER TABLE statements on the same table, within and across patches, while
+ * replaying into an empty database; only for databases that can, such as MySQL.  If such a
+ * run stops part way, drop and re-create the database before running it again</td></tr>
+ * <tr><td><i>systemName</i>.bootstrap.group.size</td><td>The most SQL patches applied in
+ * one transaction when a database that can roll back DDL is patched from level 0, with their
+ * patch levels written as one batch; defaults to 1, a transaction per patch</td></tr>
+ * <tr><td><i>systemName</i>.tenant.schema.pattern</td><td>A regular expression matching
+ * the tenant schemas of the database. Each matching schema is patched on its own, with its
+ * own patch tables, over the one data source; the shard properties bound how many tenants
+ * are patched at the same time</td></tr>
  * <tr><td><i>systemName</i>.listeners</td><td>Comma separated list of fully qualified java class names that implement {@link MigrationListener}</td></tr>
+ * <tr><td><i>systemName</i>.metrics.jmx</td><td>boolean true to publish the migration
+ * metrics in the platform MBean server as {@link MigrationMetrics#OBJECT_NAME}</td></tr>
+ * <tr><td><i>systemName</i>.metrics.prometheus.file</td><td>A file the migration metrics
+ * are written to in Prometheus text format after each run, for example for the node
+ * exporter's textfile collector</td></tr>
+ * <tr><td><i>systemName</i>.slow.statement.millis</td><td>Script statements taking at least
+ * this many milliseconds are logged with their duration, and each patch logs a ranked
+ * summary of its slowest statements</td></tr>
+ * <tr><td><i>systemName</i>.slow.statement.summary.size</td><td>The number of statements
+ * in each slowest statement summary; defaults to 5</td></tr>
+ * <tr><td><i>systemName</i>.slow.statement.explain</td><td>boolean true to capture the
+ * execution plan of each slow statement and keep it with the patch's execution history,
+ * for databases whose type defines <i>explain.plan</i></td></tr>
+ * <tr><td><i>systemName</i>.async.listeners</td><td>Like <i>listeners</i>, but notified on a
+ * separate thread so they don't slow patching down; for auditing and notifications</td></tr>
+ * <tr><td><i>systemName</i>.async.listeners.capacity</td><td>The number of events buffered
+ * for the asynchronous listeners; defaults to 1024</td></tr>
+ * <tr><td><i>systemName</i>.async.listeners.overflow</td><td>What to do with an event when
+ * the buffer is full: block (the default), drop-newest, drop-oldest or caller-runs</td></tr>
  * </table>
  *
  * @author Scott Askew (scott@tacitknowledge.com)
@@ -95,6 +144,25 @@ public class JdbcMigrationLauncherFactory
         return launcher;
     }
 
+    /**
+     * Creates and configures a new <code>JdbcMigrationLauncher</code> for the given
+     * system from an already parsed configuration.  Data sources and database types
+     * are shared with every other launcher configured from the same configuration.
+     *
+     * @param systemName    the system to patch
+     * @param configuration the parsed migration properties
+     * @return a fully configured <code>JdbcMigrationLauncher</code>.
+     * @throws MigrationException if an unexpected error occurs
+     */
+    public JdbcMigrationLauncher createMigrationLauncher(String systemName,
+            MigrationConfiguration configuration) throws MigrationException
+    {
+        log.info("Creating JdbcMigrationLauncher for system " + systemName);
+        JdbcMigrationLauncher launcher = getJdbcMigrationLauncher();
+        configureFromMigrationProperties(launcher, systemName, configuration);
+        return launcher;
+    }
+
     /**
      * Creates and configures a new <code>JdbcMigrationLauncher</code> based on the
      * values in the <em>migration.properties</em> file for the given system.
@@ -145,6 +213,8 @@ public class JdbcMigrationLauncherFactory
         {
             launcher.setReadOnly(true);
         }
+        launcher.setCatalogFingerprint(
+                sce.getServletContext().getInitParameter("migration.catalogFingerprint"));
 
         // See if they want to override the lock after a certain amount of time
         String lockPollRetries =
@@ -193,7 +263,7 @@ public class JdbcMigrationLauncherFactory
 
             DataSourceMigrationContext context = getDataSourceMigrationContext();
             context.setSystemName(systemName);
-            context.setDatabaseType(new DatabaseType(databaseType));
+            context.setDatabaseType(DialectRegistry.getDatabaseType(databaseType));
 
             try
             {
@@ -244,6 +314,21 @@ public class JdbcMigrationLauncherFactory
             String systemName,
             String propFile)
             throws MigrationException
+    {
+        configureFromMigrationProperties(launcher, systemName, loadConfiguration(propFile));
+    }
+
+    /**
+     * Reads and parses a migration config properties file, so that several
+     * launchers can be created from it with
+     * {@link #createMigrationLauncher(String, MigrationConfiguration)} and share
+     * its data sources and database types.
+     *
+     * @param propFile the name of the properties file in the classpath
+     * @return the parsed configuration
+     * @throws MigrationException if the file can't be found or read
+     */
+    public MigrationConfiguration loadConfiguration(String propFile) throws MigrationException
     {
         ClassLoader cl = Thread.currentThread().getContextClassLoader();
         InputStream is = cl.getResourceAsStream(propFile);
@@ -251,9 +336,7 @@ public class JdbcMigrationLauncherFactory
         {
             try
             {
-                Properties props = loadProperties(is);
-
-                configureFromMigrationProperties(launcher, systemName, props);
+                return createMigrationConfiguration(loadProperties(is));
             }
             catch (IOException e)
             {
@@ -278,6 +361,20 @@ public class JdbcMigrationLauncherFactory
         }
     }
 
+    /**
+     * Creates the configuration launchers are configured from.  Override it to
+     * return a <code>MigrationConfiguration</code> subclass, for instance one
+     * whose {@link MigrationConfiguration#createDataSource} builds a connection
+     * pool.
+     *
+     * @param props the migration properties
+     * @return the configuration backed by the properties
+     */
+    protected MigrationConfiguration createMigrationConfiguration(Properties props)
+    {
+        return new MigrationConfiguration(props);
+    }
+
     protected Properties loadProperties(InputStream is) throws IOException
     {
         Properties props = new Properties();
@@ -298,7 +395,23 @@ public class JdbcMigrationLauncherFactory
             Properties props)
             throws IllegalArgumentException, MigrationException
     {
+        configureFromMigrationProperties(launcher, system, createMigrationConfiguration(props));
+    }
 
+    /**
+     * Configure the launcher from the provided configuration, system name
+     *
+     * @param launcher      The launcher to configure
+     * @param system        The name of the system we're configuring
+     * @param configuration The parsed configuration, shared with other launchers
+     * @throws IllegalArgumentException if a required parameter is missing
+     * @throws MigrationException
+     */
+    void configureFromMigrationProperties(JdbcMigrationLauncher launcher, String system,
+            MigrationConfiguration configuration)
+            throws IllegalArgumentException, MigrationException
+    {
+        Properties props = configuration.getProperties();
         launcher.setMigrationStrategy(props.getProperty("migration.strategy"));
 
         launcher.setPatchPath(ConfigurationUtil.getRequiredParam(props, system + ".patch.path"));
@@ -308,6 +421,7 @@ public class JdbcMigrationLauncherFactory
         {
             launcher.setReadOnly(true);
         }
+        launcher.setCatalogFingerprint(props.getProperty(system + ".catalog.fingerprint"));
 
         // See if they want to override the lock after a certain amount of time
         String lockPollRetries = props.getProperty(system + ".lockPollRetries");
@@ -323,6 +437,54 @@ public class JdbcMigrationLauncherFactory
             launcher.setLockPollMillis(Integer.parseInt(lockPollMillis));
         }
 
+        configureMetrics(launcher, system, props);
+
+        // See if they want several databases patched at the same time
+        String shardConcurrency = props.getProperty(system + ".shard.concurrency");
+        if (shardConcurrency != null)
+        {
+            launcher.setShardConcurrency(Integer.parseInt(shardConcurrency));
+        }
+        String shardConcurrencyPerHost = props.getProperty(system + ".shard.concurrency.per.host");
+        if (shardConcurrencyPerHost != null)
+        {
+            launcher.setShardConcurrencyPerHost(Integer.parseInt(shardConcurrencyPerHost));
+        }
+        String shardFailureBudget = props.getProperty(system + ".shard.failure.budget");
+        if (shardFailureBudget != null)
+        {
+            launcher.setShardFailureBudget(Integer.parseInt(shardFailureBudget));
+        }
+
+        // See if they want empty databases started from a baseline
+        String baseline = props.getProperty(system + ".baseline");
+        if (baseline != null)
+        {
+            launcher.setBaselineEnabled(Boolean.valueOf(baseline.trim()).booleanValue());
+        }
+
+        // See if they want unchanged post-patch tasks skipped
+        String postPatchFingerprint = props.getProperty(system + ".postpatch.fingerprint");
+        if (postPatchFingerprint != null)
+        {
+            launcher.setPostPatchFingerprinting(
+                    Boolean.valueOf(postPatchFingerprint.trim()).booleanValue());
+        }
+
+        // See if they want a fresh database's table changes merged
+        String coalesceAlters = props.getProperty(system + ".bootstrap.coalesce.alters");
+        if (coalesceAlters != null)
+        {
+            launcher.setAlterCoalescing(Boolean.valueOf(coalesceAlters.trim()).booleanValue());
+        }
+
+        // See if they want a fresh database's patches applied in fewer transactions
+        String bootstrapGroupSize = props.getProperty(system + ".bootstrap.group.size");
+        if (bootstrapGroupSize != null)
+        {
+            launcher.setBootstrapGroupSize(Integer.parseInt(bootstrapGroupSize.trim()));
+        }
+
         // TODO refactor the database name extraction from this and the servlet example
         String databases = props.getProperty(system + ".jdbc.systems");
         String[] databaseNames;
@@ -344,16 +506,8 @@ public class JdbcMigrationLauncherFactory
                 db = "." + db;
             }
 
-            // Set up the data source
-            NonPooledDataSource dataSource = new NonPooledDataSource();
-            dataSource.setDriverClass(ConfigurationUtil.getRequiredParam(props,
-                    system + db + ".driver"));
-            dataSource.setDatabaseUrl(ConfigurationUtil.getRequiredParam(props,
-                    system + db + ".url"));
-            dataSource.setUsername(ConfigurationUtil.getRequiredParam(props,
-                    system + db + ".username"));
-            dataSource.setPassword(ConfigurationUtil.getRequiredParam(props,
-                    system + db + ".password"));
+            // Set up the data source, shared with any other identical definition
+            DataSource dataSource = configuration.getDataSource(system + db);
 
             // Set up the JDBC migration context; accepts one of two property names
             DataSourceMigrationContext context = getDataSourceMigrationContext();
@@ -362,7 +516,7 @@ public class JdbcMigrationLauncherFactory
                             system + db + ".database.type",
                             system + db + ".dialect");
             log.debug("setting type to " + databaseType);
-            context.setDatabaseType(new DatabaseType(databaseType));
+            context.setDatabaseType(configuration.getDatabaseType(databaseType));
 
             context.setDatabaseName(databaseNames[i]);
 
@@ -376,8 +530,51 @@ public class JdbcMigrationLauncherFactory
 
             launcher.getMigrationProcess().addListeners(userDefinedListeners);
 
-            // done reading in config, set launcher's context
-            launcher.addContext(context);
+            // done reading in config, set launcher's context, or one for each tenant schema
+            String tenantSchemaPattern = props.getProperty(system + ".tenant.schema.pattern");
+            if (tenantSchemaPattern != null)
+            {
+                launcher.addTenantSchemas(new TenantSchemaLocator(dataSource,
+                        context.getDatabaseType(), system, tenantSchemaPattern));
+            }
+            else
+            {
+                launcher.addContext(context);
+            }
+        }
+
+        configureAsynchronousListeners(launcher.getMigrationProcess(), system, props);
+    }
+
+    /**
+     * Publishes the migration metrics, and monitors slow statements, if the
+     * properties ask for it.
+     *
+     * @param launcher   the launcher to configure
+     * @param systemName the name of the system
+     * @param properties the properties with the metrics settings
+     */
+    protected void configureMetrics(JdbcMigrationLauncher launcher, String systemName,
+            Properties properties)
+    {
+        if ("true".equals(properties.getProperty(systemName + ".metrics.jmx")))
+        {
+            MigrationMetrics.getDefault().registerMBean();
+        }
+        launcher.setMetricsFile(properties.getProperty(systemName + ".metrics.prometheus.file"));
+
+        String slowStatementMillis = properties.getProperty(systemName + ".slow.statement.millis");
+        if (slowStatementMillis != null)
+        {
+            String summarySize =
+                    properties.getProperty(systemName + ".slow.statement.summary.size");
+            SlowStatementMonitor monitor = new SlowStatementMonitor(
+                    Long.parseLong(slowStatementMillis.trim()),
+                    (summarySize == null) ? SlowStatementMonitor.DEFAULT_SUMMARY_SIZE
+                            : Integer.parseInt(summarySize.trim()));
+            monitor.setCapturingPlans("true".equals(
+                    properties.getProperty(systemName + ".slow.statement.explain")));
+            launcher.setSlowStatementMonitor(monitor);
         }
     }
 
@@ -411,13 +608,59 @@ public class JdbcMigrationLauncherFactory
      */
     protected List loadMigrationListeners(String systemName, Properties properties)
             throws MigrationException
+    {
+        return loadMigrationListeners(systemName, properties, ".listeners");
+    }
+
+    /**
+     * Registers the asynchronous MigrationListeners for the systemName specified in
+     * the properties, with the buffer they should share.
+     *
+     * @param process    the migration process to add the listeners to
+     * @param systemName The name of the system to load MigrationListeners for.
+     * @param properties The properties that has migration listeners specified.
+     * @throws MigrationException if unable to load listeners.
+     */
+    protected void configureAsynchronousListeners(MigrationProcess process, String systemName,
+            Properties properties) throws MigrationException
+    {
+        List listeners = loadMigrationListeners(systemName, properties, ".async.listeners");
+        if (listeners.isEmpty())
+        {
+            return;
+        }
+
+        String capacity = properties.getProperty(systemName + ".async.listeners.capacity");
+        if (capacity != null)
+        {
+            process.setAsynchronousListenerCapacity(Integer.parseInt(capacity.trim()));
+        }
+        String overflow = properties.getProperty(systemName + ".async.listeners.overflow");
+        if (overflow != null)
+        {
+            process.setAsynchronousListenerOverflowPolicy(overflow.trim());
+        }
+        process.addAsynchronousListeners(listeners);
+    }
+
+    /**
+     * Returns a list of MigrationListeners named by the given property of the system.
+     *
+     * @param systemName The name of the system to load MigrationListeners for.
+     * @param properties The properties that has migration listeners specified.
+     * @param suffix     the property holding the listener class names, after the system name
+     * @return A List of zero or more MigrationListeners
+     * @throws MigrationException if unable to load listeners.
+     */
+    private List loadMigrationListeners(String systemName, Properties properties, String suffix)
+            throws MigrationException
     {
         try
         {
             List listeners = new ArrayList();
             String[] listenerClassNames = null;
 
-            String commaSeparatedList = properties.getProperty(systemName + ".listeners");
+            String commaSeparatedList = properties.getProperty(systemName + suffix);
             // if it's blank, then no listeners configured
             if (StringUtils.isNotBlank(commaSeparatedList))
             {
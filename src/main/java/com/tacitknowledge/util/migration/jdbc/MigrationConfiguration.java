@@ -0,0 +1,144 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.jdbc;
+
+import com.tacitknowledge.util.migration.jdbc.util.JdbcConnectionSettings;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The parsed contents of one migration properties file, shared by every launcher
+ * configured from it.
+ * <p/>
+ * Launcher factories read the raw values through {@link #getProperties()}, but
+ * ask the configuration for their data sources and database types.  Data source
+ * definitions with identical {@link JdbcConnectionSettings} resolve to the same
+ * <code>DataSource</code> instance, and each dialect file is read once, so an
+ * orchestration file that names the same database for many controlled systems
+ * builds a single data source for it.
+ * <p/>
+ * The default data sources are <code>NonPooledDataSource</code>s, which open a
+ * new connection on every call, so sharing one saves building the data source
+ * but not a single connection.  To share connections, override
+ * {@link #createDataSource} to build a connection pool, and have the launcher
+ * factory use the subclass by overriding
+ * {@link JdbcMigrationLauncherFactory#createMigrationConfiguration}; the pool is
+ * then shared the same way.
+ * <p/>
+ * This class is <b>NOT</b> threadsafe; it is meant to be used while launchers
+ * are being configured.
+ */
+public class MigrationConfiguration
+{
+    /** Class logger */
+    private static Log log = LogFactory.getLog(MigrationConfiguration.class);
+
+    /** The migration properties */
+    private final Properties properties;
+
+    /** The data sources created so far, keyed by their settings */
+    private final Map<JdbcConnectionSettings, DataSource> dataSources =
+            new HashMap<JdbcConnectionSettings, DataSource>();
+
+    /**
+     * Creates a configuration backed by the given properties.
+     *
+     * @param properties the parsed migration properties
+     */
+    public MigrationConfiguration(Properties properties)
+    {
+        if (properties == null)
+        {
+            throw new IllegalArgumentException("properties must not be null");
+        }
+        this.properties = properties;
+    }
+
+    /**
+     * @return the raw migration properties
+     */
+    public Properties getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * Returns the data source for the settings found under the given property
+     * prefix, creating it the first time those settings are seen.
+     *
+     * @param prefix the property prefix, such as <code>mysystem.jdbc</code>
+     * @return the shared data source for those settings
+     * @throws IllegalArgumentException if a connection property is missing
+     */
+    public DataSource getDataSource(String prefix) throws IllegalArgumentException
+    {
+        return getDataSource(JdbcConnectionSettings.fromProperties(properties, prefix));
+    }
+
+    /**
+     * Returns the data source for the given settings, creating it the first time
+     * they are seen.
+     *
+     * @param settings the connection settings
+     * @return the shared data source for those settings
+     */
+    public DataSource getDataSource(JdbcConnectionSettings settings)
+    {
+        DataSource dataSource = dataSources.get(settings);
+        if (dataSource == null)
+        {
+            dataSource = createDataSource(settings);
+            dataSources.put(settings, dataSource);
+            log.debug("Created data source for " + settings);
+        }
+        return dataSource;
+    }
+
+    /**
+     * Returns the database type with the given name, from the process-wide
+     * {@link DialectRegistry}.
+     *
+     * @param databaseType the name of the database type, such as "postgres"
+     * @return the shared database type
+     */
+    public DatabaseType getDatabaseType(String databaseType)
+    {
+        return DialectRegistry.getDatabaseType(databaseType);
+    }
+
+    /**
+     * @return the number of distinct data sources created so far
+     */
+    public int getDataSourceCount()
+    {
+        return dataSources.size();
+    }
+
+    /**
+     * Creates the data source for a data source definition not seen before.
+     *
+     * @param settings the connection settings
+     * @return a new data source
+     */
+    protected DataSource createDataSource(JdbcConnectionSettings settings)
+    {
+        return settings.createDataSource();
+    }
+}
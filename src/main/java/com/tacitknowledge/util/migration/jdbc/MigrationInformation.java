@@ -15,13 +15,13 @@
 
 package com.tacitknowledge.util.migration.jdbc;
 
+import com.tacitknowledge.util.migration.ClusterStatus;
+import com.tacitknowledge.util.migration.ContextStatus;
+import com.tacitknowledge.util.migration.MigrationTask;
 import com.tacitknowledge.util.migration.jdbc.util.ConfigurationUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.Iterator;
-import java.util.Map;
-
 /**
  * Launches the migration process as a standalone application.
  * <p/>
@@ -123,17 +123,21 @@ public class MigrationInformation
                 launcher = launcherFactory.createMigrationLauncher(migrationSystemName, migrationSettings);
             }
 
-            // Print out information for all contexts
-            Map contextMap = launcher.getContexts();
-            for (Iterator contextIter = contextMap.keySet().iterator(); contextIter.hasNext();)
+            // Print out information for all contexts, read all at once
+            ClusterStatus status = launcher.getClusterStatus();
+            int nextPatchLevel = status.getNextPatchLevel();
+            for (ContextStatus contextStatus : status.getContextStatuses())
             {
-                JdbcMigrationContext context = (JdbcMigrationContext) contextIter.next();
-
-                int currentLevel = launcher.getDatabasePatchLevel(context);
-                int nextPatchLevel = launcher.getNextPatchLevel();
-                log.info("Current Database patch level is        : " + currentLevel);
-                int unappliedPatches = nextPatchLevel - launcher.getDatabasePatchLevel(context) - 1;
-                log.info("Current number of unapplied patches is : " + unappliedPatches);
+                log.info("Current Database patch level is        : " + contextStatus.getPatchLevel());
+                if (contextStatus.isLocked())
+                {
+                    log.info("The patch store is locked by a run in progress");
+                }
+                log.info("Current number of unapplied patches is : " + contextStatus.getPendingCount());
+                for (MigrationTask task : contextStatus.getPendingTasks())
+                {
+                    log.info("  Unapplied patch                      : " + task.getName());
+                }
                 log.info("The next patch to author should be     : " + nextPatchLevel);
                 if ((nextPatchLevel - 1) > highestPatch)
                 {
@@ -0,0 +1,269 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Publishes the progress of a migration run in the background, so a web
+ * application can start serving while it patches and report whether it is
+ * ready, for example from a health check.  The web-app launchers keep it in
+ * the servlet context under {@link #ATTRIBUTE} when asked to migrate
+ * asynchronously.
+ * <p>
+ * The state moves from {@link #PENDING} to {@link #RUNNING}, possibly through
+ * {@link #LOCK_WAITING} while another server holds the patch lock, and ends as
+ * either {@link #DONE} or {@link #FAILED}.
+ */
+public class MigrationReadiness
+{
+    /**
+     * The servlet context attribute the web-app launchers publish the readiness under
+     */
+    public static final String ATTRIBUTE = MigrationReadiness.class.getName();
+
+    /**
+     * The migration has not started yet
+     */
+    public static final String PENDING = "pending";
+
+    /**
+     * The migration is running
+     */
+    public static final String RUNNING = "running";
+
+    /**
+     * The migration is waiting for another server to release the patch lock
+     */
+    public static final String LOCK_WAITING = "lock-waiting";
+
+    /**
+     * The migration finished; the database is ready
+     */
+    public static final String DONE = "done";
+
+    /**
+     * The migration failed; see {@link #getFailure()}
+     */
+    public static final String FAILED = "failed";
+
+    /**
+     * How long the web-app launchers wait for a background migration to finish
+     * when the application is stopped
+     */
+    public static final long SHUTDOWN_WAIT_MILLIS = 30000L;
+
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(MigrationReadiness.class);
+
+    /**
+     * Counts down once the migration has finished, either way
+     */
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    /**
+     * The current state of the migration
+     */
+    private volatile String state = PENDING;
+
+    /**
+     * Why the migration failed, or <code>null</code>
+     */
+    private volatile Throwable failure = null;
+
+    /**
+     * The number of patches applied, or -1 until the migration is done
+     */
+    private volatile int patchesApplied = -1;
+
+    /**
+     * Runs a migration on a new background thread, tracking its progress.  The
+     * thread is not a daemon, so the JVM doesn't exit in the middle of a patch.
+     *
+     * @param migration the migration to run, returning the number of patches applied
+     * @return the thread running the migration
+     */
+    public Thread startInBackground(final Callable<Integer> migration)
+    {
+        Thread thread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                running();
+                try
+                {
+                    Integer applied = migration.call();
+                    done((applied == null) ? 0 : applied.intValue());
+                }
+                catch (Throwable t)
+                {
+                    log.error("Migration failed in the background", t);
+                    failed(t);
+                }
+            }
+        }, "autopatch-startup-migration");
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Waits up to {@link #SHUTDOWN_WAIT_MILLIS} for a background migration
+     * thread to finish, logging if it doesn't.
+     *
+     * @param thread the thread returned by {@link #startInBackground}, or
+     *               <code>null</code>
+     */
+    public static void join(Thread thread)
+    {
+        if (thread == null)
+        {
+            return;
+        }
+        try
+        {
+            thread.join(SHUTDOWN_WAIT_MILLIS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive())
+        {
+            log.warn("The background migration is still running after "
+                    + SHUTDOWN_WAIT_MILLIS + "ms; leaving it to finish");
+        }
+    }
+
+    /**
+     * Records that the migration is running, unless it has already finished.
+     */
+    public synchronized void running()
+    {
+        if (!isFinished())
+        {
+            state = RUNNING;
+        }
+    }
+
+    /**
+     * Records that the migration is waiting for the patch lock, unless it has
+     * already finished.
+     */
+    public synchronized void lockWaiting()
+    {
+        if (!isFinished())
+        {
+            state = LOCK_WAITING;
+        }
+    }
+
+    /**
+     * Records that the migration finished.
+     *
+     * @param patches the number of patches applied
+     */
+    public synchronized void done(int patches)
+    {
+        if (!isFinished())
+        {
+            patchesApplied = patches;
+            state = DONE;
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Records that the migration failed.
+     *
+     * @param cause why the migration failed
+     */
+    public synchronized void failed(Throwable cause)
+    {
+        if (!isFinished())
+        {
+            failure = cause;
+            state = FAILED;
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Waits for the migration to finish.
+     *
+     * @param timeoutMillis the most milliseconds to wait
+     * @return <code>true</code> if the migration finished in time
+     * @throws InterruptedException if the wait is interrupted
+     */
+    public boolean awaitCompletion(long timeoutMillis) throws InterruptedException
+    {
+        return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the current state of the migration
+     */
+    public String getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return <code>true</code> if the migration finished successfully
+     */
+    public boolean isReady()
+    {
+        return DONE.equals(state);
+    }
+
+    /**
+     * @return <code>true</code> if the migration finished, either way
+     */
+    public boolean isFinished()
+    {
+        return finished.getCount() == 0;
+    }
+
+    /**
+     * @return why the migration failed, or <code>null</code>
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * @return the number of patches applied, or -1 until the migration is done
+     */
+    public int getPatchesApplied()
+    {
+        return patchesApplied;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return "MigrationReadiness[" + state + "]";
+    }
+}
@@ -0,0 +1,224 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.tacitknowledge.util.migration.MigrationContext;
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.ResourceDiscoveryCache;
+
+/**
+ * Migrates several systems from one settings file in the same process,
+ * several at a time.
+ * <p/>
+ * The settings file is read once and every launcher is created from it, so
+ * systems that name the same database share its data source and dialect.
+ * Patch discovery is shared too: each patch package is scanned once, however
+ * many systems list it.  Launchers are created one after the other on the
+ * calling thread; a fixed pool of worker threads then patches one system
+ * each, exactly as a single <code>JdbcMigrationLauncher</code> would, with its
+ * own lock and transactions.
+ * <p/>
+ * A failing system doesn't stop the others; every system is reported in the
+ * returned results.
+ */
+final class MultiSystemMigrationRunner
+{
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(MultiSystemMigrationRunner.class);
+
+    /**
+     * Creates the launcher of each system
+     */
+    private final JdbcMigrationLauncherFactory launcherFactory;
+
+    /**
+     * The most systems patched at the same time
+     */
+    private final int concurrency;
+
+    /**
+     * Creates a new <code>MultiSystemMigrationRunner</code>.
+     *
+     * @param launcherFactory creates the launcher of each system
+     * @param concurrency     the most systems patched at the same time
+     */
+    MultiSystemMigrationRunner(JdbcMigrationLauncherFactory launcherFactory, int concurrency)
+    {
+        this.launcherFactory = launcherFactory;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Patches the given systems.
+     *
+     * @param systemNames       the systems to patch
+     * @param migrationSettings the settings file to use, or <code>null</code>
+     *                          for <em>migration.properties</em>
+     * @return the outcome of every system, in the order given
+     * @throws MigrationException if the settings can't be read, a launcher can't
+     *                            be created or the run is interrupted
+     */
+    List<SystemMigrationResult> execute(List<String> systemNames, String migrationSettings)
+            throws MigrationException
+    {
+        String settings = (migrationSettings == null)
+                ? MigrationContext.MIGRATION_CONFIG_FILE : migrationSettings;
+        log.info("Using " + settings);
+
+        ResourceDiscoveryCache.open();
+        try
+        {
+            MigrationConfiguration configuration = launcherFactory.loadConfiguration(settings);
+            List<Callable<SystemMigrationResult>> workers =
+                    new ArrayList<Callable<SystemMigrationResult>>();
+            for (String systemName : systemNames)
+            {
+                workers.add(new SystemWorker(systemName,
+                        launcherFactory.createMigrationLauncher(systemName, configuration)));
+            }
+
+            int threads = Math.min(concurrency, systemNames.size());
+            log.info("Patching " + systemNames.size() + " systems, " + threads + " at a time");
+            List<SystemMigrationResult> results = run(workers, threads);
+            log.info(summarize(results));
+            return results;
+        }
+        finally
+        {
+            ResourceDiscoveryCache.close();
+        }
+    }
+
+    /**
+     * Runs the workers on a fixed pool of threads.
+     *
+     * @param workers the workers, one per system
+     * @param threads the number of threads to use
+     * @return the outcome of every system
+     * @throws MigrationException if the run is interrupted
+     */
+    private List<SystemMigrationResult> run(List<Callable<SystemMigrationResult>> workers,
+            int threads) throws MigrationException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<SystemMigrationResult> results = new ArrayList<SystemMigrationResult>();
+            for (Future<SystemMigrationResult> future : executor.invokeAll(workers))
+            {
+                results.add(future.get());
+            }
+            return results;
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new MigrationException("Interrupted while waiting for system workers", e);
+        }
+        catch (ExecutionException e)
+        {
+            executor.shutdownNow();
+            throw new MigrationException("System worker died unexpectedly", e.getCause());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Describes the outcome of a run, one line per system.
+     *
+     * @param results the outcome of every system
+     * @return the summary
+     */
+    static String summarize(List<SystemMigrationResult> results)
+    {
+        int failed = 0;
+        StringBuffer lines = new StringBuffer();
+        for (SystemMigrationResult result : results)
+        {
+            if (!result.isSucceeded())
+            {
+                failed++;
+            }
+            lines.append("\n    ").append(result);
+        }
+        return "Migrated " + (results.size() - failed) + " of " + results.size()
+                + " systems" + ((failed > 0) ? ", " + failed + " failed" : "") + ":" + lines;
+    }
+
+    /**
+     * Patches one system, recording the outcome.
+     */
+    private static class SystemWorker implements Callable<SystemMigrationResult>
+    {
+        /**
+         * The name of the system
+         */
+        private final String systemName;
+
+        /**
+         * The launcher of the system
+         */
+        private final JdbcMigrationLauncher launcher;
+
+        /**
+         * Creates a new <code>SystemWorker</code>.
+         *
+         * @param systemName the name of the system
+         * @param launcher   the launcher of the system
+         */
+        SystemWorker(String systemName, JdbcMigrationLauncher launcher)
+        {
+            this.systemName = systemName;
+            this.launcher = launcher;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public SystemMigrationResult call()
+        {
+            long start = System.currentTimeMillis();
+            try
+            {
+                int patchCount = launcher.doMigrations();
+                return new SystemMigrationResult(systemName, patchCount,
+                        System.currentTimeMillis() - start);
+            }
+            catch (Exception e)
+            {
+                log.error("System " + systemName + " failed", e);
+                return new SystemMigrationResult(systemName, e, System.currentTimeMillis() - start);
+            }
+        }
+    }
+}
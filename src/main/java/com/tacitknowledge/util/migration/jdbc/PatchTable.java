@@ -16,7 +16,9 @@
 package com.tacitknowledge.util.migration.jdbc;
 
 import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.PatchExecution;
 import com.tacitknowledge.util.migration.PatchInfoStore;
+import com.tacitknowledge.util.migration.StatementPlan;
 import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -25,23 +27,34 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 
 /**
- * Manages interactions with the "patches" table.  The patches table stores
- * the current patch level for a given system, as well as a system-scoped lock
- * use to avoid concurrent patches to the system.  A system is defined as an
- * exclusive target of a patch.
+ * Manages interactions with the "patches" and "patch_summary" tables.  The
+ * patches table stores the history of patches applied to a given system.  The
+ * summary table holds one row per system with its current patch level, as well
+ * as a system-scoped lock use to avoid concurrent patches to the system, so that
+ * reading the level and locking never have to scan the history.  A system is
+ * defined as an exclusive target of a patch.
  * <p/>
  * This class is responsible for:
  * <ul>
- * <li>Validating the existence of the patches table and creating it if it
- * doesn't exist</li>
+ * <li>Validating the existence of the patches and summary tables and creating
+ * them if they don't exist</li>
  * <li>Determining if a patch is currently running on a given system</li>
  * <li>Obtaining and releasing patch locks for a given system</li>
  * <li>Obtaining and incrementing the patch level for a given system</li>
+ * <li>Recording the fingerprint of the patch catalog applied to a given system</li>
+ * <li>Recording and querying the execution history of patches for a given system,
+ * with the execution plans of their slow statements</li>
+ * <li>Recording the fingerprints of the post-patch tasks last run on a given system</li>
  * </ul>
  * <p/>
  * <strong>TRANSACTIONS:</strong> Transactions should be committed by the calling
@@ -66,6 +79,33 @@ public class PatchTable implements PatchInfoStore
      */
     private boolean tableExistenceValidated = false;
 
+    /**
+     * Keeps track of summary table validation (see #createSummaryRecordIfNeeded)
+     */
+    private boolean summaryExistenceValidated = false;
+
+    /**
+     * Keeps track of history table validation (see #createHistoryTableIfNeeded)
+     */
+    private boolean historyExistenceValidated = false;
+
+    /**
+     * Keeps track of plan table validation (see #createPlanTableIfNeeded)
+     */
+    private boolean planExistenceValidated = false;
+
+    /**
+     * Keeps track of post-patch fingerprint table validation
+     * (see #createPostPatchTableIfNeeded)
+     */
+    private boolean postPatchExistenceValidated = false;
+
+    /**
+     * The patch levels waiting to be written while level updates are
+     * deferred, or <code>null</code> if they are written straight away
+     */
+    private List<Integer> deferredLevels = null;
+
     /**
      * Create a new <code>PatchTable</code>.
      *
@@ -150,6 +190,9 @@ public class PatchTable implements PatchInfoStore
         {
             SqlUtil.close(conn, stmt, rs);
         }
+
+        createSummaryRecordIfNeeded();
+        createHistoryTableIfNeeded();
     }
 
     /**
@@ -195,30 +238,125 @@ public class PatchTable implements PatchInfoStore
      */
     public void updatePatchLevel(int level) throws MigrationException
     {
+        if (deferredLevels != null)
+        {
+            deferredLevels.add(new Integer(level));
+            return;
+        }
+
         // Make sure a patch record already exists for this system
         getPatchLevel();
 
         Connection conn = null;
         PreparedStatement stmt = null;
+        boolean autoCommit = true;
         try
         {
             conn = context.getConnection();
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+
+            // Record the patch in the history and move the summary row forward
+            // in the same transaction, so the two can never disagree
             stmt = conn.prepareStatement(getSql("level.update"));
             stmt.setInt(1, level);
             stmt.setString(2, context.getSystemName());
             stmt.execute();
+            SqlUtil.close(null, stmt, null);
+
+            stmt = conn.prepareStatement(getSql("summary.level.update"));
+            stmt.setInt(1, level);
+            stmt.setString(2, context.getSystemName());
+            stmt.setInt(3, level);
+            stmt.execute();
             context.commit();
         }
         catch (SQLException e)
         {
+            rollbackQuietly();
             throw new MigrationException("Unable to update patch level", e);
         }
         finally
         {
+            restoreAutoCommit(conn, autoCommit);
             SqlUtil.close(conn, stmt, null);
         }
     }
 
+    /**
+     * Starts or stops deferring patch level updates.  While deferred, the levels
+     * passed to {@link #updatePatchLevel(int)} are kept until
+     * {@link #flushPatchLevelUpdates()} writes them together.  Levels still
+     * waiting when deferral stops are discarded.
+     *
+     * @param deferred whether to defer patch level updates
+     */
+    public void setPatchLevelUpdatesDeferred(boolean deferred)
+    {
+        if (!deferred && (deferredLevels != null) && !deferredLevels.isEmpty())
+        {
+            log.warn("Discarding " + deferredLevels.size() + " unwritten patch levels");
+        }
+        deferredLevels = deferred ? new ArrayList<Integer>() : null;
+    }
+
+    /**
+     * Writes the deferred patch levels as one batch and moves the summary row
+     * to the highest of them.  Unlike {@link #updatePatchLevel(int)} this does
+     * not commit: the levels belong in the transaction of the patches that
+     * reached them.
+     *
+     * @return the number of patch levels written
+     * @throws MigrationException if writing the patch levels failed
+     */
+    public int flushPatchLevelUpdates() throws MigrationException
+    {
+        if ((deferredLevels == null) || deferredLevels.isEmpty())
+        {
+            return 0;
+        }
+
+        // Make sure a patch record already exists for this system
+        getPatchLevel();
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try
+        {
+            conn = context.getConnection();
+            int highest = 0;
+            stmt = conn.prepareStatement(getSql("level.update"));
+            for (Integer level : deferredLevels)
+            {
+                stmt.setInt(1, level.intValue());
+                stmt.setString(2, context.getSystemName());
+                stmt.addBatch();
+                highest = Math.max(highest, level.intValue());
+            }
+            stmt.executeBatch();
+            SqlUtil.close(null, stmt, null);
+
+            stmt = conn.prepareStatement(getSql("summary.level.update"));
+            stmt.setInt(1, highest);
+            stmt.setString(2, context.getSystemName());
+            stmt.setInt(3, highest);
+            stmt.execute();
+
+            int written = deferredLevels.size();
+            deferredLevels.clear();
+            return written;
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to update patch levels", e);
+        }
+        finally
+        {
+            // the connection stays open for the caller to commit
+            SqlUtil.close(null, stmt, null);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -234,7 +372,6 @@ public class PatchTable implements PatchInfoStore
             conn = context.getConnection();
             stmt = conn.prepareStatement(getSql("lock.read"));
             stmt.setString(1, context.getSystemName());
-            stmt.setString(2, context.getSystemName());
             rs = stmt.executeQuery();
 
             if (rs.next())
@@ -311,6 +448,9 @@ public class PatchTable implements PatchInfoStore
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
     public void updatePatchLevelAfterRollBack(int rollbackLevel) throws MigrationException
     {
         // Make sure a patch record already exists for this system
@@ -318,24 +458,72 @@ public class PatchTable implements PatchInfoStore
 
         Connection conn = null;
         PreparedStatement stmt = null;
+        boolean autoCommit = true;
         try
         {
             conn = context.getConnection();
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+
             stmt = conn.prepareStatement(getSql("level.rollback"));
             stmt.setInt(1, rollbackLevel);
             stmt.setString(2, context.getSystemName());
             stmt.execute();
+            SqlUtil.close(null, stmt, null);
+
+            stmt = conn.prepareStatement(getSql("summary.level.rollback"));
+            stmt.setString(1, context.getSystemName());
+            stmt.setString(2, context.getSystemName());
+            stmt.execute();
             context.commit();
         }
         catch (SQLException e)
         {
+            rollbackQuietly();
             throw new MigrationException("Unable to update patch level", e);
         }
         finally
         {
+            restoreAutoCommit(conn, autoCommit);
             SqlUtil.close(conn, stmt, null);
         }
+    }
 
+    /**
+     * Rolls back the current transaction after a failed patch level update,
+     * logging rather than masking the original failure if that fails too.
+     */
+    private void rollbackQuietly()
+    {
+        try
+        {
+            context.rollback();
+        }
+        catch (MigrationException e)
+        {
+            log.error("Unable to roll back patch level update", e);
+        }
+    }
+
+    /**
+     * Restores the auto-commit state of a connection borrowed for a multi-statement update.
+     *
+     * @param conn       the connection to restore; may be <code>null</code>
+     * @param autoCommit the auto-commit state to restore
+     */
+    private void restoreAutoCommit(Connection conn, boolean autoCommit)
+    {
+        try
+        {
+            if ((conn != null) && !conn.isClosed())
+            {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+        catch (SQLException e)
+        {
+            log.error("Unable to restore auto-commit state", e);
+        }
     }
 
     /**
@@ -405,10 +593,6 @@ public class PatchTable implements PatchInfoStore
                 log.debug("Updating patch table lock: " + getSql(sqlkey));
             }
             stmt.setString(1, context.getSystemName());
-            if (lock)
-            {
-                stmt.setString(2, context.getSystemName());
-            }
 
             int rowsUpdated = stmt.executeUpdate();
             boolean lockUpdated = (rowsUpdated == 1);
@@ -460,4 +644,612 @@ public class PatchTable implements PatchInfoStore
         }
         return patches;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getCatalogFingerprint() throws MigrationException
+    {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            conn = context.getConnection();
+            stmt = conn.prepareStatement(getSql("fingerprint.read"));
+            stmt.setString(1, context.getSystemName());
+            rs = stmt.executeQuery();
+            if (rs.next())
+            {
+                return rs.getString(1);
+            }
+            return null;
+        }
+        catch (SQLException e)
+        {
+            // A read-only node may look before the summary table has been created,
+            // in which case there is simply no fingerprint yet
+            log.debug("Unable to read catalog fingerprint: " + e.getMessage());
+            return null;
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateCatalogFingerprint(String fingerprint) throws MigrationException
+    {
+        createPatchStoreIfNeeded();
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try
+        {
+            conn = context.getConnection();
+            stmt = conn.prepareStatement(getSql("fingerprint.update"));
+            stmt.setString(1, fingerprint);
+            stmt.setString(2, context.getSystemName());
+            stmt.execute();
+            context.commit();
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to update catalog fingerprint", e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, null);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, String> getPostPatchFingerprints() throws MigrationException
+    {
+        Map<String, String> fingerprints = new HashMap<String, String>();
+        if (!createPostPatchTableIfNeeded())
+        {
+            return fingerprints;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            conn = context.getConnection();
+            stmt = conn.prepareStatement(getSql("postpatch.read"));
+            stmt.setString(1, context.getSystemName());
+            rs = stmt.executeQuery();
+            while (rs.next())
+            {
+                fingerprints.put(rs.getString("task_name"), rs.getString("fingerprint"));
+            }
+            return fingerprints;
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to read post-patch task fingerprints", e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updatePostPatchFingerprint(String taskName, String fingerprint)
+        throws MigrationException
+    {
+        if (!createPostPatchTableIfNeeded())
+        {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try
+        {
+            conn = context.getConnection();
+            stmt = conn.prepareStatement(getSql("postpatch.update"));
+            stmt.setString(1, fingerprint);
+            stmt.setString(2, context.getSystemName());
+            stmt.setString(3, taskName);
+            if (stmt.executeUpdate() == 0)
+            {
+                SqlUtil.close(null, stmt, null);
+                stmt = conn.prepareStatement(getSql("postpatch.insert"));
+                stmt.setString(1, fingerprint);
+                stmt.setString(2, context.getSystemName());
+                stmt.setString(3, taskName);
+                stmt.execute();
+            }
+            context.commit();
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to update the fingerprint of post-patch task "
+                    + taskName, e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, null);
+        }
+    }
+
+    /**
+     * Makes sure the summary table exists and holds a record for this system,
+     * creating either as needed.
+     *
+     * @throws MigrationException if the table or record could not be created
+     */
+    private void createSummaryRecordIfNeeded() throws MigrationException
+    {
+        if (summaryExistenceValidated)
+        {
+            return;
+        }
+
+        String systemName = context.getSystemName();
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            conn = context.getConnection();
+            boolean recordExists = false;
+            try
+            {
+                stmt = conn.prepareStatement(getSql("summary.table.exists"));
+                stmt.setString(1, systemName);
+                rs = stmt.executeQuery();
+                recordExists = rs.next();
+            }
+            catch (SQLException e)
+            {
+                log.debug(e.getMessage());
+                log.info("Patch summary table must not exist; creating....");
+                SqlUtil.close(null, stmt, rs);
+                rs = null;
+                stmt = conn.prepareStatement(getSql("summary.create"));
+                stmt.execute();
+                context.commit();
+                log.info("Created patch summary table.");
+            }
+            SqlUtil.close(null, stmt, rs);
+            rs = null;
+
+            if (!recordExists)
+            {
+                stmt = conn.prepareStatement(getSql("summary.record.create"));
+                stmt.setString(1, systemName);
+                stmt.execute();
+                context.commit();
+                log.info("Created patch summary record for " + systemName);
+            }
+            summaryExistenceValidated = true;
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to create patch summary record", e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void recordPatchExecution(PatchExecution execution) throws MigrationException
+    {
+        createPatchStoreIfNeeded();
+        boolean recordingPlans =
+                !execution.getStatementPlans().isEmpty() && createPlanTableIfNeeded();
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try
+        {
+            conn = context.getConnection();
+            stmt = conn.prepareStatement(getSql("history.insert"));
+            stmt.setString(1, context.getSystemName());
+            stmt.setInt(2, execution.getPatchLevel());
+            stmt.setString(3, execution.getPatchName());
+            stmt.setString(4, execution.getOperation());
+            stmt.setString(5, execution.getOutcome());
+            stmt.setTimestamp(6, new Timestamp(execution.getStarted().getTime()));
+            stmt.setLong(7, execution.getDurationMillis());
+            stmt.setInt(8, execution.getStatementCount());
+            stmt.setInt(9, execution.getRowsAffected());
+            stmt.setString(10, execution.getChecksum());
+            stmt.setString(11, execution.getHostName());
+            stmt.setString(12, execution.getOwnerName());
+            stmt.execute();
+            if (recordingPlans)
+            {
+                SqlUtil.close(null, stmt, null);
+                stmt = conn.prepareStatement(getSql("plans.insert"));
+                for (StatementPlan plan : execution.getStatementPlans())
+                {
+                    stmt.setString(1, context.getSystemName());
+                    stmt.setInt(2, execution.getPatchLevel());
+                    stmt.setString(3, execution.getOperation());
+                    stmt.setTimestamp(4, new Timestamp(execution.getStarted().getTime()));
+                    stmt.setInt(5, plan.getStatementIndex());
+                    stmt.setLong(6, plan.getDurationMillis());
+                    stmt.setString(7, plan.getSql());
+                    stmt.setString(8, plan.getPlan());
+                    stmt.execute();
+                }
+            }
+            context.commit();
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to record patch execution " + execution, e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, null);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<PatchExecution> getPatchExecutions() throws MigrationException
+    {
+        return readPatchExecutions("history.read", -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<PatchExecution> getPatchExecutions(int patchLevel) throws MigrationException
+    {
+        return readPatchExecutions("history.read.level", patchLevel);
+    }
+
+    /**
+     * Reads execution history records for this system.
+     *
+     * @param sqlKey     the key of the query to run
+     * @param patchLevel the patch level to restrict the query to, or -1 for
+     *                   queries that aren't restricted to one patch
+     * @return the matching <code>PatchExecution</code>s, oldest first
+     * @throws MigrationException if the history can't be read
+     */
+    private List<PatchExecution> readPatchExecutions(String sqlKey, int patchLevel)
+            throws MigrationException
+    {
+        createPatchStoreIfNeeded();
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        List<PatchExecution> executions = new ArrayList<PatchExecution>();
+        try
+        {
+            conn = context.getConnection();
+            stmt = conn.prepareStatement(getSql(sqlKey));
+            stmt.setString(1, context.getSystemName());
+            if (patchLevel != -1)
+            {
+                stmt.setInt(2, patchLevel);
+            }
+            rs = stmt.executeQuery();
+            while (rs.next())
+            {
+                PatchExecution execution = new PatchExecution();
+                execution.setPatchLevel(rs.getInt("patch_level"));
+                execution.setPatchName(rs.getString("patch_name"));
+                execution.setOperation(rs.getString("patch_operation"));
+                execution.setOutcome(rs.getString("patch_outcome"));
+                execution.setStarted(rs.getTimestamp("started"));
+                execution.setDurationMillis(rs.getLong("duration_millis"));
+                execution.setStatementCount(rs.getInt("statement_count"));
+                execution.setRowsAffected(rs.getInt("rows_affected"));
+                execution.setChecksum(rs.getString("checksum"));
+                execution.setHostName(rs.getString("host_name"));
+                execution.setOwnerName(rs.getString("owner_name"));
+                executions.add(execution);
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to read patch execution history", e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+        if (!executions.isEmpty())
+        {
+            readStatementPlans(executions, patchLevel);
+        }
+        return executions;
+    }
+
+    /**
+     * Attaches the execution plans recorded for their slow statements to the
+     * given execution history records.  Nothing is attached if no plan table
+     * has been created yet; reading the history never creates one.
+     *
+     * @param executions the execution history records of this system
+     * @param patchLevel the patch level the records are restricted to, or -1
+     *                   if they aren't restricted to one patch
+     * @throws MigrationException if the plans can't be read
+     */
+    private void readStatementPlans(List<PatchExecution> executions, int patchLevel)
+            throws MigrationException
+    {
+        if (!planTableExists())
+        {
+            return;
+        }
+        String sqlKey = "plans.read";
+        if ((patchLevel != -1) && (getSql("plans.read.level") != null))
+        {
+            sqlKey = "plans.read.level";
+        }
+
+        Map<String, PatchExecution> byKey = new HashMap<String, PatchExecution>();
+        for (PatchExecution execution : executions)
+        {
+            byKey.put(getExecutionKey(execution.getPatchLevel(), execution.getOperation(),
+                    execution.getStarted().getTime()), execution);
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            conn = context.getConnection();
+            stmt = conn.prepareStatement(getSql(sqlKey));
+            stmt.setString(1, context.getSystemName());
+            if ("plans.read.level".equals(sqlKey))
+            {
+                stmt.setInt(2, patchLevel);
+            }
+            rs = stmt.executeQuery();
+            while (rs.next())
+            {
+                PatchExecution execution = byKey.get(getExecutionKey(rs.getInt("patch_level"),
+                        rs.getString("patch_operation"), rs.getTimestamp("started").getTime()));
+                if (execution != null)
+                {
+                    StatementPlan plan = new StatementPlan();
+                    plan.setStatementIndex(rs.getInt("statement_index"));
+                    plan.setDurationMillis(rs.getLong("duration_millis"));
+                    plan.setSql(rs.getString("statement_sql"));
+                    plan.setPlan(rs.getString("execution_plan"));
+                    execution.getStatementPlans().add(plan);
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to read statement execution plans", e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * Identifies one execution history record of this system.
+     *
+     * @param patchLevel the level of the patch
+     * @param operation  the operation recorded
+     * @param started    when the patch task started
+     * @return the key of the record
+     */
+    private String getExecutionKey(int patchLevel, String operation, long started)
+    {
+        return patchLevel + "/" + operation + "/" + started;
+    }
+
+    /**
+     * Checks whether the statement plan table exists, without creating it.
+     *
+     * @return <code>true</code> if the table exists
+     */
+    private boolean planTableExists()
+    {
+        if (planExistenceValidated)
+        {
+            return true;
+        }
+        if (getSql("plans.table.exists") == null)
+        {
+            return false;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            conn = context.getConnection();
+            stmt = conn.prepareStatement(getSql("plans.table.exists"));
+            rs = stmt.executeQuery();
+            planExistenceValidated = true;
+            return true;
+        }
+        catch (SQLException e)
+        {
+            log.debug("No patch plan table to read: " + e.getMessage());
+            rollbackQuietly();
+            return false;
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * Makes sure the statement plan table exists, creating it as needed.
+     *
+     * @return <code>false</code> if the database type doesn't define the table
+     * @throws MigrationException if the table could not be created
+     */
+    private boolean createPlanTableIfNeeded() throws MigrationException
+    {
+        if (planExistenceValidated)
+        {
+            return true;
+        }
+        if (getSql("plans.create") == null)
+        {
+            log.debug(context.getDatabaseType() + " does not define plans.create;"
+                    + " statement plans are not recorded");
+            return false;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            conn = context.getConnection();
+            try
+            {
+                stmt = conn.prepareStatement(getSql("plans.table.exists"));
+                rs = stmt.executeQuery();
+            }
+            catch (SQLException e)
+            {
+                log.debug(e.getMessage());
+                log.info("Patch plan table must not exist; creating....");
+                SqlUtil.close(null, stmt, rs);
+                rs = null;
+                stmt = conn.prepareStatement(getSql("plans.create"));
+                stmt.execute();
+                context.commit();
+                log.info("Created patch plan table.");
+            }
+            planExistenceValidated = true;
+            return true;
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to create patch plan table", e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * Makes sure the post-patch fingerprint table exists, creating it as needed.
+     *
+     * @return <code>false</code> if the database type doesn't define the table
+     * @throws MigrationException if the table could not be created
+     */
+    private boolean createPostPatchTableIfNeeded() throws MigrationException
+    {
+        if (postPatchExistenceValidated)
+        {
+            return true;
+        }
+        if (getSql("postpatch.create") == null)
+        {
+            log.debug(context.getDatabaseType() + " does not define postpatch.create;"
+                    + " post-patch tasks always run");
+            return false;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            conn = context.getConnection();
+            try
+            {
+                stmt = conn.prepareStatement(getSql("postpatch.table.exists"));
+                rs = stmt.executeQuery();
+            }
+            catch (SQLException e)
+            {
+                log.debug(e.getMessage());
+                log.info("Post-patch fingerprint table must not exist; creating....");
+                SqlUtil.close(null, stmt, rs);
+                rs = null;
+                stmt = conn.prepareStatement(getSql("postpatch.create"));
+                stmt.execute();
+                context.commit();
+                log.info("Created post-patch fingerprint table.");
+            }
+            postPatchExistenceValidated = true;
+            return true;
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to create post-patch fingerprint table", e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * Makes sure the execution history table exists, creating it as needed.
+     *
+     * @throws MigrationException if the table could not be created
+     */
+    private void createHistoryTableIfNeeded() throws MigrationException
+    {
+        if (historyExistenceValidated)
+        {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            conn = context.getConnection();
+            try
+            {
+                stmt = conn.prepareStatement(getSql("history.table.exists"));
+                rs = stmt.executeQuery();
+            }
+            catch (SQLException e)
+            {
+                log.debug(e.getMessage());
+                log.info("Patch history table must not exist; creating....");
+                SqlUtil.close(null, stmt, rs);
+                rs = null;
+                stmt = conn.prepareStatement(getSql("history.create"));
+                stmt.execute();
+                context.commit();
+                log.info("Created patch history table.");
+            }
+            historyExistenceValidated = true;
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to create patch history table", e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+    }
 }
@@ -0,0 +1,179 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.MigrationTask;
+
+/**
+ * Coalesces the SQL script patches of a fresh database into shared
+ * transactions while a <code>JdbcMigrationLauncher</code> bootstraps it.
+ * <p/>
+ * Consecutive <code>SqlScriptMigrationTask</code>s are applied in one
+ * transaction of up to <code>groupSize</code> patches, each behind its own
+ * savepoint, and their patch levels are written as one batch just before the
+ * transaction commits.  A patch that fails is rolled back to its savepoint and
+ * reported as usual, and the patches before it in the group are committed, so
+ * the failure is still attributed to the exact patch.  Any other kind of task
+ * ends the group and runs in its own transactions.
+ */
+final class PatchTransactionGroup
+{
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(PatchTransactionGroup.class);
+
+    /**
+     * The context the patches are applied in
+     */
+    private final DataSourceMigrationContext context;
+
+    /**
+     * The patch table of the context
+     */
+    private final PatchTable patchTable;
+
+    /**
+     * The most patches applied in one transaction
+     */
+    private final int groupSize;
+
+    /**
+     * The number of patches applied in the open transaction
+     */
+    private int pending = 0;
+
+    /**
+     * The number of transactions committed
+     */
+    private int transactions = 0;
+
+    /**
+     * The number of patches committed
+     */
+    private int patches = 0;
+
+    /**
+     * Creates a new <code>PatchTransactionGroup</code>.
+     *
+     * @param context    the context the patches are applied in
+     * @param patchTable the patch table of the context
+     * @param groupSize  the most patches applied in one transaction
+     */
+    PatchTransactionGroup(DataSourceMigrationContext context, PatchTable patchTable, int groupSize)
+    {
+        this.context = context;
+        this.patchTable = patchTable;
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * Called before a patch is applied: joins the open transaction, starts a
+     * new one, or ends it if the patch can't be grouped.
+     *
+     * @param task the patch about to be applied
+     * @throws MigrationException if the transaction can't be started or committed
+     */
+    void patchStarting(MigrationTask task) throws MigrationException
+    {
+        if (!(task instanceof SqlScriptMigrationTask))
+        {
+            close();
+            return;
+        }
+        if (!context.isInTransactionGroup())
+        {
+            context.beginTransactionGroup();
+            patchTable.setPatchLevelUpdatesDeferred(true);
+        }
+        context.beginGroupedPatch();
+    }
+
+    /**
+     * Called once a patch has been applied and its level recorded; commits the
+     * transaction when it holds <code>groupSize</code> patches.
+     *
+     * @throws MigrationException if the commit fails
+     */
+    void patchSucceeded() throws MigrationException
+    {
+        if (!context.isInTransactionGroup())
+        {
+            return;
+        }
+        context.endGroupedPatch();
+        pending++;
+        if (pending >= groupSize)
+        {
+            commit();
+        }
+    }
+
+    /**
+     * Commits the patches applied so far and ends the open transaction, if any.
+     *
+     * @throws MigrationException if the commit fails
+     */
+    void close() throws MigrationException
+    {
+        if (!context.isInTransactionGroup())
+        {
+            return;
+        }
+        try
+        {
+            commit();
+        }
+        finally
+        {
+            patchTable.setPatchLevelUpdatesDeferred(false);
+            context.endTransactionGroup();
+        }
+    }
+
+    /**
+     * Writes the pending patch levels and commits the open transaction.
+     *
+     * @throws MigrationException if the commit fails
+     */
+    private void commit() throws MigrationException
+    {
+        patchTable.flushPatchLevelUpdates();
+        context.commitTransactionGroup();
+        if (pending > 0)
+        {
+            transactions++;
+            patches += pending;
+            log.debug("Committed " + pending + " patches in one transaction for " + context);
+        }
+        pending = 0;
+    }
+
+    /**
+     * Useful for logging
+     *
+     * @return a one-line description of the coalescing so far
+     */
+    public String toString()
+    {
+        return patches + " patches committed in " + transactions + " transactions of up to "
+                + groupSize;
+    }
+}
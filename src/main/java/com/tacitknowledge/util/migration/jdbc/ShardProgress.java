@@ -0,0 +1,204 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+/**
+ * The progress of one shard in a sharded rollout: the entry the rollout keeps
+ * for each of the launcher's contexts while it patches them.
+ *
+ * @see JdbcMigrationLauncher#getShardConcurrency()
+ */
+public class ShardProgress
+{
+    /**
+     * Status of a shard that hasn't been started yet
+     */
+    public static final String PENDING = "PENDING";
+
+    /**
+     * Status of a shard that is being patched
+     */
+    public static final String RUNNING = "RUNNING";
+
+    /**
+     * Status of a shard whose patches were all applied
+     */
+    public static final String SUCCEEDED = "SUCCEEDED";
+
+    /**
+     * Status of a shard that failed to patch
+     */
+    public static final String FAILED = "FAILED";
+
+    /**
+     * Status of a shard that was never started because the failure budget ran out
+     */
+    public static final String SKIPPED = "SKIPPED";
+
+    /**
+     * The name of the shard
+     */
+    private final String shardName;
+
+    /**
+     * The database host of the shard
+     */
+    private final String host;
+
+    /**
+     * One of the status constants
+     */
+    private volatile String status = PENDING;
+
+    /**
+     * The number of patches applied to the shard
+     */
+    private volatile int patchCount = 0;
+
+    /**
+     * How long the shard took to patch, in milliseconds
+     */
+    private volatile long durationMillis = 0;
+
+    /**
+     * Why the shard failed, if it did
+     */
+    private volatile Exception failure = null;
+
+    /**
+     * Creates a new pending <code>ShardProgress</code>.
+     *
+     * @param shardName the name of the shard
+     * @param host      the database host of the shard
+     */
+    public ShardProgress(String shardName, String host)
+    {
+        this.shardName = shardName;
+        this.host = host;
+    }
+
+    /**
+     * Marks the shard as being patched.
+     */
+    void started()
+    {
+        status = RUNNING;
+    }
+
+    /**
+     * Marks the shard as patched.
+     *
+     * @param patchCount     the number of patches applied
+     * @param durationMillis how long the shard took to patch
+     */
+    void succeeded(int patchCount, long durationMillis)
+    {
+        this.patchCount = patchCount;
+        this.durationMillis = durationMillis;
+        status = SUCCEEDED;
+    }
+
+    /**
+     * Marks the shard as failed.
+     *
+     * @param failure        why the shard failed
+     * @param durationMillis how long the shard ran before failing
+     */
+    void failed(Exception failure, long durationMillis)
+    {
+        this.failure = failure;
+        this.durationMillis = durationMillis;
+        status = FAILED;
+    }
+
+    /**
+     * Marks the shard as never started.
+     */
+    void skipped()
+    {
+        status = SKIPPED;
+    }
+
+    /**
+     * @return the name of the shard
+     */
+    public String getShardName()
+    {
+        return shardName;
+    }
+
+    /**
+     * @return the database host of the shard
+     */
+    public String getHost()
+    {
+        return host;
+    }
+
+    /**
+     * @return one of the status constants
+     */
+    public String getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return the number of patches applied to the shard
+     */
+    public int getPatchCount()
+    {
+        return patchCount;
+    }
+
+    /**
+     * @return how long the shard took to patch, in milliseconds
+     */
+    public long getDurationMillis()
+    {
+        return durationMillis;
+    }
+
+    /**
+     * @return why the shard failed, or <code>null</code> if it didn't
+     */
+    public Exception getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Useful for logging
+     *
+     * @return a one-line description of the shard's progress
+     */
+    public String toString()
+    {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(shardName).append(" on ").append(host).append(": ").append(status);
+        if (SUCCEEDED.equals(status))
+        {
+            buffer.append(", ").append(patchCount).append(" patches in ")
+                    .append(durationMillis).append(" ms");
+        }
+        else if (FAILED.equals(status))
+        {
+            buffer.append(" after ").append(durationMillis).append(" ms: ")
+                    .append(failure.getMessage());
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,357 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.ResourceDiscoveryCache;
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+
+/**
+ * Patches the contexts of a <code>JdbcMigrationLauncher</code> as shards, several
+ * at a time.
+ * <p/>
+ * A fixed pool of worker threads patches one shard each; the calling thread
+ * hands out shards in configuration order, never running more than the per-host
+ * limit against one database host. Each shard is patched exactly as
+ * <code>JdbcMigrationLauncher</code> patches a single context, with its own
+ * lock, transaction and post-patch tasks.
+ * <p/>
+ * Once more shards have failed than the failure budget allows, no further
+ * shards are started; the shards already running finish and the rest are
+ * skipped.
+ * <p/>
+ * The patch catalog is discovered once per rollout: a
+ * {@link ResourceDiscoveryCache} scope is open while the shards are patched.
+ */
+final class ShardRolloutExecutor
+{
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(ShardRolloutExecutor.class);
+
+    /**
+     * The launcher whose contexts are patched
+     */
+    private final JdbcMigrationLauncher launcher;
+
+    /**
+     * The most shards patched at the same time
+     */
+    private final int concurrency;
+
+    /**
+     * The most shards patched at the same time on one host, or 0 for no limit
+     */
+    private final int concurrencyPerHost;
+
+    /**
+     * The number of shards allowed to fail before the rollout stops
+     */
+    private final int failureBudget;
+
+    /**
+     * Creates a new <code>ShardRolloutExecutor</code>.
+     *
+     * @param launcher           the launcher whose contexts are patched
+     * @param concurrency        the most shards patched at the same time
+     * @param concurrencyPerHost the most shards patched at the same time on one
+     *                           host, or 0 for no limit
+     * @param failureBudget      the number of shards allowed to fail before the
+     *                           rollout stops
+     */
+    ShardRolloutExecutor(JdbcMigrationLauncher launcher, int concurrency, int concurrencyPerHost,
+            int failureBudget)
+    {
+        this.launcher = launcher;
+        this.concurrency = Math.max(1, concurrency);
+        this.concurrencyPerHost = concurrencyPerHost;
+        this.failureBudget = failureBudget;
+    }
+
+    /**
+     * Patches the given shards.
+     *
+     * @param shards the contexts to patch
+     * @return the progress of every shard
+     * @throws MigrationException if the rollout is interrupted
+     */
+    ShardRolloutSummary execute(List<JdbcMigrationContext> shards) throws MigrationException
+    {
+        ResourceDiscoveryCache.open();
+        try
+        {
+            return patchShards(shards);
+        }
+        finally
+        {
+            ResourceDiscoveryCache.close();
+        }
+    }
+
+    /**
+     * Patches the given shards, sharing one scan of the patch catalog.
+     *
+     * @param shards the contexts to patch
+     * @return the progress of every shard
+     * @throws MigrationException if the rollout is interrupted
+     */
+    private ShardRolloutSummary patchShards(List<JdbcMigrationContext> shards)
+            throws MigrationException
+    {
+        Map<ShardProgress, JdbcMigrationContext> ledger =
+                new LinkedHashMap<ShardProgress, JdbcMigrationContext>();
+        for (JdbcMigrationContext shard : shards)
+        {
+            ledger.put(new ShardProgress(getShardName(shard), getHost(shard)), shard);
+        }
+        LinkedList<ShardProgress> pending = new LinkedList<ShardProgress>(ledger.keySet());
+        Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+
+        log.info("Patching " + shards.size() + " shards, " + concurrency + " at a time"
+                + ((concurrencyPerHost > 0) ? " and " + concurrencyPerHost + " per host" : ""));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, shards.size()));
+        CompletionService<ShardProgress> completion = new ExecutorCompletionService<ShardProgress>(executor);
+        int running = 0;
+        int finished = 0;
+        int failures = 0;
+        boolean aborted = false;
+        try
+        {
+            while (true)
+            {
+                if (!aborted)
+                {
+                    running += startShards(pending, runningPerHost, running, ledger, completion);
+                }
+                if (running == 0)
+                {
+                    break;
+                }
+
+                ShardProgress done = completion.take().get();
+                running--;
+                finished++;
+                runningPerHost.put(done.getHost(), new Integer(runningPerHost.get(done.getHost()).intValue() - 1));
+                log.info("Shard " + finished + "/" + shards.size() + " " + done);
+
+                if (ShardProgress.FAILED.equals(done.getStatus()))
+                {
+                    failures++;
+                    log.error("Shard " + done.getShardName() + " failed", done.getFailure());
+                    if (!aborted && (failures > failureBudget))
+                    {
+                        aborted = true;
+                        log.error(failures + " shards failed, exceeding the failure budget of "
+                                + failureBudget + "; not starting the remaining " + pending.size() + " shards");
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new MigrationException("Interrupted while waiting for shard workers", e);
+        }
+        catch (ExecutionException e)
+        {
+            executor.shutdownNow();
+            throw new MigrationException("Shard worker died unexpectedly", e.getCause());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        for (ShardProgress shard : pending)
+        {
+            shard.skipped();
+        }
+        return new ShardRolloutSummary(new ArrayList<ShardProgress>(ledger.keySet()), aborted);
+    }
+
+    /**
+     * Starts as many pending shards as the concurrency limits allow, in order,
+     * passing over shards whose host is busy.
+     *
+     * @param pending        the shards not started yet
+     * @param runningPerHost the number of running shards per host
+     * @param running        the number of running shards
+     * @param ledger         the context of every shard
+     * @param completion     where the shards are run
+     * @return the number of shards started
+     */
+    private int startShards(List<ShardProgress> pending, Map<String, Integer> runningPerHost,
+            int running, Map<ShardProgress, JdbcMigrationContext> ledger,
+            CompletionService<ShardProgress> completion)
+    {
+        int started = 0;
+        for (Iterator<ShardProgress> i = pending.iterator(); i.hasNext() && (running + started < concurrency);)
+        {
+            ShardProgress shard = i.next();
+            Integer onHost = runningPerHost.get(shard.getHost());
+            int hostCount = (onHost == null) ? 0 : onHost.intValue();
+            if ((concurrencyPerHost > 0) && (hostCount >= concurrencyPerHost))
+            {
+                continue;
+            }
+
+            i.remove();
+            runningPerHost.put(shard.getHost(), new Integer(hostCount + 1));
+            shard.started();
+            completion.submit(new ShardWorker(shard, ledger.get(shard)));
+            started++;
+        }
+        return started;
+    }
+
+    /**
+     * Get the name a shard is reported under.
+     *
+     * @param context the context of the shard
+     * @return the database name of the context, or the context itself if it has none
+     */
+    private String getShardName(JdbcMigrationContext context)
+    {
+        String name = context.getDatabaseName();
+        return (name == null) ? context.toString() : name;
+    }
+
+    /**
+     * Get the database host of a shard.  Shards whose host can't be determined
+     * are treated as each being on a host of their own.
+     *
+     * @param context the context of the shard
+     * @return the host name of the shard's database
+     */
+    String getHost(JdbcMigrationContext context)
+    {
+        String host = null;
+        if (context instanceof DataSourceMigrationContext)
+        {
+            DataSource dataSource = ((DataSourceMigrationContext) context).getDataSource();
+            if (dataSource instanceof NonPooledDataSource)
+            {
+                host = parseHost(((NonPooledDataSource) dataSource).getDatabaseUrl());
+            }
+        }
+        return (host == null) ? getShardName(context) : host;
+    }
+
+    /**
+     * Extracts the host name from a JDBC URL, such as
+     * <code>jdbc:postgresql://db1:5432/tenant</code> or
+     * <code>jdbc:oracle:thin:@db1:1521:tenant</code>.
+     *
+     * @param url the JDBC URL
+     * @return the host name, or <code>null</code> if the URL doesn't name one
+     */
+    static String parseHost(String url)
+    {
+        if (url == null)
+        {
+            return null;
+        }
+
+        int start = url.indexOf("//");
+        if (start > -1)
+        {
+            start += 2;
+        }
+        else
+        {
+            start = url.indexOf('@');
+            if (start == -1)
+            {
+                return null;
+            }
+            start++;
+        }
+
+        int end = start;
+        while ((end < url.length()) && ("/:;?,".indexOf(url.charAt(end)) == -1))
+        {
+            end++;
+        }
+        return (end > start) ? url.substring(start, end) : null;
+    }
+
+    /**
+     * Patches one shard, recording the outcome in its progress.
+     */
+    private class ShardWorker implements Callable<ShardProgress>
+    {
+        /**
+         * The progress of the shard
+         */
+        private final ShardProgress shard;
+
+        /**
+         * The context of the shard
+         */
+        private final JdbcMigrationContext context;
+
+        /**
+         * Creates a new <code>ShardWorker</code>.
+         *
+         * @param shard   the progress of the shard
+         * @param context the context of the shard
+         */
+        ShardWorker(ShardProgress shard, JdbcMigrationContext context)
+        {
+            this.shard = shard;
+            this.context = context;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ShardProgress call()
+        {
+            long start = System.currentTimeMillis();
+            try
+            {
+                int patchCount = launcher.doMigrations(context);
+                shard.succeeded(patchCount, System.currentTimeMillis() - start);
+            }
+            catch (Exception e)
+            {
+                shard.failed(e, System.currentTimeMillis() - start);
+            }
+            return shard;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a sharded rollout: the progress of every shard, in the order
+ * the launcher's contexts were configured.
+ *
+ * @see JdbcMigrationLauncher#getLastShardRollout()
+ */
+public class ShardRolloutSummary
+{
+    /**
+     * The progress of every shard
+     */
+    private final List<ShardProgress> shards;
+
+    /**
+     * Whether the rollout stopped early because the failure budget ran out
+     */
+    private final boolean aborted;
+
+    /**
+     * Creates a new <code>ShardRolloutSummary</code>.
+     *
+     * @param shards  the progress of every shard
+     * @param aborted whether the rollout stopped early
+     */
+    public ShardRolloutSummary(List<ShardProgress> shards, boolean aborted)
+    {
+        this.shards = Collections.unmodifiableList(new ArrayList<ShardProgress>(shards));
+        this.aborted = aborted;
+    }
+
+    /**
+     * @return the progress of every shard, in configuration order
+     */
+    public List<ShardProgress> getShards()
+    {
+        return shards;
+    }
+
+    /**
+     * @return true if the rollout stopped early because the failure budget ran out
+     */
+    public boolean isAborted()
+    {
+        return aborted;
+    }
+
+    /**
+     * @return the total number of patches applied across all shards
+     */
+    public int getPatchCount()
+    {
+        int patchCount = 0;
+        for (ShardProgress shard : shards)
+        {
+            patchCount += shard.getPatchCount();
+        }
+        return patchCount;
+    }
+
+    /**
+     * Counts the shards with the given status.
+     *
+     * @param status one of the <code>ShardProgress</code> status constants
+     * @return the number of shards with that status
+     */
+    public int getShardCount(String status)
+    {
+        return getShards(status).size();
+    }
+
+    /**
+     * Get the shards with the given status.
+     *
+     * @param status one of the <code>ShardProgress</code> status constants
+     * @return the shards with that status, in configuration order
+     */
+    public List<ShardProgress> getShards(String status)
+    {
+        List<ShardProgress> matching = new ArrayList<ShardProgress>();
+        for (ShardProgress shard : shards)
+        {
+            if (shard.getStatus().equals(status))
+            {
+                matching.add(shard);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Useful for logging
+     *
+     * @return a multi-line summary with one line per shard
+     */
+    public String toString()
+    {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("Sharded rollout of ").append(shards.size()).append(" shards")
+                .append(aborted ? " (aborted)" : "").append(": ")
+                .append(getShardCount(ShardProgress.SUCCEEDED)).append(" succeeded, ")
+                .append(getShardCount(ShardProgress.FAILED)).append(" failed, ")
+                .append(getShardCount(ShardProgress.SKIPPED)).append(" skipped, ")
+                .append(getPatchCount()).append(" patches applied");
+        for (ShardProgress shard : shards)
+        {
+            buffer.append("\n  ").append(shard);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,308 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.tacitknowledge.util.migration.StatementPlan;
+
+/**
+ * Logs every statement that runs longer than a threshold, and ranks the slowest
+ * statements of each script so a summary can be logged when the script finishes.
+ * It can also capture the execution plan of each slow statement, to be kept with
+ * the patch's execution record.
+ * One monitor can watch many contexts at once; each context is expected to run
+ * one script at a time.
+ */
+public class SlowStatementMonitor implements StatementListener
+{
+    /**
+     * The number of statements ranked in a summary unless told otherwise
+     */
+    public static final int DEFAULT_SUMMARY_SIZE = 5;
+
+    /**
+     * The most characters of a statement written to the log
+     */
+    private static final int MAX_LOGGED_SQL = 500;
+
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(SlowStatementMonitor.class);
+
+    /**
+     * Statements that take at least this many milliseconds are logged
+     */
+    private final long thresholdMillis;
+
+    /**
+     * The number of statements ranked in each summary
+     */
+    private final int summarySize;
+
+    /**
+     * The slowest statements so far of the script running in each context
+     */
+    private final Map<JdbcMigrationContext, List<StatementExecution>> running =
+            new ConcurrentHashMap<JdbcMigrationContext, List<StatementExecution>>();
+
+    /**
+     * The slowest statements of the last script that finished in each context
+     */
+    private final Map<JdbcMigrationContext, List<StatementExecution>> finished =
+            new ConcurrentHashMap<JdbcMigrationContext, List<StatementExecution>>();
+
+    /**
+     * The plans captured for the slow statements of the last script in each context
+     */
+    private final Map<JdbcMigrationContext, List<StatementPlan>> plans =
+            new ConcurrentHashMap<JdbcMigrationContext, List<StatementPlan>>();
+
+    /**
+     * Whether the execution plans of slow statements are captured
+     */
+    private volatile boolean capturingPlans = false;
+
+    /**
+     * Creates a new <code>SlowStatementMonitor</code>.
+     *
+     * @param thresholdMillis statements that take at least this many milliseconds are logged
+     * @param summarySize     the number of statements ranked in each summary
+     */
+    public SlowStatementMonitor(long thresholdMillis, int summarySize)
+    {
+        if (thresholdMillis < 0)
+        {
+            throw new IllegalArgumentException("thresholdMillis cannot be negative");
+        }
+        if (summarySize < 1)
+        {
+            throw new IllegalArgumentException("summarySize must be at least 1");
+        }
+        this.thresholdMillis = thresholdMillis;
+        this.summarySize = summarySize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void scriptStarted(JdbcMigrationContext context, String taskName, int statementCount)
+    {
+        running.put(context, new ArrayList<StatementExecution>(summarySize + 1));
+        plans.put(context, new ArrayList<StatementPlan>());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void statementExecuted(JdbcMigrationContext context, StatementExecution execution)
+    {
+        if (execution.getDurationMillis() >= thresholdMillis)
+        {
+            log.warn("Slow statement " + execution.getIndex() + " of " + execution.getTaskName()
+                    + " took " + execution.getDurationMillis() + " ms (update count "
+                    + execution.getUpdateCount() + "): " + abbreviate(execution.getSql()));
+            if (capturingPlans)
+            {
+                capturePlan(context, execution);
+            }
+        }
+
+        List<StatementExecution> slowest = running.get(context);
+        if (slowest == null)
+        {
+            return;
+        }
+        int position = slowest.size();
+        while (position > 0
+                && slowest.get(position - 1).getDurationNanos() < execution.getDurationNanos())
+        {
+            position--;
+        }
+        if (position < summarySize)
+        {
+            slowest.add(position, execution);
+            if (slowest.size() > summarySize)
+            {
+                slowest.remove(summarySize);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void scriptFinished(JdbcMigrationContext context, String taskName, boolean successful)
+    {
+        List<StatementExecution> slowest = running.remove(context);
+        if (slowest == null)
+        {
+            return;
+        }
+        finished.put(context, Collections.unmodifiableList(slowest));
+        if (!slowest.isEmpty())
+        {
+            log.info(formatSummary(taskName, slowest));
+        }
+    }
+
+    /**
+     * Reads the execution plan of a slow statement and keeps it for the patch's
+     * execution record.  A plan that can't be read is logged and skipped.
+     *
+     * @param context   the context the statement ran in
+     * @param execution the slow statement
+     */
+    private void capturePlan(JdbcMigrationContext context, StatementExecution execution)
+    {
+        List<StatementPlan> captured = plans.get(context);
+        if ((captured == null) || !ExecutionPlanReader.isExplainable(context, execution.getSql()))
+        {
+            return;
+        }
+        try
+        {
+            String plan = ExecutionPlanReader.explain(context, execution.getSql());
+            if (plan != null)
+            {
+                StatementPlan statementPlan = new StatementPlan();
+                statementPlan.setStatementIndex(execution.getIndex());
+                statementPlan.setDurationMillis(execution.getDurationMillis());
+                statementPlan.setSql(execution.getSql());
+                statementPlan.setPlan(plan);
+                captured.add(statementPlan);
+                log.info("Execution plan of statement " + execution.getIndex() + " of "
+                        + execution.getTaskName() + ":\n" + plan);
+            }
+        }
+        catch (SQLException e)
+        {
+            log.warn("Could not read the execution plan of statement " + execution.getIndex()
+                    + " of " + execution.getTaskName(), e);
+        }
+    }
+
+    /**
+     * Hands over the plans captured for the slow statements of the last script
+     * that ran in a context, so they are only recorded once.
+     *
+     * @param context the context the script ran in
+     * @return the captured plans, never <code>null</code>
+     */
+    public List<StatementPlan> takeStatementPlans(JdbcMigrationContext context)
+    {
+        List<StatementPlan> captured = plans.remove(context);
+        if (captured == null)
+        {
+            return new ArrayList<StatementPlan>();
+        }
+        return captured;
+    }
+
+    /**
+     * @return <code>true</code> if the execution plans of slow statements are captured
+     */
+    public boolean isCapturingPlans()
+    {
+        return capturingPlans;
+    }
+
+    /**
+     * Sets whether the execution plans of slow statements are captured, for
+     * databases whose <code>DatabaseType</code> defines how to explain a statement.
+     *
+     * @param capturingPlans <code>true</code> to capture execution plans
+     */
+    public void setCapturingPlans(boolean capturingPlans)
+    {
+        this.capturingPlans = capturingPlans;
+    }
+
+    /**
+     * Returns the slowest statements of the last script that finished in a context,
+     * slowest first.
+     *
+     * @param context the context the script ran in
+     * @return the slowest statements, never <code>null</code>
+     */
+    public List<StatementExecution> getSlowestStatements(JdbcMigrationContext context)
+    {
+        List<StatementExecution> slowest = finished.get(context);
+        if (slowest == null)
+        {
+            return Collections.emptyList();
+        }
+        return slowest;
+    }
+
+    /**
+     * @return statements that take at least this many milliseconds are logged
+     */
+    public long getThresholdMillis()
+    {
+        return thresholdMillis;
+    }
+
+    /**
+     * @return the number of statements ranked in each summary
+     */
+    public int getSummarySize()
+    {
+        return summarySize;
+    }
+
+    /**
+     * Describes the slowest statements of a script, one per line.
+     *
+     * @param taskName the name of the task that ran the script
+     * @param slowest  the slowest statements, slowest first
+     * @return the summary
+     */
+    static String formatSummary(String taskName, List<StatementExecution> slowest)
+    {
+        StringBuffer summary = new StringBuffer("Slowest statements of " + taskName + ":");
+        for (int i = 0; i < slowest.size(); i++)
+        {
+            StatementExecution execution = slowest.get(i);
+            summary.append("\n  ").append(i + 1).append(". ")
+                    .append(execution.getDurationMillis()).append(" ms, statement ")
+                    .append(execution.getIndex()).append(": ")
+                    .append(abbreviate(execution.getSql()));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Shortens a statement for the log.
+     *
+     * @param sql the statement
+     * @return the statement on one line, cut short if it is very long
+     */
+    private static String abbreviate(String sql)
+    {
+        return StringUtils.abbreviate(sql.replaceAll("\\s+", " ").trim(), MAX_LOGGED_SQL);
+    }
+}
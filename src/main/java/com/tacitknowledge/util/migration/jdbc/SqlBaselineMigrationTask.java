@@ -0,0 +1,65 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+/**
+ * A schema snapshot for one type of database, equivalent to applying every
+ * patch up to its level.  An empty database can be brought to that level with
+ * the baseline alone, after which only the later patches are replayed.
+ *
+ * @see SqlBaselineTaskSource
+ * @see JdbcMigrationLauncher#setBaselineEnabled(boolean)
+ */
+public class SqlBaselineMigrationTask extends SqlScriptMigrationTask
+{
+    /**
+     * The type of database the snapshot was taken from
+     */
+    private final String databaseType;
+
+    /**
+     * Creates a new <code>SqlBaselineMigrationTask</code>.
+     *
+     * @param name         the name of the baseline script
+     * @param level        the patch level the baseline is equivalent to
+     * @param databaseType the type of database the snapshot was taken from
+     * @param sql          the SQL that creates the schema
+     */
+    public SqlBaselineMigrationTask(String name, int level, String databaseType, String sql)
+    {
+        super(name, level, sql);
+        this.databaseType = databaseType;
+    }
+
+    /**
+     * @return the type of database the snapshot was taken from
+     */
+    public String getDatabaseType()
+    {
+        return databaseType;
+    }
+
+    /**
+     * Determines whether the baseline can be applied to the given type of database.
+     *
+     * @param type the type of database being patched
+     * @return <code>true</code> if the snapshot was taken from that type of database
+     */
+    public boolean isFor(DatabaseType type)
+    {
+        return (type != null) && databaseType.equalsIgnoreCase(type.getDatabaseType());
+    }
+}
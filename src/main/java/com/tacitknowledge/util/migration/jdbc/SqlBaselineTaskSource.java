@@ -0,0 +1,79 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.MigrationTask;
+import com.tacitknowledge.util.migration.ResourceDiscoveryCache;
+
+/**
+ * Search a package (directory) for schema baselines and returns corresponding
+ * <code>SqlBaselineMigrationTask</code>s.  The name of each baseline must
+ * follow the pattern of &quot;baseline(\d+)\.(\w+)\.sql&quot;, where the number
+ * is the patch level the baseline is equivalent to and the word is the type of
+ * database it was taken from, for example <code>baseline300.postgres.sql</code>.
+ * <p/>
+ * Baselines are not patches: this source is registered with
+ * {@link com.tacitknowledge.util.migration.MigrationProcess#addBaselineTaskSource},
+ * not as a patch source.
+ */
+public class SqlBaselineTaskSource extends SqlScriptMigrationTaskSource
+{
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(SqlBaselineTaskSource.class);
+
+    /**
+     * The regular expression used to match baseline files.
+     */
+    private static final String BASELINE_REGEX = "^baseline(\\d++)\\.(\\w+)\\.sql";
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<MigrationTask> getMigrationTasks(String packageName) throws MigrationException
+    {
+        String path = packageName.replace('.', '/');
+        String[] scripts = ResourceDiscoveryCache.getResources(path, BASELINE_REGEX);
+        log.debug("Found " + scripts.length + " baselines in path: " + path);
+
+        Pattern pattern = Pattern.compile(BASELINE_REGEX);
+        List<MigrationTask> tasks = new ArrayList<MigrationTask>();
+        for (int i = 0; i < scripts.length; i++)
+        {
+            String scriptFileName = new File(scripts[i]).getName();
+            Matcher matcher = pattern.matcher(scriptFileName);
+            if (!matcher.matches())
+            {
+                throw new MigrationException("Invalid baseline name: " + scripts[i]);
+            }
+            tasks.add(new SqlBaselineMigrationTask(scriptFileName,
+                    Integer.parseInt(matcher.group(1)), matcher.group(2),
+                    readSql(getInputStream(scripts[i]))));
+        }
+        return tasks;
+    }
+}
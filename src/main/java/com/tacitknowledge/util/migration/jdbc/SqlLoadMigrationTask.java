@@ -19,6 +19,8 @@ import com.tacitknowledge.util.migration.MigrationContext;
 import com.tacitknowledge.util.migration.MigrationException;
 import com.tacitknowledge.util.migration.MigrationTaskSupport;
 import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+import com.tacitknowledge.util.migration.metrics.MigrationTracing;
+import com.tacitknowledge.util.migration.metrics.TraceSpan;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -44,6 +46,11 @@ public abstract class SqlLoadMigrationTask extends MigrationTaskSupport
      */
     private static Log log = LogFactory.getLog(SqlLoadMigrationTask.class);
 
+    /**
+     * The number of rows sent to the database at once
+     */
+    private static final int BATCH_SIZE = 50;
+
     /**
      * Creates a new <code>SqlScriptMigrationTask</code>.
      */
@@ -67,6 +74,7 @@ public abstract class SqlLoadMigrationTask extends MigrationTaskSupport
             stmt = conn.prepareStatement(getStatmentSql());
             List rows = getData(getResourceAsStream());
             int rowCount = rows.size();
+            int batched = 0;
             for (int i = 0; i < rowCount; i++)
             {
                 String data = (String) rows.get(i);
@@ -74,13 +82,19 @@ public abstract class SqlLoadMigrationTask extends MigrationTaskSupport
                 if (loadRowFlag)
                 {
                     stmt.addBatch();
-                    if (i % 50 == 0)
+                    batched++;
+                    if (batched == BATCH_SIZE)
                     {
-                        stmt.executeBatch();
+                        executeBatch(stmt);
+                        batched = 0;
                     }
                 }
             }
-            stmt.executeBatch();
+            // Some drivers refuse to execute an empty batch
+            if (batched > 0)
+            {
+                executeBatch(stmt);
+            }
             context.commit();
         }
         catch (Exception e)
@@ -105,6 +119,30 @@ public abstract class SqlLoadMigrationTask extends MigrationTaskSupport
         }
     }
 
+    /**
+     * Sends the rows batched so far to the database.
+     *
+     * @param stmt the statement holding the batch
+     * @throws SQLException if the batch fails
+     */
+    private void executeBatch(PreparedStatement stmt) throws SQLException
+    {
+        TraceSpan span = MigrationTracing.begin(MigrationTracing.LOADER_BATCH, getName());
+        try
+        {
+            stmt.executeBatch();
+        }
+        catch (SQLException e)
+        {
+            span.fail(e);
+            throw e;
+        }
+        finally
+        {
+            span.end();
+        }
+    }
+
     /**
      * Returns an input stream representing the data to load.
      *
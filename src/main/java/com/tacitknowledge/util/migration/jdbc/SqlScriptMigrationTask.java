@@ -15,11 +15,18 @@
 
 package com.tacitknowledge.util.migration.jdbc;
 
+import com.tacitknowledge.util.migration.CatalogFingerprint;
+import com.tacitknowledge.util.migration.ChecksummedMigrationTask;
+import com.tacitknowledge.util.migration.MeasuredMigrationTask;
 import com.tacitknowledge.util.migration.MigrationContext;
 import com.tacitknowledge.util.migration.MigrationException;
 import com.tacitknowledge.util.migration.MigrationTaskSupport;
 import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
 import com.tacitknowledge.util.migration.jdbc.util.SybaseUtil;
+import com.tacitknowledge.util.migration.metrics.LatencyHistogram;
+import com.tacitknowledge.util.migration.metrics.MigrationMetrics;
+import com.tacitknowledge.util.migration.metrics.MigrationTracing;
+import com.tacitknowledge.util.migration.metrics.TraceSpan;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,8 +39,11 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -42,6 +52,7 @@ import java.util.regex.Pattern;
  * @author Scott Askew (scott@tacitknowledge.com)
  */
 public class SqlScriptMigrationTask extends MigrationTaskSupport
+        implements ChecksummedMigrationTask, MeasuredMigrationTask
 {
     /**
      * Class logger
@@ -58,6 +69,11 @@ public class SqlScriptMigrationTask extends MigrationTaskSupport
      */
     private String downSql = null;
 
+    /**
+     * Statement and row counts of the most recent execution in each context
+     */
+    private Map<MigrationContext, int[]> lastExecutionCounts =
+            Collections.synchronizedMap(new HashMap<MigrationContext, int[]>());
 
     /**
      * Creates a new <code>SqlScriptMigrationTask</code>.
@@ -143,6 +159,34 @@ public class SqlScriptMigrationTask extends MigrationTaskSupport
         executeSql(context, downSql);
     }
 
+    /**
+     * Returns the checksum of the SQL this task executes when migrating up
+     *
+     * @return the checksum of the patch SQL
+     */
+    public String getChecksum()
+    {
+        return CatalogFingerprint.checksum(sql);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getStatementCount(MigrationContext context)
+    {
+        int[] counts = lastExecutionCounts.get(context);
+        return (counts == null) ? -1 : counts[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getRowsAffected(MigrationContext context)
+    {
+        int[] counts = lastExecutionCounts.get(context);
+        return (counts == null) ? -1 : counts[1];
+    }
+
     /**
      * Executes the passed sql in the passed context.
      *
@@ -159,6 +203,12 @@ public class SqlScriptMigrationTask extends MigrationTaskSupport
         Statement stmt = null;
         String sqlStatement = "";
         ListIterator listIterator = null;
+        int statementCount = 0;
+        int rowsAffected = 0;
+        List<StatementListener> statementListeners = getStatementListeners(context);
+        AlterTableReplay replay = getAlterTableReplay(context);
+        boolean scriptStarted = false;
+        boolean successful = false;
         try
         {
             conn = context.getConnection();
@@ -169,36 +219,98 @@ public class SqlScriptMigrationTask extends MigrationTaskSupport
             // a if(sybase) conditional, we decided to clean the slate for everyone.
             context.commit();
 
+            LatencyHistogram statementLatency =
+                    getMetrics(context).histogram(MigrationMetrics.STATEMENT_LATENCY);
+            boolean sybase = isSybase(context);
             List sqlStatements = getSqlStatements(context, sqlToExec);
+            if ((replay != null) && (sqlToExec == sql))
+            {
+                List<String> coalesced = replay.getStatements(this);
+                if (coalesced != null)
+                {
+                    sqlStatements = coalesced;
+                }
+            }
+            fireScriptStarted(statementListeners, context, sqlStatements.size());
+            scriptStarted = true;
             for (listIterator = sqlStatements.listIterator(); listIterator.hasNext();)
             {
                 sqlStatement = (String) listIterator.next();
                 log.debug(getName() + ": Attempting to execute: " + sqlStatement);
 
                 stmt = conn.createStatement();
-
-                // handle sybase special case with illegal commands in multi
-                // command transactions
-                if (isSybase(context)
-                        && SybaseUtil.containsIllegalMultiStatementTransactionCommand(sqlStatement))
+                long startTime = System.nanoTime();
+                TraceSpan span = MigrationTracing.begin(MigrationTracing.STATEMENT, sqlStatement);
+                try
+                {
+                    // handle sybase special case with illegal commands in multi
+                    // command transactions
+                    if (sybase
+                            && SybaseUtil.containsIllegalMultiStatementTransactionCommand(sqlStatement))
+                    {
+                        log.warn("Committing current transaction since patch " + getName()
+                                + " contains commands that are not allowed in multi statement"
+                                + " transactions.  If the patch contains errors, this patch may"
+                                + " not be rolled back cleanly.");
+                        context.commit();
+                        stmt.execute(sqlStatement);
+                        context.commit();
+                    }
+                    else // regular case
+                    {
+                        stmt.execute(sqlStatement);
+                    }
+                }
+                catch (SQLException e)
+                {
+                    span.fail(e);
+                    List<String> literals =
+                            (replay == null) ? null : replay.fallBack(this, sqlStatement);
+                    if (literals != null)
+                    {
+                        log.warn(getName() + ": Coalesced statement \"" + sqlStatement
+                                + "\" failed, running its statements one by one: "
+                                + e.getMessage());
+                        SqlUtil.close(null, stmt, null);
+                        listIterator.remove();
+                        for (String literal : literals)
+                        {
+                            listIterator.add(literal);
+                        }
+                        for (int i = 0; i < literals.size(); i++)
+                        {
+                            listIterator.previous();
+                        }
+                        continue;
+                    }
+                    fireStatementExecuted(statementListeners, context,
+                            new StatementExecution(getName(), listIterator.previousIndex(),
+                                    sqlStatement, System.nanoTime() - startTime, -1, null, e));
+                    throw e;
+                }
+                finally
+                {
+                    span.end();
+                }
+                long elapsed = statementLatency.recordSince(startTime);
+                statementCount++;
+                int updateCount = stmt.getUpdateCount();
+                if (updateCount > 0)
                 {
-                    log.warn("Committing current transaction since patch " + getName()
-                            + " contains commands that are not allowed in multi statement"
-                            + " transactions.  If the patch contains errors, this patch may"
-                            + " not be rolled back cleanly.");
-                    context.commit();
-                    stmt.execute(sqlStatement);
-                    context.commit();
+                    rowsAffected += updateCount;
                 }
-                else // regular case
+                if (!statementListeners.isEmpty())
                 {
-                    stmt.execute(sqlStatement);
+                    fireStatementExecuted(statementListeners, context,
+                            new StatementExecution(getName(), listIterator.previousIndex(),
+                                    sqlStatement, elapsed, updateCount, stmt.getWarnings(), null));
                 }
 
                 SqlUtil.close(null, stmt, null);
             }
 
             context.commit();
+            successful = true;
         }
         catch (Exception e)
         {
@@ -219,7 +331,131 @@ public class SqlScriptMigrationTask extends MigrationTaskSupport
         }
         finally
         {
+            lastExecutionCounts.put(ctx, new int[] {statementCount, rowsAffected});
             SqlUtil.close(null, stmt, null);
+            if (scriptStarted)
+            {
+                fireScriptFinished(statementListeners, context, successful);
+            }
+        }
+    }
+
+    /**
+     * Returns the replay coalescing the ALTER TABLE statements of the patches
+     * run in the given context.
+     *
+     * @param context the context the script runs in
+     * @return the replay, or <code>null</code> if statements run as written
+     */
+    private AlterTableReplay getAlterTableReplay(JdbcMigrationContext context)
+    {
+        if (context instanceof DataSourceMigrationContext)
+        {
+            return ((DataSourceMigrationContext) context).getAlterTableReplay();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the registry the statement timings of the given context are
+     * recorded in.
+     *
+     * @param context the context the script runs in
+     * @return the registry
+     */
+    private MigrationMetrics getMetrics(JdbcMigrationContext context)
+    {
+        if (context instanceof DataSourceMigrationContext)
+        {
+            return ((DataSourceMigrationContext) context).getMetrics();
+        }
+        return MigrationMetrics.getDefault();
+    }
+
+    /**
+     * Returns the statement listeners registered with the given context.
+     *
+     * @param context the context the script runs in
+     * @return the statement listeners, never <code>null</code>
+     */
+    private List<StatementListener> getStatementListeners(JdbcMigrationContext context)
+    {
+        if (context instanceof DataSourceMigrationContext)
+        {
+            return ((DataSourceMigrationContext) context).getStatementListeners();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Tells the statement listeners a script is starting.  A listener that fails
+     * is logged, and doesn't stop the patch.
+     *
+     * @param listeners      the listeners to notify
+     * @param context        the context the script runs in
+     * @param statementCount the number of statements in the script
+     */
+    private void fireScriptStarted(List<StatementListener> listeners,
+            JdbcMigrationContext context, int statementCount)
+    {
+        for (StatementListener listener : listeners)
+        {
+            try
+            {
+                listener.scriptStarted(context, getName(), statementCount);
+            }
+            catch (RuntimeException e)
+            {
+                log.warn("Statement listener " + listener + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Tells the statement listeners a statement was executed.  A listener that
+     * fails is logged, and doesn't stop the patch.
+     *
+     * @param listeners the listeners to notify
+     * @param context   the context the statement ran in
+     * @param execution the timing and outcome of the statement
+     */
+    private void fireStatementExecuted(List<StatementListener> listeners,
+            JdbcMigrationContext context, StatementExecution execution)
+    {
+        for (StatementListener listener : listeners)
+        {
+            try
+            {
+                listener.statementExecuted(context, execution);
+            }
+            catch (RuntimeException e)
+            {
+                log.warn("Statement listener " + listener + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Tells the statement listeners a script has finished.  A listener that fails
+     * is logged, and doesn't stop the patch.
+     *
+     * @param listeners  the listeners to notify
+     * @param context    the context the script ran in
+     * @param successful <code>true</code> if every statement succeeded
+     */
+    private void fireScriptFinished(List<StatementListener> listeners,
+            JdbcMigrationContext context, boolean successful)
+    {
+        for (StatementListener listener : listeners)
+        {
+            try
+            {
+                listener.scriptFinished(context, getName(), successful);
+            }
+            catch (RuntimeException e)
+            {
+                log.warn("Statement listener " + listener + " failed", e);
+            }
         }
     }
 
@@ -240,13 +476,41 @@ public class SqlScriptMigrationTask extends MigrationTaskSupport
      */
     public List getSqlStatements(JdbcMigrationContext context, String sqlStatements)
     {
-        List statements = new ArrayList();
         if (context.getDatabaseType().isMultipleStatementsSupported())
         {
+            List statements = new ArrayList();
             statements.add(sqlStatements);
             return statements;
         }
+        return splitSqlStatements(context, sqlStatements);
+    }
+
+    /**
+     * Splits the SQL this task executes when migrating up into individual
+     * statements, even for database types that could run it in one call.
+     *
+     * @param context the MigrationContext, to figure out db type
+     * @return a list of SQL and DDL statements
+     */
+    List splitSqlStatements(JdbcMigrationContext context)
+    {
+        return splitSqlStatements(context, sql);
+    }
+
+    /**
+     * Splits SQL/DDL into individual statements.
+     *
+     * @param context       the MigrationContext, to figure out db type
+     * @param sqlStatements the SQL to split
+     * @return a list of SQL and DDL statements
+     */
+    protected List splitSqlStatements(JdbcMigrationContext context, String sqlStatements)
+    {
+        List statements = new ArrayList();
 
+        // resolved once rather than for every delimiter in the script
+        String databaseType = context.getDatabaseType().getDatabaseType();
+        boolean sybase = isSybase(context);
         StringBuffer currentStatement = new StringBuffer();
         boolean inQuotedString = false;
         boolean inComment = false;
@@ -282,8 +546,7 @@ public class SqlScriptMigrationTask extends MigrationTaskSupport
                         if (!inQuotedString)
                         {
                             // If we're in a stored procedure, just keep rolling
-                            if (isStoredProcedure(context.getDatabaseType().getDatabaseType(),
-                                    currentStatement.toString()))
+                            if (isStoredProcedure(databaseType, currentStatement.toString()))
                             {
                                 currentStatement.append(sqlChars[i]);
                             }
@@ -308,7 +571,7 @@ public class SqlScriptMigrationTask extends MigrationTaskSupport
                          * for the GO delimiter, then add the statement otherwise
                          * just append the current index's character to currentStatement
                          */
-                        if (context.getDatabaseType().getDatabaseType().equals("sybase"))
+                        if (sybase)
                         {
                             // read from current index to previous line terminator 
                             // or start of sequence
@@ -15,7 +15,7 @@
 
 package com.tacitknowledge.util.migration.jdbc;
 
-import com.tacitknowledge.util.discovery.ClassDiscoveryUtil;
+import com.tacitknowledge.util.migration.ResourceDiscoveryCache;
 import com.tacitknowledge.util.migration.MigrationException;
 import com.tacitknowledge.util.migration.MigrationTask;
 import com.tacitknowledge.util.migration.MigrationTaskSource;
@@ -75,7 +75,7 @@ public class SqlScriptMigrationTaskSource implements MigrationTaskSource
      */
     private String[] getSqlScripts(String path, String regex)
     {
-        String[] scripts = ClassDiscoveryUtil.getResources(path, regex);
+        String[] scripts = ResourceDiscoveryCache.getResources(path, regex);
         if (log.isDebugEnabled())
         {
             log.debug("Found " + scripts.length + " patches in path: " + path);
@@ -181,7 +181,7 @@ public class SqlScriptMigrationTaskSource implements MigrationTaskSource
      * @param scriptName the name of the script to create an InputStream
      * @return an InputStream returns an InputStream based upon the scriptName
      */
-    private InputStream getInputStream(String scriptName)
+    protected InputStream getInputStream(String scriptName)
     {
         scriptName = scriptName.replace('\\', '/');
         log.debug("Examining possible SQL patch file \"" + scriptName + "\"");
@@ -196,7 +196,7 @@ public class SqlScriptMigrationTaskSource implements MigrationTaskSource
      * @return a <code>String</code> with the contents of the InputStream
      * @throws MigrationException if there's an error reading in the contents
      */
-    private String readSql(InputStream is) throws MigrationException
+    protected String readSql(InputStream is) throws MigrationException
     {
         StringBuffer sqlBuffer = new StringBuffer();
         BufferedReader buf = new BufferedReader(new InputStreamReader(is));
@@ -24,16 +24,30 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.picocontainer.PicoContainer;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Launches the migration process as a standalone application.
  * <p/>
  * This class expects the following Java environment parameters:
  * <ul>
- * <li>migration.systemname - the name of the logical system being migrated</li>
+ * <li>migration.systemname - the name of the logical system being migrated, or
+ * a comma-separated list of systems to migrate together</li>
  * <li>migration.settings (optional) - the name of the settings file to use for
  * migration</li>
+ * <li>migration.concurrency (optional) - when several systems are named, the
+ * most systems migrated at the same time; defaults to the number of
+ * processors</li>
  * </ul>
  * <p/>
+ * Several systems are migrated in this one JVM: the settings file is read and
+ * the patch packages are scanned once for all of them, and a summary of every
+ * system is logged at the end.  The launcher fails if any system failed, after
+ * the others have finished.  Rollbacks are only supported for a single system.
+ * <p/>
  * Below is an example of how this class can be configured in build.xml:
  * <p/>
  * <pre>
@@ -65,6 +79,11 @@ public final class StandaloneMigrationLauncher
      */
     private static final String ROLLBACK = "-rollback";
 
+    /**
+     * The system property holding the most systems migrated at the same time
+     */
+    private static final String CONCURRENCY = "migration.concurrency";
+
     /**
      * Class logger
      */
@@ -153,7 +172,16 @@ public final class StandaloneMigrationLauncher
         try
         {
 
-            if (isRollback)
+            List<String> systemNames = getSystemNames(migrationSystemName);
+            if (systemNames.size() > 1)
+            {
+                if (isRollback)
+                {
+                    throw new MigrationException("Rollbacks can only be run against one system at a time");
+                }
+                doMigrations(systemNames, migrationSettings);
+            }
+            else if (isRollback)
             {
                 String infoMessage = "Found rollback flag. AutoPatch will attempt to rollback the system to patch level(s) "
                         + ArrayUtils.toString(rollbackLevels) + ".";
@@ -173,6 +201,67 @@ public final class StandaloneMigrationLauncher
         }
     }
 
+    /**
+     * Migrates several systems together, failing if any of them failed.
+     *
+     * @param systemNames       the systems to migrate
+     * @param migrationSettings the settings file to use, or <code>null</code>
+     * @throws MigrationException if any system failed
+     */
+    private void doMigrations(List<String> systemNames, String migrationSettings)
+            throws MigrationException
+    {
+        int concurrency = Math.min(systemNames.size(), Runtime.getRuntime().availableProcessors());
+        String concurrencyValue = System.getProperty(CONCURRENCY);
+        if (concurrencyValue != null)
+        {
+            try
+            {
+                concurrency = Integer.parseInt(concurrencyValue.trim());
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new MigrationException(CONCURRENCY + " should be an integer");
+            }
+        }
+
+        List<SystemMigrationResult> results =
+                new MultiSystemMigrationRunner(migrationUtil.getLauncherFactory(), concurrency)
+                        .execute(systemNames, migrationSettings);
+
+        List<String> failed = new ArrayList<String>();
+        for (SystemMigrationResult result : results)
+        {
+            if (!result.isSucceeded())
+            {
+                failed.add(result.getSystemName());
+            }
+        }
+        if (!failed.isEmpty())
+        {
+            throw new MigrationException("Migration failed for systems " + failed);
+        }
+    }
+
+    /**
+     * Splits the value of <code>migration.systemname</code> into system names.
+     *
+     * @param systemNameList one system name, or several separated by commas
+     * @return the system names, without duplicates
+     */
+    static List<String> getSystemNames(String systemNameList)
+    {
+        Set<String> systemNames = new LinkedHashSet<String>();
+        for (String systemName : systemNameList.split(","))
+        {
+            if (systemName.trim().length() > 0)
+            {
+                systemNames.add(systemName.trim());
+            }
+        }
+        return new ArrayList<String>(systemNames);
+    }
+
     private int[] getRollbackLevels(String rollbackLevelsString) throws NumberFormatException
     {
         String[] rollbackLevelsStringArray = rollbackLevelsString.split(",");
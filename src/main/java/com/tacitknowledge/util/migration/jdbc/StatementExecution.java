@@ -0,0 +1,198 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The timing and outcome of one statement of a SQL script.
+ */
+public final class StatementExecution
+{
+    /**
+     * The most warnings kept for one statement
+     */
+    static final int MAX_WARNINGS = 100;
+
+    /**
+     * The number of nanoseconds in a millisecond
+     */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * The name of the task that ran the statement
+     */
+    private final String taskName;
+
+    /**
+     * The position of the statement in its script, starting at 0
+     */
+    private final int index;
+
+    /**
+     * The SQL that was executed
+     */
+    private final String sql;
+
+    /**
+     * How long the statement took
+     */
+    private final long durationNanos;
+
+    /**
+     * The update count reported by the driver, or -1 if there was none
+     */
+    private final int updateCount;
+
+    /**
+     * The messages of the warnings the driver reported for the statement
+     */
+    private final List<String> warnings;
+
+    /**
+     * The reason the statement failed, or <code>null</code> if it succeeded
+     */
+    private final SQLException failure;
+
+    /**
+     * Creates a new <code>StatementExecution</code>.
+     *
+     * @param taskName      the name of the task that ran the statement
+     * @param index         the position of the statement in its script, starting at 0
+     * @param sql           the SQL that was executed
+     * @param durationNanos how long the statement took
+     * @param updateCount   the update count, or -1 if there was none
+     * @param warnings      the first of the chained warnings, or <code>null</code>
+     * @param failure       the reason the statement failed, or <code>null</code>
+     */
+    public StatementExecution(String taskName, int index, String sql, long durationNanos,
+            int updateCount, SQLWarning warnings, SQLException failure)
+    {
+        this.taskName = taskName;
+        this.index = index;
+        this.sql = sql;
+        this.durationNanos = durationNanos;
+        this.updateCount = updateCount;
+        this.warnings = toMessages(warnings);
+        this.failure = failure;
+    }
+
+    /**
+     * Flattens a chain of warnings into their messages.
+     *
+     * @param warning the first warning of the chain, or <code>null</code>
+     * @return the warning messages, never <code>null</code>
+     */
+    private static List<String> toMessages(SQLWarning warning)
+    {
+        if (warning == null)
+        {
+            return Collections.emptyList();
+        }
+        List<String> messages = new ArrayList<String>();
+        for (SQLWarning w = warning; w != null && messages.size() < MAX_WARNINGS;
+                w = w.getNextWarning())
+        {
+            messages.add(w.getMessage());
+        }
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * @return the name of the task that ran the statement
+     */
+    public String getTaskName()
+    {
+        return taskName;
+    }
+
+    /**
+     * @return the position of the statement in its script, starting at 0
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * @return the SQL that was executed
+     */
+    public String getSql()
+    {
+        return sql;
+    }
+
+    /**
+     * @return how long the statement took, in nanoseconds
+     */
+    public long getDurationNanos()
+    {
+        return durationNanos;
+    }
+
+    /**
+     * @return how long the statement took, in milliseconds
+     */
+    public long getDurationMillis()
+    {
+        return durationNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return the update count reported by the driver, or -1 if there was none
+     */
+    public int getUpdateCount()
+    {
+        return updateCount;
+    }
+
+    /**
+     * @return the messages of the warnings the driver reported, never <code>null</code>
+     */
+    public List<String> getWarnings()
+    {
+        return warnings;
+    }
+
+    /**
+     * @return the reason the statement failed, or <code>null</code> if it succeeded
+     */
+    public SQLException getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * @return <code>true</code> if the statement succeeded
+     */
+    public boolean isSuccessful()
+    {
+        return failure == null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return "StatementExecution[" + taskName + "#" + index + "/" + getDurationMillis()
+                + "ms/" + updateCount + "]";
+    }
+}
@@ -0,0 +1,51 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+/**
+ * Receives a callback for every statement a <code>SqlScriptMigrationTask</code>
+ * executes, with the statement's timing, update count and warnings.  Statement
+ * listeners are registered with a {@link DataSourceMigrationContext} and are
+ * called on the thread running the patch, so they should be quick.
+ */
+public interface StatementListener
+{
+    /**
+     * Notifies the listener that a script is about to run its statements.
+     *
+     * @param context        the context the script runs in
+     * @param taskName       the name of the task running the script
+     * @param statementCount the number of statements in the script
+     */
+    public void scriptStarted(JdbcMigrationContext context, String taskName, int statementCount);
+
+    /**
+     * Notifies the listener that a statement was executed, successfully or not.
+     *
+     * @param context   the context the statement ran in
+     * @param execution the timing and outcome of the statement
+     */
+    public void statementExecuted(JdbcMigrationContext context, StatementExecution execution);
+
+    /**
+     * Notifies the listener that a script has finished running its statements.
+     *
+     * @param context    the context the script ran in
+     * @param taskName   the name of the task that ran the script
+     * @param successful <code>true</code> if every statement succeeded
+     */
+    public void scriptFinished(JdbcMigrationContext context, String taskName, boolean successful);
+}
@@ -0,0 +1,173 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+/**
+ * The outcome of migrating one system when several systems are migrated
+ * together by <code>StandaloneMigrationLauncher</code>.
+ *
+ * @see MultiSystemMigrationRunner
+ */
+public class SystemMigrationResult
+{
+    /**
+     * Status of a system whose patches were all applied
+     */
+    public static final String SUCCEEDED = "SUCCEEDED";
+
+    /**
+     * Status of a system that failed to patch
+     */
+    public static final String FAILED = "FAILED";
+
+    /**
+     * The name of the system
+     */
+    private final String systemName;
+
+    /**
+     * One of the status constants
+     */
+    private final String status;
+
+    /**
+     * The number of patches applied to the system
+     */
+    private final int patchCount;
+
+    /**
+     * How long the system took to patch, in milliseconds
+     */
+    private final long durationMillis;
+
+    /**
+     * Why the system failed, if it did
+     */
+    private final Exception failure;
+
+    /**
+     * Creates the result of a system whose patches were all applied.
+     *
+     * @param systemName     the name of the system
+     * @param patchCount     the number of patches applied
+     * @param durationMillis how long the system took to patch
+     */
+    public SystemMigrationResult(String systemName, int patchCount, long durationMillis)
+    {
+        this(systemName, SUCCEEDED, patchCount, durationMillis, null);
+    }
+
+    /**
+     * Creates the result of a system that failed to patch.
+     *
+     * @param systemName     the name of the system
+     * @param failure        why the system failed
+     * @param durationMillis how long the system ran before failing
+     */
+    public SystemMigrationResult(String systemName, Exception failure, long durationMillis)
+    {
+        this(systemName, FAILED, 0, durationMillis, failure);
+    }
+
+    /**
+     * Creates a new <code>SystemMigrationResult</code>.
+     *
+     * @param systemName     the name of the system
+     * @param status         one of the status constants
+     * @param patchCount     the number of patches applied
+     * @param durationMillis how long the system took to patch
+     * @param failure        why the system failed, or <code>null</code>
+     */
+    private SystemMigrationResult(String systemName, String status, int patchCount,
+            long durationMillis, Exception failure)
+    {
+        this.systemName = systemName;
+        this.status = status;
+        this.patchCount = patchCount;
+        this.durationMillis = durationMillis;
+        this.failure = failure;
+    }
+
+    /**
+     * @return the name of the system
+     */
+    public String getSystemName()
+    {
+        return systemName;
+    }
+
+    /**
+     * @return one of the status constants
+     */
+    public String getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return <code>true</code> if the system's patches were all applied
+     */
+    public boolean isSucceeded()
+    {
+        return SUCCEEDED.equals(status);
+    }
+
+    /**
+     * @return the number of patches applied to the system
+     */
+    public int getPatchCount()
+    {
+        return patchCount;
+    }
+
+    /**
+     * @return how long the system took to patch, in milliseconds
+     */
+    public long getDurationMillis()
+    {
+        return durationMillis;
+    }
+
+    /**
+     * @return why the system failed, or <code>null</code> if it didn't
+     */
+    public Exception getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Useful for logging
+     *
+     * @return a one-line description of the system's outcome
+     */
+    public String toString()
+    {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(systemName).append(": ").append(status);
+        if (isSucceeded())
+        {
+            buffer.append(", ").append(patchCount).append(" patches in ")
+                    .append(durationMillis).append(" ms");
+        }
+        else
+        {
+            buffer.append(" after ").append(durationMillis).append(" ms: ")
+                    .append(failure.getMessage());
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,174 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+
+/**
+ * Finds the tenant schemas of a database shared by many tenants, and creates a
+ * <code>TenantSchemaMigrationContext</code> for each of them on the shared data
+ * source.
+ * <p/>
+ * Schemas are listed with the dialect's <code>schema.list</code> query if it
+ * has one, and with <code>DatabaseMetaData.getSchemas()</code> otherwise. Only
+ * schemas whose whole name matches the tenant pattern are used; names that
+ * aren't plain identifiers are skipped, since they are put into the schema
+ * switching SQL as they are.
+ */
+public class TenantSchemaLocator
+{
+    /**
+     * The dialect property holding the query that lists schemas
+     */
+    public static final String SCHEMA_LIST = "schema.list";
+
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(TenantSchemaLocator.class);
+
+    /**
+     * The schema names that are safe to put into SQL
+     */
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z0-9_$]+");
+
+    /**
+     * The data source shared by all tenants
+     */
+    private final DataSource dataSource;
+
+    /**
+     * The type of the shared database
+     */
+    private final DatabaseType databaseType;
+
+    /**
+     * The name of the system being patched
+     */
+    private final String systemName;
+
+    /**
+     * The pattern tenant schema names match
+     */
+    private final Pattern schemaPattern;
+
+    /**
+     * Creates a new <code>TenantSchemaLocator</code>.
+     *
+     * @param dataSource    the data source shared by all tenants
+     * @param databaseType  the type of the shared database
+     * @param systemName    the name of the system being patched
+     * @param schemaPattern the regular expression tenant schema names match
+     */
+    public TenantSchemaLocator(DataSource dataSource, DatabaseType databaseType, String systemName,
+            String schemaPattern)
+    {
+        this.dataSource = dataSource;
+        this.databaseType = databaseType;
+        this.systemName = systemName;
+        this.schemaPattern = Pattern.compile(schemaPattern);
+    }
+
+    /**
+     * Creates a context for every tenant schema in the database.
+     *
+     * @return one context per tenant schema, ordered by schema name
+     * @throws MigrationException if the schemas can't be listed
+     */
+    public List<TenantSchemaMigrationContext> createTenantContexts() throws MigrationException
+    {
+        List<TenantSchemaMigrationContext> contexts = new ArrayList<TenantSchemaMigrationContext>();
+        for (String schema : findTenantSchemas())
+        {
+            TenantSchemaMigrationContext context = new TenantSchemaMigrationContext(schema);
+            context.setDatabaseType(databaseType);
+            context.setSystemName(systemName);
+            context.setDataSource(dataSource);
+            contexts.add(context);
+        }
+        return contexts;
+    }
+
+    /**
+     * Lists the tenant schemas in the database.
+     *
+     * @return the names of the tenant schemas, in order
+     * @throws MigrationException if the schemas can't be listed
+     */
+    public Set<String> findTenantSchemas() throws MigrationException
+    {
+        Set<String> schemas = new TreeSet<String>();
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            conn = dataSource.getConnection();
+            String sql = databaseType.getProperty(SCHEMA_LIST);
+            if (sql != null)
+            {
+                stmt = conn.createStatement();
+                rs = stmt.executeQuery(sql);
+            }
+            else
+            {
+                rs = conn.getMetaData().getSchemas();
+            }
+
+            while (rs.next())
+            {
+                String schema = rs.getString(1);
+                if (!schemaPattern.matcher(schema).matches())
+                {
+                    continue;
+                }
+                if (!IDENTIFIER.matcher(schema).matches())
+                {
+                    log.warn("Skipping tenant schema '" + schema + "', it is not a plain identifier");
+                    continue;
+                }
+                schemas.add(schema);
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Unable to list the tenant schemas of " + systemName, e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, rs);
+        }
+        log.info("Found " + schemas.size() + " tenant schemas matching " + schemaPattern.pattern()
+                + " for system " + systemName);
+        return schemas;
+    }
+}
@@ -0,0 +1,291 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+
+/**
+ * Provides JDBC resources for one tenant schema of a database shared by many
+ * tenants. Connections come from the shared data source and are switched to
+ * the tenant's schema when first handed out, so the patch tables and patches
+ * of the tenant all live in its own schema.  When a connection is closed it is
+ * switched back to the schema it had before, so a pooled connection goes back
+ * to the pool as it came out of it.
+ *
+ * @see TenantSchemaLocator
+ */
+public class TenantSchemaMigrationContext extends DataSourceMigrationContext
+{
+    /**
+     * The dialect property holding the SQL that switches schemas; <code>{0}</code>
+     * is replaced by the schema name
+     */
+    public static final String SCHEMA_SWITCH = "schema.switch";
+
+    /**
+     * The dialect property holding the query that reads the current schema
+     */
+    public static final String SCHEMA_CURRENT = "schema.current";
+
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(TenantSchemaMigrationContext.class);
+
+    /**
+     * The schema of the tenant
+     */
+    private final String schemaName;
+
+    /**
+     * The last connection from the data source switched to the tenant's schema
+     */
+    private Connection sourceConnection = null;
+
+    /**
+     * The connection handed out for <code>sourceConnection</code>, which
+     * switches it back when closed; <code>null</code> once closed
+     */
+    private Connection schemaConnection = null;
+
+    /**
+     * Creates a new <code>TenantSchemaMigrationContext</code>.
+     *
+     * @param schemaName the schema of the tenant
+     */
+    public TenantSchemaMigrationContext(String schemaName)
+    {
+        this.schemaName = schemaName;
+        setDatabaseName(schemaName);
+    }
+
+    /**
+     * Get the schema of the tenant
+     *
+     * @return the schema name
+     */
+    public String getSchemaName()
+    {
+        return schemaName;
+    }
+
+    /**
+     * Returns the database connection to use, switched to the tenant's schema.
+     * Closing it switches it back to the schema it had before.
+     *
+     * @return the database connection to use
+     * @throws SQLException if an unexpected error occurs, or the database type
+     *                      can't switch schemas
+     */
+    public Connection getConnection() throws SQLException
+    {
+        Connection connection = super.getConnection();
+        if (isInTransactionGroup())
+        {
+            // the group holds a connection handed out below
+            return connection;
+        }
+        if ((schemaConnection == null) || (connection != sourceConnection))
+        {
+            String originalSchema = readSchema(connection);
+            switchSchema(connection, schemaName);
+            sourceConnection = connection;
+            schemaConnection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {Connection.class},
+                    new SchemaRestoringHandler(connection, originalSchema));
+        }
+        return schemaConnection;
+    }
+
+    /**
+     * Reads the schema the given connection is in.
+     *
+     * @param connection the connection to read the schema of
+     * @return the current schema, or <code>null</code> if the database type
+     *         can't tell it
+     * @throws SQLException if the query fails
+     */
+    private String readSchema(Connection connection) throws SQLException
+    {
+        String sql = getDatabaseType().getProperty(SCHEMA_CURRENT);
+        if (sql == null)
+        {
+            log.warn(getDatabaseType() + " does not define " + SCHEMA_CURRENT
+                    + ", so connections will be released in the schema of " + schemaName);
+            return null;
+        }
+
+        Statement stmt = null;
+        ResultSet rs = null;
+        try
+        {
+            stmt = connection.createStatement();
+            rs = stmt.executeQuery(sql);
+            return rs.next() ? rs.getString(1) : null;
+        }
+        finally
+        {
+            SqlUtil.close(null, stmt, rs);
+        }
+    }
+
+    /**
+     * Switches the given connection to a schema.  The switch is committed
+     * straight away, so rolling back a patch doesn't undo it on databases where
+     * it is transactional.
+     *
+     * @param connection the connection to switch
+     * @param schema     the schema to switch to
+     * @throws SQLException if the switch fails
+     */
+    private void switchSchema(Connection connection, String schema) throws SQLException
+    {
+        String sql = getDatabaseType().getProperty(SCHEMA_SWITCH);
+        if (sql == null)
+        {
+            throw new SQLException(getDatabaseType() + " does not define " + SCHEMA_SWITCH
+                    + ", so tenant schemas are not supported");
+        }
+
+        Statement stmt = null;
+        try
+        {
+            stmt = connection.createStatement();
+            stmt.execute(sql.replace("{0}", schema));
+            if (!connection.getAutoCommit())
+            {
+                connection.commit();
+            }
+        }
+        finally
+        {
+            SqlUtil.close(null, stmt, null);
+        }
+    }
+
+    /**
+     * Useful for debugging
+     *
+     * @return String with state information
+     */
+    public String toString()
+    {
+        return "TenantSchemaMigrationContext[" + getDatabaseType() + "/" + getSystemName() + "/"
+                + schemaName + "/" + getDataSource() + "]";
+    }
+
+    /**
+     * Passes calls through to a connection switched to the tenant's schema,
+     * switching it back to its original schema before it is closed.
+     */
+    private class SchemaRestoringHandler implements InvocationHandler
+    {
+        /**
+         * The connection from the data source
+         */
+        private final Connection delegate;
+
+        /**
+         * The schema the connection was in before it was switched, or
+         * <code>null</code> if unknown
+         */
+        private final String originalSchema;
+
+        /**
+         * Creates a new <code>SchemaRestoringHandler</code>.
+         *
+         * @param delegate       the connection from the data source
+         * @param originalSchema the schema the connection was in before it was
+         *                       switched, or <code>null</code> if unknown
+         */
+        SchemaRestoringHandler(Connection delegate, String originalSchema)
+        {
+            this.delegate = delegate;
+            this.originalSchema = originalSchema;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String name = method.getName();
+            if ("close".equals(name))
+            {
+                close(proxy);
+                return null;
+            }
+            if ("equals".equals(name))
+            {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(name))
+            {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            try
+            {
+                return method.invoke(delegate, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Switches the connection back to its original schema and closes it.
+         * The connection is closed even if the switch fails.
+         *
+         * @param proxy the connection handed out for the delegate
+         * @throws SQLException if the connection can't be switched back or closed
+         */
+        private void close(Object proxy) throws SQLException
+        {
+            if (schemaConnection == proxy)
+            {
+                schemaConnection = null;
+            }
+            if (delegate.isClosed())
+            {
+                return;
+            }
+            try
+            {
+                if (originalSchema != null)
+                {
+                    switchSchema(delegate, originalSchema);
+                }
+            }
+            finally
+            {
+                delegate.close();
+            }
+        }
+    }
+}
@@ -18,10 +18,14 @@ package com.tacitknowledge.util.migration.jdbc;
 import com.tacitknowledge.util.discovery.ClassDiscoveryUtil;
 import com.tacitknowledge.util.discovery.WebAppResourceListSource;
 import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.jdbc.util.ConfigurationUtil;
 import com.tacitknowledge.util.migration.jdbc.util.MigrationUtil;
+import com.tacitknowledge.util.migration.metrics.MigrationMetrics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.concurrent.Callable;
+
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
@@ -38,6 +42,13 @@ import javax.servlet.ServletContextListener;
  * <li>migration.datasource - ex: jdbc/clickstream
  * </ul>
  * All properties listed above are required.
+ * <p/>
+ * If the <code>migration.async</code> init parameter is <code>true</code>, the
+ * migration runs on a background thread instead, and the container finishes
+ * starting the application in parallel.  The progress of the migration is
+ * published as a {@link MigrationReadiness} in the servlet context attribute
+ * {@link MigrationReadiness#ATTRIBUTE}, for a health check to report on; a
+ * failure is logged and published there rather than failing the deployment.
  *
  * @author Chris A. (chris@tacitknowledge.com)
  */
@@ -54,6 +65,11 @@ public class WebAppJNDIMigrationLauncher implements ServletContextListener
      */
     private static Log log = LogFactory.getLog(WebAppJNDIMigrationLauncher.class);
 
+    /**
+     * The thread running the background migration, or <code>null</code>
+     */
+    private Thread migrationThread = null;
+
     /**
      * {@inheritDoc}
      */
@@ -71,6 +87,12 @@ public class WebAppJNDIMigrationLauncher implements ServletContextListener
             }
             firstRun = false;
 
+            if ("true".equals(ConfigurationUtil.getOptionalParam("migration.async", sce, this)))
+            {
+                startInBackground(sce);
+                return;
+            }
+
             // The MigrationLauncher is responsible for handling the interaction
             // between the PatchTable and the underlying MigrationTasks; as each
             // task is executed, the patch level is incremented, etc.
@@ -104,10 +126,64 @@ public class WebAppJNDIMigrationLauncher implements ServletContextListener
     }
 
     /**
-     * {@inheritDoc}
+     * Starts the migration on a background thread.  The launcher is built here,
+     * on the container's thread, since the data source can only be looked up in
+     * the application's JNDI context; only the patching itself is left to the
+     * background thread.
+     *
+     * @param sce the <code>ServletContextEvent</code> being handled
+     */
+    private void startInBackground(ServletContextEvent sce)
+    {
+        MigrationReadiness readiness = new MigrationReadiness();
+        sce.getServletContext().setAttribute(MigrationReadiness.ATTRIBUTE, readiness);
+        final JdbcMigrationLauncher launcher;
+        try
+        {
+            launcher = new JdbcMigrationLauncherFactoryLoader().createFactory()
+                    .createMigrationLauncher(sce);
+        }
+        catch (MigrationException e)
+        {
+            log.error("Could not configure the background migration", e);
+            readiness.failed(e);
+            return;
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Could not configure the background migration", e);
+            readiness.failed(e);
+            return;
+        }
+        launcher.setReadiness(readiness);
+        migrationThread = readiness.startInBackground(new Callable<Integer>()
+        {
+            public Integer call() throws MigrationException
+            {
+                return new Integer(launcher.doMigrations());
+            }
+        });
+    }
+
+    /**
+     * Waits up to {@link MigrationReadiness#SHUTDOWN_WAIT_MILLIS} for a
+     * background migration still in progress, so it isn't cut off mid-patch,
+     * and removes the migration metrics from JMX.
+     *
+     * @param sce the <code>ServletContextEvent</code> being handled
      */
     public void contextDestroyed(ServletContextEvent sce)
     {
         log.debug("context is being destroyed " + sce);
+        MigrationReadiness readiness = (MigrationReadiness)
+                sce.getServletContext().getAttribute(MigrationReadiness.ATTRIBUTE);
+        if ((readiness != null) && !readiness.isFinished())
+        {
+            log.warn("Context destroyed while the background migration is "
+                    + readiness.getState());
+        }
+        MigrationReadiness.join(migrationThread);
+        migrationThread = null;
+        MigrationMetrics.getDefault().unregisterMBean();
     }
 }
@@ -20,9 +20,12 @@ import com.tacitknowledge.util.discovery.WebAppResourceListSource;
 import com.tacitknowledge.util.migration.MigrationException;
 import com.tacitknowledge.util.migration.jdbc.util.ConfigurationUtil;
 import com.tacitknowledge.util.migration.jdbc.util.MigrationUtil;
+import com.tacitknowledge.util.migration.metrics.MigrationMetrics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.concurrent.Callable;
+
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
@@ -32,6 +35,13 @@ import javax.servlet.ServletContextListener;
  * problems arise during migration and will prevent the web application from
  * being fully deployed.
  * <p/>
+ * If the <code>migration.async</code> init parameter is <code>true</code>, the
+ * migration runs on a background thread instead, and the container finishes
+ * starting the application in parallel.  The progress of the migration is
+ * published as a {@link MigrationReadiness} in the servlet context attribute
+ * {@link MigrationReadiness#ATTRIBUTE}, for a health check to report on; a
+ * failure is logged and published there rather than failing the deployment.
+ * <p/>
  * This class expects the following servlet context init parameters:
  * <ul>
  * <li>migration.systemname - the name of the logical system being migrated</li>
@@ -71,6 +81,11 @@ public class WebAppMigrationLauncher implements ServletContextListener
      */
     private static Log log = LogFactory.getLog(WebAppMigrationLauncher.class);
 
+    /**
+     * The thread running the background migration, or <code>null</code>
+     */
+    private Thread migrationThread = null;
+
     /**
      * {@inheritDoc}
      */
@@ -88,8 +103,25 @@ public class WebAppMigrationLauncher implements ServletContextListener
             }
             firstRun = false;
 
-            String systemName = ConfigurationUtil.getRequiredParam("migration.systemname", sce, this);
-            String settings = ConfigurationUtil.getOptionalParam("migration.settings", sce, this);
+            final String systemName =
+                    ConfigurationUtil.getRequiredParam("migration.systemname", sce, this);
+            final String settings =
+                    ConfigurationUtil.getOptionalParam("migration.settings", sce, this);
+
+            if ("true".equals(ConfigurationUtil.getOptionalParam("migration.async", sce, this)))
+            {
+                final MigrationReadiness readiness = new MigrationReadiness();
+                sce.getServletContext().setAttribute(MigrationReadiness.ATTRIBUTE, readiness);
+                migrationThread = readiness.startInBackground(new Callable<Integer>()
+                {
+                    public Integer call() throws MigrationException
+                    {
+                        return new Integer(
+                                MigrationUtil.doMigrations(systemName, settings, readiness));
+                    }
+                });
+                return;
+            }
 
             // The MigrationLauncher is responsible for handling the interaction
             // between the PatchTable and the underlying MigrationTasks; as each
@@ -124,11 +156,25 @@ public class WebAppMigrationLauncher implements ServletContextListener
     }
 
     /**
-     * {@inheritDoc}
+     * Waits up to {@link MigrationReadiness#SHUTDOWN_WAIT_MILLIS} for a
+     * background migration still in progress, so it isn't cut off mid-patch,
+     * and removes the migration metrics from JMX.
+     *
+     * @param sce the <code>ServletContextEvent</code> being handled
      */
     public void contextDestroyed(ServletContextEvent sce)
     {
         log.debug("context is being destroyed " + sce);
+        MigrationReadiness readiness = (MigrationReadiness)
+                sce.getServletContext().getAttribute(MigrationReadiness.ATTRIBUTE);
+        if ((readiness != null) && !readiness.isFinished())
+        {
+            log.warn("Context destroyed while the background migration is "
+                    + readiness.getState());
+        }
+        MigrationReadiness.join(migrationThread);
+        migrationThread = null;
+        MigrationMetrics.getDefault().unregisterMBean();
     }
 
 }
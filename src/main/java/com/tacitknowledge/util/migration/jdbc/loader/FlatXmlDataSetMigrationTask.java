@@ -20,6 +20,8 @@ import com.tacitknowledge.util.migration.MigrationException;
 import com.tacitknowledge.util.migration.MigrationTaskSupport;
 import com.tacitknowledge.util.migration.jdbc.JdbcMigrationContext;
 import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+import com.tacitknowledge.util.migration.metrics.MigrationTracing;
+import com.tacitknowledge.util.migration.metrics.TraceSpan;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dbunit.database.DatabaseConnection;
@@ -73,7 +75,20 @@ public class FlatXmlDataSetMigrationTask extends MigrationTaskSupport
 
             // run the data load
             IDatabaseConnection connection = new DatabaseConnection(contextConnection);
-            DatabaseOperation.INSERT.execute(connection, xmlDataSet);
+            TraceSpan span = MigrationTracing.begin(MigrationTracing.LOADER_BATCH, getName());
+            try
+            {
+                DatabaseOperation.INSERT.execute(connection, xmlDataSet);
+            }
+            catch (Exception e)
+            {
+                span.fail(e);
+                throw e;
+            }
+            finally
+            {
+                span.end();
+            }
             context.commit();
 
             // Closing here instead of in finally block to keep the signature of this from throwing
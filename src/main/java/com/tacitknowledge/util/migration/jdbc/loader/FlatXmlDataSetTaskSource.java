@@ -15,7 +15,7 @@
 
 package com.tacitknowledge.util.migration.jdbc.loader;
 
-import com.tacitknowledge.util.discovery.ClassDiscoveryUtil;
+import com.tacitknowledge.util.migration.ResourceDiscoveryCache;
 import com.tacitknowledge.util.migration.MigrationException;
 import com.tacitknowledge.util.migration.MigrationTask;
 import com.tacitknowledge.util.migration.MigrationTaskSource;
@@ -55,7 +55,7 @@ public class FlatXmlDataSetTaskSource implements MigrationTaskSource
     public List<MigrationTask> getMigrationTasks(String packageName) throws MigrationException
     {
         String path = packageName.replace('.', '/');
-        String[] xmlFiles = ClassDiscoveryUtil.getResources(path, XML_PATCH_REGEX);
+        String[] xmlFiles = ResourceDiscoveryCache.getResources(path, XML_PATCH_REGEX);
 
         log.debug("Found " + xmlFiles.length + " xml patch(es) in path: " + path);
         for (int i = 0; i < xmlFiles.length; i++)
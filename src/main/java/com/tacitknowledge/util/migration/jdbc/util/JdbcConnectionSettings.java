@@ -0,0 +1,170 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.jdbc.util;
+
+import java.util.Properties;
+
+/**
+ * The driver, URL and credentials of one JDBC data source definition.  Two
+ * settings are equal when all four values are, which is what lets a
+ * configuration hand out one data source for every system that points at the
+ * same database as the same user.
+ */
+public final class JdbcConnectionSettings
+{
+    /** The name of the database driver class */
+    private final String driverClass;
+
+    /** The JDBC URL of the database */
+    private final String databaseUrl;
+
+    /** The database user */
+    private final String username;
+
+    /** The database user's password */
+    private final String password;
+
+    /**
+     * Creates a new <code>JdbcConnectionSettings</code>.
+     *
+     * @param driverClass the name of the database driver class
+     * @param databaseUrl the JDBC URL of the database
+     * @param username    the database user
+     * @param password    the database user's password
+     */
+    public JdbcConnectionSettings(String driverClass, String databaseUrl, String username,
+            String password)
+    {
+        this.driverClass = driverClass;
+        this.databaseUrl = databaseUrl;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Reads the <code>driver</code>, <code>url</code>, <code>username</code> and
+     * <code>password</code> properties under the given prefix.
+     *
+     * @param props  the properties to read from
+     * @param prefix the property prefix, such as <code>mysystem.jdbc</code>
+     * @return the settings found under the prefix
+     * @throws IllegalArgumentException if one of the four properties is missing
+     */
+    public static JdbcConnectionSettings fromProperties(Properties props, String prefix)
+            throws IllegalArgumentException
+    {
+        return new JdbcConnectionSettings(
+                ConfigurationUtil.getRequiredParam(props, prefix + ".driver"),
+                ConfigurationUtil.getRequiredParam(props, prefix + ".url"),
+                ConfigurationUtil.getRequiredParam(props, prefix + ".username"),
+                ConfigurationUtil.getRequiredParam(props, prefix + ".password"));
+    }
+
+    /**
+     * Creates a <code>NonPooledDataSource</code> that connects with these settings.
+     *
+     * @return a new data source
+     */
+    public NonPooledDataSource createDataSource()
+    {
+        NonPooledDataSource dataSource = new NonPooledDataSource();
+        dataSource.setDriverClass(driverClass);
+        dataSource.setDatabaseUrl(databaseUrl);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        return dataSource;
+    }
+
+    /**
+     * @return the name of the database driver class
+     */
+    public String getDriverClass()
+    {
+        return driverClass;
+    }
+
+    /**
+     * @return the JDBC URL of the database
+     */
+    public String getDatabaseUrl()
+    {
+        return databaseUrl;
+    }
+
+    /**
+     * @return the database user
+     */
+    public String getUsername()
+    {
+        return username;
+    }
+
+    /**
+     * @return the database user's password
+     */
+    public String getPassword()
+    {
+        return password;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof JdbcConnectionSettings))
+        {
+            return false;
+        }
+        JdbcConnectionSettings other = (JdbcConnectionSettings) o;
+        return equal(driverClass, other.driverClass)
+                && equal(databaseUrl, other.databaseUrl)
+                && equal(username, other.username)
+                && equal(password, other.password);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode()
+    {
+        int result = hash(driverClass);
+        result = 31 * result + hash(databaseUrl);
+        result = 31 * result + hash(username);
+        return 31 * result + hash(password);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return "JdbcConnectionSettings[" + username + "@" + databaseUrl + " via " + driverClass + "]";
+    }
+
+    private static boolean equal(String a, String b)
+    {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    private static int hash(String s)
+    {
+        return (s == null) ? 0 : s.hashCode();
+    }
+}
@@ -0,0 +1,529 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc.util;
+
+import com.tacitknowledge.util.migration.CatalogFingerprint;
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.MigrationProcess;
+import com.tacitknowledge.util.migration.jdbc.DataSourceMigrationContext;
+import com.tacitknowledge.util.migration.jdbc.DatabaseType;
+import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncher;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Hands out freshly migrated embedded databases to test suites without
+ * replaying the patch catalog for each of them.
+ * <p>
+ * The first database asked for migrates a file-backed template database,
+ * shuts it down and keeps its files in the cache directory, under a name
+ * holding a fingerprint of the patches, the post-patch tasks and the SQL of
+ * the type of database.  Every database after that is a copy of those files,
+ * so setting one up costs a file copy instead of a migration.  Changing,
+ * adding or removing any of them changes the fingerprint, which makes the
+ * next run migrate a new template.
+ * <p>
+ * Each use of a snapshot touches its directory.  Snapshots of other
+ * catalogs are deleted once they have gone unused for the stale snapshot age,
+ * a day by default, so that other JVMs sharing the cache directory with an
+ * older or newer catalog keep theirs while they use them.
+ * <p>
+ * The type of database must say how its file databases are reached, with the
+ * <code>snapshot.driver</code>, <code>snapshot.url</code> (in which
+ * <code>{0}</code> stands for the path of the database files) and
+ * <code>snapshot.shutdown</code> properties; the <code>hsqldb</code> and
+ * <code>h2</code> types do.
+ */
+public class MigratedDatabaseCache
+{
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(MigratedDatabaseCache.class);
+
+    /**
+     * The name of the template database files within a snapshot
+     */
+    private static final String TEMPLATE = "template";
+
+    /**
+     * The name of the system being migrated
+     */
+    private final String systemName;
+
+    /**
+     * The type of the embedded databases
+     */
+    private final DatabaseType databaseType;
+
+    /**
+     * The directory holding the snapshots and the databases cloned from them
+     */
+    private final File cacheDirectory;
+
+    /**
+     * The colon-separated path of packages and directories holding the patches
+     */
+    private String patchPath = null;
+
+    /**
+     * The colon-separated path of packages and directories holding the
+     * post-patch tasks
+     */
+    private String postPatchPath = null;
+
+    /**
+     * The database user
+     */
+    private String username = "sa";
+
+    /**
+     * The database password
+     */
+    private String password = "";
+
+    /**
+     * How long, in milliseconds, the snapshot of another catalog must have gone
+     * unused before it is deleted
+     */
+    private long staleSnapshotAge = 24L * 60 * 60 * 1000;
+
+    /**
+     * The directory of the snapshot for the current catalog, once known
+     */
+    private File snapshotDirectory = null;
+
+    /**
+     * The databases handed out and not yet released, by name
+     */
+    private Map<String, NonPooledDataSource> databases = new HashMap<String, NonPooledDataSource>();
+
+    /**
+     * Creates a new <code>MigratedDatabaseCache</code>.
+     *
+     * @param systemName     the name of the system being migrated
+     * @param databaseType   the type of the embedded databases
+     * @param cacheDirectory the directory to keep snapshots and their clones in
+     */
+    public MigratedDatabaseCache(String systemName, DatabaseType databaseType, File cacheDirectory)
+    {
+        this.systemName = systemName;
+        this.databaseType = databaseType;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @return the colon-separated path of packages and directories holding the patches
+     */
+    public String getPatchPath()
+    {
+        return patchPath;
+    }
+
+    /**
+     * @param patchPath the colon-separated path of packages and directories
+     *                  holding the patches
+     */
+    public void setPatchPath(String patchPath)
+    {
+        this.patchPath = patchPath;
+    }
+
+    /**
+     * @return the colon-separated path of packages and directories holding the
+     *         post-patch tasks
+     */
+    public String getPostPatchPath()
+    {
+        return postPatchPath;
+    }
+
+    /**
+     * @param postPatchPath the colon-separated path of packages and directories
+     *                      holding the post-patch tasks
+     */
+    public void setPostPatchPath(String postPatchPath)
+    {
+        this.postPatchPath = postPatchPath;
+    }
+
+    /**
+     * @return the database user
+     */
+    public String getUsername()
+    {
+        return username;
+    }
+
+    /**
+     * @param username the database user
+     */
+    public void setUsername(String username)
+    {
+        this.username = username;
+    }
+
+    /**
+     * @return the database password
+     */
+    public String getPassword()
+    {
+        return password;
+    }
+
+    /**
+     * @param password the database password
+     */
+    public void setPassword(String password)
+    {
+        this.password = password;
+    }
+
+    /**
+     * @return how long, in milliseconds, the snapshot of another catalog must
+     *         have gone unused before it is deleted
+     */
+    public long getStaleSnapshotAge()
+    {
+        return staleSnapshotAge;
+    }
+
+    /**
+     * @param staleSnapshotAge how long, in milliseconds, the snapshot of
+     *                         another catalog must have gone unused before it
+     *                         is deleted
+     */
+    public void setStaleSnapshotAge(long staleSnapshotAge)
+    {
+        this.staleSnapshotAge = staleSnapshotAge;
+    }
+
+    /**
+     * Returns the directory holding the template migrated with the current
+     * patch catalog, migrating it first if no earlier run has.
+     *
+     * @return the directory of the snapshot
+     * @throws MigrationException if the template could not be migrated
+     */
+    public synchronized File getSnapshotDirectory() throws MigrationException
+    {
+        if (snapshotDirectory != null)
+        {
+            return snapshotDirectory;
+        }
+        JdbcMigrationLauncher launcher = new JdbcMigrationLauncher();
+        launcher.setMigrationProcess(launcher.getNewMigrationProcess());
+        launcher.setPatchPath(patchPath);
+        launcher.setPostPatchPath(postPatchPath);
+
+        String fingerprint = getFingerprint(launcher.getMigrationProcess());
+        File snapshot = new File(cacheDirectory, getSnapshotPrefix() + fingerprint);
+        if (!snapshot.isDirectory())
+        {
+            createSnapshot(launcher, snapshot);
+            removeStaleSnapshots(snapshot);
+        }
+        else if (!snapshot.setLastModified(System.currentTimeMillis()))
+        {
+            log.debug("Could not mark " + snapshot + " as in use");
+        }
+        snapshotDirectory = snapshot;
+        return snapshotDirectory;
+    }
+
+    /**
+     * Creates a migrated database by copying the snapshot of the current patch
+     * catalog.  A database of the same name handed out earlier is released
+     * and replaced.
+     *
+     * @param name the name of the database, unique among those in use at once
+     * @return a <code>DataSource</code> for the new database
+     * @throws MigrationException if the snapshot could not be made or copied
+     */
+    public synchronized NonPooledDataSource createDatabase(String name) throws MigrationException
+    {
+        File snapshot = getSnapshotDirectory();
+        release(name);
+
+        File clones = new File(new File(cacheDirectory, "clones"), systemName);
+        if (!clones.isDirectory() && !clones.mkdirs())
+        {
+            throw new MigrationException("Could not create directory " + clones);
+        }
+        File[] files = snapshot.listFiles();
+        for (int i = 0; i < files.length; i++)
+        {
+            String fileName = files[i].getName();
+            if (files[i].isFile() && fileName.startsWith(TEMPLATE + "."))
+            {
+                copy(files[i], new File(clones, name + fileName.substring(TEMPLATE.length())));
+            }
+        }
+
+        NonPooledDataSource dataSource = createDataSource(new File(clones, name));
+        databases.put(name, dataSource);
+        return dataSource;
+    }
+
+    /**
+     * Shuts down a database handed out by {@link #createDatabase(String)}.
+     * Nothing happens if no database of that name is in use.
+     *
+     * @param name the name of the database
+     * @throws MigrationException if the database could not be shut down
+     */
+    public synchronized void release(String name) throws MigrationException
+    {
+        NonPooledDataSource dataSource = databases.remove(name);
+        if (dataSource != null)
+        {
+            shutdown(dataSource);
+        }
+    }
+
+    /**
+     * Migrates a template database and moves its files to the snapshot
+     * directory.  The template is built next to the snapshot and moved in one
+     * step, so other JVMs sharing the cache never see it half made.
+     *
+     * @param launcher the launcher holding the patch catalog
+     * @param snapshot the directory to keep the snapshot in
+     * @throws MigrationException if the template could not be migrated
+     */
+    private void createSnapshot(JdbcMigrationLauncher launcher, File snapshot)
+        throws MigrationException
+    {
+        File work = new File(cacheDirectory, snapshot.getName() + ".tmp-" + System.nanoTime());
+        if (!work.mkdirs())
+        {
+            throw new MigrationException("Could not create directory " + work);
+        }
+        long startTime = System.currentTimeMillis();
+        try
+        {
+            NonPooledDataSource dataSource = createDataSource(new File(work, TEMPLATE));
+            DataSourceMigrationContext context = new DataSourceMigrationContext();
+            context.setDatabaseType(databaseType);
+            context.setSystemName(systemName);
+            context.setDataSource(dataSource);
+            launcher.addContext(context);
+            int patches = launcher.doMigrations();
+            shutdown(dataSource);
+            log.info("Migrated the template for " + systemName + " with " + patches
+                    + " patches in " + (System.currentTimeMillis() - startTime) + "ms");
+
+            if (!work.renameTo(snapshot) && !snapshot.isDirectory())
+            {
+                throw new MigrationException("Could not move " + work + " to " + snapshot);
+            }
+        }
+        finally
+        {
+            delete(work);
+        }
+    }
+
+    /**
+     * Deletes the snapshots of other patch catalogs that have gone unused for
+     * longer than the stale snapshot age.  Younger ones may still be in use by
+     * another JVM sharing the cache directory, and are kept.
+     *
+     * @param current the snapshot of the current patch catalog
+     */
+    private void removeStaleSnapshots(File current)
+    {
+        long now = System.currentTimeMillis();
+        File[] files = cacheDirectory.listFiles();
+        for (int i = 0; i < files.length; i++)
+        {
+            String fileName = files[i].getName();
+            if (fileName.startsWith(getSnapshotPrefix()) && (fileName.indexOf(".tmp-") < 0)
+                    && !files[i].equals(current)
+                    && (now - files[i].lastModified() > staleSnapshotAge))
+            {
+                log.info("Removing the unused snapshot " + files[i] + " of another patch catalog");
+                delete(files[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the start of the names of this system's snapshot directories
+     */
+    private String getSnapshotPrefix()
+    {
+        return systemName + "-" + databaseType.getDatabaseType() + "-";
+    }
+
+    /**
+     * Computes the fingerprint of everything that goes into a template: the
+     * patches, the post-patch tasks and the properties of the type of
+     * database.
+     *
+     * @param process the process migrating the template
+     * @return the fingerprint, as a hexadecimal string
+     * @throws MigrationException if the tasks could not be loaded
+     */
+    private String getFingerprint(MigrationProcess process) throws MigrationException
+    {
+        StringBuffer key = new StringBuffer();
+        key.append(process.getCatalogFingerprint()).append('\n');
+        key.append(CatalogFingerprint.compute(process.getPostPatchMigrationTasks())).append('\n');
+        key.append(databaseType.getDatabaseType()).append('\n');
+        for (String name : new TreeSet<String>(databaseType.getPropertyNames()))
+        {
+            key.append(name).append('=').append(databaseType.getProperty(name)).append('\n');
+        }
+        return CatalogFingerprint.checksum(key.toString());
+    }
+
+    /**
+     * Creates a <code>DataSource</code> for the file database at the given path.
+     *
+     * @param path the path of the database files, without their extensions
+     * @return a <code>DataSource</code> for the database
+     * @throws MigrationException if the type of database has no file databases
+     */
+    private NonPooledDataSource createDataSource(File path) throws MigrationException
+    {
+        String driver = databaseType.getProperty("snapshot.driver");
+        String url = databaseType.getProperty("snapshot.url");
+        if ((driver == null) || (url == null))
+        {
+            throw new MigrationException("Database type " + databaseType.getDatabaseType()
+                    + " does not support cached snapshots");
+        }
+        NonPooledDataSource dataSource = new NonPooledDataSource();
+        dataSource.setDriverClass(driver);
+        dataSource.setDatabaseUrl(url.replace("{0}", path.getAbsolutePath()));
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        return dataSource;
+    }
+
+    /**
+     * Shuts down the database, so that its files are complete and released.
+     *
+     * @param dataSource the database to shut down
+     * @throws MigrationException if the database could not be shut down
+     */
+    private void shutdown(NonPooledDataSource dataSource) throws MigrationException
+    {
+        Connection conn = null;
+        Statement stmt = null;
+        try
+        {
+            conn = dataSource.getConnection();
+            stmt = conn.createStatement();
+            stmt.execute(databaseType.getProperty("snapshot.shutdown"));
+        }
+        catch (SQLException e)
+        {
+            throw new MigrationException("Could not shut down " + dataSource, e);
+        }
+        finally
+        {
+            SqlUtil.close(conn, stmt, null);
+        }
+    }
+
+    /**
+     * Copies a file.
+     *
+     * @param from the file to copy
+     * @param to   the copy, replaced if it exists
+     * @throws MigrationException if the file could not be copied
+     */
+    private static void copy(File from, File to) throws MigrationException
+    {
+        FileChannel in = null;
+        FileChannel out = null;
+        try
+        {
+            in = new FileInputStream(from).getChannel();
+            out = new FileOutputStream(to).getChannel();
+            long size = in.size();
+            long position = 0;
+            while (position < size)
+            {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new MigrationException("Could not copy " + from + " to " + to, e);
+        }
+        finally
+        {
+            close(in);
+            close(out);
+        }
+    }
+
+    /**
+     * Closes a file channel, ignoring any error.
+     *
+     * @param channel the channel to close; may be <code>null</code>
+     */
+    private static void close(FileChannel channel)
+    {
+        if (channel == null)
+        {
+            return;
+        }
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            log.debug("Could not close " + channel, e);
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     *
+     * @param file the file or directory to delete
+     */
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (int i = 0; i < children.length; i++)
+            {
+                delete(children[i]);
+            }
+        }
+        if (file.exists() && !file.delete())
+        {
+            log.warn("Could not delete " + file);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.tacitknowledge.util.migration.MigrationException;
 import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncher;
 import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncherFactory;
 import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncherFactoryLoader;
+import com.tacitknowledge.util.migration.jdbc.MigrationReadiness;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -39,11 +40,28 @@ public class MigrationUtil
      * @throws MigrationException
      */
     public static void doMigrations(final ServletContextEvent sce) throws MigrationException
+    {
+        doMigrations(sce, null);
+    }
+
+    /**
+     * Helper method to initiate the migration process, telling a readiness
+     * when it waits for the patch lock.
+     *
+     * @param sce       the <code>ServletContextEvent</code> being handled
+     * @param readiness told when the migration waits for the patch lock, or
+     *                  <code>null</code>
+     * @return the number of patches applied
+     * @throws MigrationException
+     */
+    public static int doMigrations(final ServletContextEvent sce,
+            final MigrationReadiness readiness) throws MigrationException
     {
         JdbcMigrationLauncherFactory launcherFactory =
                 new JdbcMigrationLauncherFactoryLoader().createFactory();
         JdbcMigrationLauncher launcher = launcherFactory.createMigrationLauncher(sce);
-        launcher.doMigrations();
+        launcher.setReadiness(readiness);
+        return launcher.doMigrations();
     }
 
     /**
@@ -55,6 +73,24 @@ public class MigrationUtil
      */
     public static void doMigrations(final String migrationSystemName,
             final String migrationSettings) throws MigrationException
+    {
+        doMigrations(migrationSystemName, migrationSettings, null);
+    }
+
+    /**
+     * Helper method to initiate the migration process, telling a readiness
+     * when it waits for the patch lock.
+     *
+     * @param migrationSystemName the name of the system to migrate
+     * @param migrationSettings   additional properties for migration
+     * @param readiness           told when the migration waits for the patch lock,
+     *                            or <code>null</code>
+     * @return the number of patches applied
+     * @throws MigrationException
+     */
+    public static int doMigrations(final String migrationSystemName,
+            final String migrationSettings, final MigrationReadiness readiness)
+            throws MigrationException
     {
         JdbcMigrationLauncherFactory launcherFactory = new JdbcMigrationLauncherFactoryLoader()
                 .createFactory();
@@ -72,7 +108,8 @@ public class MigrationUtil
                     migrationSettings);
         }
 
-        launcher.doMigrations();
+        launcher.setReadiness(readiness);
+        return launcher.doMigrations();
     }
 
     /**
@@ -0,0 +1,141 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+/**
+ * An immutable summary of a <code>LatencyHistogram</code>, in milliseconds.
+ */
+public final class HistogramSnapshot
+{
+    /** Nanoseconds per millisecond */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /** The number of values recorded */
+    private final long count;
+
+    /** The sum of the values, in nanoseconds */
+    private final long sumNanos;
+
+    /** The median, in nanoseconds */
+    private final long p50Nanos;
+
+    /** The 90th percentile, in nanoseconds */
+    private final long p90Nanos;
+
+    /** The 99th percentile, in nanoseconds */
+    private final long p99Nanos;
+
+    /** The 99.9th percentile, in nanoseconds */
+    private final long p999Nanos;
+
+    /** The largest value, in nanoseconds */
+    private final long maxNanos;
+
+    /**
+     * Creates a new <code>HistogramSnapshot</code>.
+     *
+     * @param count     the number of values recorded
+     * @param sumNanos  the sum of the values, in nanoseconds
+     * @param p50Nanos  the median, in nanoseconds
+     * @param p90Nanos  the 90th percentile, in nanoseconds
+     * @param p99Nanos  the 99th percentile, in nanoseconds
+     * @param p999Nanos the 99.9th percentile, in nanoseconds
+     * @param maxNanos  the largest value, in nanoseconds
+     */
+    HistogramSnapshot(long count, long sumNanos, long p50Nanos, long p90Nanos, long p99Nanos,
+            long p999Nanos, long maxNanos)
+    {
+        this.count = count;
+        this.sumNanos = sumNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return the sum of the values, in milliseconds
+     */
+    public double getTotalMillis()
+    {
+        return sumNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return the mean value, in milliseconds
+     */
+    public double getMeanMillis()
+    {
+        return (count == 0) ? 0 : getTotalMillis() / count;
+    }
+
+    /**
+     * @return the median, in milliseconds
+     */
+    public double getP50Millis()
+    {
+        return p50Nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return the 90th percentile, in milliseconds
+     */
+    public double getP90Millis()
+    {
+        return p90Nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return the 99th percentile, in milliseconds
+     */
+    public double getP99Millis()
+    {
+        return p99Nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return the 99.9th percentile, in milliseconds
+     */
+    public double getP999Millis()
+    {
+        return p999Nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return the largest value, in milliseconds
+     */
+    public double getMaxMillis()
+    {
+        return maxNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return "count=" + count + " mean=" + getMeanMillis() + "ms p50=" + getP50Millis()
+                + "ms p99=" + getP99Millis() + "ms max=" + getMaxMillis() + "ms";
+    }
+}
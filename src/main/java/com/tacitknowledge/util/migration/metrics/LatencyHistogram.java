@@ -0,0 +1,236 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with log-linear buckets, in the style of
+ * HdrHistogram.  Every power of two is split into 32 equal buckets, so any
+ * recorded value is reported within about 3% of its true value, across the
+ * whole range from nanoseconds to days, in a fixed 15KB of counters.
+ * <p/>
+ * Values are recorded in nanoseconds; negative values are recorded as 0.
+ */
+public final class LatencyHistogram
+{
+    /**
+     * The number of bits of each value kept exactly
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * The number of buckets each power of two is split into
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Enough buckets for every non-negative long
+     */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * The number of values recorded in each bucket
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The number of values recorded
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of the values recorded
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * The largest value recorded
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * The histogram every value is also recorded in, or <code>null</code>
+     */
+    private final LatencyHistogram parent;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram()
+    {
+        this(null);
+    }
+
+    /**
+     * Creates an empty histogram that also records every value in another.
+     *
+     * @param parent the histogram to record values in as well, or <code>null</code>
+     */
+    public LatencyHistogram(LatencyHistogram parent)
+    {
+        this.parent = parent;
+    }
+
+    /**
+     * Records one value.
+     *
+     * @param nanos the value, in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value))
+        {
+            current = max.get();
+        }
+        if (parent != null)
+        {
+            parent.record(value);
+        }
+    }
+
+    /**
+     * Records the time elapsed since the given <code>System.nanoTime()</code>.
+     *
+     * @param startNanos the start time, as returned by <code>System.nanoTime()</code>
+     * @return the time elapsed, in nanoseconds
+     */
+    public long recordSince(long startNanos)
+    {
+        long elapsed = System.nanoTime() - startNanos;
+        record(elapsed);
+        return elapsed;
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of the values recorded, in nanoseconds
+     */
+    public long getSumNanos()
+    {
+        return sum.get();
+    }
+
+    /**
+     * @return the largest value recorded, in nanoseconds
+     */
+    public long getMaxNanos()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values
+     * fall, as the highest value of the bucket it was found in.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the value at the percentile, in nanoseconds; 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long total = count.get();
+        if (total == 0)
+        {
+            return 0;
+        }
+        double clamped = Math.min(100.0, Math.max(0.0, percentile));
+        long target = Math.max(1, (long) Math.ceil(clamped / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= target)
+            {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return a point-in-time view of this histogram
+     */
+    public HistogramSnapshot snapshot()
+    {
+        return new HistogramSnapshot(getCount(), getSumNanos(), getValueAtPercentile(50),
+                getValueAtPercentile(90), getValueAtPercentile(99), getValueAtPercentile(99.9),
+                getMaxNanos());
+    }
+
+    /**
+     * Forgets every value recorded so far.  Values recorded while resetting
+     * may be partly kept.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns the bucket the given value is counted in.
+     *
+     * @param value a non-negative value
+     * @return the index of its bucket
+     */
+    static int indexOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value counted in the given bucket.
+     *
+     * @param index the index of the bucket
+     * @return the highest value of the bucket
+     */
+    static long highestValueOf(int index)
+    {
+        int bucket = index / SUB_BUCKETS;
+        long subBucket = index % SUB_BUCKETS;
+        if (bucket == 0)
+        {
+            return subBucket;
+        }
+        int shift = bucket - 1;
+        long next = (SUB_BUCKETS + subBucket + 1) << shift;
+        return (next < 0) ? Long.MAX_VALUE : next - 1;
+    }
+}
@@ -0,0 +1,89 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A <code>MigrationTracer</code> that logs every span as it ends, with its
+ * thread, start time and duration, which is enough to rebuild the timeline of a
+ * slow deploy from its log.  Spans are logged at INFO, failed ones at WARN.
+ */
+public class LoggingMigrationTracer implements MigrationTracer
+{
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(LoggingMigrationTracer.class);
+
+    /**
+     * {@inheritDoc}
+     */
+    public TraceSpan begin(String category, String name)
+    {
+        return new LoggedSpan(category, name);
+    }
+
+    /**
+     * A span that logs itself when it ends.
+     */
+    private static final class LoggedSpan implements TraceSpan
+    {
+        /** Nanoseconds per microsecond */
+        private static final long NANOS_PER_MICRO = 1000L;
+
+        /** The category of the span */
+        private final String category;
+
+        /** What is being done */
+        private final String name;
+
+        /** When the span began, in milliseconds since the epoch */
+        private final long startMillis = System.currentTimeMillis();
+
+        /** When the span began, as returned by <code>System.nanoTime()</code> */
+        private final long startNanos = System.nanoTime();
+
+        /** Why the work failed, if it did */
+        private Throwable failure = null;
+
+        LoggedSpan(String category, String name)
+        {
+            this.category = category;
+            this.name = name;
+        }
+
+        public void fail(Throwable cause)
+        {
+            failure = cause;
+        }
+
+        public void end()
+        {
+            long micros = (System.nanoTime() - startNanos) / NANOS_PER_MICRO;
+            String message = "trace " + category + " [" + Thread.currentThread().getName()
+                    + "] start=" + startMillis + " duration=" + micros + "us " + name;
+            if (failure != null)
+            {
+                log.warn(message + " failed: " + failure);
+            }
+            else
+            {
+                log.info(message);
+            }
+        }
+    }
+}
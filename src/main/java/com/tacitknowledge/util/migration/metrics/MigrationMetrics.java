@@ -0,0 +1,307 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named latency histograms and counters describing how migrations perform.
+ * Each launcher records into a registry of its own, which also records into the
+ * {@link #getDefault() default} registry, so one system's metrics can be written
+ * out for Prometheus with {@link PrometheusTextWriter} while the default one,
+ * published over JMX with {@link #registerMBean()}, covers every system.
+ * <p/>
+ * Histograms and counters are created the first time they are asked for, and
+ * every method may be called from any thread.
+ */
+public final class MigrationMetrics implements MigrationMetricsMXBean
+{
+    /**
+     * How long each patch task took to apply
+     */
+    public static final String PATCH_DURATION = "patch_duration";
+
+    /**
+     * How long each patch task took to roll back
+     */
+    public static final String ROLLBACK_DURATION = "rollback_duration";
+
+    /**
+     * How long each SQL statement of a script took to execute
+     */
+    public static final String STATEMENT_LATENCY = "statement_latency";
+
+    /**
+     * How long each launcher waited to lock its patch store
+     */
+    public static final String LOCK_WAIT = "lock_wait";
+
+    /**
+     * How long each search for patch tasks took
+     */
+    public static final String DISCOVERY_DURATION = "discovery_duration";
+
+    /**
+     * How long each new database connection took to open
+     */
+    public static final String CONNECTION_ACQUISITION = "connection_acquisition";
+
+    /**
+     * The number of patch tasks applied
+     */
+    public static final String PATCHES_APPLIED = "patches_applied";
+
+    /**
+     * The number of patch tasks that failed, applying or rolling back
+     */
+    public static final String PATCHES_FAILED = "patches_failed";
+
+    /**
+     * The number of patch tasks rolled back
+     */
+    public static final String PATCHES_ROLLED_BACK = "patches_rolled_back";
+
+    /**
+     * The name the default registry is published under in JMX
+     */
+    public static final String OBJECT_NAME = "com.tacitknowledge.autopatch:type=MigrationMetrics";
+
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(MigrationMetrics.class);
+
+    /**
+     * The registry AutoPatch records into
+     */
+    private static final MigrationMetrics DEFAULT = new MigrationMetrics();
+
+    /**
+     * The histograms, by name
+     */
+    private final ConcurrentMap<String, LatencyHistogram> histograms =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /**
+     * The counters, by name
+     */
+    private final ConcurrentMap<String, AtomicLong> counters =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * The name this registry was published under in JMX, or <code>null</code>
+     */
+    private ObjectName registeredName = null;
+
+    /**
+     * The registry every sample is also recorded in, or <code>null</code>
+     */
+    private final MigrationMetrics parent;
+
+    /**
+     * Creates an empty registry.
+     */
+    public MigrationMetrics()
+    {
+        this(null);
+    }
+
+    /**
+     * Creates an empty registry that also records every sample in another.
+     *
+     * @param parent the registry to record samples in as well, or <code>null</code>
+     */
+    public MigrationMetrics(MigrationMetrics parent)
+    {
+        this.parent = parent;
+    }
+
+    /**
+     * @return the registry AutoPatch records into
+     */
+    public static MigrationMetrics getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if needed.
+     *
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String name)
+    {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null)
+        {
+            LatencyHistogram created = new LatencyHistogram(
+                    (parent == null) ? null : parent.histogram(name));
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null)
+            {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public AtomicLong counter(String name)
+    {
+        AtomicLong counter = counters.get(name);
+        if (counter == null)
+        {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null)
+            {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Adds one to the counter with the given name, and to the parent
+     * registry's counter of the same name.  Counters of a registry with a
+     * parent should be counted through this method rather than
+     * {@link #counter(String)}, which only returns this registry's own count.
+     *
+     * @param name the name of the counter
+     * @return the new count of this registry
+     */
+    public long increment(String name)
+    {
+        if (parent != null)
+        {
+            parent.increment(name);
+        }
+        return counter(name).incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getCounters()
+    {
+        Map<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet())
+        {
+            values.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+        }
+        return values;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, HistogramSnapshot> getHistograms()
+    {
+        Map<String, HistogramSnapshot> snapshots = new TreeMap<String, HistogramSnapshot>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet())
+        {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset()
+    {
+        for (LatencyHistogram histogram : histograms.values())
+        {
+            histogram.reset();
+        }
+        for (AtomicLong counter : counters.values())
+        {
+            counter.set(0);
+        }
+    }
+
+    /**
+     * Publishes this registry in the platform MBean server under
+     * <code>OBJECT_NAME</code>, unless something already is.
+     *
+     * @return <code>true</code> if this call registered it
+     */
+    public synchronized boolean registerMBean()
+    {
+        try
+        {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredName = name;
+            log.info("Migration metrics published in JMX as " + OBJECT_NAME);
+            return true;
+        }
+        catch (InstanceAlreadyExistsException e)
+        {
+            return false;
+        }
+        catch (JMException e)
+        {
+            log.warn("Could not publish migration metrics in JMX", e);
+            return false;
+        }
+    }
+
+    /**
+     * Removes this registry from the platform MBean server, if
+     * {@link #registerMBean()} put it there.  Web applications call this as
+     * they stop, so the MBean server doesn't keep their class loader alive.
+     *
+     * @return <code>true</code> if this call unregistered it
+     */
+    public synchronized boolean unregisterMBean()
+    {
+        if (registeredName == null)
+        {
+            return false;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            return true;
+        }
+        catch (JMException e)
+        {
+            log.warn("Could not remove migration metrics from JMX", e);
+            return false;
+        }
+        finally
+        {
+            registeredName = null;
+        }
+    }
+}
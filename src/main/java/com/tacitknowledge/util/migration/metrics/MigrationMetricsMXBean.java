@@ -0,0 +1,38 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a <code>MigrationMetrics</code> registry.
+ */
+public interface MigrationMetricsMXBean
+{
+    /**
+     * @return the value of every counter, by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return a summary of every latency histogram, by name
+     */
+    Map<String, HistogramSnapshot> getHistograms();
+
+    /**
+     * Forgets every value recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,36 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+/**
+ * Receives a span for each step of a migration run, so its timeline can be
+ * recorded alongside the rest of the application's, for example as JDK Flight
+ * Recorder events with the <code>JfrMigrationTracer</code> of the separately
+ * built autopatch-jfr module.  Install one with {@link MigrationTracing#setTracer}
+ * or the <code>autopatch.tracer</code> system property.
+ * <p/>
+ * Spans may be begun from several threads at once.
+ */
+public interface MigrationTracer
+{
+    /**
+     * Begins a span.
+     *
+     * @param category one of the <code>MigrationTracing</code> categories
+     * @param name     what is being done, such as the task label or the SQL
+     * @return the span, to be ended when the work is done
+     */
+    TraceSpan begin(String category, String name);
+}
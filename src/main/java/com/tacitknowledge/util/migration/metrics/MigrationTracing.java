@@ -0,0 +1,166 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Hands out trace spans from the installed <code>MigrationTracer</code>.  With
+ * no tracer installed, which is the default, {@link #begin} costs one volatile
+ * read and returns a shared span that does nothing.
+ * <p/>
+ * A tracer can be installed in code, or by naming a class with a public no-arg
+ * constructor in the <code>autopatch.tracer</code> system property.
+ */
+public final class MigrationTracing
+{
+    /**
+     * The system property naming the tracer class to install
+     */
+    public static final String TRACER_PROPERTY = "autopatch.tracer";
+
+    /**
+     * Searching the class path for patch tasks
+     */
+    public static final String DISCOVERY = "discovery";
+
+    /**
+     * Working out which patch tasks a context needs
+     */
+    public static final String PLANNING = "planning";
+
+    /**
+     * Waiting for and taking the patch store lock
+     */
+    public static final String LOCK = "lock";
+
+    /**
+     * Opening a database connection
+     */
+    public static final String CONNECTION = "connection";
+
+    /**
+     * A patch task's <code>migrate</code>
+     */
+    public static final String MIGRATE = "migrate";
+
+    /**
+     * A patch task's <code>down</code>
+     */
+    public static final String ROLLBACK = "down";
+
+    /**
+     * One SQL statement of a script
+     */
+    public static final String STATEMENT = "statement";
+
+    /**
+     * One batch of rows written by a data loader
+     */
+    public static final String LOADER_BATCH = "loader-batch";
+
+    /**
+     * Class logger
+     */
+    private static Log log = LogFactory.getLog(MigrationTracing.class);
+
+    /**
+     * The span handed out while no tracer is installed
+     */
+    private static final TraceSpan NO_SPAN = new TraceSpan()
+    {
+        public void fail(Throwable cause)
+        {
+            // nothing is being traced
+        }
+
+        public void end()
+        {
+            // nothing is being traced
+        }
+    };
+
+    /**
+     * The installed tracer, or <code>null</code>
+     */
+    private static volatile MigrationTracer tracer =
+            createTracer(System.getProperty(TRACER_PROPERTY));
+
+    /**
+     * Shouldn't be used
+     */
+    private MigrationTracing()
+    {
+        // do nothing
+    }
+
+    /**
+     * Begins a span with the installed tracer.
+     *
+     * @param category one of the categories of this class
+     * @param name     what is being done
+     * @return the span, to be ended when the work is done
+     */
+    public static TraceSpan begin(String category, String name)
+    {
+        MigrationTracer current = tracer;
+        return (current == null) ? NO_SPAN : current.begin(category, name);
+    }
+
+    /**
+     * @return the installed tracer, or <code>null</code> if tracing is off
+     */
+    public static MigrationTracer getTracer()
+    {
+        return tracer;
+    }
+
+    /**
+     * Installs a tracer.
+     *
+     * @param migrationTracer the tracer, or <code>null</code> to turn tracing off
+     */
+    public static void setTracer(MigrationTracer migrationTracer)
+    {
+        tracer = migrationTracer;
+    }
+
+    /**
+     * Instantiates the named tracer class.
+     *
+     * @param className the tracer class, or <code>null</code>
+     * @return the tracer, or <code>null</code> if none was named or it can't be created
+     */
+    static MigrationTracer createTracer(String className)
+    {
+        if ((className == null) || (className.trim().length() == 0))
+        {
+            return null;
+        }
+        try
+        {
+            Class c = Class.forName(className.trim(), true,
+                    Thread.currentThread().getContextClassLoader());
+            log.info("Tracing migrations with " + className);
+            return (MigrationTracer) c.newInstance();
+        }
+        catch (Exception e)
+        {
+            log.warn("Could not create migration tracer " + className + ", tracing is off", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes a <code>MigrationMetrics</code> registry in the Prometheus text
+ * exposition format.  Histograms become summaries in seconds, with the 0.5,
+ * 0.9, 0.99 and 0.999 quantiles; counters get a <code>_total</code> suffix.
+ * Every metric name is prefixed with <code>autopatch_</code>.
+ * <p/>
+ * {@link #writeFile} replaces the file atomically, so it can be picked up by the
+ * node exporter's textfile collector while migrations run.
+ */
+public final class PrometheusTextWriter
+{
+    /**
+     * The prefix of every metric name
+     */
+    public static final String PREFIX = "autopatch_";
+
+    /**
+     * Milliseconds per second
+     */
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    /**
+     * Shouldn't be used
+     */
+    private PrometheusTextWriter()
+    {
+        // do nothing
+    }
+
+    /**
+     * Writes the metrics to the given writer.
+     *
+     * @param metrics the metrics to write
+     * @param writer  where to write them
+     */
+    public static void write(MigrationMetrics metrics, Writer writer)
+    {
+        PrintWriter out = new PrintWriter(writer);
+        for (Map.Entry<String, HistogramSnapshot> entry : metrics.getHistograms().entrySet())
+        {
+            String name = PREFIX + sanitize(entry.getKey()) + "_seconds";
+            HistogramSnapshot snapshot = entry.getValue();
+            out.print("# TYPE " + name + " summary\n");
+            writeQuantile(out, name, "0.5", snapshot.getP50Millis());
+            writeQuantile(out, name, "0.9", snapshot.getP90Millis());
+            writeQuantile(out, name, "0.99", snapshot.getP99Millis());
+            writeQuantile(out, name, "0.999", snapshot.getP999Millis());
+            out.print(name + "_sum " + snapshot.getTotalMillis() / MILLIS_PER_SECOND + "\n");
+            out.print(name + "_count " + snapshot.getCount() + "\n");
+        }
+        for (Map.Entry<String, Long> entry : metrics.getCounters().entrySet())
+        {
+            String name = PREFIX + sanitize(entry.getKey()) + "_total";
+            out.print("# TYPE " + name + " counter\n");
+            out.print(name + " " + entry.getValue() + "\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * Replaces the given file with the current metrics.  The metrics are written
+     * to a temporary file in the same directory first, then renamed into place.
+     *
+     * @param metrics the metrics to write
+     * @param file    the file to replace
+     * @throws IOException if the file can't be written
+     */
+    public static void writeFile(MigrationMetrics metrics, File file) throws IOException
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+        try
+        {
+            write(metrics, writer);
+        }
+        finally
+        {
+            writer.close();
+        }
+        if (!temp.renameTo(file))
+        {
+            // Windows won't rename over an existing file
+            file.delete();
+            if (!temp.renameTo(file))
+            {
+                temp.delete();
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+
+    /**
+     * Writes one quantile line of a summary.
+     *
+     * @param out      where to write it
+     * @param name     the name of the summary
+     * @param quantile the quantile
+     * @param millis   the value at the quantile, in milliseconds
+     */
+    private static void writeQuantile(PrintWriter out, String name, String quantile, double millis)
+    {
+        out.print(name + "{quantile=\"" + quantile + "\"} " + millis / MILLIS_PER_SECOND + "\n");
+    }
+
+    /**
+     * Replaces the characters Prometheus doesn't allow in metric names.
+     *
+     * @param name a metric name
+     * @return the name with anything but letters, digits and underscores replaced
+     */
+    private static String sanitize(String name)
+    {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+}
@@ -0,0 +1,35 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+/**
+ * One timed piece of migration work, such as a patch task or a SQL statement,
+ * as reported to a <code>MigrationTracer</code>.
+ */
+public interface TraceSpan
+{
+    /**
+     * Marks the work as failed.  The span still has to be ended.
+     *
+     * @param cause why the work failed
+     */
+    void fail(Throwable cause);
+
+    /**
+     * Marks the end of the work.  Called exactly once, from the thread that
+     * began the span.
+     */
+    void end();
+}
@@ -0,0 +1,82 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.jdbc.SqlScriptMigrationTask;
+import com.tacitknowledge.util.migration.tasks.normal.TestMigrationTask2;
+import com.tacitknowledge.util.migration.tasks.normal.TestMigrationTask3;
+
+/**
+ * Tests the {@link CatalogFingerprint} class.
+ */
+public class CatalogFingerprintTest extends TestCase
+{
+    public void testFingerprintIgnoresTaskOrder()
+    {
+        List<MigrationTask> tasks = new ArrayList<MigrationTask>();
+        tasks.add(new TestMigrationTask2());
+        tasks.add(new TestMigrationTask3());
+        List<MigrationTask> reversed = new ArrayList<MigrationTask>();
+        reversed.add(new TestMigrationTask3());
+        reversed.add(new TestMigrationTask2());
+
+        assertEquals(CatalogFingerprint.compute(tasks), CatalogFingerprint.compute(reversed));
+    }
+
+    public void testFingerprintChangesWhenScriptContentChanges()
+    {
+        List<MigrationTask> tasks = new ArrayList<MigrationTask>();
+        tasks.add(new SqlScriptMigrationTask("patch0001_test", 1, "CREATE TABLE a (id INT)"));
+        List<MigrationTask> changed = new ArrayList<MigrationTask>();
+        changed.add(new SqlScriptMigrationTask("patch0001_test", 1, "CREATE TABLE b (id INT)"));
+
+        assertFalse(CatalogFingerprint.compute(tasks).equals(CatalogFingerprint.compute(changed)));
+    }
+
+    public void testFingerprintChangesWhenTaskIsAdded()
+    {
+        List<MigrationTask> tasks = new ArrayList<MigrationTask>();
+        tasks.add(new TestMigrationTask2());
+        String before = CatalogFingerprint.compute(tasks);
+        tasks.add(new TestMigrationTask3());
+
+        assertFalse(before.equals(CatalogFingerprint.compute(tasks)));
+    }
+
+    public void testFingerprintCoversByteCodeOfJavaTasks()
+    {
+        TestMigrationTask2 task = new TestMigrationTask2();
+        List<MigrationTask> tasks = new ArrayList<MigrationTask>();
+        tasks.add(task);
+
+        String catalog = task.getLevel() + ":" + task.getName() + ":"
+                + CatalogFingerprint.checksum(TestMigrationTask2.class) + "\n";
+        assertEquals(CatalogFingerprint.checksum(catalog), CatalogFingerprint.compute(tasks));
+        assertFalse(CatalogFingerprint.checksum(TestMigrationTask2.class)
+                .equals(CatalogFingerprint.checksum(TestMigrationTask2.class.getName())));
+    }
+
+        public void testChecksumIsHexEncodedMd5()
+    {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", CatalogFingerprint.checksum(""));
+        assertEquals(CatalogFingerprint.checksum(""), CatalogFingerprint.checksum((String) null));
+    }
+}
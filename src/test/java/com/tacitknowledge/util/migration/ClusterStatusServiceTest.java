@@ -0,0 +1,113 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.builders.MockBuilder;
+import com.tacitknowledge.util.migration.tasks.normal.TestMigrationTask1;
+import com.tacitknowledge.util.migration.tasks.normal.TestMigrationTask2;
+import com.tacitknowledge.util.migration.tasks.normal.TestMigrationTask3;
+
+/**
+ * Tests the {@link ClusterStatusService} and the snapshot it returns.
+ */
+public class ClusterStatusServiceTest extends TestCase
+{
+    public void testEveryContextIsReadAndComparedWithTheCatalog() throws MigrationException
+    {
+        TestMigrationContext upToDate = new TestMigrationContext();
+        TestMigrationContext missingOne = new TestMigrationContext();
+        TestMigrationContext fresh = new TestMigrationContext();
+        LinkedHashMap<MigrationContext, PatchInfoStore> stores =
+                new LinkedHashMap<MigrationContext, PatchInfoStore>();
+        stores.put(upToDate, MockBuilder.getPatchInfoStore(6, levels(new int[] {4, 5, 6})));
+        stores.put(missingOne, MockBuilder.getPatchInfoStore(6, levels(new int[] {4, 6})));
+        stores.put(fresh, MockBuilder.getPatchInfoStore(0, levels(new int[0])));
+
+        List<MigrationTask> tasks = new ArrayList<MigrationTask>();
+        tasks.add(new TestMigrationTask3());
+        tasks.add(new TestMigrationTask1());
+        tasks.add(new TestMigrationTask2());
+
+        ClusterStatus status = new ClusterStatusService(new MissingPatchMigrationRunnerStrategy(), 2)
+                .getClusterStatus(stores, tasks);
+
+        assertEquals(7, status.getNextPatchLevel());
+        assertEquals(3, status.getContextStatuses().size());
+        assertSame(upToDate, status.getContextStatuses().get(0).getContext());
+        assertSame(fresh, status.getContextStatuses().get(2).getContext());
+
+        ContextStatus missingOneStatus = status.getStatus(missingOne);
+        assertEquals(6, missingOneStatus.getPatchLevel());
+        assertEquals(PatchLevelSet.of(new int[] {4, 6}), missingOneStatus.getAppliedLevels());
+        assertFalse(missingOneStatus.isLocked());
+        assertEquals(1, missingOneStatus.getPendingCount());
+        assertEquals(5, missingOneStatus.getPendingTasks().get(0).getLevel().intValue());
+
+        assertEquals(0, status.getStatus(upToDate).getPendingCount());
+        assertEquals(3, status.getStatus(fresh).getPendingCount());
+        assertEquals(4, status.getStatus(fresh).getPendingTasks().get(0).getLevel().intValue());
+    }
+
+    public void testSnapshotIsNotChangedByLaterStoreChanges() throws MigrationException
+    {
+        TestMigrationContext context = new TestMigrationContext();
+        LinkedHashMap<MigrationContext, PatchInfoStore> stores =
+                new LinkedHashMap<MigrationContext, PatchInfoStore>();
+        stores.put(context, MockBuilder.getPatchInfoStore(4, levels(new int[] {4})));
+
+        ClusterStatus status = new ClusterStatusService(new OrderedMigrationRunnerStrategy())
+                .getClusterStatus(stores, new ArrayList<MigrationTask>());
+
+        // the strict mock only answers getPatchesApplied() once, so this is the snapshot
+        assertEquals(PatchLevelSet.of(new int[] {4}), status.getStatus(context).getAppliedLevels());
+        assertEquals(1, status.getNextPatchLevel());
+        try
+        {
+            status.getContextStatuses().clear();
+            fail("Cluster status should not be modifiable");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+    }
+
+    public void testNoContextsGiveAnEmptyStatus() throws MigrationException
+    {
+        ClusterStatus status = new ClusterStatusService(new OrderedMigrationRunnerStrategy())
+                .getClusterStatus(new LinkedHashMap<MigrationContext, PatchInfoStore>(),
+                        new ArrayList<MigrationTask>());
+        assertTrue(status.getContextStatuses().isEmpty());
+    }
+
+    private Set<Integer> levels(int[] levels)
+    {
+        Set<Integer> set = new HashSet<Integer>();
+        for (int i = 0; i < levels.length; i++)
+        {
+            set.add(new Integer(levels[i]));
+        }
+        return set;
+    }
+}
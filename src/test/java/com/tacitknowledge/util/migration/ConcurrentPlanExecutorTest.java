@@ -0,0 +1,217 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncher;
+
+/**
+ * Tests the {@link ConcurrentPlanExecutor} class.
+ */
+public class ConcurrentPlanExecutorTest extends TestCase
+{
+    /**
+     * The order in which tasks started and finished, across all systems
+     */
+    private List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * The launchers of the controlled systems, keyed by system name
+     */
+    private Map<String, JdbcMigrationLauncher> launchers = new HashMap<String, JdbcMigrationLauncher>();
+
+    /**
+     * The launcher each task was loaded from
+     */
+    private Map<MigrationTask, JdbcMigrationLauncher> tasksWithLaunchers =
+            new LinkedHashMap<MigrationTask, JdbcMigrationLauncher>();
+
+    /**
+     * The steps of the plan, in order
+     */
+    private List<MigrationPlan.Step> steps = new ArrayList<MigrationPlan.Step>();
+
+    public void testSystemsArePatchedAtTheSameTime() throws MigrationException
+    {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        addTask("orders", new RecordingTask(1, bothRunning, bothRunning, false));
+        addTask("billing", new RecordingTask(2, bothRunning, bothRunning, false));
+
+        assertEquals(2, execute(PatchLevelSet.EMPTY));
+    }
+
+    public void testBarrierLevelWaitsForAllSystems() throws MigrationException
+    {
+        addTask("orders", new RecordingTask(1, null, null, false));
+        addTask("billing", new RecordingTask(2, null, null, false));
+        addTask("orders", new RecordingTask(3, null, null, false));
+
+        assertEquals(3, execute(PatchLevelSet.of(new int[]{3})));
+        assertTrue(events.indexOf("finished 2") < events.indexOf("started 3"));
+    }
+
+    public void testFailureIsRethrownAfterSuccessesAreRecorded() throws MigrationException
+    {
+        CountDownLatch billingDone = new CountDownLatch(1);
+        addTask("orders", new RecordingTask(1, null, billingDone, true));
+        addTask("billing", new RecordingTask(2, billingDone, null, false));
+
+        try
+        {
+            execute(PatchLevelSet.EMPTY);
+            fail("The failure of the orders system should be rethrown");
+        }
+        catch (MigrationException e)
+        {
+            assertEquals("task 1 failed", e.getMessage());
+        }
+        RecordingLauncher orders = (RecordingLauncher) launchers.get("orders");
+        RecordingLauncher billing = (RecordingLauncher) launchers.get("billing");
+        assertEquals(Collections.singletonList(new Integer(2)), orders.recordedLevels);
+        assertEquals(Collections.singletonList(new Integer(2)), billing.recordedLevels);
+    }
+
+    /**
+     * Adds a task of the given system to the plan.
+     *
+     * @param systemName the system the task belongs to
+     * @param task       the task
+     */
+    private void addTask(String systemName, MigrationTask task)
+    {
+        JdbcMigrationLauncher launcher = launchers.get(systemName);
+        if (launcher == null)
+        {
+            launcher = new RecordingLauncher();
+            launchers.put(systemName, launcher);
+        }
+        tasksWithLaunchers.put(task, launcher);
+        List<MigrationContext> contexts = new ArrayList<MigrationContext>();
+        contexts.add(new TestMigrationContext());
+        steps.add(new MigrationPlan.Step(task, contexts));
+    }
+
+    /**
+     * Executes the plan built so far.
+     *
+     * @param barrierLevels the levels all systems reach together
+     * @return the number of tasks executed
+     * @throws MigrationException if a task fails
+     */
+    private int execute(PatchLevelSet barrierLevels) throws MigrationException
+    {
+        List<MigrationListener> listeners = new ArrayList<MigrationListener>(launchers.values());
+        ConcurrentPlanExecutor executor = new ConcurrentPlanExecutor(new MigrationProcess(),
+                launchers, listeners, barrierLevels);
+        return executor.execute(new MigrationPlan(PatchExecution.APPLY, steps), tasksWithLaunchers);
+    }
+
+    /**
+     * A task that records when it runs, optionally waiting for other tasks or
+     * failing.
+     */
+    private class RecordingTask extends MigrationTaskSupport
+    {
+        /**
+         * Counted down when the task runs; may be <code>null</code>
+         */
+        private final CountDownLatch started;
+
+        /**
+         * Awaited before the task completes; may be <code>null</code>
+         */
+        private final CountDownLatch awaited;
+
+        /**
+         * Whether the task fails
+         */
+        private final boolean failing;
+
+        RecordingTask(int level, CountDownLatch started, CountDownLatch awaited, boolean failing)
+        {
+            setLevel(new Integer(level));
+            setName("task " + level);
+            this.started = started;
+            this.awaited = awaited;
+            this.failing = failing;
+        }
+
+        public void up(MigrationContext context) throws MigrationException
+        {
+            events.add("started " + getLevel());
+            if (started != null)
+            {
+                started.countDown();
+            }
+            if (awaited != null)
+            {
+                try
+                {
+                    if (!awaited.await(10, TimeUnit.SECONDS))
+                    {
+                        throw new MigrationException(getName() + " never ran alongside the other task");
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    throw new MigrationException("interrupted", e);
+                }
+            }
+            if (failing)
+            {
+                throw new MigrationException(getName() + " failed");
+            }
+            events.add("finished " + getLevel());
+        }
+    }
+
+    /**
+     * A launcher that records the levels it was told about instead of
+     * updating a patch table.
+     */
+    private static class RecordingLauncher extends JdbcMigrationLauncher
+    {
+        /**
+         * The levels of the successful tasks this launcher was told about
+         */
+        private List<Integer> recordedLevels = Collections.synchronizedList(new ArrayList<Integer>());
+
+        public void migrationStarted(MigrationTask task, MigrationContext ctx)
+        {
+            // nothing to record
+        }
+
+        public void migrationSuccessful(MigrationTask task, MigrationContext ctx)
+        {
+            recordedLevels.add(task.getLevel());
+        }
+
+        public void migrationFailed(MigrationTask task, MigrationContext ctx, MigrationException e)
+        {
+            // nothing to record
+        }
+    }
+}
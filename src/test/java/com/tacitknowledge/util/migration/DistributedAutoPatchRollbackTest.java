@@ -30,6 +30,7 @@ import org.easymock.classextension.IMocksControl;
 
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
 import static org.easymock.classextension.EasyMock.createControl;
 
 /**
@@ -241,11 +242,9 @@ public class DistributedAutoPatchRollbackTest extends MigrationListenerTestBase
 
 
         expect(migrationRunnerStrategyMock.getRollbackCandidates(EasyMock.<List<MigrationTask>>anyObject(),
-                eq(ROLLBACK_LEVELS), eq(currentPatchInfoStore))).andReturn(rollbackCandidates);
-        expect(migrationRunnerStrategyMock.getRollbackCandidates(rollbackCandidates,
-                ROLLBACK_LEVELS, currentPatchInfoStore)).andReturn(Collections.EMPTY_LIST);
+                eq(ROLLBACK_LEVELS), isA(PatchInfoStoreSnapshot.class))).andReturn(rollbackCandidates);
 
-        expect(migrationRunnerStrategyMock.isSynchronized(eq(currentPatchInfoStore),
+        expect(migrationRunnerStrategyMock.isSynchronized(isA(PatchInfoStoreSnapshot.class),
                 EasyMock.<PatchInfoStore>anyObject())).andReturn(true).anyTimes();
 
         process.setMigrationRunnerStrategy(migrationRunnerStrategyMock);
@@ -319,6 +318,10 @@ public class DistributedAutoPatchRollbackTest extends MigrationListenerTestBase
                 PatchInfoStore patchInfoStore = (PatchInfoStore) patchInfoStoreControl.getMock();
                 patchInfoStore.getPatchLevel();
                 patchInfoStoreControl.setReturnValue(levelToReport);
+                patchInfoStore.getPatchesApplied();
+                patchInfoStoreControl.setReturnValue(Collections.EMPTY_SET);
+                patchInfoStore.isPatchStoreLocked();
+                patchInfoStoreControl.setReturnValue(false);
                 patchInfoStoreControl.replay();
                 launcher.getContexts().put(ctx, patchInfoStore);
             }
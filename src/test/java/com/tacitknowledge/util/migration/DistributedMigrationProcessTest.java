@@ -30,6 +30,7 @@ import com.tacitknowledge.util.migration.jdbc.JdbcMigrationLauncher;
 
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
 import static org.easymock.classextension.EasyMock.createControl;
 import static org.easymock.classextension.EasyMock.createMock;
 import static org.easymock.classextension.EasyMock.createStrictControl;
@@ -85,10 +86,9 @@ public class DistributedMigrationProcessTest extends TestCase
         MockControl contextControl = MockControl.createControl(JdbcMigrationContext.class);
         
         JdbcMigrationContext context = (JdbcMigrationContext) contextControl.getMock();
-        MockControl patchInfoStoreControl = MockControl.createControl(PatchInfoStore.class);
-        PatchInfoStore patchInfoStore = (PatchInfoStore) patchInfoStoreControl.getMock();
+        PatchInfoStore patchInfoStore = MockBuilder.getPatchInfoStore(CURRENT_PATCH_LEVEL);
 
-        expect(migrationRunnerStrategy.isSynchronized(currentPatchInfoStore, patchInfoStore)).andReturn(true);
+        expect(migrationRunnerStrategy.isSynchronized(isA(PatchInfoStoreSnapshot.class), isA(PatchInfoStoreSnapshot.class))).andReturn(true);
 
         migrationRunnerStrategyControl.replay();
 
@@ -123,8 +123,7 @@ public class DistributedMigrationProcessTest extends TestCase
         // first node is at the 'current' patch level
         MockControl node1ContextControl = MockControl.createControl(JdbcMigrationContext.class);
         JdbcMigrationContext node1Context = (JdbcMigrationContext) node1ContextControl.getMock();
-        MockControl node1PatchInfoStoreControl = MockControl.createControl(PatchInfoStore.class);
-        PatchInfoStore node1PatchInfoStore = (PatchInfoStore) node1PatchInfoStoreControl.getMock();
+        PatchInfoStore node1PatchInfoStore = MockBuilder.getPatchInfoStore(CURRENT_PATCH_LEVEL);
         // setup mock patch info store to return the patch level we want
         node1Context.getDatabaseName();
         node1ContextControl.setReturnValue("node1", MockControl.ONE_OR_MORE);
@@ -133,8 +132,7 @@ public class DistributedMigrationProcessTest extends TestCase
         // second node simulates a newly added database instance, it has not been patched
         MockControl node2ContextControl = MockControl.createControl(JdbcMigrationContext.class);
         JdbcMigrationContext node2Context = (JdbcMigrationContext) node2ContextControl.getMock();
-        MockControl node2PatchInfoStoreControl = MockControl.createControl(PatchInfoStore.class);
-        PatchInfoStore node2PatchInfoStore = (PatchInfoStore) node2PatchInfoStoreControl.getMock();
+        PatchInfoStore node2PatchInfoStore = MockBuilder.getPatchInfoStore(0);
         // setup mock patch info store to return the patch level we want
         node2Context.getDatabaseName();
         node2ContextControl.setReturnValue("node2", MockControl.ONE_OR_MORE);
@@ -150,8 +148,8 @@ public class DistributedMigrationProcessTest extends TestCase
         controlledSystems.put(systemName, launcher);
         
         migrationProcess.setControlledSystems(controlledSystems);
-        expect(migrationRunnerStrategy.isSynchronized(currentPatchInfoStore, node1PatchInfoStore)).andReturn(true);
-        expect(migrationRunnerStrategy.isSynchronized(currentPatchInfoStore, node2PatchInfoStore)).andReturn(false);
+        expect(migrationRunnerStrategy.isSynchronized(isA(PatchInfoStoreSnapshot.class), isA(PatchInfoStoreSnapshot.class))).andReturn(true);
+        expect(migrationRunnerStrategy.isSynchronized(isA(PatchInfoStoreSnapshot.class), isA(PatchInfoStoreSnapshot.class))).andReturn(false);
 
         migrationRunnerStrategyControl.replay();
 
@@ -163,6 +161,7 @@ public class DistributedMigrationProcessTest extends TestCase
         }
         catch(MigrationException me)
         {
+            assertTrue(me.getMessage().indexOf("node2 is at patch level 0") > -1);
         }
         catch(Exception e)
         {
@@ -203,14 +202,13 @@ public class DistributedMigrationProcessTest extends TestCase
         PatchInfoStore patchInfoStoreMock = mockControl.createMock(PatchInfoStore.class);
         expect(patchInfoStoreMock.getPatchLevel()).andReturn(12);
 
-        expect(migrationRunnerStrategyMock.isSynchronized(eq(currentPatchInfoStore), EasyMock.<PatchInfoStore>anyObject())).andReturn(true).anyTimes();
+        expect(migrationRunnerStrategyMock.isSynchronized(isA(PatchInfoStoreSnapshot.class), EasyMock.<PatchInfoStore>anyObject())).andReturn(true).anyTimes();
         List<MigrationTask> rollbackCandidates = new ArrayList<MigrationTask>();
         rollbackCandidates.add(rollbackableTask5);
         rollbackCandidates.add(rollbackableTask4);
         rollbackCandidates.add(rollbackableTask3);
 
-        expect(migrationRunnerStrategyMock.getRollbackCandidates(migrationTaskList, rollbackLevels, patchInfoStoreMock)).andReturn(rollbackCandidates);
-        expect(migrationRunnerStrategyMock.getRollbackCandidates(rollbackCandidates, rollbackLevels, patchInfoStoreMock)).andReturn(Collections.EMPTY_LIST);
+        expect(migrationRunnerStrategyMock.getRollbackCandidates(eq(migrationTaskList), eq(rollbackLevels), isA(PatchInfoStoreSnapshot.class))).andReturn(rollbackCandidates);
 
         mockControl.replay();
 
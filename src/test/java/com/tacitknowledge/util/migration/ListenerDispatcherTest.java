@@ -0,0 +1,287 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Exercise the ListenerDispatcher
+ */
+public class ListenerDispatcherTest extends TestCase
+{
+    /**
+     * Make sure events arrive in order, off the calling thread
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testEventsAreDeliveredInOrderOnAnotherThread() throws Exception
+    {
+        ListenerDispatcher dispatcher = new ListenerDispatcher(8, ListenerDispatcher.BLOCK);
+        RecordingListener listener = new RecordingListener(null);
+        List<MigrationContext> contexts = createContexts(100);
+        for (MigrationContext context : contexts)
+        {
+            dispatcher.dispatch(listener, null, context, null, MigrationBroadcaster.TASK_SUCCESS);
+        }
+
+        assertTrue(dispatcher.flush(5000));
+        assertEquals(contexts, listener.getContexts());
+        assertFalse(listener.getThreads().contains(Thread.currentThread()));
+        assertEquals(0, dispatcher.getDroppedEvents());
+    }
+
+    /**
+     * Make sure a stuck listener doesn't hold up the caller when dropping events
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testDropNewestKeepsTheOldestEvents() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        ListenerDispatcher dispatcher = new ListenerDispatcher(4, ListenerDispatcher.DROP_NEWEST);
+        RecordingListener listener = new RecordingListener(release);
+        List<MigrationContext> contexts = createContexts(10);
+        for (MigrationContext context : contexts)
+        {
+            dispatcher.dispatch(listener, null, context, null, MigrationBroadcaster.TASK_START);
+        }
+        release.countDown();
+
+        assertTrue(dispatcher.flush(5000));
+        List<MigrationContext> delivered = listener.getContexts();
+        assertEquals(10, delivered.size() + dispatcher.getDroppedEvents());
+        assertTrue(dispatcher.getDroppedEvents() >= 5);
+        assertEquals(contexts.subList(0, 4), delivered.subList(0, 4));
+    }
+
+    /**
+     * Make sure the newest events survive when the oldest are dropped
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testDropOldestKeepsTheNewestEvents() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        ListenerDispatcher dispatcher = new ListenerDispatcher(4, ListenerDispatcher.DROP_OLDEST);
+        RecordingListener listener = new RecordingListener(release);
+        List<MigrationContext> contexts = createContexts(10);
+        for (MigrationContext context : contexts)
+        {
+            dispatcher.dispatch(listener, null, context, null, MigrationBroadcaster.TASK_START);
+        }
+        release.countDown();
+
+        assertTrue(dispatcher.flush(5000));
+        List<MigrationContext> delivered = listener.getContexts();
+        assertEquals(10, delivered.size() + dispatcher.getDroppedEvents());
+        assertEquals(contexts.subList(6, 10), delivered.subList(delivered.size() - 4, delivered.size()));
+    }
+
+    /**
+     * Make sure a full buffer can hand events back to the calling thread
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testCallerRunsWhenTheBufferIsFull() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        ListenerDispatcher dispatcher = new ListenerDispatcher(2, ListenerDispatcher.CALLER_RUNS);
+        RecordingListener listener = new RecordingListener(release);
+        List<MigrationContext> contexts = createContexts(6);
+        for (MigrationContext context : contexts)
+        {
+            dispatcher.dispatch(listener, null, context, null, MigrationBroadcaster.TASK_START);
+        }
+        assertTrue(listener.getThreads().contains(Thread.currentThread()));
+        release.countDown();
+
+        assertTrue(dispatcher.flush(5000));
+        assertEquals(6, listener.getContexts().size());
+        assertEquals(0, dispatcher.getDroppedEvents());
+
+        // the calling thread delivers the queued events before its own
+        List<MigrationContext> inline = new ArrayList<MigrationContext>();
+        for (int i = 0; i < listener.getContexts().size(); i++)
+        {
+            if (listener.getThreads().get(i) == Thread.currentThread())
+            {
+                inline.add(listener.getContexts().get(i));
+            }
+        }
+        int first = contexts.indexOf(inline.get(0));
+        assertEquals(contexts.subList(first, first + inline.size()), inline);
+    }
+
+    /**
+     * Make sure closing the dispatcher stops its thread once the events are
+     * delivered, and a later event starts a new one
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testCloseStopsTheDispatchThread() throws Exception
+    {
+        ListenerDispatcher dispatcher = new ListenerDispatcher(8, ListenerDispatcher.BLOCK);
+        RecordingListener listener = new RecordingListener(null);
+        List<MigrationContext> contexts = createContexts(2);
+        dispatcher.dispatch(listener, null, contexts.get(0), null, MigrationBroadcaster.TASK_START);
+        assertTrue(dispatcher.flush(5000));
+        dispatcher.close();
+
+        Thread dispatchThread = listener.getThreads().get(0);
+        dispatchThread.join(5000);
+        assertFalse(dispatchThread.isAlive());
+
+        dispatcher.dispatch(listener, null, contexts.get(1), null, MigrationBroadcaster.TASK_SUCCESS);
+        assertTrue(dispatcher.flush(5000));
+        assertEquals(contexts, listener.getContexts());
+        assertNotSame(dispatchThread, listener.getThreads().get(1));
+        dispatcher.close();
+    }
+
+    /**
+     * Make sure a failing listener neither reaches the caller nor stops delivery
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testListenerFailuresAreContained() throws Exception
+    {
+        ListenerDispatcher dispatcher = new ListenerDispatcher(8, ListenerDispatcher.BLOCK);
+        RecordingListener listener = new RecordingListener(null);
+        MigrationListener failing = new RecordingListener(null)
+        {
+            public void migrationFailed(MigrationTask task, MigrationContext context,
+                    MigrationException e) throws MigrationException
+            {
+                throw e;
+            }
+        };
+        MigrationException failure = new MigrationException("patch failed");
+        dispatcher.dispatch(failing, null, null, failure, MigrationBroadcaster.TASK_FAILED);
+        dispatcher.dispatch(listener, null, null, failure, MigrationBroadcaster.TASK_FAILED);
+
+        assertTrue(dispatcher.flush(5000));
+        assertEquals(1, listener.getContexts().size());
+    }
+
+    /**
+     * Make sure a misconfigured dispatcher is refused
+     */
+    public void testUnknownOverflowPolicyIsRejected()
+    {
+        try
+        {
+            new ListenerDispatcher(8, "spill");
+            fail("An unknown overflow policy should be rejected");
+        }
+        catch (IllegalArgumentException iae)
+        {
+            // we expect this
+        }
+    }
+
+    /**
+     * Creates the given number of distinct contexts.
+     *
+     * @param count the number of contexts
+     * @return the contexts
+     */
+    private List<MigrationContext> createContexts(int count)
+    {
+        List<MigrationContext> contexts = new ArrayList<MigrationContext>();
+        for (int i = 0; i < count; i++)
+        {
+            contexts.add(new TestMigrationContext());
+        }
+        return contexts;
+    }
+
+    /**
+     * Records the contexts and threads of the events it receives.  When given a
+     * latch, events on the dispatch thread wait for it, which keeps the buffer full.
+     */
+    private static class RecordingListener extends AbstractMigrationListener
+    {
+        /** The contexts of the events received, in order */
+        private final List<MigrationContext> contexts =
+                Collections.synchronizedList(new ArrayList<MigrationContext>());
+
+        /** The threads the events were received on */
+        private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        /** Holds the dispatch thread back until released */
+        private final CountDownLatch release;
+
+        RecordingListener(CountDownLatch release)
+        {
+            this.release = release;
+        }
+
+        public void initialize(String systemName, Properties properties)
+        {
+            // nothing to initialize
+        }
+
+        public void migrationStarted(MigrationTask task, MigrationContext context)
+                throws MigrationException
+        {
+            record(context);
+        }
+
+        public void migrationSuccessful(MigrationTask task, MigrationContext context)
+                throws MigrationException
+        {
+            record(context);
+        }
+
+        public void migrationFailed(MigrationTask task, MigrationContext context,
+                MigrationException e) throws MigrationException
+        {
+            record(context);
+        }
+
+        private void record(MigrationContext context) throws MigrationException
+        {
+            if (release != null && "autopatch-listener-dispatcher".equals(Thread.currentThread().getName()))
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new MigrationException("Interrupted", e);
+                }
+            }
+            contexts.add(context);
+            threads.add(Thread.currentThread());
+        }
+
+        List<MigrationContext> getContexts()
+        {
+            return new ArrayList<MigrationContext>(contexts);
+        }
+
+        List<Thread> getThreads()
+        {
+            return new ArrayList<Thread>(threads);
+        }
+    }
+}
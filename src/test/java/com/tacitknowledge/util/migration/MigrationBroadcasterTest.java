@@ -27,10 +27,10 @@ import junit.framework.TestCase;
 public class MigrationBroadcasterTest extends TestCase implements MigrationListener
 {
     /** whether we've been started */
-    private boolean started = false;
+    private volatile boolean started = false;
     
     /** whether we've succeeded */
-    private boolean succeeded = false;
+    private volatile boolean succeeded = false;
     
     /** whether we've failed */
     private boolean failed = false;
@@ -112,6 +112,39 @@ public class MigrationBroadcasterTest extends TestCase implements MigrationListe
         }
     }
     
+    /**
+     * Test that asynchronous listeners hear about events once the broadcaster
+     * is flushed, and can be removed like any other listener
+     *
+     * @exception MigrationException if the notify fails
+     */
+    public void testAsynchronousBroadcast() throws MigrationException
+    {
+        MigrationBroadcasterTest asyncListener = new MigrationBroadcasterTest();
+        broadcaster.removeListener(this);
+        broadcaster.addAsynchronousListener(asyncListener);
+        broadcaster.notifyListeners(null, null, MigrationBroadcaster.TASK_START);
+        broadcaster.notifyListeners(null, null, MigrationBroadcaster.TASK_SUCCESS);
+
+        assertTrue(broadcaster.flush(5000));
+        assertTrue(asyncListener.started);
+        assertTrue(asyncListener.succeeded);
+        assertEquals(0, broadcaster.getDroppedEvents());
+
+        try
+        {
+            broadcaster.setAsynchronousCapacity(16);
+            fail("The buffer can't be resized once asynchronous listeners are registered");
+        }
+        catch (IllegalStateException ise)
+        {
+            // we expect this
+        }
+
+        assertTrue(broadcaster.removeListener(asyncListener));
+        assertTrue(broadcaster.getListeners().isEmpty());
+    }
+
     /**
      * @see MigrationListener#migrationStarted(MigrationTask, MigrationContext)
      */
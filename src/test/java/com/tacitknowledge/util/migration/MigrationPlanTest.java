@@ -0,0 +1,94 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.easymock.MockControl;
+
+import com.tacitknowledge.util.migration.tasks.normal.TestMigrationTask2;
+
+/**
+ * Tests the {@link MigrationPlan} and {@link PatchInfoStoreSnapshot} classes.
+ */
+public class MigrationPlanTest extends TestCase
+{
+    public void testPlanIsNotChangedByLaterChangesToItsInputs()
+    {
+        List<MigrationContext> contexts = new ArrayList<MigrationContext>();
+        contexts.add(new TestMigrationContext());
+        List<MigrationPlan.Step> steps = new ArrayList<MigrationPlan.Step>();
+        steps.add(new MigrationPlan.Step(new TestMigrationTask2(), contexts));
+        MigrationPlan plan = new MigrationPlan(PatchExecution.APPLY, steps);
+
+        steps.clear();
+        contexts.add(new TestMigrationContext());
+
+        assertEquals(1, plan.size());
+        assertEquals(1, plan.getEstimatedCost());
+        try
+        {
+            plan.getSteps().clear();
+            fail("Plan steps should not be modifiable");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+    }
+
+    public void testUnknownOperationIsRejected()
+    {
+        try
+        {
+            new MigrationPlan("UPGRADE", new ArrayList<MigrationPlan.Step>());
+            fail("Unknown operations should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    public void testSnapshotReadsAppliedPatchesOnce() throws MigrationException
+    {
+        MockControl storeControl = MockControl.createStrictControl(PatchInfoStore.class);
+        PatchInfoStore store = (PatchInfoStore) storeControl.getMock();
+        Set<Integer> applied = new HashSet<Integer>();
+        applied.add(new Integer(1));
+        applied.add(new Integer(3));
+        storeControl.expectAndReturn(store.getPatchesApplied(), applied);
+        storeControl.replay();
+
+        PatchInfoReader snapshot = new PatchInfoStoreSnapshot(store);
+        MigrationRunnerStrategy strategy = new MissingPatchMigrationRunnerStrategy();
+        assertFalse(strategy.shouldMigrationRun(1, snapshot));
+        assertTrue(strategy.shouldMigrationRun(2, snapshot));
+        assertFalse(strategy.shouldMigrationRun(3, snapshot));
+        storeControl.verify();
+    }
+
+    public void testSnapshotIsReadOnly()
+    {
+        assertFalse("A snapshot should offer no way of changing the store",
+                PatchInfoStore.class.isAssignableFrom(PatchInfoStoreSnapshot.class));
+    }
+}
@@ -25,11 +25,11 @@ import org.easymock.MockControl;
 import org.easymock.classextension.IMocksControl;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
 import static org.easymock.classextension.EasyMock.createStrictControl;
 
 /**
@@ -92,8 +92,7 @@ public class MigrationProcessRollbackTest extends MigrationListenerTestBase
         rollbackCandidates.add(new TestRollbackableTask4());
         rollbackCandidates.add(new TestRollbackableTask3());
         rollbackCandidates.add(new TestRollbackableTask2());
-        expect(migrationStrategy.getRollbackCandidates(EasyMock.<List<MigrationTask>>anyObject(), eq(ROLLBACK_LEVELS), eq(currentPatchInfoStore))).andReturn(rollbackCandidates);
-        expect(migrationStrategy.getRollbackCandidates(EasyMock.<List<MigrationTask>>anyObject(), eq(ROLLBACK_LEVELS), eq(currentPatchInfoStore))).andReturn(Collections.EMPTY_LIST);
+        expect(migrationStrategy.getRollbackCandidates(EasyMock.<List<MigrationTask>>anyObject(), eq(ROLLBACK_LEVELS), isA(PatchInfoStoreSnapshot.class))).andReturn(rollbackCandidates);
 
     }
 
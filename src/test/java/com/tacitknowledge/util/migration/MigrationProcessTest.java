@@ -119,13 +119,46 @@ public class MigrationProcessTest extends TestCase
     }
 
     public void testDryRunWithMigrationsInOrder() throws MigrationException {
-        patchInfoStoreControl.expectAndReturn(patchInfoStoreMock.getPatchLevel(), 3, 2);
+        patchInfoStoreControl.expectAndReturn(patchInfoStoreMock.getPatchLevel(), 3);
         patchInfoStoreControl.replay();
         int taskCount = migrationProcess.dryRun(patchInfoStoreMock, migrationContextMock, getMigrationTasks());
         assertEquals("TaskCount should be equal to 2", 2, taskCount);
         patchInfoStoreControl.verify();
     }
 
+    public void testCreateMigrationPlanReadsPatchStoreOnce() throws MigrationException
+    {
+        migrationTaskSourceControl.expectAndReturn(migrationTaskSourceMock.
+                getMigrationTasks("testPackageName"), getMigrationTasks());
+        migrationTaskSourceControl.replay();
+        migrationProcess.addMigrationTaskSource(migrationTaskSourceMock);
+        patchInfoStoreControl.expectAndReturn(patchInfoStoreMock.getPatchLevel(), 5);
+        patchInfoStoreControl.replay();
+
+        MigrationPlan plan = migrationProcess.createMigrationPlan(patchInfoStoreMock, migrationContextMock);
+
+        patchInfoStoreControl.verify();
+        assertEquals(PatchExecution.APPLY, plan.getOperation());
+        assertEquals(1, plan.size());
+        assertEquals(new Integer(6), plan.getTasks().get(0).getLevel());
+        assertEquals(1, plan.getEstimatedCost());
+    }
+
+    public void testExecutePlanAppliesEveryStep() throws MigrationException
+    {
+        migrationContextMock.commit();
+        migrationContextControl.setVoidCallable(2);
+        migrationContextControl.replay();
+        List<MigrationPlan.Step> steps = new ArrayList<MigrationPlan.Step>();
+        List<MigrationContext> contexts = new ArrayList<MigrationContext>();
+        contexts.add(migrationContextMock);
+        steps.add(new MigrationPlan.Step(new TestMigrationTask2(), contexts));
+        steps.add(new MigrationPlan.Step(new TestMigrationTask3(), contexts));
+
+        assertEquals(2, migrationProcess.executePlan(new MigrationPlan(PatchExecution.APPLY, steps)));
+        migrationContextControl.verify();
+    }
+
     private List getMigrationTasks()
     {
         RollbackableMigrationTask migrationTask2 = new TestMigrationTask2();
@@ -131,8 +131,11 @@ public class MissingPatchMigrationRunnerStrategyTest extends TestCase {
 
     public void testGetRollbackCandidatesAction() throws MigrationException {
 
-        expect(currentPatchInfoStore.isPatchApplied(9)).andReturn(true);
-        expect(currentPatchInfoStore.isPatchApplied(11)).andReturn(true);
+        Set<Integer> patchesApplied = new HashSet<Integer>();
+        patchesApplied.add(9);
+        patchesApplied.add(10);
+        patchesApplied.add(11);
+        expect(currentPatchInfoStore.getPatchesApplied()).andReturn(patchesApplied);
         mockControl.replay();
 
         List<MigrationTask> rollbackCandidates = strategy.getRollbackCandidates(allMigrationTasks, ROLLBACK_LEVELS, currentPatchInfoStore);
@@ -145,8 +148,10 @@ public class MissingPatchMigrationRunnerStrategyTest extends TestCase {
 
     public void testGetRollbackCandidatesIfPatchNotAppliedItShouldNotBeMarkedAsCandidate() throws MigrationException {
 
-        expect(currentPatchInfoStore.isPatchApplied(9)).andReturn(true);
-        expect(currentPatchInfoStore.isPatchApplied(11)).andReturn(false);
+        Set<Integer> patchesApplied = new HashSet<Integer>();
+        patchesApplied.add(9);
+        patchesApplied.add(10);
+        expect(currentPatchInfoStore.getPatchesApplied()).andReturn(patchesApplied);
         mockControl.replay();
 
         List<MigrationTask> rollbackCandidates = strategy.getRollbackCandidates(allMigrationTasks, ROLLBACK_LEVELS, currentPatchInfoStore);
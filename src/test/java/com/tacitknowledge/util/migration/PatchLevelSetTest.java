@@ -0,0 +1,110 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link PatchLevelSet} class.
+ */
+public class PatchLevelSetTest extends TestCase
+{
+    public void testSetOperations()
+    {
+        PatchLevelSet available = PatchLevelSet.of(new int[]{1, 2, 3, 4, 5});
+        PatchLevelSet applied = PatchLevelSet.of(new int[]{1, 2, 4, 7});
+
+        assertTrue(Arrays.equals(new int[]{3, 5}, available.minus(applied).toArray()));
+        assertTrue(Arrays.equals(new int[]{7}, applied.minus(available).toArray()));
+        assertTrue(Arrays.equals(new int[]{3, 5, 7}, available.difference(applied).toArray()));
+        assertTrue(Arrays.equals(new int[]{1, 2, 4}, available.intersect(applied).toArray()));
+        assertEquals(6, available.union(applied).size());
+        assertEquals(7, applied.getHighestLevel());
+    }
+
+    public void testOperationsDoNotChangeTheirOperands()
+    {
+        PatchLevelSet applied = PatchLevelSet.of(new int[]{1, 2});
+        applied.minus(PatchLevelSet.of(new int[]{1}));
+
+        assertTrue(applied.contains(1));
+        assertEquals(2, applied.size());
+    }
+
+    public void testEqualsMatchesBoxedSets()
+    {
+        Set<Integer> first = new HashSet<Integer>();
+        first.add(100000);
+        first.add(3);
+        Set<Integer> second = new HashSet<Integer>();
+        second.add(3);
+        second.add(100000);
+
+        assertEquals(PatchLevelSet.of(first), PatchLevelSet.of(second));
+        assertEquals(first, PatchLevelSet.of(first).toSet());
+        assertFalse(PatchLevelSet.of(first).equals(PatchLevelSet.of(new int[]{3})));
+    }
+
+    public void testNullIsEmpty()
+    {
+        assertTrue(PatchLevelSet.of((Set<Integer>) null).isEmpty());
+        assertEquals(0, PatchLevelSet.EMPTY.getHighestLevel());
+        assertFalse(PatchLevelSet.EMPTY.contains(-1));
+    }
+
+    public void testNegativeLevelsAreAccepted()
+    {
+        PatchLevelSet levels = PatchLevelSet.of(new int[]{-3, -1, 2});
+
+        assertTrue(levels.contains(-3));
+        assertFalse(levels.contains(-2));
+        assertEquals(2, levels.getHighestLevel());
+        assertTrue(Arrays.equals(new int[]{-3, 2},
+                levels.minus(PatchLevelSet.of(new int[]{-1})).toArray()));
+    }
+
+    public void testWidelySpreadLevels()
+    {
+        PatchLevelSet dated = PatchLevelSet.of(new int[]{1403011230, 1403021015, 1412312359});
+        PatchLevelSet mixed = PatchLevelSet.of(new int[]{1, 2, 1403021015, Integer.MAX_VALUE});
+
+        assertTrue(dated.contains(1403021015));
+        assertFalse(dated.contains(1403021016));
+        assertEquals(1412312359, dated.getHighestLevel());
+        assertTrue(Arrays.equals(new int[]{1403021015}, dated.intersect(mixed).toArray()));
+        assertTrue(Arrays.equals(new int[]{1, 2, 1403011230, 1412312359, Integer.MAX_VALUE},
+                dated.difference(mixed).toArray()));
+        assertEquals(Integer.MAX_VALUE, mixed.getHighestLevel());
+        assertEquals("{1, 2, 1403021015, 2147483647}", mixed.toString());
+    }
+
+    public void testEqualsIgnoresHowLevelsAreKept()
+    {
+        PatchLevelSet dense = PatchLevelSet.of(new int[]{5, 6, 7}).minus(PatchLevelSet.of(new int[]{5}));
+        PatchLevelSet rebuilt = PatchLevelSet.of(new int[]{7, 6, 6});
+        PatchLevelSet sparse = PatchLevelSet.of(new int[]{6, 7, 1000000000})
+                .minus(PatchLevelSet.of(new int[]{1000000000}));
+
+        assertEquals(rebuilt, dense);
+        assertEquals(rebuilt, sparse);
+        assertEquals(rebuilt.hashCode(), dense.hashCode());
+        assertEquals(rebuilt.hashCode(), sparse.hashCode());
+    }
+}
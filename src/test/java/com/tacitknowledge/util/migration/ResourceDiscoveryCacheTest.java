@@ -0,0 +1,115 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests sharing class path scans between task sources.
+ */
+public class ResourceDiscoveryCacheTest extends TestCase
+{
+    /** the package scanned by the tests */
+    private static final String PACKAGE = "com.tacitknowledge.util.migration.tasks.normal";
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        while (ResourceDiscoveryCache.isOpen())
+        {
+            ResourceDiscoveryCache.close();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Inside a scope the same classes are found, and callers can't corrupt
+     * the shared result.
+     */
+    public void testScopedScansAreShared()
+    {
+        Class[] unscoped = ResourceDiscoveryCache.getClasses(PACKAGE, MigrationTask.class);
+        assertEquals(4, unscoped.length);
+
+        ResourceDiscoveryCache.open();
+        Class[] first = ResourceDiscoveryCache.getClasses(PACKAGE, MigrationTask.class);
+        assertEquals(4, first.length);
+        first[0] = null;
+        Class[] second = ResourceDiscoveryCache.getClasses(PACKAGE, MigrationTask.class);
+        assertNotSame(first, second);
+        assertNotNull(second[0]);
+        ResourceDiscoveryCache.close();
+    }
+
+    /**
+     * Callers looking up the same package at once all get the full result.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testConcurrentLookupsShareOneScan() throws Exception
+    {
+        ResourceDiscoveryCache.open();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<Class[]>> lookups = new ArrayList<Future<Class[]>>();
+            for (int i = 0; i < 8; i++)
+            {
+                lookups.add(executor.submit(new Callable<Class[]>()
+                {
+                    public Class[] call()
+                    {
+                        return ResourceDiscoveryCache.getClasses(PACKAGE, MigrationTask.class);
+                    }
+                }));
+            }
+            for (Future<Class[]> lookup : lookups)
+            {
+                assertEquals(4, lookup.get().length);
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            ResourceDiscoveryCache.close();
+        }
+    }
+
+    /**
+     * Scopes nest; the cache is only shared while at least one is open.
+     */
+    public void testScopesNest()
+    {
+        assertFalse(ResourceDiscoveryCache.isOpen());
+        ResourceDiscoveryCache.open();
+        ResourceDiscoveryCache.open();
+        ResourceDiscoveryCache.close();
+        assertTrue(ResourceDiscoveryCache.isOpen());
+        ResourceDiscoveryCache.close();
+        assertFalse(ResourceDiscoveryCache.isOpen());
+        ResourceDiscoveryCache.close();
+        assertFalse(ResourceDiscoveryCache.isOpen());
+    }
+}
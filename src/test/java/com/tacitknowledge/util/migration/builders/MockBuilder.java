@@ -45,6 +45,7 @@ public class MockBuilder
         PatchInfoStore patchInfoStoreMock = patchInfoStoreControl.createMock(PatchInfoStore.class);
         expect(patchInfoStoreMock.getPatchLevel()).andReturn(patchLevel).anyTimes();
         expect(patchInfoStoreMock.getPatchesApplied()).andReturn(patchesApplied);
+        expect(patchInfoStoreMock.isPatchStoreLocked()).andReturn(false).anyTimes();
         patchInfoStoreControl.replay();
         return patchInfoStoreMock;
     }
@@ -0,0 +1,183 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.MigrationTask;
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+
+/**
+ * Exercises merging the ALTER TABLE statements of patches replayed into an
+ * empty in-memory HSQLDB, which is told it can merge them but can't.
+ */
+public class AlterTableReplayTest extends TestCase
+{
+    /**
+     * The package holding the patches
+     */
+    private static final String PACKAGE = "com.tacitknowledge.util.migration.jdbc.alter";
+
+    /**
+     * The URL of the in-memory database
+     */
+    private static final String URL = "jdbc:hsqldb:mem:alter";
+
+    /**
+     * A connection to the in-memory database, for checking the results
+     */
+    private Connection conn = null;
+
+    /**
+     * A type of database claiming it can merge ALTER TABLE clauses
+     */
+    private DatabaseType databaseType = null;
+
+    /**
+     * The context the patches run in
+     */
+    private DataSourceMigrationContext context = null;
+
+    /**
+     * The launcher holding the patches
+     */
+    private JdbcMigrationLauncher launcher = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Class.forName("org.hsqldb.jdbcDriver");
+        conn = DriverManager.getConnection(URL, "sa", "");
+
+        NonPooledDataSource dataSource = new NonPooledDataSource();
+        dataSource.setDriverClass("org.hsqldb.jdbcDriver");
+        dataSource.setDatabaseUrl(URL);
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+
+        databaseType = new DatabaseType("hsqldb")
+        {
+            public String getProperty(String propertyName)
+            {
+                if ("alter.coalesce.clauses".equals(propertyName))
+                {
+                    return "ADD,DROP,MODIFY,CHANGE,ALTER";
+                }
+                return super.getProperty(propertyName);
+            }
+        };
+        context = new DataSourceMigrationContext();
+        context.setDatabaseType(databaseType);
+        context.setSystemName("alter");
+        context.setDataSource(dataSource);
+
+        launcher = new JdbcMigrationLauncher();
+        launcher.setMigrationProcess(launcher.getNewMigrationProcess());
+        launcher.setPatchPath(PACKAGE);
+        launcher.addContext(context);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        conn.createStatement().execute("SHUTDOWN");
+        super.tearDown();
+    }
+
+    /**
+     * Tests that a patch's trailing ALTER TABLE statements absorb the leading
+     * ones of the next patch, which then skips them.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testStatementsAreMergedAcrossPatches() throws Exception
+    {
+        PatchTable patchTable = new PatchTable(context);
+        patchTable.createPatchStoreIfNeeded();
+        AlterTableReplay replay = new AlterTableReplay(context, launcher.getMigrationProcess(),
+                patchTable, new AlterTableCoalescer(databaseType));
+
+        List<MigrationTask> tasks = launcher.getMigrationProcess().getMigrationTasks();
+        Collections.sort(tasks);
+        assertNull(replay.getStatements((SqlScriptMigrationTask) tasks.get(0)));
+        assertEquals(Arrays.asList(new String[] {"ALTER TABLE widened ADD a INT, ADD b INT, ADD c INT"}),
+                replay.getStatements((SqlScriptMigrationTask) tasks.get(1)));
+        assertEquals(Arrays.asList(new String[] {"INSERT INTO widened (id, a, b, c) VALUES (1, 2, 3, 4)"}),
+                replay.getStatements((SqlScriptMigrationTask) tasks.get(2)));
+        assertEquals("coalesced 3 ALTER TABLE statements into 1", replay.toString());
+    }
+
+    /**
+     * Tests that only statements changing distinct columns in known ways are
+     * merged.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testOnlySafeClausesAreMerged() throws Exception
+    {
+        AlterTableCoalescer coalescer = new AlterTableCoalescer(new DatabaseType("mysql"));
+        assertTrue(coalescer.isSupported());
+        assertFalse(new AlterTableCoalescer(new DatabaseType("hsqldb")).isSupported());
+
+        assertNotNull(coalescer.parse("ALTER TABLE t ADD COLUMN a VARCHAR(10) DEFAULT 'x,y'"));
+        assertNotNull(coalescer.parse("alter table t change a b int after c"));
+        assertNotNull(coalescer.parse("ALTER TABLE t ADD a INT, DROP COLUMN b"));
+        assertNull(coalescer.parse("ALTER TABLE t ADD INDEX idx (a)"));
+        assertNull(coalescer.parse("ALTER TABLE t DROP PRIMARY KEY"));
+        assertNull(coalescer.parse("ALTER TABLE t RENAME TO u"));
+        assertNull(coalescer.parse("ALTER TABLE t ADD (a INT, b INT)"));
+        assertNull(coalescer.parse("ALTER TABLE t ENGINE = InnoDB"));
+        assertNull(coalescer.parse("UPDATE t SET a = 1"));
+
+        AlterTableCoalescer.Group group =
+            new AlterTableCoalescer.Group(coalescer.parse("ALTER TABLE t ADD a INT"));
+        assertFalse(group.add(coalescer.parse("ALTER TABLE u ADD b INT")));
+        assertFalse(group.add(coalescer.parse("ALTER TABLE t MODIFY a BIGINT")));
+        assertFalse(group.add(coalescer.parse("ALTER TABLE t ADD b INT AFTER a")));
+        assertTrue(group.add(coalescer.parse("ALTER TABLE t DROP b")));
+        assertEquals("ALTER TABLE t ADD a INT, DROP b", group.toSql());
+    }
+
+    /**
+     * Tests that a merged statement the database rejects is replaced by the
+     * statements it stands for, and the patches still apply.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testFailedMergeFallsBackToWrittenStatements() throws Exception
+    {
+        launcher.setAlterCoalescing(true);
+        assertEquals(3, launcher.doMigrations());
+
+        ResultSet rs = conn.createStatement().executeQuery(
+                "SELECT a + b + c FROM widened WHERE id = 1");
+        assertTrue(rs.next());
+        assertEquals(9, rs.getInt(1));
+        assertNull(context.getAlterTableReplay());
+    }
+}
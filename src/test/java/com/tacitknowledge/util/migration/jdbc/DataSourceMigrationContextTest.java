@@ -17,9 +17,14 @@ package com.tacitknowledge.util.migration.jdbc;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+
+import javax.sql.DataSource;
 
 import junit.framework.TestCase;
 
+import org.easymock.EasyMock;
+
 import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
 
 /**
@@ -96,4 +101,42 @@ public class DataSourceMigrationContextTest extends TestCase
             SqlUtil.close(conn, null, null);
         }
     }
+
+    /**
+     * Test that each grouped patch releases its savepoint once it succeeds,
+     * and that ending the group hands the connection back
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testGroupedPatchReleasesItsSavepoint() throws Exception
+    {
+        Connection conn = EasyMock.createMock(Connection.class);
+        Savepoint first = EasyMock.createMock(Savepoint.class);
+        Savepoint second = EasyMock.createMock(Savepoint.class);
+        DataSource dataSource = EasyMock.createMock(DataSource.class);
+        EasyMock.expect(dataSource.getConnection()).andReturn(conn);
+        EasyMock.expect(conn.getAutoCommit()).andReturn(Boolean.TRUE);
+        conn.setAutoCommit(false);
+        EasyMock.expect(conn.setSavepoint()).andReturn(first);
+        conn.releaseSavepoint(first);
+        EasyMock.expect(conn.setSavepoint()).andReturn(second);
+        conn.releaseSavepoint(second);
+        conn.commit();
+        conn.rollback();
+        conn.setAutoCommit(true);
+        conn.close();
+        EasyMock.replay(new Object[] {conn, first, second, dataSource});
+
+        DataSourceMigrationContext context = new DataSourceMigrationContext();
+        context.setDataSource(dataSource);
+        context.beginTransactionGroup();
+        context.beginGroupedPatch();
+        context.endGroupedPatch();
+        context.beginGroupedPatch();
+        context.endGroupedPatch();
+        context.commitTransactionGroup();
+        context.endTransactionGroup();
+
+        EasyMock.verify(new Object[] {conn, first, second, dataSource});
+    }
 }
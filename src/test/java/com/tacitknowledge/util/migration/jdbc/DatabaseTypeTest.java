@@ -132,5 +132,45 @@ public class DatabaseTypeTest extends TestCase
         assertEquals(overrideExpectedValue, databaseType.isMultipleStatementsSupported());
     }
 
+    /**
+     * Tests that the capability flags are read from the dialect files.
+     */
+    public void testCapabilities()
+    {
+        DatabaseType postgres = new DatabaseType("postgres");
+        assertTrue(postgres.isBatchDdlSupported());
+        assertTrue(postgres.isAdvisoryLocksSupported());
+        assertTrue(postgres.isTransactionalDdlSupported());
+        assertTrue(postgres.isBulkLoadSupported());
+        assertTrue(postgres.isConcurrentIndexSupported());
+
+        DatabaseType sybase = new DatabaseType("sybase");
+        assertFalse(sybase.isBatchDdlSupported());
+        assertFalse(sybase.isAdvisoryLocksSupported());
+        assertFalse(sybase.isTransactionalDdlSupported());
+        assertFalse(sybase.isBulkLoadSupported());
+        assertFalse(sybase.isConcurrentIndexSupported());
+
+        DatabaseType h2 = new DatabaseType("h2");
+        assertTrue(h2.isBatchDdlSupported());
+        assertFalse(h2.isTransactionalDdlSupported());
+        assertEquals("EXPLAIN {0}", h2.getProperty("explain.plan"));
+    }
 
+    /**
+     * Tests that the registry shares one instance of each database type, with
+     * the overrides from migration.properties applied.
+     */
+    public void testRegistrySharesResolvedTypes()
+    {
+        DialectRegistry.clear();
+        DatabaseType mysql = DialectRegistry.getDatabaseType("mysql");
+        assertSame(mysql, DialectRegistry.getDatabaseType("mysql"));
+        assertNotSame(mysql, DialectRegistry.getDatabaseType("hsqldb"));
+        assertFalse(mysql.isMultipleStatementsSupported());
+        assertEquals("false", mysql.getProperty(DatabaseType.SUPPORTS_MULTIPLE_STATEMENTS));
+
+        DialectRegistry.clear();
+        assertNotSame(mysql, DialectRegistry.getDatabaseType("mysql"));
+    }
 }
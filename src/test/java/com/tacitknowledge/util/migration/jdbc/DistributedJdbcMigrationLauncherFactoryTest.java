@@ -16,13 +16,19 @@
 package com.tacitknowledge.util.migration.jdbc;
 
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 
+import javax.sql.DataSource;
+
 import com.tacitknowledge.util.migration.*;
 import com.tacitknowledge.util.migration.builders.MockBuilder;
+import com.tacitknowledge.util.migration.jdbc.util.JdbcConnectionSettings;
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.easymock.MockControl;
@@ -302,18 +308,109 @@ public class DistributedJdbcMigrationLauncherFactoryTest extends MigrationListen
         DistributedJdbcMigrationLauncher distributedLauncher = control.createMock(DistributedJdbcMigrationLauncher.class);
 
         String systemName="mysystem";
-        String propertyFileName="migration.properties";
-        Properties properties = MockBuilder.getPropertiesWithDistributedSystemConfiguration("mysystem", "mystrategy", "orders");
-        distributedLauncher.setMigrationStrategy("mystrategy");
+        String strategy = OrderedMigrationRunnerStrategy.class.getName();
+        Properties properties = MockBuilder.getPropertiesWithDistributedSystemConfiguration("mysystem", strategy, "orders");
+        properties.putAll(MockBuilder.getPropertiesWithSystemConfiguration("orders", strategy));
+        distributedLauncher.setMigrationStrategy(strategy);
         DistributedMigrationProcess migrationProcess=new DistributedMigrationProcess();
         expect(distributedLauncher.getMigrationProcess() ).andReturn(migrationProcess).anyTimes();
         control.replay();
 
-        factory.configureFromMigrationProperties(distributedLauncher, systemName,properties, propertyFileName);
+        factory.configureFromMigrationProperties(distributedLauncher, systemName, properties);
 
         control.verify();
     }
 
+    public void testConcurrentPatchingIsConfiguredFromProperties() throws MigrationException
+    {
+        DistributedJdbcMigrationLauncherFactory factory = new DistributedJdbcMigrationLauncherFactory();
+        IMocksControl control = createNiceControl();
+        DistributedJdbcMigrationLauncher distributedLauncher = control.createMock(DistributedJdbcMigrationLauncher.class);
+
+        String strategy = MissingPatchMigrationRunnerStrategy.class.getName();
+        Properties properties = MockBuilder.getPropertiesWithDistributedSystemConfiguration("mysystem", strategy, "orders");
+        properties.putAll(MockBuilder.getPropertiesWithSystemConfiguration("orders", strategy));
+        properties.setProperty("mysystem.concurrent", "true");
+        properties.setProperty("mysystem.barrier.levels", "25, 10");
+        DistributedMigrationProcess migrationProcess = new DistributedMigrationProcess();
+        expect(distributedLauncher.getMigrationProcess()).andReturn(migrationProcess).anyTimes();
+        control.replay();
+
+        factory.configureFromMigrationProperties(distributedLauncher, "mysystem", properties);
+
+        assertTrue(migrationProcess.isConcurrent());
+        assertEquals(PatchLevelSet.of(new int[]{10, 25}), migrationProcess.getBarrierLevels());
+    }
+
+    public void testControlledSystemsShareIdenticalDataSources() throws MigrationException
+    {
+        DistributedJdbcMigrationLauncherFactory factory = new DistributedJdbcMigrationLauncherFactory();
+        DistributedJdbcMigrationLauncher distributedLauncher = new DistributedJdbcMigrationLauncher();
+        Properties properties = MockBuilder.getPropertiesWithDistributedSystemConfiguration("mysystem",
+                OrderedMigrationRunnerStrategy.class.getName(), "orders,billing");
+        String[] systems = {"orders", "billing"};
+        for (int i = 0; i < systems.length; i++)
+        {
+            properties.putAll(MockBuilder.getPropertiesWithSystemConfiguration(systems[i],
+                    OrderedMigrationRunnerStrategy.class.getName()));
+        }
+
+        factory.configureFromMigrationProperties(distributedLauncher, "mysystem", properties);
+
+        DataSourceMigrationContext orchestrationContext = (DataSourceMigrationContext)
+                distributedLauncher.getContexts().keySet().iterator().next();
+        HashMap controlledSystems =
+                ((DistributedMigrationProcess) distributedLauncher.getMigrationProcess())
+                        .getControlledSystems();
+        assertEquals(2, controlledSystems.size());
+        for (int i = 0; i < systems.length; i++)
+        {
+            JdbcMigrationLauncher subLauncher = (JdbcMigrationLauncher) controlledSystems.get(systems[i]);
+            DataSourceMigrationContext subContext = (DataSourceMigrationContext)
+                    subLauncher.getContexts().keySet().iterator().next();
+            assertSame(orchestrationContext.getDataSource(), subContext.getDataSource());
+            assertSame(orchestrationContext.getDatabaseType(), subContext.getDatabaseType());
+        }
+    }
+
+    public void testDataSourcesComeFromOverriddenConfiguration() throws MigrationException
+    {
+        final List<NonPooledDataSource> created = new ArrayList<NonPooledDataSource>();
+        DistributedJdbcMigrationLauncherFactory factory = new DistributedJdbcMigrationLauncherFactory()
+        {
+            protected MigrationConfiguration createMigrationConfiguration(Properties props)
+            {
+                return new MigrationConfiguration(props)
+                {
+                    protected DataSource createDataSource(JdbcConnectionSettings settings)
+                    {
+                        NonPooledDataSource dataSource = settings.createDataSource();
+                        created.add(dataSource);
+                        return dataSource;
+                    }
+                };
+            }
+        };
+        DistributedJdbcMigrationLauncher distributedLauncher = new DistributedJdbcMigrationLauncher();
+        Properties properties = MockBuilder.getPropertiesWithDistributedSystemConfiguration("mysystem",
+                OrderedMigrationRunnerStrategy.class.getName(), "orders");
+        properties.putAll(MockBuilder.getPropertiesWithSystemConfiguration("orders",
+                OrderedMigrationRunnerStrategy.class.getName()));
+
+        factory.configureFromMigrationProperties(distributedLauncher, "mysystem", properties);
+
+        assertEquals(1, created.size());
+        DataSourceMigrationContext orchestrationContext = (DataSourceMigrationContext)
+                distributedLauncher.getContexts().keySet().iterator().next();
+        assertSame(created.get(0), orchestrationContext.getDataSource());
+        JdbcMigrationLauncher subLauncher = (JdbcMigrationLauncher)
+                ((DistributedMigrationProcess) distributedLauncher.getMigrationProcess())
+                        .getControlledSystems().get("orders");
+        DataSourceMigrationContext subContext = (DataSourceMigrationContext)
+                subLauncher.getContexts().keySet().iterator().next();
+        assertSame(created.get(0), subContext.getDataSource());
+    }
+
     /**
      * Get the launcher to use for testing
      *
@@ -16,10 +16,14 @@
 package com.tacitknowledge.util.migration.jdbc;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import com.tacitknowledge.util.migration.MigrationProcess;
+import com.tacitknowledge.util.migration.OrderedMigrationRunnerStrategy;
 import com.tacitknowledge.util.migration.builders.MockBuilder;
 import junit.framework.TestCase;
 
@@ -185,4 +189,102 @@ public class JdbcMigrationLauncherFactoryTest extends TestCase
 
     }
 
+    public void testShardedRolloutIsConfiguredFromProperties() throws MigrationException
+    {
+        factory = new JdbcMigrationLauncherFactory();
+        JdbcMigrationLauncher launcher = new JdbcMigrationLauncher();
+        Properties properties = MockBuilder.getPropertiesWithSystemConfiguration("anySystem",
+                OrderedMigrationRunnerStrategy.class.getName());
+        properties.setProperty("anySystem.shard.concurrency", "16");
+        properties.setProperty("anySystem.shard.concurrency.per.host", "4");
+        properties.setProperty("anySystem.shard.failure.budget", "2");
+
+        factory.configureFromMigrationProperties(launcher, "anySystem", properties);
+
+        assertEquals(16, launcher.getShardConcurrency());
+        assertEquals(4, launcher.getShardConcurrencyPerHost());
+        assertEquals(2, launcher.getShardFailureBudget());
+    }
+
+    public void testIdenticalDataSourceDefinitionsShareOneDataSource() throws MigrationException
+    {
+        factory = new JdbcMigrationLauncherFactory();
+        JdbcMigrationLauncher launcher = new JdbcMigrationLauncher();
+        Properties properties = MockBuilder.getPropertiesWithSystemConfiguration("anySystem",
+                OrderedMigrationRunnerStrategy.class.getName());
+        properties.setProperty("anySystem.jdbc.systems", "first,second,third");
+        String[] databases = {"first", "second", "third"};
+        for (int i = 0; i < databases.length; i++)
+        {
+            String prefix = "anySystem." + databases[i];
+            properties.setProperty(prefix + ".driver", "jdbcDriver");
+            properties.setProperty(prefix + ".url", i < 2 ? "jdbcUrl" : "otherJdbcUrl");
+            properties.setProperty(prefix + ".username", "jdbcUsername");
+            properties.setProperty(prefix + ".password", "jdbcPassword");
+            properties.setProperty(prefix + ".database.type", "hsqldb");
+        }
+        MigrationConfiguration configuration = new MigrationConfiguration(properties);
+
+        factory.configureFromMigrationProperties(launcher, "anySystem", configuration);
+
+        assertEquals(2, configuration.getDataSourceCount());
+        Map dataSources = new HashMap();
+        DatabaseType databaseType = null;
+        for (Iterator it = launcher.getContexts().keySet().iterator(); it.hasNext();)
+        {
+            DataSourceMigrationContext context = (DataSourceMigrationContext) it.next();
+            dataSources.put(context.getDatabaseName(), context.getDataSource());
+            if (databaseType != null)
+            {
+                assertSame(databaseType, context.getDatabaseType());
+            }
+            databaseType = context.getDatabaseType();
+        }
+        assertEquals(3, dataSources.size());
+        assertSame(dataSources.get("first"), dataSources.get("second"));
+        assertNotSame(dataSources.get("first"), dataSources.get("third"));
+    }
+
+    public void testAsynchronousListenersAreConfiguredFromProperties() throws MigrationException
+    {
+        factory = new JdbcMigrationLauncherFactory();
+        JdbcMigrationLauncher launcher = new JdbcMigrationLauncher();
+        Properties properties = MockBuilder.getPropertiesWithSystemConfiguration("anySystem",
+                OrderedMigrationRunnerStrategy.class.getName());
+        properties.setProperty("anySystem.async.listeners", TestListener1.class.getName());
+        properties.setProperty("anySystem.async.listeners.capacity", "16");
+        properties.setProperty("anySystem.async.listeners.overflow", "drop-oldest");
+
+        factory.configureFromMigrationProperties(launcher, "anySystem", properties);
+
+        List listeners = launcher.getMigrationProcess().getListeners();
+        assertEquals(2, listeners.size());
+        assertSame(launcher, listeners.get(0));
+        assertTrue(listeners.get(1).toString().startsWith("QueuedListener["));
+    }
+
+    /**
+     * Ensures the slow statement monitor is configured from the properties and
+     * watches every context of the launcher.
+     *
+     * @throws MigrationException if the launcher can't be configured
+     */
+    public void testSlowStatementMonitorIsConfiguredFromProperties() throws MigrationException
+    {
+        factory = new JdbcMigrationLauncherFactory();
+        JdbcMigrationLauncher launcher = new JdbcMigrationLauncher();
+        Properties properties = MockBuilder.getPropertiesWithSystemConfiguration("anySystem",
+                OrderedMigrationRunnerStrategy.class.getName());
+        properties.setProperty("anySystem.slow.statement.millis", "250");
+        properties.setProperty("anySystem.slow.statement.summary.size", "10");
+
+        factory.configureFromMigrationProperties(launcher, "anySystem", properties);
+
+        SlowStatementMonitor monitor = launcher.getSlowStatementMonitor();
+        assertEquals(250, monitor.getThresholdMillis());
+        assertEquals(10, monitor.getSummarySize());
+        DataSourceMigrationContext context =
+                (DataSourceMigrationContext) launcher.getContexts().keySet().iterator().next();
+        assertTrue(context.getStatementListeners().contains(monitor));
+    }
 }
@@ -22,6 +22,9 @@ import java.sql.SQLException;
 import java.util.*;
 
 import com.tacitknowledge.util.migration.*;
+import com.tacitknowledge.util.migration.metrics.MigrationTracer;
+import com.tacitknowledge.util.migration.metrics.MigrationTracing;
+import com.tacitknowledge.util.migration.metrics.TraceSpan;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 import org.easymock.MockControl;
@@ -34,6 +37,7 @@ import com.tacitknowledge.util.migration.jdbc.util.ConnectionWrapperDataSource;
 import static org.easymock.EasyMock.anyInt;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
 import static org.easymock.classextension.EasyMock.createControl;
 import static org.easymock.classextension.EasyMock.createStrictControl;
 
@@ -143,6 +147,7 @@ public class JdbcMigrationLauncherTest extends MigrationListenerTestBase {
         //Setting Dependencies
         rollbackLauncher = new JdbcMigrationLauncher();
 
+        rollbackMigrationProcessMock.setMetrics(rollbackLauncher.getMetrics());
         rollbackMigrationProcessMock.addListener(rollbackLauncher);
         rollbackMigrationProcessMock.addMigrationTaskSource(EasyMock.<MigrationTaskSource>anyObject());
         rollbackMigrationProcessMock.addMigrationTaskSource(EasyMock.<MigrationTaskSource>anyObject());
@@ -231,12 +236,23 @@ public class JdbcMigrationLauncherTest extends MigrationListenerTestBase {
 
         IMocksControl migrationRunnerStrategyControl = createStrictControl();
         MigrationRunnerStrategy migrationStrategyMock = migrationRunnerStrategyControl.createMock(MigrationRunnerStrategy.class);
+        expect(migrationStrategyMock.shouldMigrationRun(anyInt(), isA(PatchInfoStoreSnapshot.class))).andReturn(true).anyTimes();
         expect(migrationStrategyMock.shouldMigrationRun(anyInt(), eq(patchStore))).andReturn(true).anyTimes();
 
         patchStore.updatePatchLevel(4);
+        patchStore.recordPatchExecution(null);
+        mockControl.setMatcher(MockControl.ALWAYS_MATCHER);
         patchStore.updatePatchLevel(5);
+        patchStore.recordPatchExecution(null);
+        mockControl.setMatcher(MockControl.ALWAYS_MATCHER);
         patchStore.updatePatchLevel(6);
+        patchStore.recordPatchExecution(null);
+        mockControl.setMatcher(MockControl.ALWAYS_MATCHER);
         patchStore.updatePatchLevel(7);
+        patchStore.recordPatchExecution(null);
+        mockControl.setMatcher(MockControl.ALWAYS_MATCHER);
+        patchStore.updateCatalogFingerprint(null);
+        mockControl.setMatcher(MockControl.ALWAYS_MATCHER);
         patchStore.unlockPatchStore();
 
         mockControl.replay();
@@ -291,12 +307,23 @@ public class JdbcMigrationLauncherTest extends MigrationListenerTestBase {
 
         IMocksControl migrationRunnerStrategyControl = createStrictControl();
         MigrationRunnerStrategy migrationStrategyMock = migrationRunnerStrategyControl.createMock(MigrationRunnerStrategy.class);
+        expect(migrationStrategyMock.shouldMigrationRun(anyInt(), isA(PatchInfoStoreSnapshot.class))).andReturn(true).anyTimes();
         expect(migrationStrategyMock.shouldMigrationRun(anyInt(), eq(patchStore))).andReturn(true).anyTimes();
 
         patchStore.updatePatchLevel(4);
+        patchStore.recordPatchExecution(null);
+        mockControl.setMatcher(MockControl.ALWAYS_MATCHER);
         patchStore.updatePatchLevel(5);
+        patchStore.recordPatchExecution(null);
+        mockControl.setMatcher(MockControl.ALWAYS_MATCHER);
         patchStore.updatePatchLevel(6);
+        patchStore.recordPatchExecution(null);
+        mockControl.setMatcher(MockControl.ALWAYS_MATCHER);
         patchStore.updatePatchLevel(7);
+        patchStore.recordPatchExecution(null);
+        mockControl.setMatcher(MockControl.ALWAYS_MATCHER);
+        patchStore.updateCatalogFingerprint(null);
+        mockControl.setMatcher(MockControl.ALWAYS_MATCHER);
         patchStore.unlockPatchStore();
 
         TestJdbcMigrationLauncher testLauncher = new TestJdbcMigrationLauncher(context);
@@ -313,6 +340,104 @@ public class JdbcMigrationLauncherTest extends MigrationListenerTestBase {
         mockControl.verify();
     }
 
+    /**
+     * Test that a read-only launcher whose catalog fingerprint matches the one
+     * recorded in the patch store neither locks the store nor discovers patches
+     *
+     * @throws Exception if there is a problem
+     */
+    public void testReadOnlyDoMigrationsSkipsDiscoveryWhenCatalogFingerprintMatches() throws Exception {
+        MockControl mockControl = MockControl.createStrictControl(PatchInfoStore.class);
+        PatchInfoStore patchStore = (PatchInfoStore) mockControl.getMock();
+        patchStore.getCatalogFingerprint();
+        mockControl.setReturnValue("0123456789abcdef");
+        mockControl.replay();
+
+        TestJdbcMigrationLauncher testLauncher = new TestJdbcMigrationLauncher(context);
+        testLauncher.setReadOnly(true);
+        testLauncher.setCatalogFingerprint("0123456789abcdef");
+        testLauncher.setPatchStore(patchStore);
+        testLauncher.setPatchPath("com.tacitknowledge.util.migration.tasks.normal");
+
+        assertEquals(0, testLauncher.doMigrations());
+        mockControl.verify();
+    }
+
+    /**
+     * Test that a run applying no patches leaves an up-to-date catalog
+     * fingerprint alone
+     *
+     * @throws Exception if there is a problem
+     */
+    public void testUnchangedCatalogFingerprintIsNotRewritten() throws Exception {
+        TestJdbcMigrationLauncher testLauncher = new TestJdbcMigrationLauncher(context);
+        testLauncher.setPatchPath("com.tacitknowledge.util.migration.tasks.normal");
+        String fingerprint = testLauncher.getMigrationProcess().getCatalogFingerprint();
+
+        IMocksControl storeControl = createControl();
+        PatchInfoStore patchStore = storeControl.createMock(PatchInfoStore.class);
+        expect(patchStore.isPatchStoreLocked()).andStubReturn(false);
+        expect(patchStore.getPatchLevel()).andStubReturn(8);
+        expect(patchStore.getPatchesApplied()).andStubReturn(
+                new HashSet<Integer>(Arrays.asList(new Integer[] {4, 5, 6, 7, 8})));
+        expect(patchStore.isPatchApplied(anyInt())).andStubReturn(true);
+        patchStore.lockPatchStore();
+        EasyMock.expectLastCall().anyTimes();
+        patchStore.unlockPatchStore();
+        EasyMock.expectLastCall().anyTimes();
+        expect(patchStore.getCatalogFingerprint()).andReturn(fingerprint);
+        storeControl.replay();
+
+        testLauncher.setLockPollMillis(0);
+        testLauncher.setPatchStore(patchStore);
+        assertEquals(0, testLauncher.doMigrations());
+        storeControl.verify();
+    }
+
+    /**
+     * Test that failing to lock the patch store still ends the lock span
+     *
+     * @throws Exception if there is a problem
+     */
+    public void testFailedLockIsTraced() throws Exception {
+        TestJdbcMigrationLauncher testLauncher = new TestJdbcMigrationLauncher(context);
+        testLauncher.setPatchPath("com.tacitknowledge.util.migration.tasks.normal");
+
+        IMocksControl storeControl = EasyMock.createNiceControl();
+        PatchInfoStore patchStore = storeControl.createMock(PatchInfoStore.class);
+        patchStore.lockPatchStore();
+        EasyMock.expectLastCall().andThrow(new MigrationException("lock table is gone"));
+        storeControl.replay();
+        testLauncher.setLockPollMillis(0);
+        testLauncher.setPatchStore(patchStore);
+
+        final List<String> spans = new ArrayList<String>();
+        MigrationTracing.setTracer(new MigrationTracer() {
+            public TraceSpan begin(final String category, String name) {
+                return new TraceSpan() {
+                    private String outcome = " ended";
+
+                    public void fail(Throwable cause) {
+                        outcome = " failed";
+                    }
+
+                    public void end() {
+                        spans.add(category + outcome);
+                    }
+                };
+            }
+        });
+        try {
+            testLauncher.doMigrations();
+            fail("The lock should have failed");
+        } catch (MigrationException e) {
+            // we expect this
+        } finally {
+            MigrationTracing.setTracer(null);
+        }
+        assertTrue(spans.toString(), spans.contains(MigrationTracing.LOCK + " failed"));
+    }
+
     /**
      * Test that when a migrationSuccessful event fires.  If the
      * 'successful' patch level is less than the current patch level
@@ -0,0 +1,104 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.MigrationException;
+
+/**
+ * Tests the <code>MigrationReadiness</code>.
+ */
+public class MigrationReadinessTest extends TestCase
+{
+    /**
+     * The most milliseconds to wait for a background migration
+     */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Ensures a background migration that succeeds ends up ready.
+     *
+     * @throws Exception if the test is interrupted
+     */
+    public void testBackgroundMigrationBecomesReady() throws Exception
+    {
+        final MigrationReadiness readiness = new MigrationReadiness();
+        assertEquals(MigrationReadiness.PENDING, readiness.getState());
+        final String[] stateWhileRunning = new String[1];
+
+        readiness.startInBackground(new Callable<Integer>()
+        {
+            public Integer call()
+            {
+                stateWhileRunning[0] = readiness.getState();
+                return new Integer(3);
+            }
+        });
+
+        assertTrue(readiness.awaitCompletion(TIMEOUT_MILLIS));
+        assertEquals(MigrationReadiness.RUNNING, stateWhileRunning[0]);
+        assertEquals(MigrationReadiness.DONE, readiness.getState());
+        assertTrue(readiness.isReady());
+        assertEquals(3, readiness.getPatchesApplied());
+        assertNull(readiness.getFailure());
+    }
+
+    /**
+     * Ensures a background migration that fails publishes why.
+     *
+     * @throws Exception if the test is interrupted
+     */
+    public void testBackgroundMigrationFailureIsPublished() throws Exception
+    {
+        MigrationReadiness readiness = new MigrationReadiness();
+        final MigrationException failure = new MigrationException("patch 4 failed");
+
+        readiness.startInBackground(new Callable<Integer>()
+        {
+            public Integer call() throws MigrationException
+            {
+                throw failure;
+            }
+        });
+
+        assertTrue(readiness.awaitCompletion(TIMEOUT_MILLIS));
+        assertEquals(MigrationReadiness.FAILED, readiness.getState());
+        assertFalse(readiness.isReady());
+        assertSame(failure, readiness.getFailure());
+    }
+
+    /**
+     * Ensures lock waits are published, and a finished migration stays finished.
+     */
+    public void testLockWaitingUntilFinished()
+    {
+        MigrationReadiness readiness = new MigrationReadiness();
+        readiness.running();
+        readiness.lockWaiting();
+        assertEquals(MigrationReadiness.LOCK_WAITING, readiness.getState());
+        readiness.running();
+        assertEquals(MigrationReadiness.RUNNING, readiness.getState());
+
+        readiness.done(0);
+        readiness.lockWaiting();
+        readiness.failed(new IllegalStateException());
+        assertEquals(MigrationReadiness.DONE, readiness.getState());
+        assertTrue(readiness.isFinished());
+    }
+}
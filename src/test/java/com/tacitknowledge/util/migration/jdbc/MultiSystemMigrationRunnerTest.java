@@ -0,0 +1,266 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.ResourceDiscoveryCache;
+
+/**
+ * Tests migrating several systems in one process.
+ */
+public class MultiSystemMigrationRunnerTest extends TestCase
+{
+    /** the factory handing out the launchers */
+    private SystemLauncherFactory factory = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        factory = new SystemLauncherFactory();
+    }
+
+    /**
+     * Every system is patched, at most the given number at once, from a
+     * configuration read only once.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testAllSystemsArePatched() throws Exception
+    {
+        List<SystemMigrationResult> results = new MultiSystemMigrationRunner(factory, 2)
+                .execute(Arrays.asList("orders", "catalog", "billing", "reports"), null);
+
+        assertEquals(4, results.size());
+        assertEquals("orders", results.get(0).getSystemName());
+        assertEquals("reports", results.get(3).getSystemName());
+        for (SystemMigrationResult result : results)
+        {
+            assertTrue(result.isSucceeded());
+            assertEquals(3, result.getPatchCount());
+        }
+        assertEquals(1, factory.configurationsLoaded.get());
+        assertEquals("migration.properties", factory.settings);
+        assertEquals(4, factory.patched.size());
+        assertTrue(factory.maxRunning.get() <= 2);
+        assertFalse(ResourceDiscoveryCache.isOpen());
+    }
+
+    /**
+     * A failing system doesn't stop the others and is reported in the summary.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testFailureIsReported() throws Exception
+    {
+        factory.failing = "catalog";
+
+        List<SystemMigrationResult> results = new MultiSystemMigrationRunner(factory, 4)
+                .execute(Arrays.asList("orders", "catalog", "billing"), "other.properties");
+
+        assertEquals("other.properties", factory.settings);
+        assertTrue(results.get(0).isSucceeded());
+        assertEquals(SystemMigrationResult.FAILED, results.get(1).getStatus());
+        assertEquals("catalog failed", results.get(1).getFailure().getMessage());
+        assertTrue(results.get(2).isSucceeded());
+
+        String summary = MultiSystemMigrationRunner.summarize(results);
+        assertTrue(summary.startsWith("Migrated 2 of 3 systems, 1 failed:"));
+        assertTrue(summary.indexOf("catalog: FAILED") > -1);
+    }
+
+    /**
+     * Real in-memory databases are patched concurrently through real launchers,
+     * and each system's metrics file holds only its own patches.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testDatabasesArePatchedConcurrently() throws Exception
+    {
+        final Properties props = new Properties();
+        List<String> systems = Arrays.asList("multiorders", "multibilling");
+        Class.forName("org.hsqldb.jdbcDriver");
+        Connection[] databases = new Connection[systems.size()];
+        File[] metricsFiles = new File[systems.size()];
+        try
+        {
+            for (int i = 0; i < databases.length; i++)
+            {
+                String system = systems.get(i);
+                String url = "jdbc:hsqldb:mem:" + system;
+                databases[i] = DriverManager.getConnection(url, "sa", "");
+                metricsFiles[i] = File.createTempFile(system, ".prom");
+                props.setProperty(system + ".jdbc.database.type", "hsqldb");
+                props.setProperty(system + ".jdbc.driver", "org.hsqldb.jdbcDriver");
+                props.setProperty(system + ".jdbc.url", url);
+                props.setProperty(system + ".jdbc.username", "sa");
+                props.setProperty(system + ".jdbc.password", "");
+                props.setProperty(system + ".patch.path", "com.tacitknowledge.util.migration.jdbc.alter");
+                props.setProperty(system + ".metrics.prometheus.file", metricsFiles[i].getPath());
+            }
+            JdbcMigrationLauncherFactory realFactory = new JdbcMigrationLauncherFactory()
+            {
+                public MigrationConfiguration loadConfiguration(String propFile)
+                {
+                    return new MigrationConfiguration(props);
+                }
+            };
+
+            List<SystemMigrationResult> results =
+                    new MultiSystemMigrationRunner(realFactory, 2).execute(systems, null);
+
+            for (int i = 0; i < databases.length; i++)
+            {
+                SystemMigrationResult result = results.get(i);
+                assertTrue(String.valueOf(result.getFailure()), result.isSucceeded());
+                assertEquals(3, result.getPatchCount());
+
+                ResultSet rs = databases[i].createStatement().executeQuery(
+                        "SELECT patch_level FROM patch_summary WHERE system_name = '"
+                                + systems.get(i) + "'");
+                assertTrue(rs.next());
+                assertEquals(3, rs.getInt(1));
+
+                Properties written = new Properties();
+                FileInputStream in = new FileInputStream(metricsFiles[i]);
+                try
+                {
+                    written.load(in);
+                }
+                finally
+                {
+                    in.close();
+                }
+                assertEquals("3", written.getProperty("autopatch_patches_applied_total"));
+            }
+        }
+        finally
+        {
+            for (int i = 0; i < databases.length; i++)
+            {
+                if (databases[i] != null)
+                {
+                    databases[i].createStatement().execute("SHUTDOWN");
+                }
+                if (metricsFiles[i] != null)
+                {
+                    metricsFiles[i].delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * System name lists are split on commas, ignoring blanks and duplicates.
+     */
+    public void testSystemNamesAreSplit()
+    {
+        assertEquals(Arrays.asList("orders"), StandaloneMigrationLauncher.getSystemNames("orders"));
+        assertEquals(Arrays.asList("orders", "catalog"),
+                StandaloneMigrationLauncher.getSystemNames(" orders, catalog,,orders "));
+    }
+
+    /**
+     * Hands out launchers that pretend to patch their system, and keeps track
+     * of how many systems are patched at once.
+     */
+    private static class SystemLauncherFactory extends JdbcMigrationLauncherFactory
+    {
+        /** the system that fails to patch */
+        private String failing = null;
+
+        /** the settings file that was read */
+        private String settings = null;
+
+        /** the number of times the settings were read */
+        private AtomicInteger configurationsLoaded = new AtomicInteger();
+
+        /** the systems that were patched */
+        private Set<String> patched =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        /** the number of systems being patched */
+        private AtomicInteger running = new AtomicInteger();
+
+        /** the most systems patched at once */
+        private AtomicInteger maxRunning = new AtomicInteger();
+
+        /**
+         * {@inheritDoc}
+         */
+        public MigrationConfiguration loadConfiguration(String propFile)
+        {
+            settings = propFile;
+            configurationsLoaded.incrementAndGet();
+            return new MigrationConfiguration(new Properties());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public JdbcMigrationLauncher createMigrationLauncher(final String systemName,
+                MigrationConfiguration configuration)
+        {
+            return new JdbcMigrationLauncher()
+            {
+                public int doMigrations() throws MigrationException
+                {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning)
+                    {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    try
+                    {
+                        assertTrue(ResourceDiscoveryCache.isOpen());
+                        Thread.sleep(20);
+                        if (systemName.equals(failing))
+                        {
+                            throw new MigrationException(systemName + " failed");
+                        }
+                        patched.add(systemName);
+                        return 3;
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new MigrationException("Interrupted", e);
+                    }
+                    finally
+                    {
+                        running.decrementAndGet();
+                    }
+                }
+            };
+        }
+    }
+}
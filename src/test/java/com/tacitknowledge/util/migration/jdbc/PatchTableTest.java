@@ -16,7 +16,10 @@
 package com.tacitknowledge.util.migration.jdbc;
 
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.easymock.MockControl;
@@ -26,6 +29,8 @@ import com.mockrunner.jdbc.PreparedStatementResultSetHandler;
 import com.mockrunner.mock.jdbc.MockConnection;
 import com.mockrunner.mock.jdbc.MockResultSet;
 import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.PatchExecution;
+import com.tacitknowledge.util.migration.StatementPlan;
 import com.tacitknowledge.util.migration.jdbc.util.ConnectionWrapperDataSource;
 
 /**
@@ -114,6 +119,7 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         // Test-specific setup
         PreparedStatementResultSetHandler h = conn.getPreparedStatementResultSetHandler();
         h.prepareThrowsSQLException(table.getSql("level.table.exists"));
+        h.prepareThrowsSQLException(table.getSql("summary.table.exists"));
         
         table.createPatchStoreIfNeeded();
 
@@ -121,6 +127,8 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         verifyCommitted();
         verifyPreparedStatementParameter(0, 1, "milestone");
         verifySQLStatementExecuted(table.getSql("patches.create"));
+        verifySQLStatementExecuted(table.getSql("summary.create"));
+        verifyPreparedStatementParameter(table.getSql("summary.record.create"), 1, "milestone");
     }
     
     /**
@@ -206,12 +214,14 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         // empty result set
         handler.prepareResultSet(table.getSql("level.read"), rs);
         handler.prepareThrowsSQLException(table.getSql("level.table.exists"));
+        handler.prepareThrowsSQLException(table.getSql("summary.table.exists"));
 
         int i = table.getPatchLevel();
 
         assertEquals(0, i);
         commonVerifications();
         verifyPreparedStatementPresent(table.getSql("level.create"));
+        verifyPreparedStatementPresent(table.getSql("summary.record.create"));
     }
 
     /**
@@ -232,6 +242,51 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         
         verifyPreparedStatementParameter(table.getSql("level.update"), 1, new Integer(13));
         verifyPreparedStatementParameter(table.getSql("level.update"), 2, "milestone");
+        verifyPreparedStatementParameter(table.getSql("summary.level.update"), 1, new Integer(13));
+        verifyPreparedStatementParameter(table.getSql("summary.level.update"), 2, "milestone");
+        verifyPreparedStatementParameter(table.getSql("summary.level.update"), 3, new Integer(13));
+        commonVerifications();
+        verifyCommitted();
+    }
+
+    /**
+     * Validates that rolling back a patch removes it from the history and
+     * recomputes the summary level in the same transaction.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testUpdatePatchLevelAfterRollBack() throws Exception
+    {
+        ensurePatchTableExists();
+        MockResultSet rs = handler.createResultSet();
+        rs.addRow(new Integer[]{new Integer(13)});
+        handler.prepareResultSet(table.getSql("level.read"), rs, new String[]{"milestone"});
+
+        table.updatePatchLevelAfterRollBack(13);
+
+        verifyPreparedStatementParameter(table.getSql("level.rollback"), 1, new Integer(13));
+        verifyPreparedStatementParameter(table.getSql("summary.level.rollback"), 1, "milestone");
+        verifyPreparedStatementParameter(table.getSql("summary.level.rollback"), 2, "milestone");
+        commonVerifications();
+        verifyCommitted();
+    }
+
+    /**
+     * Validates that an existing patches table without a summary table gets
+     * one seeded from its history.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testCreateSummaryTableForExistingPatchesTable() throws Exception
+    {
+        ensurePatchTableExists();
+        handler.prepareThrowsSQLException(table.getSql("summary.table.exists"));
+
+        table.createPatchStoreIfNeeded();
+
+        verifyPreparedStatementNotPresent(table.getSql("patches.create"));
+        verifySQLStatementExecuted(table.getSql("summary.create"));
+        verifyPreparedStatementParameter(table.getSql("summary.record.create"), 1, "milestone");
         commonVerifications();
         verifyCommitted();
     }
@@ -250,7 +305,7 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         handler = conn.getPreparedStatementResultSetHandler();
         MockResultSet rs = handler.createResultSet();
         rs.addRow(new String[]{"F"});
-        handler.prepareResultSet(table.getSql("lock.read"), rs, new String[]{"milestone", "milestone"});
+        handler.prepareResultSet(table.getSql("lock.read"), rs, new String[]{"milestone"});
         
         assertFalse(table.isPatchStoreLocked());
         commonVerifications();
@@ -271,7 +326,7 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         handler = conn.getPreparedStatementResultSetHandler();
         MockResultSet rs = handler.createResultSet();
         rs.addRow(new String[]{"T"});
-        handler.prepareResultSet(table.getSql("lock.read"), rs, new String[]{"milestone", "milestone"});
+        handler.prepareResultSet(table.getSql("lock.read"), rs, new String[]{"milestone"});
         
         assertTrue(table.isPatchStoreLocked());
         commonVerifications();
@@ -291,7 +346,7 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         // Test-specific setup
         // Return a non-empty set in response to the patch lock query
         handler = conn.getPreparedStatementResultSetHandler();
-        handler.prepareUpdateCount(table.getSql("lock.obtain"), 0, new String[] {"milestone", "milestone"});
+        handler.prepareUpdateCount(table.getSql("lock.obtain"), 0, new String[] {"milestone"});
         
         try
         {
@@ -304,7 +359,6 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         }
         
         verifyPreparedStatementParameter(table.getSql("lock.obtain"), 1, "milestone");
-        verifyPreparedStatementParameter(table.getSql("lock.obtain"), 2, "milestone");
         commonVerifications();
         verifyCommitted();
     }
@@ -323,11 +377,10 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         // Return an empty set in response to the patch lock query
         handler = conn.getPreparedStatementResultSetHandler();
         MockResultSet rs = handler.createResultSet();
-        handler.prepareUpdateCount(table.getSql("lock.obtain"), 1, new String[] {"milestone", "milestone"});
+        handler.prepareUpdateCount(table.getSql("lock.obtain"), 1, new String[] {"milestone"});
         
         table.lockPatchStore();
         verifyPreparedStatementParameter(table.getSql("lock.obtain"), 1, "milestone");
-        verifyPreparedStatementParameter(table.getSql("lock.obtain"), 2, "milestone");
         commonVerifications();
         verifyCommitted();
     }
@@ -346,6 +399,230 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         verifyCommitted();
     }
 
+    /**
+     * Validates that the recorded catalog fingerprint is read with one query.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testGetCatalogFingerprint() throws Exception
+    {
+        handler = conn.getPreparedStatementResultSetHandler();
+        MockResultSet rs = handler.createResultSet();
+        rs.addRow(new String[]{"0123456789abcdef"});
+        handler.prepareResultSet(table.getSql("fingerprint.read"), rs, new String[]{"milestone"});
+
+        assertEquals("0123456789abcdef", table.getCatalogFingerprint());
+        commonVerifications();
+        verifyNotCommitted();
+        verifyPreparedStatementNotPresent(table.getSql("level.table.exists"));
+    }
+
+    /**
+     * Validates that a missing summary table means no fingerprint was recorded.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testGetCatalogFingerprintWithoutSummaryTable() throws Exception
+    {
+        handler = conn.getPreparedStatementResultSetHandler();
+        handler.prepareThrowsSQLException(table.getSql("fingerprint.read"));
+
+        assertNull(table.getCatalogFingerprint());
+        verifyPreparedStatementNotPresent(table.getSql("summary.create"));
+    }
+
+    /**
+     * Validates that recording a fingerprint creates the summary table and record
+     * when they don't exist yet.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testUpdateCatalogFingerprintCreatesSummaryTable() throws Exception
+    {
+        ensurePatchTableExists();
+        handler.prepareThrowsSQLException(table.getSql("summary.table.exists"));
+
+        table.updateCatalogFingerprint("0123456789abcdef");
+
+        verifySQLStatementExecuted(table.getSql("summary.create"));
+        verifyPreparedStatementParameter(table.getSql("summary.record.create"), 1, "milestone");
+        verifyPreparedStatementParameter(table.getSql("fingerprint.update"), 1, "0123456789abcdef");
+        verifyPreparedStatementParameter(table.getSql("fingerprint.update"), 2, "milestone");
+        commonVerifications();
+        verifyCommitted();
+    }
+
+    /**
+     * Validates that recording a fingerprint for an existing summary record only
+     * updates it.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testUpdateCatalogFingerprint() throws Exception
+    {
+        ensurePatchTableExists();
+
+        table.updateCatalogFingerprint("0123456789abcdef");
+
+        verifyPreparedStatementNotPresent(table.getSql("summary.create"));
+        verifyPreparedStatementNotPresent(table.getSql("summary.record.create"));
+        verifyPreparedStatementParameter(table.getSql("fingerprint.update"), 1, "0123456789abcdef");
+        commonVerifications();
+        verifyCommitted();
+    }
+
+    /**
+     * Validates that a patch execution is written to the history table.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testRecordPatchExecution() throws Exception
+    {
+        ensurePatchTableExists();
+        PatchExecution execution = new PatchExecution();
+        execution.setPatchLevel(4);
+        execution.setPatchName("patch0004_add_index");
+        execution.setOperation(PatchExecution.APPLY);
+        execution.setOutcome(PatchExecution.SUCCESS);
+        execution.setStarted(new Date(1000L));
+        execution.setDurationMillis(250L);
+        execution.setStatementCount(3);
+        execution.setRowsAffected(12);
+        execution.setChecksum("0123456789abcdef");
+        execution.setHostName("db-host");
+        execution.setOwnerName("deployer");
+
+        table.recordPatchExecution(execution);
+
+        String sql = table.getSql("history.insert");
+        verifyPreparedStatementParameter(sql, 1, "milestone");
+        verifyPreparedStatementParameter(sql, 2, new Integer(4));
+        verifyPreparedStatementParameter(sql, 3, "patch0004_add_index");
+        verifyPreparedStatementParameter(sql, 4, PatchExecution.APPLY);
+        verifyPreparedStatementParameter(sql, 5, PatchExecution.SUCCESS);
+        verifyPreparedStatementParameter(sql, 6, new Timestamp(1000L));
+        verifyPreparedStatementParameter(sql, 7, new Long(250L));
+        verifyPreparedStatementParameter(sql, 8, new Integer(3));
+        verifyPreparedStatementParameter(sql, 9, new Integer(12));
+        verifyPreparedStatementParameter(sql, 10, "0123456789abcdef");
+        commonVerifications();
+        verifyCommitted();
+    }
+
+    /**
+     * Validates that the plans of a patch's slow statements are written with
+     * its execution record.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testRecordPatchExecutionWithStatementPlans() throws Exception
+    {
+        ensurePatchTableExists();
+        PatchExecution execution = new PatchExecution();
+        execution.setPatchLevel(4);
+        execution.setPatchName("patch0004_add_index");
+        execution.setStarted(new Date(1000L));
+        StatementPlan plan = new StatementPlan();
+        plan.setStatementIndex(7);
+        plan.setDurationMillis(40000L);
+        plan.setSql("UPDATE orders SET status = 'X'");
+        plan.setPlan("FULL SCAN orders");
+        execution.getStatementPlans().add(plan);
+
+        table.recordPatchExecution(execution);
+
+        String sql = table.getSql("plans.insert");
+        verifyPreparedStatementParameter(sql, 1, "milestone");
+        verifyPreparedStatementParameter(sql, 2, new Integer(4));
+        verifyPreparedStatementParameter(sql, 3, PatchExecution.APPLY);
+        verifyPreparedStatementParameter(sql, 4, new Timestamp(1000L));
+        verifyPreparedStatementParameter(sql, 5, new Integer(7));
+        verifyPreparedStatementParameter(sql, 6, new Long(40000L));
+        verifyPreparedStatementParameter(sql, 8, "FULL SCAN orders");
+        commonVerifications();
+        verifyCommitted();
+    }
+
+    /**
+     * Validates that the execution history of a single patch is read back.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testGetPatchExecutionsForLevel() throws Exception
+    {
+        ensurePatchTableExists();
+        MockResultSet rs = handler.createResultSet();
+        rs.addColumn("patch_level", new Object[]{new Integer(4)});
+        rs.addColumn("patch_name", new Object[]{"patch0004_add_index"});
+        rs.addColumn("patch_operation", new Object[]{PatchExecution.APPLY});
+        rs.addColumn("patch_outcome", new Object[]{PatchExecution.FAILURE});
+        rs.addColumn("started", new Object[]{new Timestamp(1000L)});
+        rs.addColumn("duration_millis", new Object[]{new Long(250L)});
+        rs.addColumn("statement_count", new Object[]{new Integer(2)});
+        rs.addColumn("rows_affected", new Object[]{new Integer(0)});
+        rs.addColumn("checksum", new Object[]{"0123456789abcdef"});
+        rs.addColumn("host_name", new Object[]{"db-host"});
+        rs.addColumn("owner_name", new Object[]{"deployer"});
+        handler.prepareResultSet(table.getSql("history.read.level"), rs,
+                new Object[]{"milestone", new Integer(4)});
+        MockResultSet plans = handler.createResultSet();
+        plans.addColumn("patch_level", new Object[]{new Integer(4)});
+        plans.addColumn("patch_operation", new Object[]{PatchExecution.APPLY});
+        plans.addColumn("started", new Object[]{new Timestamp(1000L)});
+        plans.addColumn("statement_index", new Object[]{new Integer(1)});
+        plans.addColumn("duration_millis", new Object[]{new Long(200L)});
+        plans.addColumn("statement_sql", new Object[]{"UPDATE orders SET status = 'X'"});
+        plans.addColumn("execution_plan", new Object[]{"FULL SCAN orders"});
+        handler.prepareResultSet(table.getSql("plans.read.level"), plans,
+                new Object[]{"milestone", new Integer(4)});
+
+        List<PatchExecution> executions = table.getPatchExecutions(4);
+
+        assertEquals(1, executions.size());
+        PatchExecution execution = executions.get(0);
+        assertEquals(4, execution.getPatchLevel());
+        assertEquals(PatchExecution.FAILURE, execution.getOutcome());
+        assertEquals(1000L, execution.getStarted().getTime());
+        assertEquals(250L, execution.getDurationMillis());
+        assertEquals(2, execution.getStatementCount());
+        assertEquals("deployer", execution.getOwnerName());
+        assertEquals(1, execution.getStatementPlans().size());
+        assertEquals("FULL SCAN orders", execution.getStatementPlans().get(0).getPlan());
+        commonVerifications();
+    }
+
+    /**
+     * Validates that reading the execution history doesn't create the plan
+     * table when it is missing.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testGetPatchExecutionsWithoutPlanTable() throws Exception
+    {
+        ensurePatchTableExists();
+        MockResultSet rs = handler.createResultSet();
+        rs.addColumn("patch_level", new Object[]{new Integer(4)});
+        rs.addColumn("patch_name", new Object[]{"patch0004_add_index"});
+        rs.addColumn("patch_operation", new Object[]{PatchExecution.APPLY});
+        rs.addColumn("patch_outcome", new Object[]{PatchExecution.SUCCESS});
+        rs.addColumn("started", new Object[]{new Timestamp(1000L)});
+        rs.addColumn("duration_millis", new Object[]{new Long(250L)});
+        rs.addColumn("statement_count", new Object[]{new Integer(2)});
+        rs.addColumn("rows_affected", new Object[]{new Integer(0)});
+        rs.addColumn("checksum", new Object[]{"0123456789abcdef"});
+        rs.addColumn("host_name", new Object[]{"db-host"});
+        rs.addColumn("owner_name", new Object[]{"deployer"});
+        handler.prepareResultSet(table.getSql("history.read"), rs, new Object[]{"milestone"});
+        handler.prepareThrowsSQLException(table.getSql("plans.table.exists"));
+
+        List<PatchExecution> executions = table.getPatchExecutions();
+
+        assertEquals(1, executions.size());
+        assertTrue(executions.get(0).getStatementPlans().isEmpty());
+        verifyPreparedStatementNotPresent(table.getSql("plans.create"));
+        verifyPreparedStatementNotPresent(table.getSql("plans.read"));
+    }
+
     public void testIsPatchApplied() throws MigrationException
     {
         handler = conn.getPreparedStatementResultSetHandler();
@@ -420,6 +697,9 @@ public class PatchTableTest extends JDBCTestCaseAdapter
         MockResultSet rs = handler.createResultSet();
         rs.addRow(new Integer[]{new Integer(0)});
         handler.prepareResultSet(table.getSql("level.table.exists"), rs, new String[]{"milestone"});
+        MockResultSet summaryRs = handler.createResultSet();
+        summaryRs.addRow(new String[]{"milestone"});
+        handler.prepareResultSet(table.getSql("summary.table.exists"), summaryRs, new String[]{"milestone"});
     }
 
 
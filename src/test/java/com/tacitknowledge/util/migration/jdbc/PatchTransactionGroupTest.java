@@ -0,0 +1,193 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.MigrationProcess;
+import com.tacitknowledge.util.migration.MigrationTask;
+import com.tacitknowledge.util.migration.OrderedMigrationRunnerStrategy;
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+
+/**
+ * Exercises bootstrapping a fresh in-memory HSQLDB with its SQL patches
+ * coalesced into shared transactions.
+ */
+public class PatchTransactionGroupTest extends TestCase
+{
+    /**
+     * The URL of the in-memory database
+     */
+    private static final String URL = "jdbc:hsqldb:mem:bootstrap";
+
+    /**
+     * A connection to the in-memory database, for checking the results
+     */
+    private Connection conn = null;
+
+    /**
+     * The patches the launcher applies
+     */
+    private List<MigrationTask> tasks = new ArrayList<MigrationTask>();
+
+    /**
+     * The launcher under test
+     */
+    private JdbcMigrationLauncher launcher = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Class.forName("org.hsqldb.jdbcDriver");
+        conn = DriverManager.getConnection(URL, "sa", "");
+        conn.createStatement().execute("CREATE TABLE bootstrapped (id INT)");
+
+        NonPooledDataSource dataSource = new NonPooledDataSource();
+        dataSource.setDriverClass("org.hsqldb.jdbcDriver");
+        dataSource.setDatabaseUrl(URL);
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+
+        // HSQLDB commits DDL, but the patches here only insert rows
+        DataSourceMigrationContext context = new DataSourceMigrationContext();
+        context.setDatabaseType(new DatabaseType("hsqldb")
+        {
+            public boolean isTransactionalDdlSupported()
+            {
+                return true;
+            }
+        });
+        context.setSystemName("bootstrap");
+        context.setDataSource(dataSource);
+
+        launcher = new JdbcMigrationLauncher();
+        launcher.addContext(context);
+        MigrationProcess process = new MigrationProcess()
+        {
+            public List<MigrationTask> getMigrationTasks()
+            {
+                return new ArrayList<MigrationTask>(tasks);
+            }
+        };
+        process.setMigrationRunnerStrategy(new OrderedMigrationRunnerStrategy());
+        launcher.setMigrationProcess(process);
+        launcher.setBootstrapGroupSize(4);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        conn.createStatement().execute("SHUTDOWN");
+        super.tearDown();
+    }
+
+    /**
+     * Tests that every patch of a fresh database is applied and recorded when
+     * the patches share transactions.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testBootstrapAppliesEveryPatch() throws Exception
+    {
+        addPatches(1, 10);
+
+        assertEquals(10, launcher.doMigrations());
+
+        assertEquals(10, count("SELECT COUNT(*) FROM bootstrapped"));
+        assertEquals(10, count("SELECT COUNT(*) FROM patches WHERE system_name = 'bootstrap' AND patch_level > 0"));
+        assertEquals(10, count("SELECT patch_level FROM patch_summary WHERE system_name = 'bootstrap'"));
+        assertEquals(0, count("SELECT COUNT(*) FROM patch_summary WHERE patch_in_progress = 'T'"));
+    }
+
+    /**
+     * Tests that a failing patch is reported on its own, and that the patches
+     * before it in its transaction are kept.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testFailureIsAttributedToThePatch() throws Exception
+    {
+        addPatches(1, 5);
+        tasks.add(new SqlScriptMigrationTask("patch0006_broken", 6,
+                "INSERT INTO bootstrapped VALUES (6);\nINSERT INTO missing VALUES (6);"));
+        addPatches(7, 10);
+
+        try
+        {
+            launcher.doMigrations();
+            fail("The broken patch should fail the migration");
+        }
+        catch (MigrationException e)
+        {
+            assertTrue(e.getMessage().indexOf("patch0006_broken") > -1);
+        }
+
+        assertEquals(5, count("SELECT COUNT(*) FROM bootstrapped"));
+        assertEquals(0, count("SELECT COUNT(*) FROM bootstrapped WHERE id = 6"));
+        assertEquals(5, count("SELECT MAX(patch_level) FROM patches WHERE system_name = 'bootstrap'"));
+        assertEquals(5, count("SELECT patch_level FROM patch_summary WHERE system_name = 'bootstrap'"));
+        assertEquals(0, count("SELECT COUNT(*) FROM patch_summary WHERE patch_in_progress = 'T'"));
+
+        // a second run carries on from the failed patch, one patch per transaction
+        tasks.set(5, new SqlScriptMigrationTask("patch0006_fixed", 6,
+                "INSERT INTO bootstrapped VALUES (6);"));
+        assertEquals(5, launcher.doMigrations());
+        assertEquals(10, count("SELECT COUNT(*) FROM bootstrapped"));
+    }
+
+    /**
+     * Adds patches that each insert their level into the table.
+     *
+     * @param first the level of the first patch
+     * @param last  the level of the last patch
+     */
+    private void addPatches(int first, int last)
+    {
+        for (int level = first; level <= last; level++)
+        {
+            tasks.add(new SqlScriptMigrationTask("patch000" + level, level,
+                    "INSERT INTO bootstrapped VALUES (" + level + ");"));
+        }
+    }
+
+    /**
+     * Runs a query returning a single number.
+     *
+     * @param sql the query
+     * @return the number
+     * @throws Exception if the query fails
+     */
+    private int count(String sql) throws Exception
+    {
+        ResultSet rs = conn.createStatement().executeQuery(sql);
+        rs.next();
+        int count = rs.getInt(1);
+        rs.close();
+        return count;
+    }
+}
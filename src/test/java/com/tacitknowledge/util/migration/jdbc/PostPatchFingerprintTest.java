@@ -0,0 +1,138 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+
+/**
+ * Exercises skipping post-patch tasks whose fingerprint is recorded unchanged
+ * in an in-memory HSQLDB patch store.
+ */
+public class PostPatchFingerprintTest extends TestCase
+{
+    /**
+     * The URL of the in-memory database
+     */
+    private static final String URL = "jdbc:hsqldb:mem:postpatch";
+
+    /**
+     * A connection to the in-memory database, for checking the results
+     */
+    private Connection conn = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Class.forName("org.hsqldb.jdbcDriver");
+        conn = DriverManager.getConnection(URL, "sa", "");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        conn.createStatement().execute("SHUTDOWN");
+        super.tearDown();
+    }
+
+    /**
+     * Tests that a fingerprinted post-patch task runs once, and again only
+     * when the patch level changes.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testUnchangedTasksAreSkipped() throws Exception
+    {
+        assertEquals(3, newLauncher(true).doMigrations());
+        assertEquals(1, countRefreshes());
+
+        assertEquals(0, newLauncher(true).doMigrations());
+        assertEquals(1, countRefreshes());
+
+        conn.createStatement().execute(
+                "UPDATE patch_summary SET patch_level = 4 WHERE system_name = 'postpatch'");
+        newLauncher(true).doMigrations();
+        assertEquals(2, countRefreshes());
+    }
+
+    /**
+     * Tests that post-patch tasks run on every launch unless fingerprinting
+     * is turned on.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testTasksAlwaysRunWithoutFingerprinting() throws Exception
+    {
+        newLauncher(false).doMigrations();
+        newLauncher(false).doMigrations();
+        assertEquals(2, countRefreshes());
+
+        newLauncher(true).doMigrations();
+        assertEquals(3, countRefreshes());
+        newLauncher(true).doMigrations();
+        assertEquals(3, countRefreshes());
+    }
+
+    /**
+     * Creates a launcher for the test patches and post-patch tasks.
+     *
+     * @param fingerprinting whether post-patch tasks are fingerprinted
+     * @return a new launcher
+     */
+    private JdbcMigrationLauncher newLauncher(boolean fingerprinting)
+    {
+        NonPooledDataSource dataSource = new NonPooledDataSource();
+        dataSource.setDriverClass("org.hsqldb.jdbcDriver");
+        dataSource.setDatabaseUrl(URL);
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+
+        DataSourceMigrationContext context = new DataSourceMigrationContext();
+        context.setDatabaseType(new DatabaseType("hsqldb"));
+        context.setSystemName("postpatch");
+        context.setDataSource(dataSource);
+
+        JdbcMigrationLauncher launcher = new JdbcMigrationLauncher();
+        launcher.setMigrationProcess(launcher.getNewMigrationProcess());
+        launcher.setPatchPath("com.tacitknowledge.util.migration.jdbc.baseline");
+        launcher.setPostPatchPath("com.tacitknowledge.util.migration.jdbc.postpatch");
+        launcher.setPostPatchFingerprinting(fingerprinting);
+        launcher.addContext(context);
+        return launcher;
+    }
+
+    /**
+     * @return the number of times the post-patch task has run
+     * @throws Exception if an unexpected error occurs
+     */
+    private int countRefreshes() throws Exception
+    {
+        ResultSet rs = conn.createStatement().executeQuery(
+                "SELECT COUNT(*) FROM baselined WHERE id = 100");
+        assertTrue(rs.next());
+        return rs.getInt(1);
+    }
+}
@@ -0,0 +1,377 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.ResourceDiscoveryCache;
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+
+/**
+ * Tests patching the contexts of a launcher as shards.
+ */
+public class ShardRolloutExecutorTest extends TestCase
+{
+    /** the launcher under test */
+    private ShardLauncher launcher = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        launcher = new ShardLauncher();
+        launcher.setShardConcurrency(4);
+    }
+
+    /**
+     * Every shard is patched and the patch counts of all of them are returned.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testAllShardsArePatched() throws Exception
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            addShard("tenant" + i, "db" + (i % 3));
+        }
+
+        assertEquals(20, launcher.doMigrations());
+
+        ShardRolloutSummary summary = launcher.getLastShardRollout();
+        assertEquals(10, summary.getShardCount(ShardProgress.SUCCEEDED));
+        assertFalse(summary.isAborted());
+        assertEquals("tenant0", summary.getShards().get(0).getShardName());
+        assertEquals("db0", summary.getShards().get(0).getHost());
+        assertEquals(10, launcher.patched.size());
+        assertTrue(launcher.maxRunning.get() <= 4);
+        assertEquals(0, launcher.unscoped.get());
+        assertFalse(ResourceDiscoveryCache.isOpen());
+    }
+
+    /**
+     * No more shards of one host than the per-host limit are patched at once.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testConcurrencyPerHostIsBounded() throws Exception
+    {
+        launcher.setShardConcurrencyPerHost(1);
+        for (int i = 0; i < 6; i++)
+        {
+            addShard("tenant" + i, "db" + (i % 2));
+        }
+
+        launcher.doMigrations();
+
+        assertEquals(6, launcher.patched.size());
+        assertTrue(launcher.maxRunning.get() <= 2);
+        assertTrue(launcher.maxRunningOnHost.get() <= 1);
+    }
+
+    /**
+     * Once the failure budget is used up, the remaining shards are skipped and
+     * the rollout fails.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testFailureBudgetStopsRollout() throws Exception
+    {
+        launcher.setShardConcurrency(2);
+        launcher.setShardConcurrencyPerHost(1);
+        addShard("tenant0", "db0");
+        addShard("tenant1", "db0");
+        addShard("tenant2", "db0");
+        launcher.failing.add("tenant0");
+
+        try
+        {
+            launcher.doMigrations();
+            fail("A failed shard should fail the rollout");
+        }
+        catch (MigrationException e)
+        {
+            assertTrue(e.getMessage().indexOf("tenant0") > -1);
+        }
+
+        ShardRolloutSummary summary = launcher.getLastShardRollout();
+        assertTrue(summary.isAborted());
+        assertEquals(ShardProgress.FAILED, summary.getShards().get(0).getStatus());
+        assertEquals(ShardProgress.SKIPPED, summary.getShards().get(1).getStatus());
+        assertEquals(ShardProgress.SKIPPED, summary.getShards().get(2).getStatus());
+        assertEquals(0, launcher.patched.size());
+    }
+
+    /**
+     * Failures within the budget don't stop the other shards, but still fail
+     * the rollout.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testFailuresWithinBudgetAreReported() throws Exception
+    {
+        launcher.setShardFailureBudget(1);
+        addShard("tenant0", "db0");
+        addShard("tenant1", "db1");
+        addShard("tenant2", "db2");
+        launcher.failing.add("tenant1");
+
+        try
+        {
+            launcher.doMigrations();
+            fail("A failed shard should fail the rollout");
+        }
+        catch (MigrationException e)
+        {
+            assertTrue(e.getMessage().startsWith("1 of 3 shards"));
+        }
+
+        ShardRolloutSummary summary = launcher.getLastShardRollout();
+        assertFalse(summary.isAborted());
+        assertEquals(2, summary.getShardCount(ShardProgress.SUCCEEDED));
+        assertEquals(4, summary.getPatchCount());
+        assertEquals("tenant1", summary.getShards(ShardProgress.FAILED).get(0).getShardName());
+    }
+
+    /**
+     * Without a shard concurrency the contexts are patched one after another.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testShardingIsOffByDefault() throws Exception
+    {
+        launcher.setShardConcurrency(1);
+        addShard("tenant0", "db0");
+        addShard("tenant1", "db0");
+
+        assertEquals(4, launcher.doMigrations());
+
+        assertNull(launcher.getLastShardRollout());
+        assertEquals(2, launcher.patched.size());
+    }
+
+    /**
+     * Real in-memory databases are patched concurrently through the launcher,
+     * each getting its own patches and patch level.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testDatabasesArePatchedConcurrently() throws Exception
+    {
+        JdbcMigrationLauncher realLauncher = new JdbcMigrationLauncher();
+        realLauncher.setMigrationProcess(realLauncher.getNewMigrationProcess());
+        realLauncher.setPatchPath("com.tacitknowledge.util.migration.jdbc.alter");
+        realLauncher.setShardConcurrency(3);
+
+        Class.forName("org.hsqldb.jdbcDriver");
+        Connection[] shards = new Connection[3];
+        try
+        {
+            for (int i = 0; i < shards.length; i++)
+            {
+                String url = "jdbc:hsqldb:mem:shard" + i;
+                shards[i] = DriverManager.getConnection(url, "sa", "");
+
+                NonPooledDataSource dataSource = new NonPooledDataSource();
+                dataSource.setDriverClass("org.hsqldb.jdbcDriver");
+                dataSource.setDatabaseUrl(url);
+                dataSource.setUsername("sa");
+                dataSource.setPassword("");
+                DataSourceMigrationContext context = new DataSourceMigrationContext();
+                context.setDatabaseType(new DatabaseType("hsqldb"));
+                context.setSystemName("shards");
+                context.setDatabaseName("shard" + i);
+                context.setDataSource(dataSource);
+                realLauncher.addContext(context);
+            }
+
+            assertEquals(9, realLauncher.doMigrations());
+
+            ShardRolloutSummary summary = realLauncher.getLastShardRollout();
+            assertEquals(3, summary.getShardCount(ShardProgress.SUCCEEDED));
+            assertEquals(9, summary.getPatchCount());
+            for (ShardProgress shard : summary.getShards())
+            {
+                assertEquals(shard.getShardName(), 3, shard.getPatchCount());
+            }
+            for (int i = 0; i < shards.length; i++)
+            {
+                assertEquals(3, count(shards[i], "SELECT COUNT(*) FROM patches "
+                        + "WHERE system_name = 'shards' AND patch_level > 0"));
+                assertEquals(3, count(shards[i], "SELECT patch_level FROM patch_summary "
+                        + "WHERE system_name = 'shards'"));
+                assertEquals(1, count(shards[i], "SELECT COUNT(*) FROM widened"));
+            }
+        }
+        finally
+        {
+            for (int i = 0; i < shards.length; i++)
+            {
+                if (shards[i] != null)
+                {
+                    shards[i].createStatement().execute("SHUTDOWN");
+                }
+            }
+        }
+    }
+
+    /**
+     * Host names are found in the common JDBC URL forms.
+     */
+    public void testHostIsTakenFromUrl()
+    {
+        assertEquals("db1", ShardRolloutExecutor.parseHost("jdbc:postgresql://db1:5432/tenant"));
+        assertEquals("db1", ShardRolloutExecutor.parseHost("jdbc:mysql://db1/tenant"));
+        assertEquals("db1", ShardRolloutExecutor.parseHost("jdbc:sqlserver://db1;databaseName=tenant"));
+        assertEquals("db1", ShardRolloutExecutor.parseHost("jdbc:oracle:thin:@db1:1521:tenant"));
+        assertEquals("db1", ShardRolloutExecutor.parseHost("jdbc:oracle:thin:@//db1:1521/tenant"));
+        assertNull(ShardRolloutExecutor.parseHost("jdbc:hsqldb:mem:tenant"));
+        assertNull(ShardRolloutExecutor.parseHost(null));
+    }
+
+    /**
+     * Runs a query returning a single number.
+     *
+     * @param conn the connection to run the query on
+     * @param sql  the query
+     * @return the number
+     * @throws Exception if the query fails
+     */
+    private int count(Connection conn, String sql) throws Exception
+    {
+        ResultSet rs = conn.createStatement().executeQuery(sql);
+        assertTrue(rs.next());
+        return rs.getInt(1);
+    }
+
+    /**
+     * Adds a shard on the given host to the launcher.
+     *
+     * @param name the name of the shard
+     * @param host the host of the shard
+     */
+    private void addShard(String name, String host)
+    {
+        NonPooledDataSource dataSource = new NonPooledDataSource();
+        dataSource.setDatabaseUrl("jdbc:postgresql://" + host + ":5432/" + name);
+        DataSourceMigrationContext context = new DataSourceMigrationContext();
+        context.setDatabaseType(new DatabaseType("postgres"));
+        context.setDatabaseName(name);
+        context.setDataSource(dataSource);
+        launcher.addContext(context);
+    }
+
+    /**
+     * Pretends to patch each context, applying two patches unless told to fail,
+     * and keeps track of how many contexts are patched at once.
+     */
+    private static class ShardLauncher extends JdbcMigrationLauncher
+    {
+        /** the shards that fail to patch */
+        private Set<String> failing = new HashSet<String>();
+
+        /** the shards that were patched */
+        private Set<String> patched = Collections.synchronizedSet(new HashSet<String>());
+
+        /** the number of shards being patched */
+        private AtomicInteger running = new AtomicInteger();
+
+        /** the most shards patched at once */
+        private AtomicInteger maxRunning = new AtomicInteger();
+
+        /** the number of shards being patched per host */
+        private Map<String, AtomicInteger> runningOnHost = new HashMap<String, AtomicInteger>();
+
+        /** the most shards patched at once on one host */
+        private AtomicInteger maxRunningOnHost = new AtomicInteger();
+
+        /** the number of shards patched without a shared discovery scope */
+        private AtomicInteger unscoped = new AtomicInteger();
+
+        /**
+         * {@inheritDoc}
+         */
+        protected int doMigrations(JdbcMigrationContext context) throws MigrationException
+        {
+            String host = ShardRolloutExecutor.parseHost(
+                    ((NonPooledDataSource) ((DataSourceMigrationContext) context).getDataSource())
+                            .getDatabaseUrl());
+            AtomicInteger onHost;
+            synchronized (runningOnHost)
+            {
+                onHost = runningOnHost.get(host);
+                if (onHost == null)
+                {
+                    onHost = new AtomicInteger();
+                    runningOnHost.put(host, onHost);
+                }
+            }
+            if (!ResourceDiscoveryCache.isOpen())
+            {
+                unscoped.incrementAndGet();
+            }
+            record(maxRunning, running.incrementAndGet());
+            record(maxRunningOnHost, onHost.incrementAndGet());
+            try
+            {
+                Thread.sleep(20);
+                if (failing.contains(context.getDatabaseName()))
+                {
+                    throw new MigrationException("Shard " + context.getDatabaseName() + " is broken");
+                }
+                patched.add(context.getDatabaseName());
+                return 2;
+            }
+            catch (InterruptedException e)
+            {
+                throw new MigrationException("Interrupted", e);
+            }
+            finally
+            {
+                onHost.decrementAndGet();
+                running.decrementAndGet();
+            }
+        }
+
+        /**
+         * Raises the maximum to the given value if it is higher.
+         *
+         * @param max   the maximum so far
+         * @param value the current value
+         */
+        private void record(AtomicInteger max, int value)
+        {
+            int current;
+            do
+            {
+                current = max.get();
+            }
+            while ((value > current) && !max.compareAndSet(current, value));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.SQLWarning;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the <code>SlowStatementMonitor</code>.
+ */
+public class SlowStatementMonitorTest extends TestCase
+{
+    /**
+     * The number of nanoseconds in a millisecond
+     */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * The context the scripts run in
+     */
+    private DataSourceMigrationContext context = new DataSourceMigrationContext();
+
+    /**
+     * Ensures the slowest statements of a script are ranked, slowest first,
+     * and only as many as the summary size are kept.
+     */
+    public void testRanksSlowestStatements()
+    {
+        SlowStatementMonitor monitor = new SlowStatementMonitor(1000, 3);
+        monitor.scriptStarted(context, "patch0001", 5);
+        long[] millis = {20, 5, 40, 1, 30};
+        for (int i = 0; i < millis.length; i++)
+        {
+            monitor.statementExecuted(context, execution(i, millis[i]));
+        }
+        assertTrue(monitor.getSlowestStatements(context).isEmpty());
+        monitor.scriptFinished(context, "patch0001", true);
+
+        List<StatementExecution> slowest = monitor.getSlowestStatements(context);
+        assertEquals(3, slowest.size());
+        assertEquals(2, slowest.get(0).getIndex());
+        assertEquals(4, slowest.get(1).getIndex());
+        assertEquals(0, slowest.get(2).getIndex());
+    }
+
+    /**
+     * Ensures each context keeps its own ranking.
+     */
+    public void testContextsAreRankedSeparately()
+    {
+        DataSourceMigrationContext other = new DataSourceMigrationContext();
+        SlowStatementMonitor monitor = new SlowStatementMonitor(0, 5);
+        monitor.scriptStarted(context, "patch0001", 1);
+        monitor.scriptStarted(other, "patch0001", 1);
+        monitor.statementExecuted(context, execution(0, 10));
+        monitor.statementExecuted(other, execution(0, 20));
+        monitor.statementExecuted(other, execution(1, 30));
+        monitor.scriptFinished(context, "patch0001", true);
+        monitor.scriptFinished(other, "patch0001", false);
+
+        assertEquals(1, monitor.getSlowestStatements(context).size());
+        assertEquals(2, monitor.getSlowestStatements(other).size());
+    }
+
+    /**
+     * Ensures the summary lists the statements in rank order on one line each.
+     */
+    public void testFormatSummary()
+    {
+        SlowStatementMonitor monitor = new SlowStatementMonitor(0, 5);
+        monitor.scriptStarted(context, "patch0001", 2);
+        monitor.statementExecuted(context, execution(0, 7));
+        monitor.statementExecuted(context, execution(1, 9));
+        monitor.scriptFinished(context, "patch0001", true);
+
+        String summary = SlowStatementMonitor.formatSummary("patch0001",
+                monitor.getSlowestStatements(context));
+        assertEquals("Slowest statements of patch0001:\n"
+                + "  1. 9 ms, statement 1: update t set c = 1\n"
+                + "  2. 7 ms, statement 0: update t set c = 0", summary);
+    }
+
+    /**
+     * Ensures chained warnings are kept as messages.
+     */
+    public void testWarningsAreFlattened()
+    {
+        SQLWarning warning = new SQLWarning("first");
+        warning.setNextWarning(new SQLWarning("second"));
+        StatementExecution execution =
+                new StatementExecution("patch0001", 0, "drop table t", 0, 0, warning, null);
+        assertEquals(2, execution.getWarnings().size());
+        assertEquals("second", execution.getWarnings().get(1));
+    }
+
+    /**
+     * Ensures a negative threshold is refused.
+     */
+    public void testNegativeThresholdIsRefused()
+    {
+        try
+        {
+            new SlowStatementMonitor(-1, 5);
+            fail("a negative threshold should be refused");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Creates an execution of a statement.
+     *
+     * @param index  the position of the statement in the script
+     * @param millis how long the statement took
+     * @return the statement execution
+     */
+    private StatementExecution execution(int index, long millis)
+    {
+        return new StatementExecution("patch0001", index, "update t\n  set c = " + index,
+                millis * NANOS_PER_MILLI, 1, null, null);
+    }
+}
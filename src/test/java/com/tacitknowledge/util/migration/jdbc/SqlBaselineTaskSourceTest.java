@@ -0,0 +1,204 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.MigrationTask;
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+
+/**
+ * Exercises finding schema baselines, and bringing an empty in-memory HSQLDB
+ * up to one before its later patches are applied.
+ */
+public class SqlBaselineTaskSourceTest extends TestCase
+{
+    /**
+     * The package holding the baselines and patches
+     */
+    private static final String PACKAGE = "com.tacitknowledge.util.migration.jdbc.baseline";
+
+    /**
+     * The URL of the in-memory database
+     */
+    private static final String URL = "jdbc:hsqldb:mem:baseline";
+
+    /**
+     * A connection to the in-memory database, for checking the results
+     */
+    private Connection conn = null;
+
+    /**
+     * The launcher under test
+     */
+    private JdbcMigrationLauncher launcher = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Class.forName("org.hsqldb.jdbcDriver");
+        conn = DriverManager.getConnection(URL, "sa", "");
+
+        NonPooledDataSource dataSource = new NonPooledDataSource();
+        dataSource.setDriverClass("org.hsqldb.jdbcDriver");
+        dataSource.setDatabaseUrl(URL);
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+
+        DataSourceMigrationContext context = new DataSourceMigrationContext();
+        context.setDatabaseType(new DatabaseType("hsqldb"));
+        context.setSystemName("baseline");
+        context.setDataSource(dataSource);
+
+        launcher = new JdbcMigrationLauncher();
+        launcher.setMigrationProcess(launcher.getNewMigrationProcess());
+        launcher.setPatchPath(PACKAGE);
+        launcher.addContext(context);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        conn.createStatement().execute("SHUTDOWN");
+        super.tearDown();
+    }
+
+    /**
+     * Tests that baselines are found with their level and type of database,
+     * and aren't mistaken for patches.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testBaselinesAreFound() throws Exception
+    {
+        List<MigrationTask> baselines = new SqlBaselineTaskSource().getMigrationTasks(PACKAGE);
+        assertEquals(3, baselines.size());
+
+        int hsqldb = 0;
+        for (MigrationTask task : baselines)
+        {
+            SqlBaselineMigrationTask baseline = (SqlBaselineMigrationTask) task;
+            assertEquals(baseline.getName(), "baseline" + baseline.getLevel() + "."
+                    + baseline.getDatabaseType() + ".sql");
+            if (baseline.isFor(new DatabaseType("hsqldb")))
+            {
+                hsqldb++;
+            }
+        }
+        assertEquals(2, hsqldb);
+        assertEquals(3, new SqlScriptMigrationTaskSource().getMigrationTasks(PACKAGE).size());
+    }
+
+    /**
+     * Tests that an empty database gets the newest baseline for its type, and
+     * only the patches after it.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testEmptyDatabaseStartsFromBaseline() throws Exception
+    {
+        launcher.setBaselineEnabled(true);
+
+        assertEquals(1, launcher.doMigrations());
+
+        assertEquals(2, count("SELECT COUNT(*) FROM baselined"));
+        assertEquals(3, count("SELECT COUNT(*) FROM patches WHERE system_name = 'baseline' AND patch_level > 0"));
+        assertEquals(3, count("SELECT patch_level FROM patch_summary WHERE system_name = 'baseline'"));
+        assertEquals(0, launcher.doMigrations());
+    }
+
+    /**
+     * Tests that where DDL is transactional, a baseline whose patch levels
+     * can't be recorded is rolled back with them.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testBaselineIsRolledBackWithItsLevels() throws Exception
+    {
+        DataSourceMigrationContext context =
+            (DataSourceMigrationContext) launcher.getContexts().keySet().iterator().next();
+        context.setDatabaseType(new DatabaseType("hsqldb")
+        {
+            public boolean isTransactionalDdlSupported()
+            {
+                return true;
+            }
+
+            public String getProperty(String propertyName)
+            {
+                if ("summary.level.update".equals(propertyName))
+                {
+                    return "UPDATE no_such_table SET patch_level = ? WHERE system_name = ? AND patch_level < ?";
+                }
+                return super.getProperty(propertyName);
+            }
+        });
+        launcher.setBaselineEnabled(true);
+
+        try
+        {
+            launcher.doMigrations();
+            fail("Recording the baseline's patch levels should have failed");
+        }
+        catch (MigrationException e)
+        {
+            // expected
+        }
+
+        assertEquals(0, count("SELECT COUNT(*) FROM baselined"));
+        assertEquals(0, count("SELECT COUNT(*) FROM patches WHERE system_name = 'baseline' AND patch_level > 0"));
+    }
+
+    /**
+     * Tests that every patch is replayed when baselines aren't enabled.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testPatchesAreReplayedWithoutBaseline() throws Exception
+    {
+        assertEquals(3, launcher.doMigrations());
+
+        assertEquals(2, count("SELECT COUNT(*) FROM baselined"));
+        assertEquals(3, count("SELECT patch_level FROM patch_summary WHERE system_name = 'baseline'"));
+    }
+
+    /**
+     * Runs a query returning a single number.
+     *
+     * @param sql the query
+     * @return the number
+     * @throws Exception if the query fails
+     */
+    private int count(String sql) throws Exception
+    {
+        ResultSet rs = conn.createStatement().executeQuery(sql);
+        rs.next();
+        int count = rs.getInt(1);
+        rs.close();
+        return count;
+    }
+}
@@ -0,0 +1,161 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.jdbc.loader.DelimitedFileLoader;
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+
+/**
+ * Exercises <code>SqlLoadMigrationTask</code> against an in-memory HSQLDB.
+ */
+public class SqlLoadMigrationTaskTest extends TestCase
+{
+    /**
+     * The URL of the in-memory database
+     */
+    private static final String URL = "jdbc:hsqldb:mem:sqlload";
+
+    /**
+     * A connection to the in-memory database
+     */
+    private Connection conn = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Class.forName("org.hsqldb.jdbcDriver");
+        conn = DriverManager.getConnection(URL, "sa", "");
+        conn.createStatement().execute("CREATE TABLE loaded (id INT, name VARCHAR(32))");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        conn.createStatement().execute("SHUTDOWN");
+        super.tearDown();
+    }
+
+    /**
+     * Tests that a file whose row count is a multiple of the batch size loads
+     * without sending an empty batch, which HSQLDB rejects.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testLoadRowsFillingWholeBatches() throws Exception
+    {
+        assertEquals(100, load(100));
+    }
+
+    /**
+     * Tests that the rows after the last whole batch are loaded.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testLoadRowsInPartialBatch() throws Exception
+    {
+        assertEquals(73, load(73));
+    }
+
+    /**
+     * Loads the given number of rows and returns the number of rows in the table.
+     *
+     * @param rows the number of rows to load
+     * @return the number of rows in the table afterwards
+     * @throws Exception if an unexpected error occurs
+     */
+    private int load(int rows) throws Exception
+    {
+        StringBuffer data = new StringBuffer("id|name\n");
+        for (int i = 0; i < rows; i++)
+        {
+            data.append(i).append("|name").append(i).append('\n');
+        }
+        // The task closes its connection when done, so it gets one of its own
+        NonPooledDataSource dataSource = new NonPooledDataSource();
+        dataSource.setDriverClass("org.hsqldb.jdbcDriver");
+        dataSource.setDatabaseUrl(URL);
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        DataSourceMigrationContext context = new DataSourceMigrationContext();
+        context.setDataSource(dataSource);
+        context.setDatabaseType(new DatabaseType("hsqldb"));
+        new TestLoader(data.toString()).migrate(context);
+
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM loaded");
+        rs.next();
+        return rs.getInt(1);
+    }
+
+    /**
+     * Loads pipe-delimited rows from a string into the <code>loaded</code> table
+     */
+    private static class TestLoader extends DelimitedFileLoader
+    {
+        /**
+         * The rows to load, header first
+         */
+        private final String data;
+
+        /**
+         * Creates a loader of the given rows.
+         *
+         * @param data the rows to load, header first
+         */
+        public TestLoader(String data)
+        {
+            this.data = data;
+        }
+
+        /**
+         * @see com.tacitknowledge.util.migration.MigrationTask#getName()
+         */
+        public String getName()
+        {
+            return "loaded_db.dat";
+        }
+
+        /**
+         * @see com.tacitknowledge.util.migration.jdbc.loader.DelimitedFileLoader#getDelimiter()
+         */
+        public String getDelimiter()
+        {
+            return "|";
+        }
+
+        /**
+         * @see com.tacitknowledge.util.migration.jdbc.SqlLoadMigrationTask#getResourceAsStream()
+         */
+        protected InputStream getResourceAsStream()
+        {
+            return new ByteArrayInputStream(data.getBytes());
+        }
+    }
+}
@@ -20,6 +20,8 @@ import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -293,6 +295,7 @@ public class SqlScriptMigrationTaskTest extends JDBCTestCaseAdapter
 	statementControl.setMatcher(MockControl.ALWAYS_MATCHER);
 	statementControl.setReturnValue(true, MockControl.ONE_OR_MORE);
 	statementControl.expectAndReturn(statement.isClosed(), false, MockControl.ONE_OR_MORE);
+	statementControl.expectAndReturn(statement.getUpdateCount(), -1, MockControl.ONE_OR_MORE);
 	statement.close();
 	statementControl.setVoidCallable(MockControl.ONE_OR_MORE);
 
@@ -327,4 +330,48 @@ public class SqlScriptMigrationTaskTest extends JDBCTestCaseAdapter
 	connectionControl.verify();
     }
 
+    /**
+     * Ensures statement listeners hear about each statement of the script,
+     * in order, between the start and the end of the script.
+     * 
+     * @throws Exception if the test patch can't be read or run
+     */
+    public void testStatementListenersAreNotifiedOfEachStatement() throws Exception
+    {
+	InputStream is = getClass().getResourceAsStream("test/patch0001.sql");
+	task = new SqlScriptMigrationTask("patch0001", 1, is);
+	is.close();
+	context.setDatabaseType(new DatabaseType("oracle"));
+
+	final List events = new ArrayList();
+	context.addStatementListener(new StatementListener()
+	{
+	    public void scriptStarted(JdbcMigrationContext ctx, String taskName,
+		    int statementCount)
+	    {
+		events.add("started " + taskName + " " + statementCount);
+	    }
+
+	    public void statementExecuted(JdbcMigrationContext ctx,
+		    StatementExecution execution)
+	    {
+		assertTrue(execution.isSuccessful());
+		assertTrue(execution.getDurationNanos() >= 0);
+		events.add("statement " + execution.getIndex());
+	    }
+
+	    public void scriptFinished(JdbcMigrationContext ctx, String taskName,
+		    boolean successful)
+	    {
+		events.add("finished " + taskName + " " + successful);
+	    }
+	});
+
+	task.migrate(context);
+
+	assertEquals(Arrays.asList(new String[] {"started patch0001 3",
+		"statement 0", "statement 1", "statement 2",
+		"finished patch0001 true"}), events);
+    }
+
 }
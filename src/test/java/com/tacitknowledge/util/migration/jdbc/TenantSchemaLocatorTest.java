@@ -0,0 +1,127 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+
+/**
+ * Exercises finding the tenant schemas of an in-memory HSQLDB.
+ */
+public class TenantSchemaLocatorTest extends TestCase
+{
+    /**
+     * The URL of the in-memory database
+     */
+    private static final String URL = "jdbc:hsqldb:mem:tenantlocator";
+
+    /**
+     * A connection to the in-memory database
+     */
+    private Connection conn = null;
+
+    /**
+     * The shared data source
+     */
+    private NonPooledDataSource dataSource = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Class.forName("org.hsqldb.jdbcDriver");
+        conn = DriverManager.getConnection(URL, "sa", "");
+        Statement stmt = conn.createStatement();
+        stmt.execute("CREATE SCHEMA TENANT_A AUTHORIZATION DBA");
+        stmt.execute("CREATE SCHEMA TENANT_B AUTHORIZATION DBA");
+        stmt.execute("CREATE SCHEMA OLD_TENANT_C AUTHORIZATION DBA");
+        stmt.execute("CREATE SCHEMA REPORTING AUTHORIZATION DBA");
+        stmt.execute("CREATE SCHEMA \"TENANT_D; DROP\" AUTHORIZATION DBA");
+        SqlUtil.close(null, stmt, null);
+
+        dataSource = new NonPooledDataSource();
+        dataSource.setDriverClass("org.hsqldb.jdbcDriver");
+        dataSource.setDatabaseUrl(URL);
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        Statement stmt = conn.createStatement();
+        stmt.execute("SHUTDOWN");
+        SqlUtil.close(conn, stmt, null);
+        super.tearDown();
+    }
+
+    /**
+     * Tests that only schemas whose whole name matches the pattern are found,
+     * and that names which aren't plain identifiers are skipped.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testOnlyWholeMatchingIdentifiersAreFound() throws Exception
+    {
+        Set<String> schemas = createLocator("TENANT_.*").findTenantSchemas();
+        assertEquals(2, schemas.size());
+        assertTrue(schemas.contains("TENANT_A"));
+        assertTrue(schemas.contains("TENANT_B"));
+
+        assertTrue(createLocator("TENANT").findTenantSchemas().isEmpty());
+        assertEquals(1, createLocator(".*_C").findTenantSchemas().size());
+    }
+
+    /**
+     * Tests that a context is created for each tenant schema, in order.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testContextIsCreatedPerTenant() throws Exception
+    {
+        List<TenantSchemaMigrationContext> contexts =
+                createLocator("(OLD_)?TENANT_[A-Z]").createTenantContexts();
+        assertEquals(3, contexts.size());
+        assertEquals("OLD_TENANT_C", contexts.get(0).getSchemaName());
+        assertEquals("TENANT_A", contexts.get(1).getSchemaName());
+        assertEquals("TENANT_B", contexts.get(2).getSchemaName());
+        assertEquals("tenants", contexts.get(0).getSystemName());
+        assertSame(dataSource, contexts.get(0).getDataSource());
+    }
+
+    /**
+     * Creates a locator of the tenants in the in-memory database.
+     *
+     * @param pattern the pattern tenant schema names match
+     * @return the locator
+     */
+    private TenantSchemaLocator createLocator(String pattern)
+    {
+        return new TenantSchemaLocator(dataSource, new DatabaseType("hsqldb"), "tenants", pattern);
+    }
+}
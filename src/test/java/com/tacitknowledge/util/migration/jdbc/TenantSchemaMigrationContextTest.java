@@ -0,0 +1,154 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import com.tacitknowledge.util.migration.jdbc.util.SqlUtil;
+
+/**
+ * Exercises switching pooled connections of an in-memory HSQLDB to a tenant
+ * schema and back.
+ */
+public class TenantSchemaMigrationContextTest extends TestCase
+{
+    /**
+     * The one connection the pool hands out
+     */
+    private Connection conn = null;
+
+    /**
+     * The context under test
+     */
+    private TenantSchemaMigrationContext context = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Class.forName("org.hsqldb.jdbcDriver");
+        conn = DriverManager.getConnection("jdbc:hsqldb:mem:tenantcontext", "sa", "");
+        conn.createStatement().execute("CREATE SCHEMA TENANT_A AUTHORIZATION DBA");
+
+        // a pool of one connection, which closing hands back instead of closing
+        final Connection physical = conn;
+        Connection pooled = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {Connection.class}, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                        throws Throwable
+                    {
+                        if ("close".equals(method.getName()))
+                        {
+                            return null;
+                        }
+                        if ("isClosed".equals(method.getName()))
+                        {
+                            return Boolean.FALSE;
+                        }
+                        return method.invoke(physical, args);
+                    }
+                });
+        DataSource dataSource = EasyMock.createMock(DataSource.class);
+        EasyMock.expect(dataSource.getConnection()).andReturn(pooled).anyTimes();
+        EasyMock.replay(dataSource);
+
+        context = new TenantSchemaMigrationContext("TENANT_A");
+        context.setDatabaseType(new DatabaseType("hsqldb"));
+        context.setSystemName("tenants");
+        context.setDataSource(dataSource);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        conn.createStatement().execute("SHUTDOWN");
+        super.tearDown();
+    }
+
+    /**
+     * Tests that a connection is in the tenant's schema while handed out, and
+     * back in its own when released to the pool.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testSchemaIsRestoredWhenConnectionIsReleased() throws Exception
+    {
+        assertEquals("PUBLIC", currentSchema(conn));
+
+        Connection tenant = context.getConnection();
+        assertEquals("TENANT_A", currentSchema(tenant));
+        assertSame(tenant, context.getConnection());
+        tenant.close();
+        assertEquals("PUBLIC", currentSchema(conn));
+
+        Connection again = context.getConnection();
+        assertEquals("TENANT_A", currentSchema(again));
+        again.close();
+        assertEquals("PUBLIC", currentSchema(conn));
+    }
+
+    /**
+     * Tests that the connection of a transaction group is switched back when
+     * the group ends.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testSchemaIsRestoredWhenTransactionGroupEnds() throws Exception
+    {
+        context.beginTransactionGroup();
+        Connection grouped = context.getConnection();
+        assertEquals("TENANT_A", currentSchema(grouped));
+        grouped.close();
+        assertEquals("TENANT_A", currentSchema(conn));
+
+        context.endTransactionGroup();
+        assertEquals("PUBLIC", currentSchema(conn));
+    }
+
+    /**
+     * Reads the current schema of a connection.
+     *
+     * @param connection the connection
+     * @return the name of its current schema
+     * @throws Exception if an unexpected error occurs
+     */
+    private String currentSchema(Connection connection) throws Exception
+    {
+        Statement stmt = connection.createStatement();
+        ResultSet rs = stmt.executeQuery("CALL CURRENT_SCHEMA");
+        rs.next();
+        String schema = rs.getString(1);
+        SqlUtil.close(null, stmt, rs);
+        return schema;
+    }
+}
@@ -0,0 +1,127 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+
+import javax.naming.InitialContext;
+import javax.servlet.ServletContextEvent;
+
+import junit.framework.TestCase;
+
+import org.mockejb.jndi.MockContextFactory;
+
+import com.mockrunner.mock.web.MockServletContext;
+import com.tacitknowledge.util.migration.jdbc.util.NonPooledDataSource;
+
+/**
+ * Exercises migrating an in-memory HSQLDB in the background from the JNDI
+ * web-app launcher.
+ */
+public class WebAppJNDIMigrationLauncherTest extends TestCase
+{
+    /**
+     * The URL of the in-memory database
+     */
+    private static final String URL = "jdbc:hsqldb:mem:jndiasync";
+
+    /**
+     * The JNDI name of the data source
+     */
+    private static final String DATA_SOURCE = "java:comp/env/jdbc/asyncsource";
+
+    /**
+     * A connection to the in-memory database, for checking the results
+     */
+    private Connection conn = null;
+
+    /**
+     * The launcher factory named by other tests, restored afterwards
+     */
+    private String factory = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Class.forName("org.hsqldb.jdbcDriver");
+        conn = DriverManager.getConnection(URL, "sa", "");
+        MockContextFactory.setAsInitial();
+        new InitialContext().createSubcontext("java");
+        factory = System.getProperty("migration.factory");
+        System.getProperties().remove("migration.factory");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        if (factory != null)
+        {
+            System.setProperty("migration.factory", factory);
+        }
+        new InitialContext().destroySubcontext("java");
+        MockContextFactory.revertSetAsInitial();
+        conn.createStatement().execute("SHUTDOWN");
+        super.tearDown();
+    }
+
+    /**
+     * Tests that the launcher is configured on the container's thread, so the
+     * data source need only be in JNDI while the context starts, and that
+     * stopping the context waits for the migration.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testAsyncMigration() throws Exception
+    {
+        NonPooledDataSource dataSource = new NonPooledDataSource();
+        dataSource.setDriverClass("org.hsqldb.jdbcDriver");
+        dataSource.setDatabaseUrl(URL);
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        new InitialContext().bind(DATA_SOURCE, dataSource);
+
+        MockServletContext sc = new MockServletContext();
+        sc.setRealPath("/WEB-INF", new File(System.getProperty("java.io.tmpdir")).getPath());
+        sc.setInitParameter("migration.systemname", "jndiasync");
+        sc.setInitParameter("migration.databasetype", "hsqldb");
+        sc.setInitParameter("migration.patchpath", "com.tacitknowledge.util.migration.jdbc.alter");
+        sc.setInitParameter("migration.datasource", "jdbc/asyncsource");
+        sc.setInitParameter("migration.async", "true");
+        ServletContextEvent sce = new ServletContextEvent(sc);
+
+        WebAppJNDIMigrationLauncher listener = new WebAppJNDIMigrationLauncher();
+        listener.contextInitialized(sce);
+        new InitialContext().unbind(DATA_SOURCE);
+        listener.contextDestroyed(sce);
+
+        MigrationReadiness readiness =
+                (MigrationReadiness) sc.getAttribute(MigrationReadiness.ATTRIBUTE);
+        assertTrue(String.valueOf(readiness.getFailure()), readiness.isReady());
+        assertEquals(3, readiness.getPatchesApplied());
+        ResultSet rs = conn.createStatement().executeQuery(
+                "SELECT patch_level FROM patch_summary WHERE system_name = 'jndiasync'");
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+    }
+}
@@ -0,0 +1,233 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tacitknowledge.util.migration.jdbc.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+
+import junit.framework.TestCase;
+
+import com.tacitknowledge.util.migration.jdbc.DatabaseType;
+
+/**
+ * Exercises migrating a template HSQLDB database once and handing out copies
+ * of it.
+ */
+public class MigratedDatabaseCacheTest extends TestCase
+{
+    /**
+     * The package holding the patches
+     */
+    private static final String PACKAGE = "com.tacitknowledge.util.migration.jdbc.baseline";
+
+    /**
+     * The directory the cache keeps its snapshots in
+     */
+    private File cacheDirectory = null;
+
+    /**
+     * The cache under test
+     */
+    private MigratedDatabaseCache cache = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        cacheDirectory = new File("target/migrated-database-cache");
+        delete(cacheDirectory);
+        cacheDirectory.mkdirs();
+        cache = newCache();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        cache.release("one");
+        cache.release("two");
+        super.tearDown();
+    }
+
+    /**
+     * Tests that each database handed out is migrated, and independent of the
+     * others.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testDatabasesAreMigratedCopies() throws Exception
+    {
+        NonPooledDataSource one = cache.createDatabase("one");
+        NonPooledDataSource two = cache.createDatabase("two");
+
+        assertEquals(2, count(one, "SELECT COUNT(*) FROM baselined"));
+        assertEquals(3, count(one, "SELECT patch_level FROM patch_summary WHERE system_name = 'cached'"));
+
+        execute(one, "INSERT INTO baselined VALUES (4)");
+        assertEquals(3, count(one, "SELECT COUNT(*) FROM baselined"));
+        assertEquals(2, count(two, "SELECT COUNT(*) FROM baselined"));
+
+        cache.release("one");
+        one = cache.createDatabase("one");
+        assertEquals(2, count(one, "SELECT COUNT(*) FROM baselined"));
+    }
+
+    /**
+     * Tests that the snapshot of an unchanged catalog is reused by later runs,
+     * and those of other catalogs are removed once they have gone unused for
+     * the stale snapshot age.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testSnapshotIsKeptPerCatalog() throws Exception
+    {
+        File stale = new File(cacheDirectory, "cached-hsqldb-0123456789abcdef");
+        stale.mkdirs();
+        new File(stale, "template.script").createNewFile();
+        stale.setLastModified(System.currentTimeMillis() - cache.getStaleSnapshotAge() - 60000);
+        File inUse = new File(cacheDirectory, "cached-hsqldb-fedcba9876543210");
+        inUse.mkdirs();
+        new File(inUse, "template.script").createNewFile();
+
+        File snapshot = cache.getSnapshotDirectory();
+        assertTrue(snapshot.isDirectory());
+        assertTrue(new File(snapshot, "template.script").isFile());
+        assertFalse(stale.exists());
+        assertTrue(inUse.exists());
+
+        File marker = new File(snapshot, "marker");
+        marker.createNewFile();
+        assertEquals(snapshot, newCache().getSnapshotDirectory());
+        assertTrue(marker.exists());
+    }
+
+    /**
+     * Tests that post-patch tasks are part of what a snapshot is kept for.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testSnapshotCoversPostPatchTasks() throws Exception
+    {
+        File snapshot = cache.getSnapshotDirectory();
+
+        MigratedDatabaseCache withPostPatch = newCache();
+        withPostPatch.setPostPatchPath("com.tacitknowledge.util.migration.jdbc.postpatch");
+        File postPatchSnapshot = withPostPatch.getSnapshotDirectory();
+        assertFalse(snapshot.equals(postPatchSnapshot));
+        NonPooledDataSource refreshed = withPostPatch.createDatabase("one");
+        assertEquals(3, count(refreshed, "SELECT COUNT(*) FROM baselined"));
+        withPostPatch.release("one");
+    }
+
+    /**
+     * Tests that databases can be kept under a path holding a quote.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testCacheDirectoryMayHoldQuotes() throws Exception
+    {
+        cacheDirectory = new File("target/migrated-database-cache/it's here");
+        cacheDirectory.mkdirs();
+        cache = newCache();
+
+        NonPooledDataSource one = cache.createDatabase("one");
+        assertTrue(one.getDatabaseUrl().indexOf("it's here") > 0);
+        assertEquals(2, count(one, "SELECT COUNT(*) FROM baselined"));
+    }
+
+    /**
+     * Creates a cache for the test patches.
+     *
+     * @return a new cache
+     */
+    private MigratedDatabaseCache newCache()
+    {
+        MigratedDatabaseCache newCache =
+            new MigratedDatabaseCache("cached", new DatabaseType("hsqldb"), cacheDirectory);
+        newCache.setPatchPath(PACKAGE);
+        return newCache;
+    }
+
+    /**
+     * Runs a query that returns a single number.
+     *
+     * @param dataSource the database to query
+     * @param sql        the query
+     * @return the number returned
+     * @throws Exception if an unexpected error occurs
+     */
+    private int count(NonPooledDataSource dataSource, String sql) throws Exception
+    {
+        Connection conn = dataSource.getConnection();
+        try
+        {
+            ResultSet rs = conn.createStatement().executeQuery(sql);
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+        finally
+        {
+            conn.close();
+        }
+    }
+
+    /**
+     * Runs an update.
+     *
+     * @param dataSource the database to update
+     * @param sql        the update
+     * @throws Exception if an unexpected error occurs
+     */
+    private void execute(NonPooledDataSource dataSource, String sql) throws Exception
+    {
+        Connection conn = dataSource.getConnection();
+        try
+        {
+            conn.createStatement().execute(sql);
+        }
+        finally
+        {
+            conn.close();
+        }
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     *
+     * @param file the file or directory to delete
+     * @throws IOException if it can't be deleted
+     */
+    private void delete(File file) throws IOException
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (int i = 0; i < children.length; i++)
+            {
+                delete(children[i]);
+            }
+        }
+        if (file.exists() && !file.delete())
+        {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+}
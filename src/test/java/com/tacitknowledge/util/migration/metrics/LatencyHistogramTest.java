@@ -0,0 +1,96 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * Exercise the LatencyHistogram
+ */
+public class LatencyHistogramTest extends TestCase
+{
+    /**
+     * Make sure every value lands in a bucket whose range holds it, and that the
+     * buckets are no wider than about 3% of their values
+     */
+    public void testBucketsHoldTheirValues()
+    {
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (int i = 0; i < values.length; i++)
+        {
+            int index = LatencyHistogram.indexOf(values[i]);
+            long highest = LatencyHistogram.highestValueOf(index);
+            long lowest = (index == 0) ? 0 : LatencyHistogram.highestValueOf(index - 1) + 1;
+            assertTrue(values[i] + " above its bucket", values[i] <= highest);
+            assertTrue(values[i] + " below its bucket", values[i] >= lowest);
+            assertTrue(values[i] + " in too wide a bucket", (highest - lowest) <= Math.max(0, lowest / 32));
+        }
+    }
+
+    /**
+     * Make sure percentiles come back within the histogram's precision
+     */
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++)
+        {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000000, histogram.getMaxNanos());
+        assertEquals(50005000000L, histogram.getSumNanos());
+        assertWithin(5000000, histogram.getValueAtPercentile(50));
+        assertWithin(9900000, histogram.getValueAtPercentile(99));
+        assertEquals(10000000, histogram.getValueAtPercentile(100));
+        assertWithin(1000, histogram.getValueAtPercentile(0));
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(5.0005, snapshot.getMeanMillis(), 0.0001);
+        assertEquals(10.0, snapshot.getMaxMillis(), 0.0001);
+    }
+
+    /**
+     * Make sure an empty or reset histogram reports nothing
+     */
+    public void testEmptyAndReset()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        histogram.record(-5);
+        histogram.record(42);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0.0, histogram.snapshot().getMeanMillis(), 0.0);
+    }
+
+    /**
+     * Asserts that the reported value is at or just above the expected one
+     *
+     * @param expected the exact value
+     * @param actual   the reported value
+     */
+    private void assertWithin(long expected, long actual)
+    {
+        assertTrue(actual + " is below " + expected, actual >= expected);
+        assertTrue(actual + " is too far above " + expected, actual <= expected + expected / 32);
+    }
+}
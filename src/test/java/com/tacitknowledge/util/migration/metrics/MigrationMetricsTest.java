@@ -0,0 +1,166 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.MigrationProcess;
+import com.tacitknowledge.util.migration.TestMigrationContext;
+import com.tacitknowledge.util.migration.tasks.normal.TestMigrationTask2;
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+/**
+ * Exercise the MigrationMetrics registry and its JMX and Prometheus views
+ */
+public class MigrationMetricsTest extends TestCase
+{
+    /**
+     * Make sure applying a patch is timed and counted in the default registry
+     *
+     * @throws MigrationException if the patch fails
+     */
+    public void testApplyingAPatchIsRecorded() throws MigrationException
+    {
+        MigrationMetrics metrics = MigrationMetrics.getDefault();
+        long applied = metrics.counter(MigrationMetrics.PATCHES_APPLIED).get();
+        long timed = metrics.histogram(MigrationMetrics.PATCH_DURATION).getCount();
+
+        new MigrationProcess().applyPatch(new TestMigrationContext(), new TestMigrationTask2(), false);
+
+        assertEquals(applied + 1, metrics.counter(MigrationMetrics.PATCHES_APPLIED).get());
+        assertEquals(timed + 1, metrics.histogram(MigrationMetrics.PATCH_DURATION).getCount());
+    }
+
+    /**
+     * Make sure the registry hands out the same instruments for the same names
+     */
+    public void testInstrumentsAreCreatedOnce()
+    {
+        MigrationMetrics metrics = new MigrationMetrics();
+        assertSame(metrics.histogram("a"), metrics.histogram("a"));
+        assertSame(metrics.counter("b"), metrics.counter("b"));
+        metrics.counter("b").addAndGet(3);
+        metrics.histogram("a").record(2000000);
+
+        assertEquals(Long.valueOf(3), metrics.getCounters().get("b"));
+        assertEquals(1, metrics.getHistograms().get("a").getCount());
+
+        metrics.reset();
+        assertEquals(Long.valueOf(0), metrics.getCounters().get("b"));
+        assertEquals(0, metrics.getHistograms().get("a").getCount());
+    }
+
+    /**
+     * Make sure a registry with a parent keeps its own samples, and records
+     * them in the parent too
+     */
+    public void testSamplesAreRecordedInParent()
+    {
+        MigrationMetrics parent = new MigrationMetrics();
+        MigrationMetrics first = new MigrationMetrics(parent);
+        MigrationMetrics second = new MigrationMetrics(parent);
+
+        first.increment(MigrationMetrics.PATCHES_APPLIED);
+        second.increment(MigrationMetrics.PATCHES_APPLIED);
+        second.increment(MigrationMetrics.PATCHES_APPLIED);
+        first.histogram(MigrationMetrics.LOCK_WAIT).record(1000);
+
+        assertEquals(1, first.counter(MigrationMetrics.PATCHES_APPLIED).get());
+        assertEquals(2, second.counter(MigrationMetrics.PATCHES_APPLIED).get());
+        assertEquals(3, parent.counter(MigrationMetrics.PATCHES_APPLIED).get());
+        assertEquals(0, second.histogram(MigrationMetrics.LOCK_WAIT).getCount());
+        assertEquals(1, parent.histogram(MigrationMetrics.LOCK_WAIT).getCount());
+    }
+
+    /**
+     * Make sure the default registry can be read over JMX
+     *
+     * @throws Exception if JMX fails
+     */
+    public void testMBean() throws Exception
+    {
+        MigrationMetrics metrics = MigrationMetrics.getDefault();
+        metrics.counter(MigrationMetrics.PATCHES_FAILED);
+        metrics.histogram(MigrationMetrics.LOCK_WAIT).record(1000);
+        metrics.registerMBean();
+        assertFalse(metrics.registerMBean());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MigrationMetrics.OBJECT_NAME);
+        TabularData counters = (TabularData) server.getAttribute(name, "Counters");
+        assertNotNull(counters.get(new Object[] {MigrationMetrics.PATCHES_FAILED}));
+        TabularData histograms = (TabularData) server.getAttribute(name, "Histograms");
+        assertNotNull(histograms.get(new Object[] {MigrationMetrics.LOCK_WAIT}));
+
+        assertFalse(new MigrationMetrics().unregisterMBean());
+        assertTrue(server.isRegistered(name));
+        assertTrue(metrics.unregisterMBean());
+        assertFalse(server.isRegistered(name));
+        assertFalse(metrics.unregisterMBean());
+    }
+
+    /**
+     * Make sure the Prometheus text format is written as expected
+     *
+     * @throws Exception if the file can't be written
+     */
+    public void testPrometheusText() throws Exception
+    {
+        MigrationMetrics metrics = new MigrationMetrics();
+        metrics.counter(MigrationMetrics.PATCHES_APPLIED).addAndGet(2);
+        metrics.histogram(MigrationMetrics.PATCH_DURATION).record(1000000000L);
+        metrics.histogram("odd.name-1").record(1);
+
+        StringWriter writer = new StringWriter();
+        PrometheusTextWriter.write(metrics, writer);
+        String text = writer.toString();
+        assertTrue(text, text.contains("# TYPE autopatch_patch_duration_seconds summary\n"));
+        assertTrue(text, text.contains("autopatch_patch_duration_seconds{quantile=\"0.99\"} 1.0\n"));
+        assertTrue(text, text.contains("autopatch_patch_duration_seconds_sum 1.0\n"));
+        assertTrue(text, text.contains("autopatch_patch_duration_seconds_count 1\n"));
+        assertTrue(text, text.contains("# TYPE autopatch_patches_applied_total counter\n"));
+        assertTrue(text, text.contains("autopatch_patches_applied_total 2\n"));
+        assertTrue(text, text.contains("autopatch_odd_name_1_seconds_count 1\n"));
+
+        File file = File.createTempFile("autopatch", ".prom");
+        try
+        {
+            PrometheusTextWriter.writeFile(metrics, file);
+            Properties written = new Properties();
+            FileInputStream in = new FileInputStream(file);
+            try
+            {
+                written.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+            assertEquals("2", written.getProperty("autopatch_patches_applied_total"));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
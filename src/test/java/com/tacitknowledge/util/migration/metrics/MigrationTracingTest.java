@@ -0,0 +1,202 @@
+/* Copyright 2004 Tacit Knowledge
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tacitknowledge.util.migration.metrics;
+
+import com.tacitknowledge.util.migration.MigrationContext;
+import com.tacitknowledge.util.migration.MigrationException;
+import com.tacitknowledge.util.migration.MigrationProcess;
+import com.tacitknowledge.util.migration.MigrationTask;
+import com.tacitknowledge.util.migration.MigrationTaskSource;
+import com.tacitknowledge.util.migration.MigrationTaskSupport;
+import com.tacitknowledge.util.migration.TestMigrationContext;
+import com.tacitknowledge.util.migration.tasks.normal.TestMigrationTask2;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exercise MigrationTracing and the spans emitted while patching
+ */
+public class MigrationTracingTest extends TestCase
+{
+    /** The tracer installed for each test */
+    private RecordingTracer tracer = null;
+
+    /**
+     * Install a recording tracer
+     */
+    protected void setUp()
+    {
+        tracer = new RecordingTracer();
+        MigrationTracing.setTracer(tracer);
+    }
+
+    /**
+     * Turn tracing back off
+     */
+    protected void tearDown()
+    {
+        MigrationTracing.setTracer(null);
+    }
+
+    /**
+     * Make sure a patch task is traced as one ended span
+     *
+     * @throws MigrationException if the patch fails
+     */
+    public void testPatchTaskIsTraced() throws MigrationException
+    {
+        new MigrationProcess().applyPatch(new TestMigrationContext(), new TestMigrationTask2(), false);
+
+        List<String> spans = tracer.getSpans();
+        assertEquals(1, spans.size());
+        String span = spans.get(0);
+        assertTrue(span, span.startsWith(MigrationTracing.MIGRATE + " TestTask2"));
+        assertTrue(span, span.endsWith(" ended"));
+    }
+
+    /**
+     * Make sure a failing patch task is traced as failed
+     */
+    public void testFailedPatchTaskIsTraced()
+    {
+        MigrationTaskSupport failing = new MigrationTaskSupport()
+        {
+            public void migrate(MigrationContext context) throws MigrationException
+            {
+                throw new MigrationException("broken");
+            }
+        };
+        failing.setName("failing");
+        failing.setLevel(new Integer(1));
+
+        try
+        {
+            new MigrationProcess().applyPatch(new TestMigrationContext(), failing, false);
+            fail("The patch should have failed");
+        }
+        catch (MigrationException e)
+        {
+            // we expect this
+        }
+
+        assertEquals(Collections.singletonList(MigrationTracing.MIGRATE
+                + " failing [" + failing.getClass().getName() + "] failed ended"), tracer.getSpans());
+    }
+
+    /**
+     * Make sure failed patch discovery still ends its span
+     */
+    public void testFailedDiscoveryIsTraced()
+    {
+        MigrationProcess process = new MigrationProcess();
+        process.addPatchResourcePackage("broken");
+        process.addMigrationTaskSource(new MigrationTaskSource()
+        {
+            public List<MigrationTask> getMigrationTasks(String packageName)
+                throws MigrationException
+            {
+                throw new MigrationException("unreadable " + packageName);
+            }
+        });
+
+        try
+        {
+            process.getMigrationTasks();
+            fail("Discovery should have failed");
+        }
+        catch (MigrationException e)
+        {
+            // we expect this
+        }
+
+        List<String> spans = tracer.getSpans();
+        assertEquals(1, spans.size());
+        assertTrue(spans.get(0), spans.get(0).startsWith(MigrationTracing.DISCOVERY + " "));
+        assertTrue(spans.get(0), spans.get(0).endsWith(" failed ended"));
+    }
+
+    /**
+     * Make sure nothing is traced, and no span is created, when tracing is off
+     */
+    public void testTracingOff()
+    {
+        MigrationTracing.setTracer(null);
+        TraceSpan first = MigrationTracing.begin(MigrationTracing.STATEMENT, "select 1");
+        TraceSpan second = MigrationTracing.begin(MigrationTracing.LOCK, "context");
+        assertSame(first, second);
+        first.fail(new Exception());
+        first.end();
+        assertTrue(tracer.getSpans().isEmpty());
+    }
+
+    /**
+     * Make sure tracers can be named by class, and bad names are survived
+     */
+    public void testCreateTracer()
+    {
+        assertNull(MigrationTracing.createTracer(null));
+        assertNull(MigrationTracing.createTracer(" "));
+        assertNull(MigrationTracing.createTracer("no.such.Tracer"));
+        assertTrue(MigrationTracing.createTracer(LoggingMigrationTracer.class.getName())
+                instanceof LoggingMigrationTracer);
+    }
+
+    /**
+     * Make sure the logging tracer copes with successful and failed spans
+     */
+    public void testLoggingTracer()
+    {
+        LoggingMigrationTracer logging = new LoggingMigrationTracer();
+        logging.begin(MigrationTracing.DISCOVERY, "patches").end();
+        TraceSpan failed = logging.begin(MigrationTracing.STATEMENT, "drop table missing");
+        failed.fail(new Exception("no such table"));
+        failed.end();
+    }
+
+    /**
+     * Records each span as "category name [failed] ended".
+     */
+    private static class RecordingTracer implements MigrationTracer
+    {
+        /** The spans ended so far */
+        private final List<String> spans = Collections.synchronizedList(new ArrayList<String>());
+
+        public TraceSpan begin(final String category, final String name)
+        {
+            return new TraceSpan()
+            {
+                private String outcome = "";
+
+                public void fail(Throwable cause)
+                {
+                    outcome = " failed";
+                }
+
+                public void end()
+                {
+                    spans.add(category + " " + name + outcome + " ended");
+                }
+            };
+        }
+
+        List<String> getSpans()
+        {
+            return new ArrayList<String>(spans);
+        }
+    }
+}
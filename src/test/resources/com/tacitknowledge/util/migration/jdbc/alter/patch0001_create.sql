@@ -0,0 +1 @@
+CREATE TABLE widened (id INT);
@@ -0,0 +1,2 @@
+ALTER TABLE widened ADD a INT;
+ALTER TABLE widened ADD b INT;
@@ -0,0 +1,2 @@
+ALTER TABLE widened ADD c INT;
+INSERT INTO widened (id, a, b, c) VALUES (1, 2, 3, 4);
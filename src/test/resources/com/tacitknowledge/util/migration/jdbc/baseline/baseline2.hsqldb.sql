@@ -0,0 +1,2 @@
+CREATE TABLE baselined (id INT);
+INSERT INTO baselined VALUES (2);
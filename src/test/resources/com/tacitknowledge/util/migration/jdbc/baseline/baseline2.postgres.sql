@@ -0,0 +1,2 @@
+CREATE TABLE baselined (id SERIAL);
+INSERT INTO baselined VALUES (2);
@@ -0,0 +1 @@
+INSERT INTO baselined VALUES (2);